@@ -16,6 +16,7 @@
 package org.glassfish.osgiejb;
 
 import org.glassfish.api.deployment.archive.Archive;
+import org.glassfish.api.deployment.archive.ReadableArchive;
 import org.glassfish.osgijavaeebase.OSGiBundleArchive;
 import org.glassfish.osgijavaeebase.OSGiJavaEEArchive;
 import org.glassfish.osgijavaeebase.URIable;
@@ -61,10 +62,9 @@ public final class EJBBundle extends OSGiJavaEEArchive {
         // appears ahead of . in BCP, bundle.getResource(p/A.class) will return
         // bin/p/A.class.
         // So,our merged namespace must also contain bin/p/A.class.
-        // The simplest way to achieve this is to collect entries from the
-        // subarchives in the reverse
-        // order of bundle classpath and put them into a hasmap with entry name
-        // being the key.
+        // The simplest way to achieve this is to add the subarchives in the
+        // reverse order of bundle classpath, as entries of the sources added
+        // last take precedence.
         // See https://glassfish.dev.java.net/issues/show_bug.cgi?id=14268
         final EffectiveBCP bcp = getEffectiveBCP();
         List<BCPEntry> bcpEntries = new ArrayList(bcp.getBCPEntries());
@@ -82,59 +82,78 @@ public final class EJBBundle extends OSGiJavaEEArchive {
                 public void visitJar(final JarBCPEntry bcpEntry) {
                     // do special processing for Bundle-ClassPath DOT
                     if (bcpEntry.getName().equals(DOT)) {
-                        OSGiBundleArchive subArchive =
+                        final OSGiBundleArchive subArchive =
                                 getArchive(bcpEntry.getBundle());
-                        addEntriesForSubArchive(subArchive);
+                        addEntrySource(new ArchiveEntrySource("") {
+                            @Override
+                            protected Archive openArchive() {
+                                return subArchive;
+                            }
+
+                            @Override
+                            protected ArchiveEntry createEntry(
+                                    final Archive archive, final String name,
+                                    final String subEntry) {
+
+                                return createArchiveEntry(archive, subEntry);
+                            }
+                        });
                     } else {
                         visitBCPEntry(bcpEntry);
                     }
                 }
 
                 private void visitBCPEntry(final BCPEntry bcpEntry) {
-                    try {
-                        final Archive subArchive = getArchive(
-                                bcpEntry.getBundle())
-                                .getSubArchive(bcpEntry.getName());
-                        addEntriesForSubArchive(subArchive);
-                    } catch (IOException e) {
-                        // TODO(Sahoo): Proper Exception Handling
-                        throw new RuntimeException(e);
-                    }
+                    addEntrySource(new ArchiveEntrySource("") {
+                        @Override
+                        protected Archive openArchive() throws IOException {
+                            return getArchive(bcpEntry.getBundle())
+                                    .getSubArchive(bcpEntry.getName());
+                        }
+
+                        @Override
+                        protected ArchiveEntry createEntry(
+                                final Archive archive, final String name,
+                                final String subEntry) {
+
+                            return createArchiveEntry(archive, subEntry);
+                        }
+                    });
                 }
 
-                private void addEntriesForSubArchive(
-                        final Archive subArchive) {
+                private ArchiveEntry createArchiveEntry(
+                        final Archive subArchive, final String subEntry) {
 
                     final URIable uriableArchive = (URIable) subArchive;
-                    for (final String subEntry : Collections.list(
-                            subArchive.entries())) {
+                    return new ArchiveEntry() {
+                        @Override
+                        public String getName() {
+                            return subEntry;
+                        }
 
-                        ArchiveEntry archiveEntry = new ArchiveEntry() {
-                            @Override
-                            public String getName() {
-                                return subEntry;
-                            }
+                        @Override
+                        public URI getURI() throws URISyntaxException {
+                            return uriableArchive.getEntryURI(subEntry);
+                        }
 
-                            @Override
-                            public URI getURI() throws URISyntaxException {
-                                return uriableArchive.getEntryURI(subEntry);
-                            }
+                        @Override
+                        public InputStream getInputStream()
+                                throws IOException {
 
-                            @Override
-                            public InputStream getInputStream()
-                                    throws IOException {
-
-                                try {
-                                    return getURI().toURL().openStream();
-                                } catch (URISyntaxException e) {
-                                    // TODO(Sahoo): Proper Exception Handling
-                                    throw new RuntimeException(e);
-                                }
+                            try {
+                                return getURI().toURL().openStream();
+                            } catch (URISyntaxException e) {
+                                // TODO(Sahoo): Proper Exception Handling
+                                throw new RuntimeException(e);
                             }
-                        };
-                        getEntries().put(archiveEntry.getName(),
-                                archiveEntry);
-                    }
+                        }
+
+                        @Override
+                        public long getSize() {
+                            return ((ReadableArchive) subArchive)
+                                    .getEntrySize(subEntry);
+                        }
+                    };
                 }
             });
         }
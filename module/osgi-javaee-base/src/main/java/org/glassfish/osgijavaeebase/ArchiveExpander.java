@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.glassfish.api.deployment.archive.ReadableArchive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Expands an archive into a directory using a bounded pool of workers shared
+ * by all the expansions. The pool is started and shut down with the bundle.
+ * Directories are created upfront in a single pass, then the files are
+ * extracted in batches in parallel, each worker writing through a
+ * {@link FileChannel} with a buffer taken from the {@link BufferPool}.
+ * When the source content is itself a file, it is transferred using
+ * {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)}.
+ */
+final class ArchiveExpander {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            ArchiveExpander.class.getPackage().getName());
+
+    /**
+     * Property name for the maximum number of expansion threads.
+     */
+    static final String EXPANSION_THREADS =
+            "org.glassfish.osgijavaeebase.expansion.threads";
+
+    /**
+     * Archives with fewer files than this are expanded by the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /**
+     * Number of batches per worker, to balance uneven entry sizes.
+     */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    /**
+     * Time in seconds after which idle worker threads are stopped.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * The shared workers, {@code null} if not started, guarded by the class.
+     */
+    private static ThreadPoolExecutor sharedExecutor;
+
+    /**
+     * The workers used by this instance, {@code null} to expand in the
+     * calling thread.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Maximum number of worker threads.
+     */
+    private final int maxThreads;
+
+    /**
+     * Create a new instance using the shared workers.
+     */
+    ArchiveExpander() {
+        synchronized (ArchiveExpander.class) {
+            this.executor = sharedExecutor;
+            if (sharedExecutor != null) {
+                this.maxThreads = sharedExecutor.getMaximumPoolSize();
+            } else {
+                this.maxThreads = 1;
+            }
+        }
+    }
+
+    /**
+     * Start the shared workers.
+     * @param threads maximum number of worker threads, the number of
+     * available processors is used if not positive
+     */
+    static synchronized void start(final int threads) {
+        if (sharedExecutor != null) {
+            return;
+        }
+        int size;
+        if (threads > 0) {
+            size = threads;
+        } else {
+            size = Runtime.getRuntime().availableProcessors();
+        }
+        sharedExecutor = new ThreadPoolExecutor(size, size, KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ExpanderThreadFactory());
+        sharedExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stop the shared workers. The expansions in progress are interrupted.
+     */
+    static synchronized void shutdown() {
+        if (sharedExecutor != null) {
+            sharedExecutor.shutdownNow();
+            sharedExecutor = null;
+        }
+    }
+
+    /**
+     * Expand the given jar file.
+     * @param jar the jar file
+     * @param targetDir the directory to expand into
+     * @throws IOException if an error occurs
+     */
+    void expand(final File jar, final File targetDir) throws IOException {
+        expand(jar, targetDir, null);
+    }
+
+    /**
+     * Expand the given entries of a jar file.
+     * @param jar the jar file
+     * @param targetDir the directory to expand into
+     * @param entries the names of the entries to expand, or {@code null} to
+     * expand all the entries
+     * @throws IOException if an error occurs
+     */
+    void expand(final File jar, final File targetDir,
+            final Collection<String> entries) throws IOException {
+
+        final ZipFile zipFile = new ZipFile(jar);
+        try {
+            final List<String> names = new ArrayList<String>();
+            if (entries != null) {
+                names.addAll(entries);
+            } else {
+                Enumeration<? extends ZipEntry> zes = zipFile.entries();
+                while (zes.hasMoreElements()) {
+                    names.add(zes.nextElement().getName());
+                }
+            }
+            expand(new Source() {
+                @Override
+                public List<String> getNames() {
+                    return names;
+                }
+
+                @Override
+                public InputStream open(final String name)
+                        throws IOException {
+                    return zipFile.getInputStream(zipFile.getEntry(name));
+                }
+            }, targetDir);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Expand the given archive.
+     * @param archive the archive
+     * @param targetDir the directory to expand into
+     * @throws IOException if an error occurs
+     */
+    void expand(final ReadableArchive archive, final File targetDir)
+            throws IOException {
+
+        final List<String> names = Collections.list(archive.entries());
+        expand(new Source() {
+            @Override
+            public List<String> getNames() {
+                return names;
+            }
+
+            @Override
+            public InputStream open(final String name) throws IOException {
+                return archive.getEntry(name);
+            }
+        }, targetDir);
+
+        // Like AbstractArchiveHandler.expand, write the manifest last if the
+        // archive does not list it as an entry.
+        if (!names.contains(JarFile.MANIFEST_NAME)) {
+            Manifest m = archive.getManifest();
+            if (m != null) {
+                File mf = new File(targetDir, JarFile.MANIFEST_NAME);
+                mkdirs(mf.getParentFile());
+                FileOutputStream os = new FileOutputStream(mf);
+                try {
+                    m.write(os);
+                } finally {
+                    os.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Expand the given source.
+     * @param source the source
+     * @param targetDir the directory to expand into
+     * @throws IOException if an error occurs
+     */
+    private void expand(final Source source, final File targetDir)
+            throws IOException {
+
+        // Create all the directories first, parents before children, so
+        // that the workers only have to write files.
+        // Nothing is written if an entry resolves outside of the target
+        // directory.
+        String root = targetDir.getCanonicalPath() + File.separator;
+        SortedSet<String> dirs = new TreeSet<String>();
+        List<String> files = new ArrayList<String>();
+        for (String name : source.getNames()) {
+            checkEntry(root, targetDir, name);
+            if (name.endsWith("/")) {
+                dirs.add(name);
+            } else {
+                files.add(name);
+                int idx = name.lastIndexOf('/');
+                if (idx > 0) {
+                    dirs.add(name.substring(0, idx + 1));
+                }
+            }
+        }
+        mkdirs(targetDir);
+        for (String dir : dirs) {
+            mkdirs(new File(targetDir, dir));
+        }
+
+        int threads = Math.min(maxThreads,
+                files.size() / PARALLEL_THRESHOLD + 1);
+        if (executor == null || threads == 1) {
+            new Batch(source, targetDir, files).call();
+            return;
+        }
+
+        int batchSize = files.size() / (threads * BATCHES_PER_THREAD) + 1;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < files.size(); i += batchSize) {
+                Batch batch = new Batch(source, targetDir, files.subList(i,
+                        Math.min(i + batchSize, files.size())));
+                try {
+                    futures.add(executor.submit(batch));
+                } catch (RejectedExecutionException ex) {
+                    // shutting down, finish in the calling thread
+                    batch.call();
+                }
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(
+                            "Interrupted while expanding in " + targetDir);
+                }
+            }
+        } finally {
+            // stop the remaining batches if one failed
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        LOGGER.logp(Level.FINE, "ArchiveExpander", "expand",
+                "Expanded {0} files in {1} using {2} threads",
+                new Object[]{files.size(), targetDir, threads});
+    }
+
+    /**
+     * Check that an entry is expanded inside the target directory, for
+     * instance that its name has no {@code ..} component.
+     * @param root the canonical path of the target directory, ending with a
+     * separator
+     * @param targetDir the target directory
+     * @param name the entry name
+     * @throws IOException if the entry resolves outside of the target
+     * directory
+     */
+    private static void checkEntry(final String root, final File targetDir,
+            final String name) throws IOException {
+
+        String path = new File(targetDir, name).getCanonicalPath();
+        if (!path.startsWith(root) && !(path + File.separator).equals(root)) {
+            throw new IOException("Entry " + name
+                    + " is outside of the target directory " + targetDir);
+        }
+    }
+
+    /**
+     * Create the given directory if it does not exist.
+     * @param dir the directory
+     * @throws IOException if the directory can't be created
+     */
+    private static void mkdirs(final File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+    }
+
+    /**
+     * Copy the given stream to a file.
+     * @param in the stream to read, closed on return
+     * @param file the file to write
+     * @param buffer the buffer to use
+     * @throws IOException if an error occurs
+     */
+    private static void copy(final InputStream in, final File file,
+            final ByteBuffer buffer) throws IOException {
+
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                FileChannel out = fos.getChannel();
+                if (in instanceof FileInputStream) {
+                    FileChannel src = ((FileInputStream) in).getChannel();
+                    long size = src.size();
+                    long pos = 0;
+                    while (pos < size) {
+                        pos += src.transferTo(pos, size - pos, out);
+                    }
+                } else {
+                    ReadableByteChannel src = Channels.newChannel(in);
+                    buffer.clear();
+                    while (src.read(buffer) != -1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+            } finally {
+                fos.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Source of the entries to expand.
+     */
+    private interface Source {
+
+        /**
+         * Get the names of the entries.
+         * @return list of entry names
+         */
+        List<String> getNames();
+
+        /**
+         * Open an entry.
+         * @param name the entry name
+         * @return InputStream
+         * @throws IOException if an error occurs
+         */
+        InputStream open(String name) throws IOException;
+    }
+
+    /**
+     * A batch of files extracted by one worker.
+     */
+    private static final class Batch implements Callable<Void> {
+
+        /**
+         * The source.
+         */
+        private final Source source;
+
+        /**
+         * The target directory.
+         */
+        private final File targetDir;
+
+        /**
+         * The file names to extract.
+         */
+        private final List<String> names;
+
+        /**
+         * Create a new instance.
+         * @param src the source
+         * @param dir the target directory
+         * @param batch the file names to extract
+         */
+        Batch(final Source src, final File dir, final List<String> batch) {
+            this.source = src;
+            this.targetDir = dir;
+            this.names = batch;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            ByteBuffer buffer = BufferPool.acquire();
+            try {
+                for (String name : names) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IOException("Expansion cancelled");
+                    }
+                    InputStream in = source.open(name);
+                    if (in == null) {
+                        throw new IOException("No entry by name " + name);
+                    }
+                    copy(in, new File(targetDir, name), buffer);
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates daemon threads for the expansion workers.
+     */
+    private static final class ExpanderThreadFactory implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "osgi-javaee-expander-"
+                    + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
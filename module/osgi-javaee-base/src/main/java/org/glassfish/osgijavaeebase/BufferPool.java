@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide pool of direct buffers used to copy archive content. Direct
+ * buffers are expensive to allocate and are only reclaimed by the garbage
+ * collector, so they are reused across copies instead of being allocated
+ * per call. The pool retains at most two buffers per available processor,
+ * buffers released beyond that are left to the garbage collector.
+ */
+final class BufferPool {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private BufferPool() {
+    }
+
+    /**
+     * Size of the pooled buffers.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of retained buffers.
+     */
+    private static final int MAX_BUFFERS =
+            2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The retained buffers.
+     */
+    private static final Queue<ByteBuffer> BUFFERS =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Number of retained buffers.
+     */
+    private static final AtomicInteger SIZE = new AtomicInteger();
+
+    /**
+     * Take a buffer from the pool, allocating it if the pool is empty. The
+     * buffer must be returned with {@link #release(ByteBuffer)}.
+     * @return a cleared buffer
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        SIZE.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.
+     * @param buffer the buffer, must not be used after this call
+     */
+    static void release(final ByteBuffer buffer) {
+        if (SIZE.incrementAndGet() <= MAX_BUFFERS) {
+            BUFFERS.offer(buffer);
+        } else {
+            SIZE.decrementAndGet();
+        }
+    }
+}
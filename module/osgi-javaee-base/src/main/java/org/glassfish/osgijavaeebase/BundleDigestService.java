@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import org.osgi.framework.Bundle;
+
+/**
+ * Computes digests of the content of bundles, to detect whether a bundle
+ * revision has the same content as a previous one. Unlike
+ * {@link Bundle#getLastModified()}, the digest does not change when a bundle
+ * is updated with the same bytes.
+ *
+ * The digest of a bundle revision is computed once, on demand, and is
+ * persisted so that it is not computed again after a restart. When a bundle
+ * whose digest was requested is updated, the digest of the new revision is
+ * computed in the background.
+ *
+ * This service is registered by osgi-javaee-base.
+ */
+public interface BundleDigestService {
+
+    /**
+     * Get the digest of the content of the current revision of a bundle,
+     * computing it in the calling thread if needed.
+     * @param bundle the bundle
+     * @return hex encoded SHA-256 digest
+     * @throws IOException if the content of the bundle can't be read
+     */
+    String getDigest(Bundle bundle) throws IOException;
+
+    /**
+     * Request the digest of the content of the current revision of a bundle,
+     * computing it in the background if needed.
+     * @param bundle the bundle
+     * @return future hex encoded SHA-256 digest
+     */
+    Future<String> requestDigest(Bundle bundle);
+
+    /**
+     * Get the digest of the content of the current revision of a bundle if
+     * it has already been computed.
+     * @param bundle the bundle
+     * @return hex encoded SHA-256 digest, {@code null} if not yet computed
+     */
+    String getCachedDigest(Bundle bundle);
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link BundleDigestService}, computing SHA-256 digests.
+ *
+ * A digest is computed at most once per bundle revision, identified by
+ * bundle id and {@link Bundle#getLastModified()}: concurrent requests for the
+ * same revision share the same computation. Digests are persisted under the
+ * data area of this bundle, one file per bundle, and are removed when the
+ * bundle is uninstalled.
+ *
+ * If the bundle is backed by a jar file, the digest is the digest of the
+ * file. Otherwise, it is the digest of the sorted entry names and contents.
+ */
+final class BundleDigestServiceImpl implements BundleDigestService,
+        SynchronousBundleListener {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            BundleDigestServiceImpl.class.getPackage().getName());
+
+    /**
+     * Directory under the bundle data area where digests are persisted.
+     */
+    private static final String DIGEST_DIR = "digests";
+
+    /**
+     * Digest algorithm.
+     */
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Size of the buffer used to compute digests.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Digest file encoding.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Directory where digests are persisted.
+     */
+    private final File dir;
+
+    /**
+     * Digest computations by bundle id.
+     */
+    private final ConcurrentMap<Long, Entry> entries =
+            new ConcurrentHashMap<Long, Entry>();
+
+    /**
+     * Executor used for the background computations.
+     */
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(new DigestThreadFactory());
+
+    /**
+     * Create a new instance.
+     * @param ctx the bundle context of this bundle
+     */
+    BundleDigestServiceImpl(final BundleContext ctx) {
+        File base = ctx.getDataFile("");
+        if (base == null) {
+            base = new File(System.getProperty("java.io.tmpdir"));
+        }
+        this.dir = new File(base, DIGEST_DIR);
+    }
+
+    @Override
+    public String getDigest(final Bundle bundle) throws IOException {
+        Entry entry = getEntry(bundle);
+        // no-op if already computed or being computed by another thread
+        entry.task.run();
+        try {
+            return entry.task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing digest of "
+                    + bundle);
+        } catch (ExecutionException ex) {
+            // don't keep the failure, so that the next call retries
+            entries.remove(bundle.getBundleId(), entry);
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public Future<String> requestDigest(final Bundle bundle) {
+        Entry entry = getEntry(bundle);
+        if (!entry.task.isDone()) {
+            try {
+                executor.execute(entry.task);
+            } catch (RejectedExecutionException ex) {
+                // closed
+                entry.task.run();
+            }
+        }
+        return entry.task;
+    }
+
+    @Override
+    public String getCachedDigest(final Bundle bundle) {
+        Entry entry = entries.get(bundle.getBundleId());
+        if (entry != null && entry.lastModified == bundle.getLastModified()
+                && entry.task.isDone()) {
+            try {
+                return entry.task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                return null;
+            }
+        }
+        return read(bundle.getBundleId(), bundle.getLastModified());
+    }
+
+    @Override
+    public void bundleChanged(final BundleEvent event) {
+        Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+                // only recompute the digests that were requested before
+                if (entries.containsKey(bundle.getBundleId())) {
+                    requestDigest(bundle);
+                }
+                break;
+            case BundleEvent.UNINSTALLED:
+                entries.remove(bundle.getBundleId());
+                File f = getFile(bundle.getBundleId());
+                if (f.exists() && !f.delete()) {
+                    LOGGER.logp(Level.FINE, "BundleDigestServiceImpl",
+                            "bundleChanged", "Unable to delete {0}",
+                            new Object[]{f});
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stop the background computations.
+     */
+    void close() {
+        executor.shutdownNow();
+        entries.clear();
+    }
+
+    /**
+     * Get the computation for the current revision of a bundle, replacing
+     * the computation of a previous revision.
+     * @param bundle the bundle
+     * @return Entry
+     */
+    private Entry getEntry(final Bundle bundle) {
+        Long id = bundle.getBundleId();
+        long lastModified = bundle.getLastModified();
+        Entry entry = entries.get(id);
+        while (entry == null || entry.lastModified != lastModified) {
+            Entry created = new Entry(lastModified,
+                    new FutureTask<String>(new DigestTask(bundle,
+                            lastModified)));
+            if (entry == null) {
+                entry = entries.putIfAbsent(id, created);
+                if (entry == null) {
+                    return created;
+                }
+            } else if (entries.replace(id, entry, created)) {
+                return created;
+            } else {
+                entry = entries.get(id);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Get the file where the digest of a bundle is persisted.
+     * @param bundleId the bundle id
+     * @return File
+     */
+    private File getFile(final long bundleId) {
+        return new File(dir, String.valueOf(bundleId));
+    }
+
+    /**
+     * Read the persisted digest of a bundle revision.
+     * @param bundleId the bundle id
+     * @param lastModified the last modified time of the bundle revision
+     * @return hex encoded digest, {@code null} if not persisted for this
+     * revision
+     */
+    private String read(final long bundleId, final long lastModified) {
+        File f = getFile(bundleId);
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(f), ENCODING));
+            try {
+                // <lastModified> <digest>
+                String line = reader.readLine();
+                if (line != null) {
+                    int idx = line.indexOf(' ');
+                    if (idx != -1 && Long.parseLong(line.substring(0, idx))
+                            == lastModified) {
+                        return line.substring(idx + 1);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "BundleDigestServiceImpl", "read",
+                    "Unable to read " + f, ex);
+        } catch (NumberFormatException ex) {
+            LOGGER.logp(Level.FINE, "BundleDigestServiceImpl", "read",
+                    "Unable to read " + f, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Persist the digest of a bundle revision.
+     * @param bundleId the bundle id
+     * @param lastModified the last modified time of the bundle revision
+     * @param digest hex encoded digest
+     */
+    private void write(final long bundleId, final long lastModified,
+            final String digest) {
+
+        File f = getFile(bundleId);
+        File tmp = new File(f.getPath() + ".tmp");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp),
+                    ENCODING);
+            try {
+                writer.write(lastModified + " " + digest + "\n");
+            } finally {
+                writer.close();
+            }
+            if ((f.exists() && !f.delete()) || !tmp.renameTo(f)) {
+                throw new IOException("Unable to rename " + tmp + " to " + f);
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.WARNING, "BundleDigestServiceImpl", "write",
+                    "Unable to persist digest of bundle " + bundleId, ex);
+            if (tmp.exists() && !tmp.delete()) {
+                LOGGER.logp(Level.FINE, "BundleDigestServiceImpl", "write",
+                        "Unable to delete {0}", new Object[]{tmp});
+            }
+        }
+    }
+
+    /**
+     * Compute the digest of the content of a bundle.
+     * @param bundle the bundle
+     * @return hex encoded digest
+     * @throws IOException if an error occurs
+     */
+    private static String compute(final Bundle bundle) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        File file = BundleFileResolvers.resolve(bundle);
+        if (file != null && file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                update(md, in, buf);
+            } finally {
+                in.close();
+            }
+            return toHex(md.digest());
+        }
+        OSGiBundleArchive archive = new OSGiBundleArchive(bundle);
+        try {
+            List<String> names = Collections.list(archive.entries());
+            Collections.sort(names);
+            for (String name : names) {
+                md.update(name.getBytes(ENCODING));
+                md.update((byte) 0);
+                InputStream in = archive.getEntry(name);
+                if (in != null) {
+                    try {
+                        update(md, in, buf);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            if (!names.contains(JarFile.MANIFEST_NAME)) {
+                Manifest m = archive.getManifest();
+                if (m != null) {
+                    md.update(JarFile.MANIFEST_NAME.getBytes(ENCODING));
+                    md.update((byte) 0);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    m.write(baos);
+                    md.update(baos.toByteArray());
+                }
+            }
+        } finally {
+            archive.close();
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Combine several digests into one.
+     * @param digests the digests, in order
+     * @return hex encoded digest
+     */
+    static String combine(final String... digests) {
+        MessageDigest md = newDigest();
+        try {
+            for (String digest : digests) {
+                md.update(digest.getBytes(ENCODING));
+                md.update((byte) 0);
+            }
+        } catch (IOException ex) {
+            // every JRE supports UTF-8
+            throw new RuntimeException(ex);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Get the digest of the content of a host bundle and of some of its
+     * fragments.
+     * @param service the digest service
+     * @param host the host bundle
+     * @param fragments the fragments, in order
+     * @return hex encoded digest
+     * @throws IOException if the content of a bundle can't be read
+     */
+    static String getDigest(final BundleDigestService service,
+            final Bundle host, final Bundle... fragments) throws IOException {
+
+        String[] digests = new String[fragments.length + 1];
+        digests[0] = service.getDigest(host);
+        for (int i = 0; i < fragments.length; i++) {
+            digests[i + 1] = service.getDigest(fragments[i]);
+        }
+        return combine(digests);
+    }
+
+    /**
+     * Update a digest with the content of a stream.
+     * @param md the digest
+     * @param in the stream
+     * @param buf the buffer to use
+     * @throws IOException if an error occurs
+     */
+    private static void update(final MessageDigest md, final InputStream in,
+            final byte[] buf) throws IOException {
+
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            md.update(buf, 0, read);
+        }
+    }
+
+    /**
+     * Create a SHA-256 message digest.
+     * @return MessageDigest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // every JRE supports SHA-256
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Hex encode the given bytes.
+     * @param bytes the bytes
+     * @return hex string
+     */
+    private static String toHex(final byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The digest computation of a bundle revision.
+     */
+    private static final class Entry {
+
+        /**
+         * Last modified time of the bundle revision.
+         */
+        private final long lastModified;
+
+        /**
+         * The computation.
+         */
+        private final FutureTask<String> task;
+
+        /**
+         * Create a new instance.
+         * @param bndLastModified the last modified time of the bundle
+         * revision
+         * @param digestTask the computation
+         */
+        Entry(final long bndLastModified,
+                final FutureTask<String> digestTask) {
+
+            this.lastModified = bndLastModified;
+            this.task = digestTask;
+        }
+    }
+
+    /**
+     * Reads the persisted digest of a bundle revision, or computes and
+     * persists it.
+     */
+    private final class DigestTask implements Callable<String> {
+
+        /**
+         * The bundle.
+         */
+        private final Bundle bundle;
+
+        /**
+         * Last modified time of the bundle revision.
+         */
+        private final long lastModified;
+
+        /**
+         * Create a new instance.
+         * @param bnd the bundle
+         * @param bndLastModified the last modified time of the bundle
+         * revision
+         */
+        DigestTask(final Bundle bnd, final long bndLastModified) {
+            this.bundle = bnd;
+            this.lastModified = bndLastModified;
+        }
+
+        @Override
+        public String call() throws IOException {
+            long bundleId = bundle.getBundleId();
+            String digest = read(bundleId, lastModified);
+            if (digest != null) {
+                return digest;
+            }
+            long start = System.currentTimeMillis();
+            digest = compute(bundle);
+            LOGGER.logp(Level.FINE, "BundleDigestServiceImpl", "call",
+                    "Computed digest of {0} in {1} ms",
+                    new Object[]{bundle,
+                        System.currentTimeMillis() - start});
+            // don't persist if the bundle was updated while reading it
+            if (bundle.getLastModified() == lastModified) {
+                write(bundleId, lastModified, digest);
+            }
+            return digest;
+        }
+    }
+
+    /**
+     * Creates daemon threads for the background computations.
+     */
+    private static final class DigestThreadFactory implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "osgi-javaee-digest-"
+                    + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Sizes of the entries of a bundle, read from the file the framework reads
+ * the bundle from. For a jar file, the uncompressed and compressed sizes are
+ * read once from the central directory. For a directory, the sizes are those
+ * of the files.
+ *
+ * Sizes are cached per bundle and identified by bundle id and
+ * {@link Bundle#getLastModified()}, like {@link BundleEntryTree}. The cache
+ * does not prevent uninstalled bundles from being garbage collected.
+ */
+final class BundleEntrySizes {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            BundleEntrySizes.class.getPackage().getName());
+
+    /**
+     * Cache of sizes per bundle.
+     */
+    private static final Map<Bundle, BundleEntrySizes> SIZES =
+            Collections.synchronizedMap(
+                    new WeakHashMap<Bundle, BundleEntrySizes>());
+
+    /**
+     * Id of the bundle the sizes were read for.
+     */
+    private final long bundleId;
+
+    /**
+     * Last modified time of the bundle revision the sizes were read for.
+     */
+    private final long lastModified;
+
+    /**
+     * The file backing the bundle, {@code null} if unknown.
+     */
+    private final File file;
+
+    /**
+     * The names of the jar entries, {@code null} if the bundle is not backed
+     * by a jar file.
+     */
+    private final NameTable jarEntries;
+
+    /**
+     * The uncompressed sizes of the jar entries, indexed by name id.
+     */
+    private final long[] sizes;
+
+    /**
+     * The compressed sizes of the jar entries, indexed by name id.
+     */
+    private final long[] compressedSizes;
+
+    /**
+     * The total size, computed on first use.
+     */
+    private long archiveSize = -1;
+
+    /**
+     * Create a new instance.
+     * @param bnd the bundle
+     * @param bundleFile the file backing the bundle, or {@code null}
+     */
+    private BundleEntrySizes(final Bundle bnd, final File bundleFile) {
+        this.bundleId = bnd.getBundleId();
+        this.lastModified = bnd.getLastModified();
+        this.file = bundleFile;
+        TreeMap<String, long[]> entries = null;
+        if (bundleFile != null && bundleFile.isFile()) {
+            entries = readCentralDirectory(bundleFile);
+        }
+        if (entries != null) {
+            this.jarEntries = NameTable.of(entries.navigableKeySet());
+            this.sizes = new long[jarEntries.size()];
+            this.compressedSizes = new long[jarEntries.size()];
+            int id = 0;
+            for (long[] entrySizes : entries.values()) {
+                sizes[id] = entrySizes[0];
+                compressedSizes[id] = entrySizes[1];
+                id++;
+            }
+        } else {
+            this.jarEntries = null;
+            this.sizes = null;
+            this.compressedSizes = null;
+        }
+    }
+
+    /**
+     * Get the sizes for the current revision of the given bundle, reading
+     * them if necessary.
+     * @param bnd the bundle
+     * @param bundleFile the file backing the bundle, or {@code null}
+     * @return BundleEntrySizes
+     */
+    static BundleEntrySizes get(final Bundle bnd, final File bundleFile) {
+        BundleEntrySizes sizes = SIZES.get(bnd);
+        if (sizes == null || sizes.bundleId != bnd.getBundleId()
+                || sizes.lastModified != bnd.getLastModified()
+                || !equals(sizes.file, bundleFile)) {
+            sizes = new BundleEntrySizes(bnd, bundleFile);
+            SIZES.put(bnd, sizes);
+        }
+        return sizes;
+    }
+
+    /**
+     * Read the sizes of the entries from the central directory of a jar.
+     * @param jar the jar file
+     * @return sorted map of the uncompressed and compressed sizes by entry
+     * name, {@code null} if the jar can't be read
+     */
+    private static TreeMap<String, long[]> readCentralDirectory(
+            final File jar) {
+
+        try {
+            ZipFile zipFile = new ZipFile(jar);
+            try {
+                TreeMap<String, long[]> entries =
+                        new TreeMap<String, long[]>();
+                Enumeration<? extends ZipEntry> zes = zipFile.entries();
+                while (zes.hasMoreElements()) {
+                    ZipEntry ze = zes.nextElement();
+                    entries.put(ze.getName(), new long[]{
+                        ze.getSize(), ze.getCompressedSize()
+                    });
+                }
+                return entries;
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "BundleEntrySizes",
+                    "readCentralDirectory", "Unable to read " + jar, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Test two files for equality.
+     * @param f1 first file, may be {@code null}
+     * @param f2 second file, may be {@code null}
+     * @return {@code true} if equal, {@code false} otherwise
+     */
+    private static boolean equals(final File f1, final File f2) {
+        if (f1 == null) {
+            return f2 == null;
+        }
+        return f1.equals(f2);
+    }
+
+    /**
+     * Get the uncompressed size of an entry.
+     * @param name the entry name
+     * @return the size, {@code 0} if unknown
+     */
+    long getSize(final String name) {
+        return getSize(name, sizes);
+    }
+
+    /**
+     * Get the compressed size of an entry. This is the uncompressed size if
+     * the entry is not compressed.
+     * @param name the entry name
+     * @return the size, {@code 0} if unknown
+     */
+    long getCompressedSize(final String name) {
+        return getSize(name, compressedSizes);
+    }
+
+    /**
+     * Get a size of an entry.
+     * @param name the entry name
+     * @param jarSizes the sizes of the jar entries to get the size from
+     * @return the size, {@code 0} if unknown
+     */
+    private long getSize(final String name, final long[] jarSizes) {
+        if (jarEntries != null) {
+            int id = jarEntries.indexOf(name);
+            if (id != -1 && jarSizes[id] >= 0) {
+                return jarSizes[id];
+            }
+        } else if (file != null) {
+            File f = new File(file, name);
+            if (f.isFile()) {
+                return f.length();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the size of the bundle, i.e. the size of the jar file or the
+     * total size of the files of the directory.
+     * @return the size, or {@code -1} if unknown
+     */
+    synchronized long getArchiveSize() {
+        if (archiveSize < 0 && file != null) {
+            if (file.isFile()) {
+                archiveSize = file.length();
+            } else {
+                archiveSize = sizeOf(file);
+            }
+        }
+        return archiveSize;
+    }
+
+    /**
+     * Compute the total size of the files under a directory.
+     * @param dir the directory
+     * @return the size
+     */
+    private static long sizeOf(final File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    size += sizeOf(f);
+                } else {
+                    size += f.length();
+                }
+            }
+        }
+        return size;
+    }
+}
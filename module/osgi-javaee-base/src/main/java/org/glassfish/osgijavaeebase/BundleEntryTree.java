@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.jar.JarFile;
+
+/**
+ * Immutable tree of the entry paths found in the JAR File space of a bundle.
+ * The tree is built once per bundle revision by walking
+ * {@link Bundle#getEntryPaths(java.lang.String)} and is then used to answer
+ * enumeration, prefix, existence and directory queries without going back to
+ * the framework. The paths are kept sorted in a {@link NameTable}, where the
+ * content of a directory is the contiguous range of the paths starting with
+ * the directory path.
+ *
+ * The walk misses the entries of a jar that has no directory entries
+ * (FELIX-1210). Such a tree is detected by the missing manifest and is
+ * reported as incomplete, the callers then have to ask the framework for the
+ * entries not found in the tree.
+ *
+ * Trees are cached per bundle and identified by bundle id and
+ * {@link Bundle#getLastModified()}, so a bundle update causes the tree to be
+ * built again on next use. The cache does not prevent uninstalled bundles
+ * from being garbage collected.
+ */
+final class BundleEntryTree {
+
+    /**
+     * Cache of trees per bundle.
+     */
+    private static final Map<Bundle, BundleEntryTree> TREES =
+            Collections.synchronizedMap(
+                    new WeakHashMap<Bundle, BundleEntryTree>());
+
+    /**
+     * Path separator.
+     */
+    private static final char SEPARATOR = '/';
+
+    /**
+     * Id of the bundle this tree was built for.
+     */
+    private final long bundleId;
+
+    /**
+     * Last modified time of the bundle revision this tree was built for.
+     */
+    private final long lastModified;
+
+    /**
+     * All the paths, directory paths end with "/".
+     */
+    private final NameTable paths;
+
+    /**
+     * {@code true} if the walk found all the entries of the bundle.
+     */
+    private final boolean complete;
+
+    /**
+     * Create a new instance.
+     * @param bnd the bundle to walk
+     */
+    private BundleEntryTree(final Bundle bnd) {
+        this.bundleId = bnd.getBundleId();
+        this.lastModified = bnd.getLastModified();
+        // the set also works around FELIX-2935 (GLASSFISH-16477), which
+        // returns META-INF/ twice.
+        TreeSet<String> allPaths = new TreeSet<String>();
+        addEntryPaths(bnd, allPaths, "/");
+        this.paths = NameTable.of(allPaths);
+        this.complete = allPaths.contains(JarFile.MANIFEST_NAME)
+                || (!allPaths.isEmpty()
+                && bnd.getEntry(JarFile.MANIFEST_NAME) == null);
+    }
+
+    /**
+     * Get the tree for the current revision of the given bundle, building it
+     * if necessary.
+     * @param bnd the bundle
+     * @return BundleEntryTree
+     */
+    static BundleEntryTree get(final Bundle bnd) {
+        BundleEntryTree tree = TREES.get(bnd);
+        if (tree == null || tree.bundleId != bnd.getBundleId()
+                || tree.lastModified != bnd.getLastModified()) {
+            tree = new BundleEntryTree(bnd);
+            TREES.put(bnd, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Test if the walk found all the entries of the bundle.
+     * @return {@code true} if the queries of this tree are authoritative,
+     * {@code false} if the tree could not be built completely
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Walk the entry paths of the bundle under the given path.
+     * @param bnd the bundle
+     * @param allPaths the collection to add to
+     * @param path the path to walk
+     */
+    private static void addEntryPaths(final Bundle bnd,
+            final Collection<String> allPaths, final String path) {
+
+        Enumeration<String> subPaths = bnd.getEntryPaths(path);
+        if (subPaths == null) {
+            return;
+        }
+        while (subPaths.hasMoreElements()) {
+            String next = subPaths.nextElement();
+            if (allPaths.add(next) && next.endsWith("/")) {
+                addEntryPaths(bnd, allPaths, next);
+            }
+            addParents(allPaths, next);
+        }
+    }
+
+    /**
+     * Add the directories implied by a path, for the frameworks that list
+     * nested paths of a jar without directory entries.
+     * @param allPaths the collection to add to
+     * @param path the path
+     */
+    private static void addParents(final Collection<String> allPaths,
+            final String path) {
+
+        int idx = path.lastIndexOf(SEPARATOR, path.length() - 2);
+        while (idx > 0 && allPaths.add(path.substring(0, idx + 1))) {
+            idx = path.lastIndexOf(SEPARATOR, idx - 1);
+        }
+    }
+
+    /**
+     * Normalize a directory path.
+     * @param path the path, a leading "/" is ignored
+     * @return the path without leading "/" and with a trailing "/", or an
+     * empty string for the root directory
+     */
+    private static String toDirectory(final String path) {
+        String dir = path;
+        if (dir.length() > 0 && dir.charAt(0) == SEPARATOR) {
+            dir = dir.substring(1);
+        }
+        if (dir.length() > 0 && dir.charAt(dir.length() - 1) != SEPARATOR) {
+            dir = dir + SEPARATOR;
+        }
+        return dir;
+    }
+
+    /**
+     * Get all file paths of the bundle.
+     * @return unmodifiable list of file paths
+     */
+    List<String> getFiles() {
+        List<String> files = new ArrayList<String>();
+        for (String path : paths) {
+            if (path.charAt(path.length() - 1) != SEPARATOR) {
+                files.add(path);
+            }
+        }
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Get all the paths, files and directories, under the given directory.
+     * @param path the directory path
+     * @return list of paths, empty if the directory does not exist
+     */
+    List<String> getEntries(final String path) {
+        String dir = toDirectory(path);
+        if (dir.length() == 0) {
+            return paths;
+        }
+        int id = paths.indexOf(dir);
+        if (id == -1) {
+            return Collections.emptyList();
+        }
+        // skip the directory itself
+        List<String> entries = paths.withPrefix(dir);
+        return entries.subList(1, entries.size());
+    }
+
+    /**
+     * Get the first level sub directories of the given directory.
+     * @param path the directory path
+     * @return list of directory paths, empty if the directory does not exist
+     */
+    List<String> getSubDirectories(final String path) {
+        List<String> dirs = new ArrayList<String>();
+        String dir = toDirectory(path);
+        for (String entry : getEntries(path)) {
+            int idx = entry.indexOf(SEPARATOR, dir.length());
+            if (idx == entry.length() - 1) {
+                dirs.add(entry);
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Test if the given entry exists. A path without a trailing "/" matches
+     * both files and directories, like {@link Bundle#getEntry(String)}.
+     * @param path the entry path
+     * @return {@code true} if found, {@code false} otherwise
+     */
+    boolean exists(final String path) {
+        String entry = path;
+        if (entry.length() > 0 && entry.charAt(0) == SEPARATOR) {
+            entry = entry.substring(1);
+        }
+        if (entry.length() == 0) {
+            return true;
+        }
+        return paths.contains(entry)
+                || (entry.charAt(entry.length() - 1) != SEPARATOR
+                && paths.contains(entry + SEPARATOR));
+    }
+
+    /**
+     * Test if the given entry is a directory.
+     * @param path the entry path
+     * @return {@code true} if the entry is a directory, {@code false}
+     * otherwise
+     */
+    boolean isDirectory(final String path) {
+        String dir = toDirectory(path);
+        return dir.length() == 0 || paths.contains(dir);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.File;
+import org.osgi.framework.Bundle;
+
+/**
+ * Locates the file from which the OSGi framework reads the content of the
+ * current revision of a bundle, typically the copy kept in the framework's
+ * bundle cache. This lets {@link OSGiBundleArchive} read the bundle as a
+ * regular jar file instead of going through the bundle entry URLs.
+ *
+ * Apache Felix is supported out of the box. Support for other frameworks can
+ * be added by registering an implementation of this interface as an OSGi
+ * service; registered services are consulted in descending order of service
+ * ranking before the built-in Felix support.
+ */
+public interface BundleFileResolver {
+
+    /**
+     * Get the file backing the current revision of the given bundle.
+     * @param bundle the bundle
+     * @return a jar file or directory with the same content as the JAR File
+     * space of the bundle, or {@code null} if it can't be determined
+     */
+    File resolve(Bundle bundle);
+}
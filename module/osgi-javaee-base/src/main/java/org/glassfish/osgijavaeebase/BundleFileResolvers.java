@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Looks up the file backing a bundle using the registered
+ * {@link BundleFileResolver} services, falling back to the built-in Felix
+ * support. The resolver services are tracked, and the file is cached per
+ * bundle revision. The cache does not prevent uninstalled bundles from being
+ * garbage collected.
+ */
+final class BundleFileResolvers {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private BundleFileResolvers() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            BundleFileResolvers.class.getPackage().getName());
+
+    /**
+     * Cache of resolved files per bundle.
+     */
+    private static final Map<Bundle, Resolved> RESOLVED =
+            Collections.synchronizedMap(new WeakHashMap<Bundle, Resolved>());
+
+    /**
+     * Tracker of the resolver services, guarded by the class.
+     */
+    private static ResolverTracker tracker;
+
+    /**
+     * Get the file backing the current revision of the given bundle.
+     * @param bnd the bundle
+     * @return File or {@code null} if it can't be determined
+     */
+    static File resolve(final Bundle bnd) {
+        long lastModified = bnd.getLastModified();
+        Resolved resolved = RESOLVED.get(bnd);
+        if (resolved != null && resolved.bundleId == bnd.getBundleId()
+                && resolved.lastModified == lastModified) {
+            return resolved.file;
+        }
+        ResolverTracker resolvers = getTracker();
+        if (resolvers == null) {
+            return null;
+        }
+        File file;
+        try {
+            file = resolvers.resolve(bnd);
+        } catch (IllegalStateException ex) {
+            // our bundle context is no longer valid
+            LOGGER.logp(Level.FINE, "BundleFileResolvers", "resolve",
+                    "Unable to resolve file for bundle " + bnd, ex);
+            return null;
+        }
+        RESOLVED.put(bnd, new Resolved(bnd.getBundleId(), lastModified,
+                file));
+        return file;
+    }
+
+    /**
+     * Close the resolver services tracker and clear the cache.
+     */
+    static synchronized void close() {
+        if (tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+        RESOLVED.clear();
+    }
+
+    /**
+     * Get the tracker of the resolver services, opening it if necessary.
+     * @return ResolverTracker or {@code null} if not running as a bundle
+     */
+    private static synchronized ResolverTracker getTracker() {
+        if (tracker == null) {
+            BundleContext ctx = getBundleContext();
+            if (ctx == null) {
+                return null;
+            }
+            tracker = new ResolverTracker(ctx);
+            tracker.open();
+        }
+        return tracker;
+    }
+
+    /**
+     * Get the bundle context of this bundle.
+     * @return BundleContext or {@code null} if not running as a bundle
+     */
+    private static BundleContext getBundleContext() {
+        ClassLoader cl = BundleFileResolvers.class.getClassLoader();
+        if (cl instanceof BundleReference) {
+            return ((BundleReference) cl).getBundle().getBundleContext();
+        }
+        return null;
+    }
+
+    /**
+     * The file resolved for a bundle revision.
+     */
+    private static final class Resolved {
+
+        /**
+         * Id of the bundle.
+         */
+        private final long bundleId;
+
+        /**
+         * Last modified time of the bundle revision.
+         */
+        private final long lastModified;
+
+        /**
+         * The file, {@code null} if it can't be determined.
+         */
+        private final File file;
+
+        /**
+         * Create a new instance.
+         * @param id the bundle id
+         * @param modified the last modified time of the bundle revision
+         * @param resolvedFile the file
+         */
+        Resolved(final long id, final long modified,
+                final File resolvedFile) {
+
+            this.bundleId = id;
+            this.lastModified = modified;
+            this.file = resolvedFile;
+        }
+    }
+
+    /**
+     * Tracker of the {@link BundleFileResolver} services. The cached files are
+     * dropped when a resolver comes, goes or changes ranking.
+     */
+    private static final class ResolverTracker extends ServiceTracker {
+
+        /**
+         * The built-in Felix resolver, {@code null} if not running on Felix.
+         */
+        private final FelixBundleFileResolver felix;
+
+        /**
+         * Create a new instance.
+         * @param ctx the bundle context
+         */
+        @SuppressWarnings("unchecked")
+        ResolverTracker(final BundleContext ctx) {
+            super(ctx, BundleFileResolver.class.getName(), null);
+            this.felix = FelixBundleFileResolver.create(ctx);
+        }
+
+        /**
+         * Get the file backing the current revision of the given bundle.
+         * @param bnd the bundle
+         * @return File or {@code null} if it can't be determined
+         */
+        @SuppressWarnings("unchecked")
+        File resolve(final Bundle bnd) {
+            ServiceReference[] refs = getServiceReferences();
+            if (refs != null) {
+                // descending order of ranking
+                Arrays.sort(refs, Collections.reverseOrder());
+                for (ServiceReference ref : refs) {
+                    BundleFileResolver resolver =
+                            (BundleFileResolver) getService(ref);
+                    if (resolver != null) {
+                        File file = resolver.resolve(bnd);
+                        if (file != null) {
+                            return file;
+                        }
+                    }
+                }
+            }
+            if (felix != null) {
+                return felix.resolve(bnd);
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object addingService(final ServiceReference reference) {
+            RESOLVED.clear();
+            return super.addingService(reference);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void modifiedService(final ServiceReference reference,
+                final Object service) {
+
+            RESOLVED.clear();
+            super.modifiedService(reference, service);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void removedService(final ServiceReference reference,
+                final Object service) {
+
+            RESOLVED.clear();
+            super.removedService(reference, service);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.SynchronousBundleListener;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Materializes the JAR File space of a bundle as a jar file when the bundle
+ * content is not available as a jar file already. The jar is written once per
+ * bundle revision under the data area of this bundle, named after Bundle-Id
+ * and Bundle-LastModifiedTimestamp, and reused by all subsequent callers.
+ *
+ * Entries that are already compressed, e.g. embedded jars, are stored as is
+ * so that they are not deflated a second time. The jar of a bundle is
+ * deleted when the bundle is uninstalled, see {@link UninstallListener}.
+ */
+final class BundleJarCache {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private BundleJarCache() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            BundleJarCache.class.getPackage().getName());
+
+    /**
+     * Directory under the bundle data area where jars are materialized.
+     */
+    private static final String JARS_DIR = "jars";
+
+    /**
+     * Size of the buffer used to copy entries.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Extensions of entries whose content is already compressed.
+     */
+    private static final String[] STORED_EXTENSIONS = {
+        ".jar", ".war", ".rar", ".zip", ".gz", ".png", ".gif", ".jpg", ".jpeg"
+    };
+
+    /**
+     * Locks used to materialize at most one jar per bundle at a time.
+     */
+    private static final ConcurrentMap<Long, Object> LOCKS =
+            new ConcurrentHashMap<Long, Object>();
+
+    /**
+     * Private directory used when not running as a bundle, created on first
+     * use.
+     */
+    private static volatile File privateDir;
+
+    /**
+     * Get the jar file for the current revision of the bundle backing the
+     * given archive, writing it if it does not exist yet.
+     * @param archive the bundle archive
+     * @return the jar file
+     * @throws IOException if an error occurs
+     */
+    static File getJar(final OSGiBundleArchive archive) throws IOException {
+        final Bundle bnd = archive.getBundle();
+        final String prefix = "bundle" + bnd.getBundleId() + "-";
+        final File dir = getCacheDir();
+        final File jar = new File(dir, prefix + bnd.getLastModified() + ".jar");
+        synchronized (getLock(bnd.getBundleId())) {
+            if (jar.isFile()) {
+                return jar;
+            }
+            deleteStaleJars(dir, prefix);
+            File tmp = new File(dir, jar.getName() + ".tmp");
+            boolean success = false;
+            try {
+                write(archive, tmp);
+                success = tmp.renameTo(jar);
+                if (success && dir.equals(privateDir)) {
+                    // deleted before the directory
+                    jar.deleteOnExit();
+                }
+                if (!success) {
+                    throw new IOException("Unable to rename " + tmp
+                            + " to " + jar);
+                }
+            } finally {
+                if (!success && tmp.exists() && !tmp.delete()) {
+                    LOGGER.logp(Level.WARNING, "BundleJarCache", "getJar",
+                            "Unable to delete {0}", new Object[]{tmp});
+                }
+            }
+        }
+        LOGGER.logp(Level.FINE, "BundleJarCache", "getJar",
+                "Materialized {0} at {1}", new Object[]{bnd, jar});
+        return jar;
+    }
+
+    /**
+     * Get the lock for the given bundle.
+     * @param bundleId the bundle id
+     * @return lock object
+     */
+    private static Object getLock(final long bundleId) {
+        Object lock = new Object();
+        Object existing = LOCKS.putIfAbsent(bundleId, lock);
+        if (existing != null) {
+            return existing;
+        }
+        return lock;
+    }
+
+    /**
+     * Forget a bundle that is uninstalled, deleting its jar.
+     * @param bundleId the bundle id
+     */
+    static void remove(final long bundleId) {
+        Object lock = LOCKS.get(bundleId);
+        if (lock == null) {
+            // never materialized
+            return;
+        }
+        synchronized (lock) {
+            try {
+                deleteStaleJars(getCacheDir(), "bundle" + bundleId + "-");
+            } catch (IOException ex) {
+                LOGGER.logp(Level.FINE, "BundleJarCache", "remove",
+                        "Unable to delete the jar of bundle " + bundleId, ex);
+            }
+            LOCKS.remove(bundleId, lock);
+        }
+    }
+
+    /**
+     * We don't keep the jars in tmpdir, because in some deployment
+     * environment, the tmpdir is periodically cleaned up by external programs.
+     * So, we keep them in bundle private storage area. When not running as a
+     * bundle, they are kept in a directory private to this process instead,
+     * so that processes sharing the tmpdir don't reuse or delete each other's
+     * jars.
+     * @return the directory where jars are materialized
+     * @throws IOException if the directory can't be created
+     */
+    private static File getCacheDir() throws IOException {
+        ClassLoader cl = BundleJarCache.class.getClassLoader();
+        if (cl instanceof BundleReference) {
+            BundleContext ctx = ((BundleReference) cl).getBundle()
+                    .getBundleContext();
+            if (ctx != null) {
+                File base = ctx.getDataFile("");
+                if (base != null) {
+                    File dir = new File(base, JARS_DIR);
+                    if (!dir.isDirectory() && !dir.mkdirs()
+                            && !dir.isDirectory()) {
+                        throw new IOException("Unable to create " + dir);
+                    }
+                    return dir;
+                }
+            }
+        }
+        return getPrivateDir();
+    }
+
+    /**
+     * Get the directory private to this process, creating it if needed. It
+     * is deleted on exit.
+     * @return the directory
+     * @throws IOException if the directory can't be created
+     */
+    private static synchronized File getPrivateDir() throws IOException {
+        if (privateDir == null || !privateDir.isDirectory()) {
+            File dir = File.createTempFile(JARS_DIR, "");
+            if (!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            dir.deleteOnExit();
+            privateDir = dir;
+        }
+        return privateDir;
+    }
+
+    /**
+     * Delete the jars materialized for previous revisions of a bundle.
+     * @param dir the cache directory
+     * @param prefix the file name prefix of the bundle
+     */
+    private static void deleteStaleJars(final File dir, final String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().startsWith(prefix)) {
+                if (f.delete()) {
+                    LOGGER.logp(Level.FINE, "BundleJarCache",
+                            "deleteStaleJars", "Deleted {0}",
+                            new Object[]{f});
+                } else {
+                    LOGGER.logp(Level.WARNING, "BundleJarCache",
+                            "deleteStaleJars", "Unable to delete {0}",
+                            new Object[]{f});
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the content of the archive as a jar.
+     * @param archive the bundle archive
+     * @param file the file to write to
+     * @throws IOException if an error occurs
+     */
+    private static void write(final OSGiBundleArchive archive,
+            final File file) throws IOException {
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            Manifest m = archive.getManifest();
+            JarOutputStream jos;
+            if (m != null) {
+                jos = new JarOutputStream(os, m);
+            } else {
+                jos = new JarOutputStream(os);
+            }
+            for (String s : Collections.list(archive.entries())) {
+                if (s.equals(JarFile.MANIFEST_NAME)) {
+                    continue; // we have already inserted manifest
+                }
+                JarEntry je = new JarEntry(s);
+                if (isCompressed(s)) {
+                    prepareStoredEntry(archive, je);
+                }
+                jos.putNextEntry(je);
+                InputStream in = archive.getEntry(s);
+                try {
+                    JarHelper.copy(in, jos);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+                jos.closeEntry();
+            }
+            jos.close();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Test if the given entry name denotes content that is already
+     * compressed.
+     * @param name entry name
+     * @return {@code true} if compressed, {@code false} otherwise
+     */
+    private static boolean isCompressed(final String name) {
+        String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        for (String ext : STORED_EXTENSIONS) {
+            if (lowerCaseName.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Configure the given jar entry to be written without compression. A
+     * stored entry requires size and CRC to be known before its content is
+     * written, so the content is read once to compute them.
+     * @param archive the bundle archive
+     * @param je the jar entry
+     * @throws IOException if an error occurs
+     */
+    private static void prepareStoredEntry(final OSGiBundleArchive archive,
+            final JarEntry je) throws IOException {
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] bytes = new byte[BUFFER_SIZE];
+        InputStream in = archive.getEntry(je.getName());
+        try {
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                crc.update(bytes, 0, read);
+                size += read;
+            }
+        } finally {
+            in.close();
+        }
+        je.setMethod(ZipEntry.STORED);
+        je.setSize(size);
+        je.setCompressedSize(size);
+        je.setCrc(crc.getValue());
+    }
+
+    /**
+     * Deletes the jar of the bundles that are uninstalled.
+     */
+    static final class UninstallListener
+            implements SynchronousBundleListener {
+
+        @Override
+        public void bundleChanged(final BundleEvent event) {
+            if (event.getType() == BundleEvent.UNINSTALLED) {
+                remove(event.getBundle().getBundleId());
+            }
+        }
+    }
+}
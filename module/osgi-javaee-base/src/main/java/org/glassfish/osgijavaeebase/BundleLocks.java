@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks of the bundles being processed. A lock exists only while a thread
+ * holds it or waits for it, so that the locks of the bundles that are no
+ * longer processed do not accumulate.
+ */
+final class BundleLocks {
+
+    /**
+     * The locks in use.
+     */
+    private final ConcurrentMap<Bundle, ReentrantLock> locks
+            = new ConcurrentHashMap<Bundle, ReentrantLock>();
+
+    /**
+     * Lock the given bundle.
+     * @param bundle the bundle
+     * @return the lock held
+     */
+    ReentrantLock lock(final Bundle bundle) {
+        while (true) {
+            ReentrantLock lock = new ReentrantLock();
+            ReentrantLock existing = locks.putIfAbsent(bundle, lock);
+            if (existing != null) {
+                lock = existing;
+            }
+            lock.lock();
+            if (locks.get(bundle) == lock) {
+                return lock;
+            }
+            // removed by the previous owner, try again
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unlock the given bundle. The lock is discarded if no other thread is
+     * waiting for it.
+     * @param bundle the bundle
+     * @param lock the lock held
+     */
+    void unlock(final Bundle bundle, final ReentrantLock lock) {
+        if (lock.getHoldCount() == 1 && !lock.hasQueuedThreads()) {
+            locks.remove(bundle, lock);
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Get the number of locks in use.
+     * @return number of locks
+     */
+    int size() {
+        return locks.size();
+    }
+}
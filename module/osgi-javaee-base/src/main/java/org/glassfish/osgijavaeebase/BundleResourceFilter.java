@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+/**
+ * Selects the resources returned by
+ * {@link OSGiBundleArchive#getResources(BundleResourceFilter)}. The filter is
+ * applied to the resource path before the resource is created.
+ */
+public interface BundleResourceFilter {
+
+    /**
+     * Test if the resource with the given path should be returned.
+     * @param path the resource path, with respect to the bundle class path
+     * namespace
+     * @return {@code true} to return the resource, {@code false} otherwise
+     */
+    boolean accept(String path);
+}
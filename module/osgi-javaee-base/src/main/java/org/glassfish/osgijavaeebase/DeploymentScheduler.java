@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the deployment of application bundles on a bounded pool of
+ * threads.
+ *
+ * Deployments of independent bundles run concurrently. A bundle wired to a
+ * package or a bundle exported by another application bundle whose
+ * deployment is pending is deployed once that deployment has completed,
+ * whether it succeeded or not. The dependencies are computed from the
+ * current wiring of the bundles when the deployment is submitted. A
+ * deployment that has already started is not delayed by the deployment of a
+ * bundle it depends on submitted later, like with serial deployments. Cycles
+ * are broken in submission order.
+ *
+ * With a pool of one thread, deployments run one after another in
+ * submission order and the wiring is not looked at.
+ *
+ * A deployment can be cancelled with {@link #cancel(Future)}. A deployment
+ * that has not started yet never runs, a running deployment is expected to
+ * check {@link #isCancelled()} between its phases and to stop at the next
+ * phase boundary.
+ */
+final class DeploymentScheduler {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            DeploymentScheduler.class.getPackage().getName());
+
+    /**
+     * Property name for the number of deployment threads.
+     */
+    static final String DEPLOYMENT_THREADS =
+            "org.glassfish.osgijavaeebase.deployment.threads";
+
+    /**
+     * The wiring namespaces that make a bundle depend on another.
+     */
+    private static final String[] NAMESPACES = new String[]{
+        BundleRevision.PACKAGE_NAMESPACE,
+        BundleRevision.BUNDLE_NAMESPACE
+    };
+
+    /**
+     * The executor running the deployments.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * {@code true} if deployments run one after another.
+     */
+    private final boolean serial;
+
+    /**
+     * The deployments not yet completed by bundle id, guarded by this.
+     */
+    private final Map<Long, Deployment> pending =
+            new HashMap<Long, Deployment>();
+
+    /**
+     * The deployment running in the current thread.
+     */
+    private static final ThreadLocal<Deployment> CURRENT =
+            new ThreadLocal<Deployment>();
+
+    /**
+     * Create a new instance.
+     * @param ctx the bundle context used to read the configuration
+     */
+    DeploymentScheduler(final BundleContext ctx) {
+        this(getThreads(ctx));
+    }
+
+    /**
+     * Create a new instance.
+     * @param threads the number of deployment threads
+     */
+    DeploymentScheduler(final int threads) {
+        this.serial = threads <= 1;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new DeploymentThreadFactory());
+        LOGGER.logp(Level.FINE, "DeploymentScheduler", "DeploymentScheduler",
+                "Using {0} deployment threads",
+                new Object[]{Math.max(1, threads)});
+    }
+
+    /**
+     * Get the configured number of deployment threads.
+     * @param ctx the bundle context used to read the configuration
+     * @return number of threads, the number of available processors if not
+     * configured or invalid
+     */
+    static int getThreads(final BundleContext ctx) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = ctx.getProperty(DEPLOYMENT_THREADS);
+        if (value == null) {
+            return threads;
+        }
+        try {
+            int configured = Integer.parseInt(value.trim());
+            if (configured > 0) {
+                return configured;
+            }
+        } catch (NumberFormatException ex) {
+            // logged below
+        }
+        LOGGER.logp(Level.WARNING, "DeploymentScheduler", "getThreads",
+                "Invalid value {0} for {1}, using {2}",
+                new Object[]{value, DEPLOYMENT_THREADS, threads});
+        return threads;
+    }
+
+    /**
+     * Schedule the deployment of a bundle.
+     * @param bundle the bundle
+     * @param task the deployment task
+     * @return the future result of the deployment
+     */
+    Future<OSGiApplicationInfo> submit(final Bundle bundle,
+            final Callable<OSGiApplicationInfo> task) {
+
+        Deployment deployment = new Deployment(bundle, task);
+        if (serial) {
+            dispatch(deployment);
+            return deployment;
+        }
+        deployment.providers = getProviders(bundle);
+        boolean ready;
+        synchronized (this) {
+            for (Deployment other : pending.values()) {
+                // wait for the deployments of the bundles we depend on
+                if (deployment.providers.contains(other.getBundleId())) {
+                    addDependency(deployment, other);
+                }
+                // make deployments not yet started wait for us
+                if (!other.started && other.providers
+                        .contains(deployment.getBundleId())) {
+                    addDependency(other, deployment);
+                }
+            }
+            pending.put(deployment.getBundleId(), deployment);
+            ready = deployment.waitingFor.isEmpty();
+            if (ready) {
+                deployment.started = true;
+            }
+        }
+        if (ready) {
+            dispatch(deployment);
+        } else {
+            LOGGER.logp(Level.FINE, "DeploymentScheduler", "submit",
+                    "Deployment of {0} waits for {1}",
+                    new Object[]{bundle, deployment.waitingFor});
+        }
+        return deployment;
+    }
+
+    /**
+     * Cancel a deployment. A deployment that has not started yet is
+     * cancelled right away, a running deployment stops at its next phase
+     * boundary and must still be waited for.
+     * @param future the future returned by
+     * {@link #submit(Bundle, Callable)}
+     * @return {@code true} if the deployment was cancelled before it
+     * started, {@code false} if it is running or already completed
+     */
+    boolean cancel(final Future<OSGiApplicationInfo> future) {
+        Deployment deployment = (Deployment) future;
+        deployment.cancelled = true;
+        synchronized (this) {
+            if (deployment.running) {
+                return false;
+            }
+            // prevent the dispatch once the deployments it waits for
+            // complete
+            deployment.started = true;
+            return deployment.cancel(false);
+        }
+    }
+
+    /**
+     * Test if the deployment running in the current thread has been
+     * cancelled.
+     * @return {@code true} if cancelled, {@code false} if not cancelled or
+     * if the current thread is not running a deployment
+     */
+    static boolean isCancelled() {
+        Deployment deployment = CURRENT.get();
+        return deployment != null && deployment.cancelled;
+    }
+
+    /**
+     * Stop the deployment threads. Deployments not yet started are
+     * cancelled, running deployments are cancelled and interrupted.
+     */
+    void shutdown() {
+        List<Deployment> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<Deployment>(pending.values());
+            pending.clear();
+        }
+        for (Deployment deployment : cancelled) {
+            deployment.cancelled = true;
+        }
+        executor.shutdownNow();
+        for (Deployment deployment : cancelled) {
+            deployment.cancel(false);
+        }
+    }
+
+    /**
+     * Make a deployment wait for another one, unless the other one already
+     * waits, directly or not, for the first one. Must be called while
+     * holding the lock of this scheduler.
+     * @param deployment the deployment that waits
+     * @param other the deployment to wait for
+     */
+    private void addDependency(final Deployment deployment,
+            final Deployment other) {
+
+        if (!waitsFor(other, deployment, new HashSet<Deployment>())) {
+            deployment.waitingFor.add(other);
+            other.dependents.add(deployment);
+        }
+    }
+
+    /**
+     * Test if a deployment waits, directly or not, for another one. Must be
+     * called while holding the lock of this scheduler.
+     * @param deployment the deployment
+     * @param other the other deployment
+     * @param visited the deployments already visited
+     * @return {@code true} if it waits, {@code false} otherwise
+     */
+    private static boolean waitsFor(final Deployment deployment,
+            final Deployment other, final Set<Deployment> visited) {
+
+        if (deployment == other) {
+            return true;
+        }
+        if (!visited.add(deployment)) {
+            return false;
+        }
+        for (Deployment d : deployment.waitingFor) {
+            if (waitsFor(d, other, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark a deployment as completed and start the deployments that were
+     * only waiting for it.
+     * @param deployment the completed deployment
+     */
+    private void completed(final Deployment deployment) {
+        List<Deployment> ready = new ArrayList<Deployment>();
+        synchronized (this) {
+            if (pending.get(deployment.getBundleId()) == deployment) {
+                pending.remove(deployment.getBundleId());
+            }
+            for (Deployment dependent : deployment.dependents) {
+                dependent.waitingFor.remove(deployment);
+                if (dependent.waitingFor.isEmpty() && !dependent.started) {
+                    dependent.started = true;
+                    ready.add(dependent);
+                }
+            }
+            deployment.dependents.clear();
+        }
+        for (Deployment dependent : ready) {
+            dispatch(dependent);
+        }
+    }
+
+    /**
+     * Run a deployment on the executor.
+     * @param deployment the deployment
+     */
+    private void dispatch(final Deployment deployment) {
+        try {
+            executor.execute(deployment);
+        } catch (RejectedExecutionException ex) {
+            // shutdown
+            deployment.cancel(false);
+        }
+    }
+
+    /**
+     * Get the ids of the bundles the given bundle is wired to.
+     * @param bundle the bundle
+     * @return set of bundle ids
+     */
+    private static Set<Long> getProviders(final Bundle bundle) {
+        Set<Long> providers = new LinkedHashSet<Long>();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring == null) {
+            // not resolved
+            return providers;
+        }
+        for (String namespace : NAMESPACES) {
+            List<BundleWire> wires = wiring.getRequiredWires(namespace);
+            if (wires == null) {
+                continue;
+            }
+            for (BundleWire wire : wires) {
+                long id = wire.getProviderWiring().getBundle().getBundleId();
+                if (id != bundle.getBundleId()) {
+                    providers.add(id);
+                }
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * The deployment of a bundle.
+     */
+    private final class Deployment extends FutureTask<OSGiApplicationInfo> {
+
+        /**
+         * The bundle.
+         */
+        private final Bundle bundle;
+
+        /**
+         * The ids of the bundles the bundle is wired to.
+         */
+        private Set<Long> providers;
+
+        /**
+         * The deployments this one waits for, guarded by the scheduler.
+         */
+        private final Set<Deployment> waitingFor =
+                new LinkedHashSet<Deployment>();
+
+        /**
+         * The deployments waiting for this one, guarded by the scheduler.
+         */
+        private final List<Deployment> dependents =
+                new ArrayList<Deployment>();
+
+        /**
+         * {@code true} if dispatched to the executor, guarded by the
+         * scheduler.
+         */
+        private boolean started;
+
+        /**
+         * {@code true} once the deployment task is invoked, guarded by the
+         * scheduler.
+         */
+        private boolean running;
+
+        /**
+         * {@code true} if the deployment has been cancelled.
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * Create a new instance.
+         * @param bnd the bundle
+         * @param task the deployment task
+         */
+        Deployment(final Bundle bnd,
+                final Callable<OSGiApplicationInfo> task) {
+
+            super(task);
+            this.bundle = bnd;
+        }
+
+        /**
+         * Get the id of the bundle.
+         * @return bundle id
+         */
+        long getBundleId() {
+            return bundle.getBundleId();
+        }
+
+        @Override
+        public void run() {
+            synchronized (DeploymentScheduler.this) {
+                running = true;
+            }
+            CURRENT.set(this);
+            try {
+                super.run();
+            } finally {
+                CURRENT.remove();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (!serial) {
+                completed(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return bundle.toString();
+        }
+    }
+
+    /**
+     * Creates daemon threads for the deployments.
+     */
+    private static final class DeploymentThreadFactory
+            implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "osgi-javaee-deployer-"
+                    + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.util.List;
+
+/**
+ * Aggregated timings of the phases of the deployments and undeployments of
+ * application bundles, per deployer type and phase. Each phase of each
+ * deployment is also logged at {@code FINE} level with the bundle id, the
+ * bundle symbolic name, the deployer type and, for the phases that process
+ * the content of the bundle, the number of bytes processed.
+ *
+ * This service is registered by osgi-javaee-base.
+ */
+public interface DeploymentStatistics {
+
+    /**
+     * Phase invoking {@link OSGiDeploymentRequest#preDeploy()}.
+     */
+    String PRE_DEPLOY = "preDeploy";
+
+    /**
+     * Phase creating the archive of the application bundle.
+     */
+    String MAKE_ARCHIVE = "makeArchive";
+
+    /**
+     * Phase expanding the archive of the application bundle, the bytes are
+     * the size of the expanded content.
+     */
+    String EXPAND = "expandIfNeeded";
+
+    /**
+     * Phase creating the deployment context.
+     */
+    String GET_DEPLOYMENT_CONTEXT = "getDeploymentContext";
+
+    /**
+     * Phase deploying the application in GlassFish.
+     */
+    String DEPLOY = "deploy";
+
+    /**
+     * Phase invoking {@link OSGiDeploymentRequest#postDeploy()}.
+     */
+    String POST_DEPLOY = "postDeploy";
+
+    /**
+     * Phase invoking {@link OSGiUndeploymentRequest#preUndeploy()}.
+     */
+    String PRE_UNDEPLOY = "preUndeploy";
+
+    /**
+     * Phase stopping and unloading the application in GlassFish.
+     */
+    String STOP = "stop";
+
+    /**
+     * Phase undeploying the application in GlassFish.
+     */
+    String UNDEPLOY = "undeploy";
+
+    /**
+     * Phase closing the class loaders of the application.
+     */
+    String CLOSE_CLASS_LOADERS = "closeClassLoaders";
+
+    /**
+     * Phase cleaning up the expanded content of the application.
+     */
+    String CLEANUP = "cleanup";
+
+    /**
+     * Phase invoking {@link OSGiUndeploymentRequest#postUndeploy()}.
+     */
+    String POST_UNDEPLOY = "postUndeploy";
+
+    /**
+     * Get the statistics of all the phases recorded so far.
+     * @return list of statistics, sorted by deployer type and phase
+     */
+    List<PhaseStatistics> getPhaseStatistics();
+
+    /**
+     * Get the number of expansions of an updated application bundle that
+     * reused or patched the content expanded for its previous revision. The
+     * application is still undeployed and deployed again in full.
+     * @return count
+     */
+    long getIncrementalExpansionCount();
+
+    /**
+     * Get the number of expansions of an updated application bundle that
+     * required to expand its content again.
+     * @return count
+     */
+    long getFullExpansionCount();
+
+    /**
+     * Discard all the statistics and counts recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the timings of the deployment phases in memory. There is a single
+ * instance per process, used by the deployment requests and registered as
+ * the {@link DeploymentStatistics} service.
+ */
+final class DeploymentStatisticsImpl implements DeploymentStatistics {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            DeploymentStatisticsImpl.class.getPackage().getName());
+
+    /**
+     * The single instance.
+     */
+    private static final DeploymentStatisticsImpl INSTANCE =
+            new DeploymentStatisticsImpl();
+
+    /**
+     * Counters by deployer type and phase.
+     */
+    private final ConcurrentMap<String, Counter> counters =
+            new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * Number of incremental expansions of updated bundles.
+     */
+    private final AtomicLong incrementalExpansions = new AtomicLong();
+
+    /**
+     * Number of full expansions of updated bundles.
+     */
+    private final AtomicLong fullExpansions = new AtomicLong();
+
+    /**
+     * Create the single instance.
+     */
+    private DeploymentStatisticsImpl() {
+    }
+
+    /**
+     * Get the single instance.
+     * @return DeploymentStatisticsImpl
+     */
+    static DeploymentStatisticsImpl getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a phase that does not process content.
+     * @param request the deployment or undeployment request
+     * @param phase the phase
+     * @param bundle the application bundle
+     * @param start the start time of the phase, from
+     * {@link System#nanoTime()}
+     * @return the end time of the phase, from {@link System#nanoTime()}
+     */
+    static long record(final Object request, final String phase,
+            final Bundle bundle, final long start) {
+
+        long end = System.nanoTime();
+        long time = TimeUnit.NANOSECONDS.toMillis(end - start);
+        String type = getDeployerType(request);
+        INSTANCE.getCounter(type, phase).add(time, 0);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.logp(Level.FINE, "DeploymentStatisticsImpl", "record",
+                    "Phase {0} of bundle {1} ({2}) with deployer {3} took"
+                    + " {4} ms",
+                    new Object[]{phase, bundle.getBundleId(),
+                        bundle.getSymbolicName(), type, time});
+        }
+        return end;
+    }
+
+    /**
+     * Record a phase that processes the content of the application bundle.
+     * @param request the deployment or undeployment request
+     * @param phase the phase
+     * @param bundle the application bundle
+     * @param start the start time of the phase, from
+     * {@link System#nanoTime()}
+     * @param bytes the number of bytes processed
+     * @return the end time of the phase, from {@link System#nanoTime()}
+     */
+    static long record(final Object request, final String phase,
+            final Bundle bundle, final long start, final long bytes) {
+
+        long end = System.nanoTime();
+        long time = TimeUnit.NANOSECONDS.toMillis(end - start);
+        String type = getDeployerType(request);
+        INSTANCE.getCounter(type, phase).add(time, Math.max(0, bytes));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.logp(Level.FINE, "DeploymentStatisticsImpl", "record",
+                    "Phase {0} of bundle {1} ({2}) with deployer {3} took"
+                    + " {4} ms for {5} bytes",
+                    new Object[]{phase, bundle.getBundleId(),
+                        bundle.getSymbolicName(), type, time, bytes});
+        }
+        return end;
+    }
+
+    /**
+     * Record an expansion of an updated application bundle.
+     * @param incremental {@code true} if the content expanded for the
+     * previous revision was reused or patched, {@code false} otherwise
+     */
+    void recordExpansion(final boolean incremental) {
+        if (incremental) {
+            incrementalExpansions.incrementAndGet();
+        } else {
+            fullExpansions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the deployer type of a request, i.e. the simple name of its class
+     * without the request suffix.
+     * @param request the deployment or undeployment request
+     * @return deployer type
+     */
+    private static String getDeployerType(final Object request) {
+        String name = request.getClass().getSimpleName();
+        String[] suffixes = new String[]{
+            "UndeploymentRequest", "DeploymentRequest"
+        };
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix) && name.length() > suffix.length()) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Get the counter for a deployer type and phase, creating it if needed.
+     * @param type the deployer type
+     * @param phase the phase
+     * @return Counter
+     */
+    private Counter getCounter(final String type, final String phase) {
+        String key = type + "#" + phase;
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = new Counter(type, phase);
+            Counter existing = counters.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public List<PhaseStatistics> getPhaseStatistics() {
+        List<PhaseStatistics> stats = new ArrayList<PhaseStatistics>();
+        for (Map.Entry<String, Counter> entry
+                : new TreeMap<String, Counter>(counters).entrySet()) {
+            stats.add(entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    @Override
+    public long getIncrementalExpansionCount() {
+        return incrementalExpansions.get();
+    }
+
+    @Override
+    public long getFullExpansionCount() {
+        return fullExpansions.get();
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        incrementalExpansions.set(0);
+        fullExpansions.set(0);
+    }
+
+    /**
+     * The statistics of a phase for a deployer type.
+     */
+    private static final class Counter {
+
+        /**
+         * The deployer type.
+         */
+        private final String deployerType;
+
+        /**
+         * The phase.
+         */
+        private final String phase;
+
+        /**
+         * Number of times the phase was recorded, guarded by this.
+         */
+        private long count;
+
+        /**
+         * Total time in milliseconds, guarded by this.
+         */
+        private long totalTime;
+
+        /**
+         * Maximum time in milliseconds, guarded by this.
+         */
+        private long maxTime;
+
+        /**
+         * Total number of bytes processed, guarded by this.
+         */
+        private long bytes;
+
+        /**
+         * Number of times per bucket, guarded by this.
+         */
+        private final long[] histogram =
+                new long[PhaseStatistics.getBucketCount()];
+
+        /**
+         * Create a new instance.
+         * @param type the deployer type
+         * @param phaseName the phase
+         */
+        Counter(final String type, final String phaseName) {
+            this.deployerType = type;
+            this.phase = phaseName;
+        }
+
+        /**
+         * Record a phase.
+         * @param time the time in milliseconds
+         * @param phaseBytes the number of bytes processed
+         */
+        synchronized void add(final long time, final long phaseBytes) {
+            count++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            bytes += phaseBytes;
+            histogram[PhaseStatistics.getBucket(time)]++;
+        }
+
+        /**
+         * Take a snapshot of the statistics.
+         * @return PhaseStatistics
+         */
+        synchronized PhaseStatistics snapshot() {
+            return new PhaseStatistics(deployerType, phase, count, totalTime,
+                    maxTime, bytes, histogram.clone());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Random access view of a jar embedded in a bundle. The central directory of
+ * the jar is read once when the index is created; after that, entry lookups
+ * and size lookups are served from memory and entry content is read directly
+ * at its offset instead of scanning the jar sequentially.
+ *
+ * If the embedded jar is not available as a file, its content is spooled to a
+ * temporary file. The temporary file is deleted as soon as the zip file is
+ * open, or when the index is closed on platforms that don't allow deleting an
+ * open file.
+ */
+final class EmbeddedJarIndex {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            EmbeddedJarIndex.class.getPackage().getName());
+
+    /**
+     * The zip file used to read the entries.
+     */
+    private final ZipFile zipFile;
+
+    /**
+     * The spooled copy of the embedded jar left to delete on close,
+     * {@code null} if the jar is read in place or if the copy is already
+     * deleted.
+     */
+    private final File spooledFile;
+
+    /**
+     * The sorted entry names.
+     */
+    private final NameTable names;
+
+    /**
+     * The uncompressed sizes of the entries, indexed by name id.
+     */
+    private final long[] sizes;
+
+    /**
+     * Create a new instance.
+     * @param file the jar file to read
+     * @param spooled {@code true} if the file is a spooled copy that must be
+     * deleted on close
+     * @throws IOException if an error occurs while reading the central
+     * directory
+     */
+    private EmbeddedJarIndex(final File file, final boolean spooled)
+            throws IOException {
+
+        try {
+            this.zipFile = new ZipFile(file);
+        } catch (IOException ex) {
+            if (spooled) {
+                delete(file);
+            }
+            throw ex;
+        }
+        // the open zip file keeps the content readable on POSIX systems
+        if (spooled && !file.delete()) {
+            this.spooledFile = file;
+        } else {
+            this.spooledFile = null;
+        }
+        TreeMap<String, Long> entries = new TreeMap<String, Long>();
+        Enumeration<? extends ZipEntry> zes = zipFile.entries();
+        while (zes.hasMoreElements()) {
+            ZipEntry ze = zes.nextElement();
+            entries.put(ze.getName(), ze.getSize());
+        }
+        this.names = NameTable.of(entries.navigableKeySet());
+        this.sizes = new long[names.size()];
+        int id = 0;
+        for (Long size : entries.values()) {
+            sizes[id++] = size;
+        }
+    }
+
+    /**
+     * Create an index for the jar available at the given URL. The jar is read
+     * in place if the URL points to a file, else it is spooled to a temporary
+     * file first.
+     * @param url the URL of the embedded jar
+     * @return EmbeddedJarIndex
+     * @throws IOException if an error occurs
+     */
+    static EmbeddedJarIndex create(final URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                File file = new File(url.toURI());
+                if (file.isFile()) {
+                    return new EmbeddedJarIndex(file, false);
+                }
+            } catch (URISyntaxException ex) {
+                // fall back to spooling
+            } catch (IllegalArgumentException ex) {
+                // fall back to spooling
+            }
+        }
+        return new EmbeddedJarIndex(spool(url), true);
+    }
+
+    /**
+     * Copy the content of the given URL to a temporary file.
+     * @param url the URL to read
+     * @return the temporary file
+     * @throws IOException if an error occurs
+     */
+    private static File spool(final URL url) throws IOException {
+        File file = File.createTempFile("embeddedjar", ".jar");
+        boolean success = false;
+        try {
+            InputStream in = url.openStream();
+            try {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    JarHelper.copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                delete(file);
+            }
+        }
+        LOGGER.logp(Level.FINE, "EmbeddedJarIndex", "spool",
+                "Spooled {0} to {1}", new Object[]{url, file});
+        return file;
+    }
+
+    /**
+     * Get the sorted entry names.
+     * @return NameTable
+     */
+    NameTable getNames() {
+        return names;
+    }
+
+    /**
+     * Test if the jar contains the given entry.
+     * @param name the entry name
+     * @return {@code true} if the entry exists, {@code false} otherwise
+     */
+    boolean contains(final String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Get the uncompressed size of the given entry.
+     * @param name the entry name
+     * @return the size, {@code 0} if the entry does not exist or {@code -1}
+     * if the size is not recorded in the central directory
+     */
+    long getSize(final String name) {
+        int id = names.indexOf(name);
+        if (id == -1) {
+            return 0;
+        }
+        return sizes[id];
+    }
+
+    /**
+     * Open the content of the given entry.
+     * @param name the entry name
+     * @return InputStream or {@code null} if the entry does not exist
+     * @throws IOException if an error occurs
+     */
+    InputStream getInputStream(final String name) throws IOException {
+        if (!names.contains(name)) {
+            return null;
+        }
+        ZipEntry ze = zipFile.getEntry(name);
+        if (ze == null) {
+            return null;
+        }
+        return zipFile.getInputStream(ze);
+    }
+
+    /**
+     * Close the underlying zip file and delete the spooled copy if any.
+     */
+    void close() {
+        try {
+            zipFile.close();
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "EmbeddedJarIndex", "close",
+                    "Exception while closing " + zipFile.getName(), ex);
+        }
+        if (spooledFile != null) {
+            delete(spooledFile);
+        }
+    }
+
+    /**
+     * Delete a spooled copy.
+     * @param file the spooled copy
+     */
+    private static void delete(final File file) {
+        if (!file.delete()) {
+            LOGGER.logp(Level.WARNING, "EmbeddedJarIndex", "delete",
+                    "Unable to delete {0}", new Object[]{file});
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide cache of the central directory indexes of the jars embedded in
+ * bundles, used to serve {@code embeddedjar:} URLs without scanning the
+ * embedded jar for every connection.
+ *
+ * Indexes are keyed by the URL of the embedded jar and the revision of the
+ * bundle it belongs to, and are evicted in least recently used order once the
+ * number of indexes exceeds the configured size. Indexes of a bundle are
+ * evicted when the bundle is updated, unresolved or uninstalled. An evicted
+ * index is closed when the last stream opened from it is closed.
+ */
+final class EmbeddedJarIndexCache implements SynchronousBundleListener {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            EmbeddedJarIndexCache.class.getPackage().getName());
+
+    /**
+     * Property name for the maximum number of cached indexes.
+     */
+    static final String CACHE_SIZE =
+            "org.glassfish.osgijavaeebase.embeddedjar.cache.size";
+
+    /**
+     * Default maximum number of cached indexes.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 32;
+
+    /**
+     * Bundle id used for embedded jars that don't belong to a known bundle.
+     */
+    private static final long NO_BUNDLE = -1;
+
+    /**
+     * The bundle context used to look up bundles.
+     */
+    private final BundleContext context;
+
+    /**
+     * Maximum number of cached indexes.
+     */
+    private final int maxSize;
+
+    /**
+     * The cached indexes in access order, guarded by itself.
+     */
+    private final Map<String, CachedIndex> indexes =
+            new LinkedHashMap<String, CachedIndex>(16, 0.75f, true);
+
+    /**
+     * Create a new instance.
+     * @param ctx the bundle context used to look up bundles
+     */
+    EmbeddedJarIndexCache(final BundleContext ctx) {
+        this.context = ctx;
+        String size = ctx.getProperty(CACHE_SIZE);
+        if (size != null) {
+            this.maxSize = Integer.parseInt(size);
+        } else {
+            this.maxSize = DEFAULT_CACHE_SIZE;
+        }
+    }
+
+    /**
+     * Open an entry of an embedded jar.
+     * @param jarURL the URL of the embedded jar
+     * @param entryPath the entry path
+     * @return InputStream
+     * @throws IOException if the entry does not exist or an error occurs
+     */
+    InputStream getInputStream(final URL jarURL, final String entryPath)
+            throws IOException {
+
+        final CachedIndex cached = acquire(jarURL);
+        boolean success = false;
+        try {
+            InputStream in = cached.index.getInputStream(entryPath);
+            if (in == null) {
+                throw new IOException("No entry by name " + entryPath);
+            }
+            success = true;
+            return new FilterInputStream(in) {
+
+                /**
+                 * Flag to release the index only once.
+                 */
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        synchronized (this) {
+                            if (!closed) {
+                                closed = true;
+                                release(cached);
+                            }
+                        }
+                    }
+                }
+            };
+        } finally {
+            if (!success) {
+                release(cached);
+            }
+        }
+    }
+
+    /**
+     * Get the index for an embedded jar, creating it if needed, and acquire
+     * a reference to it.
+     * @param jarURL the URL of the embedded jar
+     * @return CachedIndex
+     * @throws IOException if an error occurs
+     */
+    private CachedIndex acquire(final URL jarURL) throws IOException {
+        long bundleId = getBundleId(jarURL);
+        String key = jarURL.toExternalForm() + "@" + getRevision(jarURL,
+                bundleId);
+        synchronized (indexes) {
+            CachedIndex cached = indexes.get(key);
+            if (cached != null) {
+                cached.refCount++;
+                return cached;
+            }
+        }
+
+        // Read the central directory outside of the lock, as the embedded
+        // jar may have to be spooled first.
+        CachedIndex created = new CachedIndex(key, bundleId,
+                EmbeddedJarIndex.create(jarURL));
+        List<CachedIndex> evicted = new ArrayList<CachedIndex>();
+        CachedIndex result;
+        synchronized (indexes) {
+            CachedIndex cached = indexes.get(key);
+            if (cached != null) {
+                // created concurrently
+                evicted.add(created);
+                result = cached;
+            } else {
+                indexes.put(key, created);
+                result = created;
+                Iterator<CachedIndex> it = indexes.values().iterator();
+                while (indexes.size() > maxSize && it.hasNext()) {
+                    CachedIndex eldest = it.next();
+                    if (eldest != created) {
+                        it.remove();
+                        eldest.evicted = true;
+                        if (eldest.refCount == 0) {
+                            evicted.add(eldest);
+                        }
+                    }
+                }
+            }
+            result.refCount++;
+        }
+        for (CachedIndex cached : evicted) {
+            close(cached);
+        }
+        return result;
+    }
+
+    /**
+     * Release a reference to an index, closing it if it has been evicted and
+     * is no longer used.
+     * @param cached the index
+     */
+    private void release(final CachedIndex cached) {
+        boolean close;
+        synchronized (indexes) {
+            cached.refCount--;
+            close = cached.evicted && cached.refCount == 0;
+        }
+        if (close) {
+            close(cached);
+        }
+    }
+
+    /**
+     * Evict all the indexes of the given bundle.
+     * @param bundleId the bundle id
+     */
+    private void evict(final long bundleId) {
+        List<CachedIndex> evicted = new ArrayList<CachedIndex>();
+        synchronized (indexes) {
+            Iterator<CachedIndex> it = indexes.values().iterator();
+            while (it.hasNext()) {
+                CachedIndex cached = it.next();
+                if (cached.bundleId == bundleId) {
+                    it.remove();
+                    cached.evicted = true;
+                    if (cached.refCount == 0) {
+                        evicted.add(cached);
+                    }
+                }
+            }
+        }
+        for (CachedIndex cached : evicted) {
+            close(cached);
+        }
+    }
+
+    /**
+     * Evict all the indexes.
+     */
+    void clear() {
+        List<CachedIndex> evicted = new ArrayList<CachedIndex>();
+        synchronized (indexes) {
+            for (CachedIndex cached : indexes.values()) {
+                cached.evicted = true;
+                if (cached.refCount == 0) {
+                    evicted.add(cached);
+                }
+            }
+            indexes.clear();
+        }
+        for (CachedIndex cached : evicted) {
+            close(cached);
+        }
+    }
+
+    /**
+     * Close an index.
+     * @param cached the index
+     */
+    private static void close(final CachedIndex cached) {
+        cached.index.close();
+        LOGGER.logp(Level.FINE, "EmbeddedJarIndexCache", "close",
+                "Closed index of {0}", new Object[]{cached.key});
+    }
+
+    @Override
+    public void bundleChanged(final BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                evict(event.getBundle().getBundleId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the id of the bundle an embedded jar URL belongs to. Both Felix and
+     * Equinox use the bundle id followed by a dot as the host of their bundle
+     * entry URLs.
+     * @param jarURL the URL of the embedded jar
+     * @return the bundle id, or {@link #NO_BUNDLE} if unknown
+     */
+    private static long getBundleId(final URL jarURL) {
+        String host = jarURL.getHost();
+        if (host == null || "file".equals(jarURL.getProtocol())) {
+            return NO_BUNDLE;
+        }
+        int idx = host.indexOf('.');
+        if (idx != -1) {
+            host = host.substring(0, idx);
+        }
+        try {
+            return Long.parseLong(host);
+        } catch (NumberFormatException ex) {
+            return NO_BUNDLE;
+        }
+    }
+
+    /**
+     * Get a token identifying the revision of an embedded jar.
+     * @param jarURL the URL of the embedded jar
+     * @param bundleId the id of the bundle the embedded jar belongs to
+     * @return the last modified time of the bundle or file, {@code 0} if
+     * unknown
+     */
+    private long getRevision(final URL jarURL, final long bundleId) {
+        if (bundleId != NO_BUNDLE) {
+            Bundle bundle = context.getBundle(bundleId);
+            if (bundle != null) {
+                return bundle.getLastModified();
+            }
+        } else if ("file".equals(jarURL.getProtocol())) {
+            try {
+                return new File(jarURL.toURI()).lastModified();
+            } catch (URISyntaxException ex) {
+                return 0;
+            } catch (IllegalArgumentException ex) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * An index with its reference count.
+     */
+    private static final class CachedIndex {
+
+        /**
+         * The cache key.
+         */
+        private final String key;
+
+        /**
+         * The id of the bundle the embedded jar belongs to.
+         */
+        private final long bundleId;
+
+        /**
+         * The index.
+         */
+        private final EmbeddedJarIndex index;
+
+        /**
+         * Number of streams opened from the index and not yet closed, guarded
+         * by the cache.
+         */
+        private int refCount;
+
+        /**
+         * {@code true} if the index has been evicted, guarded by the cache.
+         */
+        private boolean evicted;
+
+        /**
+         * Create a new instance.
+         * @param cacheKey the cache key
+         * @param bndId the bundle id
+         * @param jarIndex the index
+         */
+        CachedIndex(final String cacheKey, final long bndId,
+                final EmbeddedJarIndex jarIndex) {
+
+            this.key = cacheKey;
+            this.bundleId = bndId;
+            this.index = jarIndex;
+        }
+    }
+}
@@ -0,0 +1,1158 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.glassfish.api.deployment.archive.ReadableArchive;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleReference;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent cache of expanded application archives, kept under the data
+ * area of this bundle so that it survives restarts.
+ *
+ * Each entry is a directory named after a digest of the expanded content,
+ * either provided by the {@link BundleDigestService} or the SHA-1 digest
+ * computed here, next to an index file listing the expanded files with their
+ * size and CRC-32. The index is written last, an entry without index is
+ * incomplete and is never reused. An entry whose index matches the files on
+ * disk is reused as is, regardless of the bundle it was expanded for.
+ *
+ * When the content of an archive changes, e.g. when a bundle is updated, the
+ * entry expanded for its previous content is patched in place if it is not
+ * in use: the files whose size or CRC-32 differ from the central directory of
+ * the new jar are extracted again and the removed files are deleted. The
+ * application itself is still undeployed and deployed again. Such
+ * expansions are counted by {@link DeploymentStatistics} as incremental, the
+ * others as full.
+ *
+ * Entries are reference counted while deployed. Entries that are not in use
+ * are evicted in least recently used order when the total size of the cache
+ * exceeds the budget configured with {@link #CACHE_SIZE}. The sizes of the
+ * entries are kept in memory, the cache directory is only walked by
+ * {@link #sweep()} when this bundle starts. Discarded entry directories are
+ * deleted in the background by the {@link TombstoneReaper}.
+ */
+final class ExpansionCache {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private ExpansionCache() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            ExpansionCache.class.getPackage().getName());
+
+    /**
+     * Property name for the cache budget in megabytes.
+     */
+    static final String CACHE_SIZE =
+            "org.glassfish.osgijavaeebase.expansion.cache.size";
+
+    /**
+     * Default cache budget in megabytes.
+     */
+    private static final long DEFAULT_CACHE_SIZE = 1024;
+
+    /**
+     * Number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024 * 1024;
+
+    /**
+     * Directory under the bundle data area where entries are kept.
+     */
+    private static final String CACHE_DIR = "applications"
+            + File.separator + "cache";
+
+    /**
+     * Suffix of the index files.
+     */
+    private static final String INDEX_SUFFIX = ".index";
+
+    /**
+     * Prefix of the index line holding the total size.
+     */
+    private static final String SIZE_PREFIX = "size ";
+
+    /**
+     * Size of the buffer used to compute digests and checksums.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Index file encoding.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Number of locks shared by the digests.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Locks used to create, validate and evict at most one entry per digest
+     * at a time. Digests share a fixed number of locks, the locks are
+     * reentrant so that a thread can hold the locks of two digests that map
+     * to the same lock.
+     */
+    private static final Lock[] LOCKS = new Lock[LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Reference count of the entries in use, guarded by itself.
+     */
+    private static final Map<String, Integer> IN_USE =
+            new HashMap<String, Integer>();
+
+    /**
+     * Digest of the content last acquired, per archive lineage.
+     */
+    private static final ConcurrentMap<String, String> LATEST =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * Size of the complete entries by digest, in least recently used order,
+     * guarded by itself.
+     */
+    private static final Map<String, Long> SIZES =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Total size of the complete entries, guarded by {@link #SIZES}.
+     */
+    private static long total;
+
+    /**
+     * The cache budget in bytes.
+     */
+    private static volatile long budget = DEFAULT_CACHE_SIZE * MEGABYTE;
+
+    /**
+     * The cache directory, {@code null} until opened, guarded by the class.
+     */
+    private static File cacheDir;
+
+    /**
+     * Get an expanded directory for the given archive, expanding it if the
+     * cache does not hold a valid entry for its content. The returned
+     * directory must be released with {@link #release(File)}.
+     * @param archive the archive
+     * @param file the jar file backing the archive, or {@code null}
+     * @param expander the expander to use
+     * @return the expanded directory
+     * @throws IOException if an error occurs
+     */
+    static File acquire(final ReadableArchive archive, final File file,
+            final ArchiveExpander expander) throws IOException {
+
+        return acquire(archive, file, null, expander);
+    }
+
+    /**
+     * Get an expanded directory for the given archive, expanding it if the
+     * cache does not hold a valid entry for the given content digest. The
+     * returned directory must be released with {@link #release(File)}.
+     * @param archive the archive
+     * @param file the jar file backing the archive, or {@code null}
+     * @param contentDigest hex encoded digest identifying the content of the
+     * archive, or {@code null} to compute it
+     * @param expander the expander to use
+     * @return the expanded directory
+     * @throws IOException if an error occurs
+     */
+    static File acquire(final ReadableArchive archive, final File file,
+            final String contentDigest, final ArchiveExpander expander)
+            throws IOException {
+
+        return acquire(archive, file, contentDigest, null, expander);
+    }
+
+    /**
+     * Get an expanded directory for the given archive, expanding it if the
+     * cache does not hold a valid entry for the given content digest. If the
+     * content of the archive identified by the given lineage changed since it
+     * was last acquired, the entry expanded for the previous content is
+     * patched instead when possible. The returned directory must be released
+     * with {@link #release(File)}.
+     * @param archive the archive
+     * @param file the jar file backing the archive, or {@code null}
+     * @param contentDigest hex encoded digest identifying the content of the
+     * archive, or {@code null} to compute it
+     * @param lineage key identifying the successive contents of the archive,
+     * e.g. the revisions of a bundle, or {@code null}
+     * @param expander the expander to use
+     * @return the expanded directory
+     * @throws IOException if an error occurs
+     */
+    static File acquire(final ReadableArchive archive, final File file,
+            final String contentDigest, final String lineage,
+            final ArchiveExpander expander) throws IOException {
+
+        File root = getCacheDir();
+        String digest = contentDigest;
+        if (digest != null) {
+            LOGGER.logp(Level.FINE, "ExpansionCache", "acquire",
+                    "Using content digest {0} of {1}",
+                    new Object[]{digest, archive.getName()});
+        } else if (file != null && file.isFile()) {
+            digest = digest(file);
+        } else {
+            digest = digest(archive);
+        }
+        File dir = new File(root, digest);
+        File index = new File(root, digest + INDEX_SUFFIX);
+        String previous = null;
+        if (lineage != null) {
+            previous = LATEST.get(lineage);
+            if (digest.equals(previous)) {
+                previous = null;
+            }
+        }
+        boolean incremental = true;
+        Lock lock = getLock(digest);
+        lock.lock();
+        try {
+            long size = -1;
+            if (isValid(dir, index)) {
+                // the modification time orders the entries on next startup
+                if (!index.setLastModified(System.currentTimeMillis())) {
+                    LOGGER.logp(Level.FINE, "ExpansionCache", "acquire",
+                            "Unable to touch {0}", new Object[]{index});
+                }
+                synchronized (SIZES) {
+                    Long recorded = SIZES.get(digest);
+                    if (recorded != null) {
+                        size = recorded;
+                    }
+                }
+                if (size < 0) {
+                    size = readSize(index);
+                }
+                LOGGER.logp(Level.INFO, "ExpansionCache", "acquire",
+                        "Reusing expanded content of {0} at {1}",
+                        new Object[]{archive.getName(), dir});
+            } else {
+                // the entry, if any, is discarded
+                forget(digest);
+                if (previous != null && file != null && file.isFile()) {
+                    size = patch(root, previous, file, expander, dir, index);
+                }
+                if (size >= 0) {
+                    LOGGER.logp(Level.INFO, "ExpansionCache", "acquire",
+                            "Patched expanded content of {0} at {1}",
+                            new Object[]{archive.getName(), dir});
+                } else {
+                    incremental = false;
+                    size = expand(archive, file, expander, dir, index);
+                    LOGGER.logp(Level.INFO, "ExpansionCache", "acquire",
+                            "Expanded {0} at {1}",
+                            new Object[]{archive.getName(), dir});
+                }
+            }
+            record(digest, size);
+            synchronized (IN_USE) {
+                Integer count = IN_USE.get(digest);
+                IN_USE.put(digest, count == null ? 1 : count + 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (lineage != null) {
+            LATEST.put(lineage, digest);
+            if (previous != null) {
+                DeploymentStatisticsImpl.getInstance()
+                        .recordExpansion(incremental);
+            }
+        }
+        evict();
+        return dir;
+    }
+
+    /**
+     * Release a directory obtained with
+     * {@link #acquire(ReadableArchive, File, ArchiveExpander)}. The directory
+     * is kept for later reuse.
+     * @param dir the directory
+     * @return {@code true} if the directory belongs to the cache,
+     * {@code false} otherwise
+     */
+    static boolean release(final File dir) {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        try {
+            if (parent == null
+                    || !parent.equals(getCacheDir().getAbsoluteFile())) {
+                return false;
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        String digest = dir.getName();
+        synchronized (IN_USE) {
+            Integer count = IN_USE.get(digest);
+            if (count != null) {
+                if (count > 1) {
+                    IN_USE.put(digest, count - 1);
+                } else {
+                    IN_USE.remove(digest);
+                }
+            }
+        }
+        LOGGER.logp(Level.FINE, "ExpansionCache", "release",
+                "Released {0}", new Object[]{dir});
+        return true;
+    }
+
+    /**
+     * Get the size of the content of a directory obtained with
+     * {@link #acquire(ReadableArchive, File, ArchiveExpander)}.
+     * @param dir the directory
+     * @return the size, or {@code -1} if the directory does not belong to the
+     * cache
+     */
+    static long getSize(final File dir) {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return -1;
+        }
+        return readSize(new File(parent, dir.getName() + INDEX_SUFFIX));
+    }
+
+    /**
+     * Expand the archive into a new entry.
+     * @param archive the archive
+     * @param file the jar file backing the archive, or {@code null}
+     * @param expander the expander to use
+     * @param dir the entry directory
+     * @param index the entry index file
+     * @return the size of the entry
+     * @throws IOException if an error occurs
+     */
+    private static long expand(final ReadableArchive archive, final File file,
+            final ArchiveExpander expander, final File dir, final File index)
+            throws IOException {
+
+        // Left-over of an interrupted expansion or of a corrupted entry.
+        delete(index);
+        delete(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Not able to expand " + archive.getName()
+                    + " in " + dir);
+        }
+        boolean success = false;
+        try {
+            if (file != null && file.isFile()) {
+                expander.expand(file, dir);
+            } else {
+                expander.expand(archive, dir);
+            }
+            long size = writeIndex(dir, index);
+            success = true;
+            return size;
+        } finally {
+            if (!success) {
+                delete(dir);
+            }
+        }
+    }
+
+    /**
+     * Patch the entry expanded for the previous content of a jar into a new
+     * entry. The previous entry is moved to the new entry directory, then the
+     * files that differ from the central directory of the jar are extracted
+     * and the files that are no longer in the jar are deleted. The previous
+     * entry is left untouched if it is in use, locked or not valid.
+     * @param root the cache directory
+     * @param previous the digest of the previous entry
+     * @param jar the jar file
+     * @param expander the expander to use
+     * @param dir the new entry directory
+     * @param index the new entry index file
+     * @return the size of the new entry, or {@code -1} if the jar must be
+     * expanded
+     * @throws IOException if an error occurs
+     */
+    private static long patch(final File root, final String previous,
+            final File jar, final ArchiveExpander expander, final File dir,
+            final File index) throws IOException {
+
+        Map<String, long[]> entries = readCentralDirectory(jar);
+        if (entries == null) {
+            return -1;
+        }
+        File previousDir = new File(root, previous);
+        File previousIndex = new File(root, previous + INDEX_SUFFIX);
+        Lock lock = getLock(previous);
+        if (!lock.tryLock()) {
+            return -1;
+        }
+        Map<String, long[]> files;
+        try {
+            synchronized (IN_USE) {
+                if (IN_USE.containsKey(previous)) {
+                    return -1;
+                }
+            }
+            if (!isValid(previousDir, previousIndex)) {
+                return -1;
+            }
+            files = readIndex(previousIndex);
+            if (files == null) {
+                return -1;
+            }
+            // Without index, the directory is an incomplete entry that is
+            // deleted by sweep if the patch is interrupted.
+            forget(previous);
+            delete(index);
+            delete(dir);
+            delete(previousIndex);
+            if (!previousDir.renameTo(dir)) {
+                delete(previousDir);
+                return -1;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        boolean success = false;
+        long size;
+        try {
+            List<String> changed = new ArrayList<String>();
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                long[] old = files.remove(entry.getKey());
+                if (old == null || old[0] != entry.getValue()[0]
+                        || old[1] != entry.getValue()[1]) {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (String name : files.keySet()) {
+                File f = new File(dir, name);
+                delete(f);
+                deleteEmptyParents(dir, f.getParentFile());
+            }
+            expander.expand(jar, dir, changed);
+            size = writeIndex(entries, index);
+            success = true;
+            LOGGER.logp(Level.FINE, "ExpansionCache", "patch",
+                    "Patched {0} from {1}: {2} files extracted, {3} deleted,"
+                    + " {4} unchanged",
+                    new Object[]{dir, previous, changed.size(), files.size(),
+                        entries.size() - changed.size()});
+        } finally {
+            if (!success) {
+                delete(dir);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Read the CRC-32 and sizes of the files of a jar from its central
+     * directory.
+     * @param jar the jar file
+     * @return map of the CRC-32 and size by file name, {@code null} if the
+     * central directory does not record them
+     * @throws IOException if an error occurs
+     */
+    private static Map<String, long[]> readCentralDirectory(final File jar)
+            throws IOException {
+
+        Map<String, long[]> entries = new TreeMap<String, long[]>();
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> zes = zipFile.entries();
+            while (zes.hasMoreElements()) {
+                ZipEntry ze = zes.nextElement();
+                if (ze.isDirectory()) {
+                    continue;
+                }
+                if (ze.getCrc() == -1 || ze.getSize() == -1) {
+                    return null;
+                }
+                entries.put(ze.getName(), new long[]{
+                    ze.getCrc(), ze.getSize()
+                });
+            }
+        } finally {
+            zipFile.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Read the CRC-32 and sizes of the files listed in an index file.
+     * @param index the index file
+     * @return map of the CRC-32 and size by file name, {@code null} if the
+     * index is invalid
+     * @throws IOException if an error occurs
+     */
+    private static Map<String, long[]> readIndex(final File index)
+            throws IOException {
+
+        Map<String, long[]> files = new HashMap<String, long[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(index), ENCODING));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(SIZE_PREFIX)) {
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                // <crc> <size> <name>
+                int idx1 = line.indexOf(' ');
+                int idx2 = line.indexOf(' ', idx1 + 1);
+                if (idx1 == -1 || idx2 == -1) {
+                    return null;
+                }
+                files.put(line.substring(idx2 + 1), new long[]{
+                    Long.parseLong(line.substring(0, idx1), 16),
+                    Long.parseLong(line.substring(idx1 + 1, idx2))
+                });
+            }
+            return files;
+        } catch (NumberFormatException ex) {
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Delete the empty directories from the given directory up to the entry
+     * directory, excluded.
+     * @param root the entry directory
+     * @param dir the directory to start from
+     */
+    private static void deleteEmptyParents(final File root, final File dir) {
+        File d = dir;
+        while (d != null && !d.equals(root)) {
+            String[] children = d.list();
+            if (children == null || children.length > 0 || !d.delete()) {
+                return;
+            }
+            d = d.getParentFile();
+        }
+    }
+
+    /**
+     * Test if an entry is complete and matches the files on disk. Only the
+     * sizes are checked, the checksums are not recomputed.
+     * @param dir the entry directory
+     * @param index the entry index file
+     * @return {@code true} if valid, {@code false} otherwise
+     * @throws IOException if an error occurs
+     */
+    private static boolean isValid(final File dir, final File index)
+            throws IOException {
+
+        if (!index.isFile() || !dir.isDirectory()) {
+            return false;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(index), ENCODING));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(SIZE_PREFIX)) {
+                return false;
+            }
+            while ((line = reader.readLine()) != null) {
+                // <crc> <size> <name>
+                int idx1 = line.indexOf(' ');
+                int idx2 = line.indexOf(' ', idx1 + 1);
+                if (idx1 == -1 || idx2 == -1) {
+                    return false;
+                }
+                long size = Long.parseLong(line.substring(idx1 + 1, idx2));
+                File f = new File(dir, line.substring(idx2 + 1));
+                if (!f.isFile() || f.length() != size) {
+                    LOGGER.logp(Level.INFO, "ExpansionCache", "isValid",
+                            "Discarding {0}, {1} does not match its index",
+                            new Object[]{dir, f});
+                    return false;
+                }
+            }
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Write the index of an entry, listing all the files under the entry
+     * directory with their size and CRC-32.
+     * @param dir the entry directory
+     * @param index the entry index file
+     * @return the total size of the files
+     * @throws IOException if an error occurs
+     */
+    private static long writeIndex(final File dir, final File index)
+            throws IOException {
+
+        Map<String, long[]> files = new TreeMap<String, long[]>();
+        byte[] buf = new byte[BUFFER_SIZE];
+        List<String> names = new ArrayList<String>();
+        list(dir, "", names);
+        for (String name : names) {
+            File f = new File(dir, name);
+            CRC32 crc = new CRC32();
+            InputStream in = new FileInputStream(f);
+            try {
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    crc.update(buf, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            files.put(name, new long[]{crc.getValue(), f.length()});
+        }
+        return writeIndex(files, index);
+    }
+
+    /**
+     * Write the index of an entry from the given CRC-32 and sizes.
+     * @param files map of the CRC-32 and size by file name
+     * @param index the entry index file
+     * @return the total size of the files
+     * @throws IOException if an error occurs
+     */
+    private static long writeIndex(final Map<String, long[]> files,
+            final File index) throws IOException {
+
+        List<String> lines = new ArrayList<String>();
+        long size = 0;
+        for (Map.Entry<String, long[]> entry : files.entrySet()) {
+            long[] crcAndSize = entry.getValue();
+            size += crcAndSize[1];
+            lines.add(Long.toHexString(crcAndSize[0]) + " " + crcAndSize[1]
+                    + " " + entry.getKey());
+        }
+        File tmp = new File(index.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp),
+                ENCODING);
+        try {
+            writer.write(SIZE_PREFIX + size + "\n");
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(index)) {
+            delete(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + index);
+        }
+        return size;
+    }
+
+    /**
+     * List the files under a directory, recursively.
+     * @param dir the directory
+     * @param prefix the relative path of the directory
+     * @param names list to add the relative paths of the files to
+     */
+    private static void list(final File dir, final String prefix,
+            final List<String> names) {
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                list(f, name + "/", names);
+            } else {
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * Record the size of a complete entry and mark it as the most recently
+     * used.
+     * @param digest the entry digest
+     * @param size the entry size
+     */
+    private static void record(final String digest, final long size) {
+        synchronized (SIZES) {
+            Long old = SIZES.put(digest, size);
+            total += size;
+            if (old != null) {
+                total -= old;
+            }
+        }
+    }
+
+    /**
+     * Forget the size of an entry that is deleted or moved.
+     * @param digest the entry digest
+     */
+    private static void forget(final String digest) {
+        synchronized (SIZES) {
+            Long old = SIZES.remove(digest);
+            if (old != null) {
+                total -= old;
+            }
+        }
+    }
+
+    /**
+     * Evict the least recently used entries that are not in use until the
+     * cache fits in its budget. Entries locked by another thread are
+     * skipped.
+     */
+    private static void evict() {
+        List<String> digests;
+        synchronized (SIZES) {
+            if (total <= budget) {
+                return;
+            }
+            digests = new ArrayList<String>(SIZES.keySet());
+        }
+        File root;
+        synchronized (ExpansionCache.class) {
+            root = cacheDir;
+        }
+        if (root == null) {
+            return;
+        }
+        for (String digest : digests) {
+            synchronized (SIZES) {
+                if (total <= budget) {
+                    return;
+                }
+            }
+            Lock lock = getLock(digest);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                synchronized (IN_USE) {
+                    if (IN_USE.containsKey(digest)) {
+                        continue;
+                    }
+                }
+                synchronized (SIZES) {
+                    if (!SIZES.containsKey(digest)) {
+                        continue;
+                    }
+                }
+                forget(digest);
+                File dir = new File(root, digest);
+                delete(new File(root, digest + INDEX_SUFFIX));
+                delete(dir);
+                LOGGER.logp(Level.INFO, "ExpansionCache", "evict",
+                        "Evicted {0}", new Object[]{dir});
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Delete an entry that has no index, unless it is being expanded.
+     * @param dir the entry directory
+     * @param index the entry index file
+     */
+    private static void deleteIncomplete(final File dir, final File index) {
+        Lock lock = getLock(dir.getName());
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!index.exists()) {
+                delete(dir);
+                LOGGER.logp(Level.INFO, "ExpansionCache", "deleteIncomplete",
+                        "Deleted incomplete expansion {0}", new Object[]{dir});
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the total size recorded in an index file.
+     * @param index the index file
+     * @return the size, or {@code -1} if the index is missing or invalid
+     */
+    private static long readSize(final File index) {
+        if (!index.isFile()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(index), ENCODING));
+            try {
+                String line = reader.readLine();
+                if (line != null && line.startsWith(SIZE_PREFIX)) {
+                    return Long.parseLong(
+                            line.substring(SIZE_PREFIX.length()));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "ExpansionCache", "readSize",
+                    "Unable to read " + index, ex);
+        } catch (NumberFormatException ex) {
+            LOGGER.logp(Level.FINE, "ExpansionCache", "readSize",
+                    "Unable to read " + index, ex);
+        }
+        return -1;
+    }
+
+    /**
+     * Compute the digest of a jar file.
+     * @param file the file
+     * @return hex encoded digest
+     * @throws IOException if an error occurs
+     */
+    private static String digest(final File file) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            update(md, in, new byte[BUFFER_SIZE]);
+        } finally {
+            in.close();
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Compute the digest of the entries of an archive.
+     * @param archive the archive
+     * @return hex encoded digest
+     * @throws IOException if an error occurs
+     */
+    private static String digest(final ReadableArchive archive)
+            throws IOException {
+
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        List<String> names = Collections.list(archive.entries());
+        Collections.sort(names);
+        for (String name : names) {
+            md.update(name.getBytes(ENCODING));
+            md.update((byte) 0);
+            InputStream in = archive.getEntry(name);
+            if (in != null) {
+                try {
+                    update(md, in, buf);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        if (!names.contains(JarFile.MANIFEST_NAME)) {
+            // written by the expander
+            Manifest m = archive.getManifest();
+            if (m != null) {
+                md.update(JarFile.MANIFEST_NAME.getBytes(ENCODING));
+                md.update((byte) 0);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                m.write(baos);
+                md.update(baos.toByteArray());
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Update a digest with the content of a stream.
+     * @param md the digest
+     * @param in the stream
+     * @param buf the buffer to use
+     * @throws IOException if an error occurs
+     */
+    private static void update(final MessageDigest md, final InputStream in,
+            final byte[] buf) throws IOException {
+
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            md.update(buf, 0, read);
+        }
+    }
+
+    /**
+     * Create a SHA-1 message digest.
+     * @return MessageDigest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // every JRE supports SHA-1
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Hex encode the given bytes.
+     * @param bytes the bytes
+     * @return hex string
+     */
+    private static String toHex(final byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the lock for the given digest.
+     * @param digest the digest
+     * @return lock
+     */
+    private static Lock getLock(final String digest) {
+        return LOCKS[(digest.hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+    }
+
+    /**
+     * Delete the given file or directory if it exists.
+     * @param f the file or directory
+     */
+    private static void delete(final File f) {
+        if (!f.exists()) {
+            return;
+        }
+        boolean deleted;
+        if (f.isDirectory()) {
+            deleted = TombstoneReaper.delete(f);
+        } else {
+            deleted = f.delete();
+        }
+        if (!deleted) {
+            LOGGER.logp(Level.WARNING, "ExpansionCache", "delete",
+                    "Unable to delete {0}", new Object[]{f});
+        }
+    }
+
+    /**
+     * Open the cache in the default directory with the configured budget.
+     * The entry directories discarded by a previous run and not deleted yet
+     * are scheduled for deletion, the incomplete entries are deleted and the
+     * sizes of the complete entries are loaded.
+     */
+    static void sweep() {
+        try {
+            open(getDefaultCacheDir(), getBudget());
+        } catch (IOException ex) {
+            LOGGER.logp(Level.WARNING, "ExpansionCache", "sweep",
+                    "Unable to sweep the cache", ex);
+        }
+    }
+
+    /**
+     * Open the cache in the given directory. This is the only time the cache
+     * directory is walked.
+     * @param dir the cache directory
+     * @param budgetBytes the cache budget in bytes
+     * @throws IOException if the directory can't be created
+     */
+    static synchronized void open(final File dir, final long budgetBytes)
+            throws IOException {
+
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        TombstoneReaper.sweep(dir);
+        final Map<String, Long> lastUsed = new HashMap<String, Long>();
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.isDirectory() || f.getName()
+                        .endsWith(TombstoneReaper.TOMBSTONE_SUFFIX)) {
+                    continue;
+                }
+                File index = new File(dir, f.getName() + INDEX_SUFFIX);
+                long size = readSize(index);
+                if (size < 0) {
+                    deleteIncomplete(f, index);
+                } else {
+                    lastUsed.put(f.getName(), index.lastModified());
+                    sizes.put(f.getName(), size);
+                }
+            }
+        }
+        List<String> digests = new ArrayList<String>(lastUsed.keySet());
+        Collections.sort(digests, new Comparator<String>() {
+            @Override
+            public int compare(final String d1, final String d2) {
+                long t1 = lastUsed.get(d1);
+                long t2 = lastUsed.get(d2);
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        synchronized (SIZES) {
+            SIZES.clear();
+            total = 0;
+            for (String digest : digests) {
+                SIZES.put(digest, sizes.get(digest));
+                total += sizes.get(digest);
+            }
+        }
+        cacheDir = dir;
+        budget = budgetBytes;
+        evict();
+    }
+
+    /**
+     * Close the cache, dropping its in-memory state. The entries on disk are
+     * kept for the next run.
+     */
+    static synchronized void close() {
+        cacheDir = null;
+        synchronized (IN_USE) {
+            IN_USE.clear();
+        }
+        LATEST.clear();
+        synchronized (SIZES) {
+            SIZES.clear();
+            total = 0;
+        }
+    }
+
+    /**
+     * Get the total size of the complete entries.
+     * @return the size in bytes
+     */
+    static long getTotalSize() {
+        synchronized (SIZES) {
+            return total;
+        }
+    }
+
+    /**
+     * Get the configured cache budget.
+     * @return budget in bytes
+     */
+    private static long getBudget() {
+        BundleContext ctx = getBundleContext();
+        String value;
+        if (ctx != null) {
+            value = ctx.getProperty(CACHE_SIZE);
+        } else {
+            value = System.getProperty(CACHE_SIZE);
+        }
+        if (value == null) {
+            return DEFAULT_CACHE_SIZE * MEGABYTE;
+        }
+        try {
+            long size = Long.parseLong(value.trim());
+            if (size >= 0 && size <= Long.MAX_VALUE / MEGABYTE) {
+                return size * MEGABYTE;
+            }
+        } catch (NumberFormatException ex) {
+            // logged below
+        }
+        LOGGER.logp(Level.WARNING, "ExpansionCache", "getBudget",
+                "Invalid value {0} for {1}, using {2}",
+                new Object[]{value, CACHE_SIZE, DEFAULT_CACHE_SIZE});
+        return DEFAULT_CACHE_SIZE * MEGABYTE;
+    }
+
+    /**
+     * Get the cache directory, opening the cache in the default directory if
+     * it is not open.
+     * @return the cache directory
+     * @throws IOException if the directory can't be created
+     */
+    private static synchronized File getCacheDir() throws IOException {
+        if (cacheDir == null) {
+            open(getDefaultCacheDir(), getBudget());
+        }
+        return cacheDir;
+    }
+
+    /**
+     * We don't keep the cache in tmpdir, because in some deployment
+     * environment, the tmpdir is periodically cleaned up by external programs.
+     * So, we keep it in bundle private storage area, unless we are not
+     * running as a bundle.
+     * @return the default cache directory
+     */
+    private static File getDefaultCacheDir() {
+        File base = null;
+        BundleContext ctx = getBundleContext();
+        if (ctx != null) {
+            base = ctx.getDataFile("");
+        }
+        if (base == null) {
+            base = new File(System.getProperty("java.io.tmpdir"));
+        }
+        return new File(base, CACHE_DIR);
+    }
+
+    /**
+     * Get the bundle context of this bundle.
+     * @return BundleContext or {@code null} if not running as a bundle
+     */
+    private static BundleContext getBundleContext() {
+        ClassLoader cl = ExpansionCache.class.getClassLoader();
+        if (cl instanceof BundleReference) {
+            return ((BundleReference) cl).getBundle().getBundleContext();
+        }
+        return null;
+    }
+}
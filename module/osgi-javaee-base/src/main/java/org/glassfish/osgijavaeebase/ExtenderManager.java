@@ -24,16 +24,28 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * It is responsible for starting any registered {@link Extender} service after
  * GlassFish server is started and stopping them when server is shutdown. We use
- * GlassFish STARTED event to be notified of server startup and shutdown.
+ * GlassFish SERVER_READY event to be notified of server startup, and
+ * PREPARE_SHUTDOWN event to be notified of server shutdown. Extenders are
+ * started concurrently.
  */
 class ExtenderManager {
 
@@ -43,6 +55,25 @@ class ExtenderManager {
     private static final Logger LOGGER = Logger.getLogger(
             ExtenderManager.class.getPackage().getName());
 
+    /**
+     * Initial interval between two checks of the GlassFish status, in
+     * milliseconds.
+     */
+    private static final long MIN_POLL_INTERVAL = 10;
+
+    /**
+     * Maximum interval between two checks of the GlassFish status, in
+     * milliseconds. The status is only checked periodically in case the
+     * SERVER_READY event can't be received.
+     */
+    private static final long MAX_POLL_INTERVAL = 1000;
+
+    /**
+     * Maximum time to wait for an extender being started before stopping it,
+     * in milliseconds. The start is interrupted once the timeout expires.
+     */
+    private static final long START_TIMEOUT = 30000;
+
     /**
      * The bundle context.
      */
@@ -68,6 +99,11 @@ class ExtenderManager {
      */
     private GlassFishServerTracker glassFishServerTracker;
 
+    /**
+     * Executor used to start the extenders.
+     */
+    private volatile ExecutorService executor;
+
     /**
      * Create a new instance.
      * @param ctx the bundle context
@@ -83,6 +119,9 @@ class ExtenderManager {
     public final synchronized void start() throws Exception {
         LOGGER.logp(Level.FINE, "ExtenderManager", "start",
                 "ExtenderManager starting");
+        executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ExtenderThreadFactory());
         glassFishServerTracker = new GlassFishServerTracker(context);
         glassFishServerTracker.open();
     }
@@ -100,24 +139,31 @@ class ExtenderManager {
             glassFishServerTracker = null;
         }
         stopExtenders();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
     }
 
     /**
      * Start the registered extenders.
+     * @return a future completed once all the extenders are started
      */
-    private synchronized void startExtenders() {
+    private synchronized Future<Integer> startExtenders() {
         LOGGER.entering("ExtenderManager", "startExtenders");
 
         // Because of a race condition, we can be started multiple times,
         // so check if already started
         if (extenderTracker != null) {
-            return;
+            return new AllStarted(new ArrayList<Future<?>>());
         }
 
         // open will call addingService for each existing extender
         // and there by we will start each extender.
-        extenderTracker = new ExtenderTracker(context);
-        extenderTracker.open();
+        ExtenderTracker tracker = new ExtenderTracker(context);
+        extenderTracker = tracker;
+        tracker.open();
+        return tracker.getStarting();
     }
 
     /**
@@ -150,10 +196,136 @@ class ExtenderManager {
     }
 
     /**
-     * OSGi service tracker for {@link Extender} service.
+     * Aggregated future of extenders being started. It is completed once all
+     * the extenders are started, its value is the number of extenders. It
+     * fails with the first start failure, after all the extenders are done.
+     */
+    private static final class AllStarted implements Future<Integer> {
+
+        /**
+         * The futures of the extenders being started.
+         */
+        private final List<Future<?>> starting;
+
+        /**
+         * Create a new instance.
+         * @param futures the futures of the extenders being started
+         */
+        AllStarted(final List<Future<?>> futures) {
+            this.starting = futures;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (Future<?> future : starting) {
+                cancelled |= future.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            for (Future<?> future : starting) {
+                if (future.isCancelled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (Future<?> future : starting) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Integer get()
+                throws InterruptedException, ExecutionException {
+
+            ExecutionException failure = null;
+            for (Future<?> future : starting) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return starting.size();
+        }
+
+        @Override
+        public Integer get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            ExecutionException failure = null;
+            for (Future<?> future : starting) {
+                try {
+                    future.get(deadline - System.nanoTime(),
+                            TimeUnit.NANOSECONDS);
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return starting.size();
+        }
+    }
+
+    /**
+     * A started or starting extender.
+     */
+    private static final class StartedExtender {
+
+        /**
+         * The extender.
+         */
+        private final Extender extender;
+
+        /**
+         * The future completed once the extender is started.
+         */
+        private final Future<?> started;
+
+        /**
+         * Create a new instance.
+         * @param ext the extender
+         * @param future the future completed once the extender is started
+         */
+        StartedExtender(final Extender ext, final Future<?> future) {
+            this.extender = ext;
+            this.started = future;
+        }
+    }
+
+    /**
+     * OSGi service tracker for {@link Extender} service. Extenders are
+     * started on the executor of the extender manager.
      */
     private class ExtenderTracker extends ServiceTracker {
 
+        /**
+         * The futures of the extenders started when the tracker was opened,
+         * guarded by this.
+         */
+        private final List<Future<?>> starting = new ArrayList<Future<?>>();
+
         /**
          * Create a new instance.
          * @param ctx the bundle context
@@ -163,15 +335,56 @@ class ExtenderManager {
             super(ctx, Extender.class.getName(), null);
         }
 
+        /**
+         * Get the aggregated future of the extenders being started.
+         * @return future completed once all the extenders are started
+         */
+        synchronized Future<Integer> getStarting() {
+            return new AllStarted(new ArrayList<Future<?>>(starting));
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         public Object addingService(final ServiceReference reference) {
-            Extender e = Extender.class.cast(context.getService(reference));
+            final Extender e = Extender.class.cast(
+                    context.getService(reference));
             LOGGER.logp(Level.FINE, "ExtenderManager$ExtenderTracker",
                     "addingService",
                     "Starting extender called {0}", new Object[]{e});
-            e.start();
-            return e;
+            Runnable start = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        e.start();
+                    } catch (RuntimeException ex) {
+                        LOGGER.logp(Level.WARNING,
+                                "ExtenderManager$ExtenderTracker",
+                                "addingService",
+                                "Exception starting extender", ex);
+                        throw ex;
+                    }
+                }
+            };
+            Future<?> future = null;
+            ExecutorService ex = executor;
+            if (ex != null) {
+                try {
+                    future = ex.submit(start);
+                } catch (RejectedExecutionException ree) {
+                    // stopping
+                }
+            }
+            if (future == null) {
+                // start in the calling thread
+                FutureTask<Object> task = new FutureTask<Object>(start,
+                        null);
+                task.run();
+                future = task;
+            }
+            synchronized (this) {
+                starting.add(future);
+            }
+            return new StartedExtender(e, future);
         }
 
         @Override
@@ -179,11 +392,30 @@ class ExtenderManager {
         public void removedService(final ServiceReference reference,
                 final Object service) {
 
-            Extender e = Extender.class.cast(context.getService(reference));
+            StartedExtender se = (StartedExtender) service;
+            try {
+                // don't stop an extender while it is starting, but don't
+                // block the framework thread forever either
+                se.started.get(START_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                LOGGER.logp(Level.FINE, "ExtenderManager$ExtenderTracker",
+                        "removedService", "Extender failed to start",
+                        ex.getCause());
+            } catch (TimeoutException ex) {
+                LOGGER.logp(Level.WARNING, "ExtenderManager$ExtenderTracker",
+                        "removedService",
+                        "Extender {0} not started after {1} ms, interrupting",
+                        new Object[]{se.extender, START_TIMEOUT});
+                se.started.cancel(true);
+            }
             LOGGER.logp(Level.FINE, "ExtenderManager$ExtenderTracker",
                     "removedService",
-                    "Stopping extender called {0}", new Object[]{e});
-            e.stop();
+                    "Stopping extender called {0}",
+                    new Object[]{se.extender});
+            se.extender.stop();
+            context.ungetService(reference);
         }
     }
 
@@ -192,7 +424,6 @@ class ExtenderManager {
      * listener that takes care of actually starting and stopping other
      * extenders.
      */
-    @SuppressWarnings("checkstyle:magicnumber")
     private class GlassFishServerTracker extends ServiceTracker {
 
         /**
@@ -213,32 +444,37 @@ class ExtenderManager {
                     .getService(reference));
             ExecutorService executorService = Executors
                     .newSingleThreadExecutor();
-            return executorService.submit(new Runnable() {
+            Future<?> future = executorService.submit(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        // Poll for GlassFish to start. GlassFish service might
-                        // have been registered by
+                        // GlassFish service might have been registered by
                         // GlassFishRuntime.newGlassFish() and hence might not
                         // be ready to use.
                         // This is the case for GlassFish < 4.0
-                        GlassFish.Status status;
-                        while ((status = gf.getStatus())
-                                != GlassFish.Status.STARTED) {
-                            if (status == GlassFish.Status.DISPOSED) {
-                                return;
-                            }
-                            try {
-                                Thread.sleep(1000);
-                            } catch (InterruptedException e) {
-                                return;
-                            }
+                        if (!awaitStarted(gf)) {
+                            return;
                         }
+                        long start = System.currentTimeMillis();
                         // start extenders first before registering for events,
                         // otherwise we can deadlock
                         // if startExtender() is in progress and glassfish sends
                         // PREPARE_SHUTDOWN event.
-                        startExtenders();
+                        Future<Integer> started = startExtenders();
+                        try {
+                            LOGGER.logp(Level.FINE,
+                                    "ExtenderManager$GlassFishServerTracker",
+                                    "run", "Started {0} extenders in {1} ms",
+                                    new Object[]{started.get(),
+                                        System.currentTimeMillis() - start});
+                        } catch (ExecutionException ex) {
+                            // already logged by the failed extender
+                            LOGGER.logp(Level.FINE,
+                                    "ExtenderManager$GlassFishServerTracker",
+                                    "run", "Extenders started in {0} ms,"
+                                    + " some failed",
+                                    System.currentTimeMillis() - start);
+                        }
                         events = gf.getService(Events.class);
                         listener = new EventListener() {
                             @Override
@@ -253,9 +489,86 @@ class ExtenderManager {
                     } catch (GlassFishException e) {
                         // TODO(Sahoo): Proper Exception Handling
                         throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        // stopping
+                        Thread.currentThread().interrupt();
                     }
                 }
             });
+            // the thread is not needed once GlassFish is started
+            executorService.shutdown();
+            return future;
+        }
+
+        /**
+         * Wait for GlassFish to be started. The SERVER_READY event is used if
+         * the events service is available, the status is also checked with
+         * an increasing interval in case the event is missed.
+         * @param gf GlassFish
+         * @return {@code true} if started, {@code false} if disposed
+         * @throws GlassFishException if an error occurs
+         * @throws InterruptedException if interrupted while waiting
+         */
+        private boolean awaitStarted(final GlassFish gf)
+                throws GlassFishException, InterruptedException {
+
+            final CountDownLatch ready = new CountDownLatch(1);
+            Events gfEvents = null;
+            EventListener readyListener = null;
+            if (gf.getStatus() != GlassFish.Status.STARTED) {
+                try {
+                    gfEvents = gf.getService(Events.class);
+                } catch (GlassFishException ex) {
+                    LOGGER.logp(Level.FINE,
+                            "ExtenderManager$GlassFishServerTracker",
+                            "awaitStarted", "Events service not available",
+                            ex);
+                } catch (IllegalStateException ex) {
+                    LOGGER.logp(Level.FINE,
+                            "ExtenderManager$GlassFishServerTracker",
+                            "awaitStarted", "Events service not available",
+                            ex);
+                }
+                if (gfEvents != null) {
+                    readyListener = new EventListener() {
+                        @Override
+                        public void event(final Event event) {
+                            if (EventTypes.SERVER_READY
+                                    .equals(event.type())) {
+                                ready.countDown();
+                            }
+                        }
+                    };
+                    gfEvents.register(readyListener);
+                }
+            }
+            try {
+                // check the status after registering the listener, so that
+                // the event can't be missed
+                long interval = MIN_POLL_INTERVAL;
+                GlassFish.Status status;
+                while ((status = gf.getStatus())
+                        != GlassFish.Status.STARTED) {
+                    if (status == GlassFish.Status.DISPOSED) {
+                        return false;
+                    }
+                    if (ready.getCount() == 0) {
+                        // the event was received, but the status is not
+                        // updated yet; don't spin on the fired latch
+                        Thread.sleep(interval);
+                    } else if (ready.await(interval, TimeUnit.MILLISECONDS)) {
+                        // the status changes right after the event
+                        interval = MIN_POLL_INTERVAL;
+                        continue;
+                    }
+                    interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+                }
+                return true;
+            } finally {
+                if (readyListener != null) {
+                    gfEvents.unregister(readyListener);
+                }
+            }
         }
 
         @Override
@@ -269,4 +582,23 @@ class ExtenderManager {
             super.removedService(reference, service);
         }
     }
+
+    /**
+     * Creates daemon threads to start the extenders.
+     */
+    private static final class ExtenderThreadFactory implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "osgi-javaee-extender-"
+                    + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.File;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import static org.osgi.framework.Constants.FRAMEWORK_STORAGE;
+import static org.osgi.framework.Constants.FRAMEWORK_VENDOR;
+
+/**
+ * {@link BundleFileResolver} for the Apache Felix bundle cache. Felix keeps a
+ * directory named {@code bundle<id>} per bundle under the cache root, with one
+ * {@code version<refresh>.<revision>} directory per bundle revision. A
+ * revision installed from a jar has a copy of that jar named
+ * {@code bundle.jar}; the current revision is the one with the highest
+ * refresh and revision numbers.
+ */
+final class FelixBundleFileResolver implements BundleFileResolver {
+
+    /**
+     * Value of the framework vendor property in Felix.
+     */
+    private static final String FELIX_VENDOR = "Apache Software Foundation";
+
+    /**
+     * Felix property used to resolve a relative cache directory.
+     */
+    private static final String CACHE_ROOTDIR = "felix.cache.rootdir";
+
+    /**
+     * Default cache directory.
+     */
+    private static final String DEFAULT_CACHE_DIR = "felix-cache";
+
+    /**
+     * Prefix of the per bundle directory.
+     */
+    private static final String BUNDLE_DIR_PREFIX = "bundle";
+
+    /**
+     * Prefix of the per revision directory.
+     */
+    private static final String REVISION_DIR_PREFIX = "version";
+
+    /**
+     * Name of the jar copied by Felix in a revision directory.
+     */
+    private static final String BUNDLE_JAR = "bundle.jar";
+
+    /**
+     * The cache root directory.
+     */
+    private final File cacheDir;
+
+    /**
+     * Create a new instance.
+     * @param dir the cache root directory
+     */
+    private FelixBundleFileResolver(final File dir) {
+        this.cacheDir = dir;
+    }
+
+    /**
+     * Create a resolver for the framework of the given bundle context.
+     * @param ctx a bundle context
+     * @return FelixBundleFileResolver or {@code null} if the framework is not
+     * Felix
+     */
+    static FelixBundleFileResolver create(final BundleContext ctx) {
+        if (!FELIX_VENDOR.equals(ctx.getProperty(FRAMEWORK_VENDOR))) {
+            return null;
+        }
+        String storage = ctx.getProperty(FRAMEWORK_STORAGE);
+        if (storage == null) {
+            storage = DEFAULT_CACHE_DIR;
+        }
+        File dir = new File(storage);
+        if (!dir.isAbsolute()) {
+            String rootDir = ctx.getProperty(CACHE_ROOTDIR);
+            if (rootDir != null) {
+                dir = new File(rootDir, storage);
+            }
+        }
+        return new FelixBundleFileResolver(dir);
+    }
+
+    @Override
+    public File resolve(final Bundle bundle) {
+        File bundleDir = new File(cacheDir,
+                BUNDLE_DIR_PREFIX + bundle.getBundleId());
+        File[] revisionDirs = bundleDir.listFiles();
+        if (revisionDirs == null) {
+            return null;
+        }
+        File current = null;
+        long[] currentVersion = null;
+        for (File revisionDir : revisionDirs) {
+            long[] version = parseRevision(revisionDir);
+            if (version != null && (currentVersion == null
+                    || version[0] > currentVersion[0]
+                    || (version[0] == currentVersion[0]
+                    && version[1] > currentVersion[1]))) {
+                current = revisionDir;
+                currentVersion = version;
+            }
+        }
+        if (current == null) {
+            return null;
+        }
+        File jar = new File(current, BUNDLE_JAR);
+        if (jar.isFile()) {
+            return jar;
+        }
+        return null;
+    }
+
+    /**
+     * Parse the refresh and revision numbers of a revision directory.
+     * @param dir the revision directory
+     * @return array of refresh and revision numbers, or {@code null} if the
+     * file is not a revision directory
+     */
+    private static long[] parseRevision(final File dir) {
+        String name = dir.getName();
+        if (!name.startsWith(REVISION_DIR_PREFIX) || !dir.isDirectory()) {
+            return null;
+        }
+        int idx = name.indexOf('.');
+        if (idx == -1) {
+            return null;
+        }
+        try {
+            return new long[]{
+                Long.parseLong(name.substring(REVISION_DIR_PREFIX.length(),
+                        idx)),
+                Long.parseLong(name.substring(idx + 1))
+            };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
@@ -18,18 +18,23 @@ package org.glassfish.osgijavaeebase;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.net.URLConnection;
 import java.net.URI;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.ByteBuffer;
 import java.util.jar.Attributes;
@@ -91,6 +96,9 @@ public final class JarHelper {
      * out a Jar output stream. It reads everything except manifest from the
      * input. Closing of output stream is caller's responsibility.
      *
+     * If the connection reads a local jar file, the compressed content of the
+     * entries is copied as is.
+     *
      * @param con URLConnection to be used as input
      * @param os Output stream to write to
      * @param m Manifest to be written out - cannot be null
@@ -103,6 +111,15 @@ public final class JarHelper {
             JarInputStream jis = null;
             JarOutputStream jos = null;
             try {
+                // The entries don't change, so if the jar is a local file
+                // copy their compressed content instead of inflating and
+                // deflating each of them.
+                File jar = toFile(con.getURL());
+                if (jar != null && jar.isFile()
+                        && JarRewriter.write(jar, os, m)) {
+                    os.close();
+                    return;
+                }
                 // We can assume the underlying stream is a JarInputStream.
                 jis = new JarInputStream(in);
                 jos = new JarOutputStream(os, m);
@@ -139,7 +156,6 @@ public final class JarHelper {
      * @param jos output stream to write to
      * @throws IOException if an error occurs
      */
-    @SuppressWarnings("checkstyle:magicnumber")
     public static void write(final JarInputStream jis,
             final JarOutputStream jos)
             throws IOException {
@@ -147,14 +163,18 @@ public final class JarHelper {
         // Copy each entry from input to output
         // The manifest.mf is automatically excluded,
         // as JarInputStream.getNextEntry never returns that.
-        ByteBuffer byteBuffer = ByteBuffer.allocate(10240);
-        ZipEntry ze;
-        while ((ze = jis.getNextEntry()) != null) {
-            LOGGER.logp(Level.FINE, "JarHelper", "write", "ze = {0}",
-                    new Object[]{ze});
-            jos.putNextEntry(ze);
-            copy(jis, jos, byteBuffer);
-            jos.closeEntry();
+        ByteBuffer byteBuffer = BufferPool.acquire();
+        try {
+            ZipEntry ze;
+            while ((ze = jis.getNextEntry()) != null) {
+                LOGGER.logp(Level.FINE, "JarHelper", "write", "ze = {0}",
+                        new Object[]{ze});
+                jos.putNextEntry(ze);
+                copy(jis, jos, byteBuffer);
+                jos.closeEntry();
+            }
+        } finally {
+            BufferPool.release(byteBuffer);
         }
     }
 
@@ -177,6 +197,7 @@ public final class JarHelper {
         new Thread() {
             @Override
             public void run() {
+                final ByteBuffer buf = BufferPool.acquire();
                 try {
                     Manifest m;
                     File mf = new File(dir, JarFile.MANIFEST_NAME);
@@ -194,7 +215,9 @@ public final class JarHelper {
                                 "1.0");
                     }
                     final JarOutputStream jos = new JarOutputStream(pos, m);
-                    final ByteBuffer buf = ByteBuffer.allocate(10240);
+                    // The jar is only read once by the consumer of the pipe,
+                    // favor speed over size.
+                    jos.setLevel(Deflater.BEST_SPEED);
                     final URI baseURI = dir.toURI();
                     dir.listFiles(new FileFilter() {
                         @Override
@@ -239,48 +262,111 @@ public final class JarHelper {
                 } catch (IOException e) {
                     // TODO(Sahoo): Proper Exception Handling
                     throw new RuntimeException(e);
+                } finally {
+                    BufferPool.release(buf);
                 }
             }
         }.start();
         return pis;
     }
 
+    /**
+     * Copies input to output using a buffer from a shared pool.
+     *
+     * @param in input stream
+     * @param out output stream
+     * @throws IOException if an error occurs
+     */
+    public static void copy(final InputStream in, final OutputStream out)
+            throws IOException {
+
+        ByteBuffer byteBuffer = BufferPool.acquire();
+        try {
+            copy(in, out, byteBuffer);
+        } finally {
+            BufferPool.release(byteBuffer);
+        }
+    }
+
     /**
      * Copies input to output. To avoid unnecessary allocation of byte buffers,
      * this method takes a byte buffer as argument. It clears the byte buffer at
-     * the end of the operation.
+     * the end of the operation. If both streams are file streams, the content
+     * is transferred between the file channels without using the buffer.
      *
      * @param in input stream
      * @param out output stream
      * @param byteBuffer byte buffer
      * @throws IOException if an error occurs
      */
-    @SuppressWarnings("checkstyle:emptyblock")
     public static void copy(final InputStream in, final OutputStream out,
             final ByteBuffer byteBuffer)
             throws IOException {
 
         try {
-            ReadableByteChannel inChannel = Channels.newChannel(in);
-            WritableByteChannel outChannel = Channels.newChannel(out);
-
-            int read;
-            do {
-                read = inChannel.read(byteBuffer);
-                if (read > 0) {
-                    byteBuffer.limit(byteBuffer.position());
-                    byteBuffer.rewind();
-                    int written = 0;
-                    while ((written += outChannel.write(byteBuffer)) < read) {
-                        // write all bytes
+            if (in instanceof FileInputStream
+                    && out instanceof FileOutputStream) {
+                transfer(((FileInputStream) in).getChannel(),
+                        ((FileOutputStream) out).getChannel());
+            } else if (byteBuffer.hasArray()) {
+                // no need for channels, read and write the backing array
+                byte[] buf = byteBuffer.array();
+                int off = byteBuffer.arrayOffset();
+                int len = byteBuffer.capacity();
+                int read;
+                while ((read = in.read(buf, off, len)) != -1) {
+                    out.write(buf, off, read);
+                }
+            } else {
+                ReadableByteChannel inChannel = Channels.newChannel(in);
+                WritableByteChannel outChannel = Channels.newChannel(out);
+                while (inChannel.read(byteBuffer) != -1) {
+                    byteBuffer.flip();
+                    while (byteBuffer.hasRemaining()) {
+                        outChannel.write(byteBuffer);
                     }
-                    LOGGER.logp(Level.FINE, "JarHelper", "write",
-                            "Copied {0} bytes", new Object[]{read});
                     byteBuffer.clear();
                 }
-            } while (read != -1);
+            }
         } finally {
             byteBuffer.clear();
         }
     }
+
+    /**
+     * Transfer the remaining content of a file channel to another file
+     * channel, starting at the current positions of both channels.
+     *
+     * @param in the channel to read
+     * @param out the channel to write
+     * @throws IOException if an error occurs
+     */
+    private static void transfer(final FileChannel in, final FileChannel out)
+            throws IOException {
+
+        long pos = in.position();
+        long size = in.size();
+        while (pos < size) {
+            pos += in.transferTo(pos, size - pos, out);
+        }
+        in.position(pos);
+    }
+
+    /**
+     * Get the local file read by the given URL.
+     * @param url the URL
+     * @return the file, {@code null} if the URL is not a file URL
+     */
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Rewrites a jar file with a different manifest without inflating and
+ * deflating the other entries. The local headers and the compressed data of
+ * the entries are transferred as is from the source file, and a new central
+ * directory is written with the updated offsets.
+ *
+ * Only plain zip files are supported, i.e. zip64 archives and archives split
+ * across several files are not. The unsupported archives are detected before
+ * anything is written so that the caller can fall back to a regular copy.
+ */
+final class JarRewriter {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private JarRewriter() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            JarRewriter.class.getPackage().getName());
+
+    /**
+     * Local file header signature.
+     */
+    private static final int LOC_SIG = 0x04034b50;
+
+    /**
+     * Central directory file header signature.
+     */
+    private static final int CEN_SIG = 0x02014b50;
+
+    /**
+     * End of central directory record signature.
+     */
+    private static final int END_SIG = 0x06054b50;
+
+    /**
+     * Data descriptor signature.
+     */
+    private static final int EXT_SIG = 0x08074b50;
+
+    /**
+     * Size of the fixed part of a local file header.
+     */
+    private static final int LOC_HDR = 30;
+
+    /**
+     * Size of the fixed part of a central directory file header.
+     */
+    private static final int CEN_HDR = 46;
+
+    /**
+     * Size of the fixed part of the end of central directory record.
+     */
+    private static final int END_HDR = 22;
+
+    /**
+     * Maximum size of the zip file comment.
+     */
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    /**
+     * Maximum value of the 16 bits fields.
+     */
+    private static final int MAX_SHORT = 0xFFFF;
+
+    /**
+     * Maximum value of the 32 bits fields.
+     */
+    private static final long MAX_INT = 0xFFFFFFFFL;
+
+    /**
+     * General purpose flag indicating a trailing data descriptor.
+     */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    /**
+     * General purpose flag indicating UTF-8 names.
+     */
+    private static final int FLAG_UTF8 = 0x800;
+
+    /**
+     * Deflated compression method.
+     */
+    private static final int DEFLATED = 8;
+
+    /**
+     * Version needed to extract deflated entries.
+     */
+    private static final int VERSION = 20;
+
+    /**
+     * Charset of the entry names.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Write the content of the given jar with the given manifest. The
+     * manifest of the jar, if any, is not written.
+     * @param jar the jar file
+     * @param os the output stream, not closed by this method
+     * @param m the manifest to write
+     * @return {@code true} if the jar has been written, {@code false} if the
+     * jar is not supported, in which case nothing has been written
+     * @throws IOException if an error occurs
+     */
+    static boolean write(final File jar, final OutputStream os,
+            final Manifest m) throws IOException {
+
+        FileInputStream fis = new FileInputStream(jar);
+        try {
+            FileChannel in = fis.getChannel();
+            List<Entry> entries = readCentralDirectory(in);
+            if (entries == null) {
+                LOGGER.logp(Level.FINE, "JarRewriter", "write",
+                        "Unsupported jar {0}", new Object[]{jar});
+                return false;
+            }
+            write(in, entries, os, m);
+            return true;
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Read the central directory of a jar and locate the raw content of its
+     * entries.
+     * @param in the jar content
+     * @return the entries in central directory order, {@code null} if the jar
+     * is not supported
+     * @throws IOException if an error occurs
+     */
+    private static List<Entry> readCentralDirectory(final FileChannel in)
+            throws IOException {
+
+        long size = in.size();
+        if (size < END_HDR) {
+            return null;
+        }
+        int tailSize = (int) Math.min(size, END_HDR + MAX_COMMENT);
+        ByteBuffer tail = read(in, size - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_HDR; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1
+                || tail.getShort(end + 4) != 0
+                || tail.getShort(end + 6) != 0) {
+            return null;
+        }
+        int count = tail.getShort(end + 10) & MAX_SHORT;
+        long cenSize = tail.getInt(end + 12) & MAX_INT;
+        long cenOffset = tail.getInt(end + 16) & MAX_INT;
+        if (count == MAX_SHORT || cenSize == MAX_INT || cenOffset == MAX_INT
+                || cenOffset + cenSize > size - tailSize + end) {
+            // zip64 or corrupted
+            return null;
+        }
+
+        ByteBuffer cen = read(in, cenOffset, (int) cenSize);
+        List<Entry> entries = new ArrayList<Entry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_HDR > cen.limit() || cen.getInt(pos) != CEN_SIG) {
+                return null;
+            }
+            int flags = cen.getShort(pos + 8) & MAX_SHORT;
+            long csize = cen.getInt(pos + 20) & MAX_INT;
+            long usize = cen.getInt(pos + 24) & MAX_INT;
+            int nameLen = cen.getShort(pos + 28) & MAX_SHORT;
+            int extraLen = cen.getShort(pos + 30) & MAX_SHORT;
+            int commentLen = cen.getShort(pos + 32) & MAX_SHORT;
+            long offset = cen.getInt(pos + 42) & MAX_INT;
+            int headerLen = CEN_HDR + nameLen + extraLen + commentLen;
+            if (csize == MAX_INT || usize == MAX_INT || offset == MAX_INT
+                    || pos + headerLen > cen.limit()) {
+                return null;
+            }
+            byte[] nameBytes = new byte[nameLen];
+            cen.position(pos + CEN_HDR);
+            cen.get(nameBytes);
+            byte[] header = new byte[headerLen];
+            cen.position(pos);
+            cen.get(header);
+
+            // the raw content spans the local header, the compressed data
+            // and the optional data descriptor
+            ByteBuffer loc = read(in, offset, LOC_HDR);
+            if (loc.getInt(0) != LOC_SIG) {
+                return null;
+            }
+            long dataEnd = offset + LOC_HDR
+                    + (loc.getShort(26) & MAX_SHORT)
+                    + (loc.getShort(28) & MAX_SHORT)
+                    + csize;
+            if ((flags & FLAG_DATA_DESCRIPTOR) != 0) {
+                if (dataEnd + 4 <= size
+                        && read(in, dataEnd, 4).getInt(0) == EXT_SIG) {
+                    dataEnd += 16;
+                } else {
+                    dataEnd += 12;
+                }
+            }
+            if (dataEnd > size) {
+                return null;
+            }
+            entries.add(new Entry(new String(nameBytes, UTF8), header,
+                    offset, dataEnd - offset));
+            pos += headerLen;
+        }
+        return entries;
+    }
+
+    /**
+     * Write the jar.
+     * @param in the content of the source jar
+     * @param entries the entries of the source jar
+     * @param os the output stream
+     * @param m the manifest to write
+     * @throws IOException if an error occurs
+     */
+    private static void write(final FileChannel in, final List<Entry> entries,
+            final OutputStream os, final Manifest m) throws IOException {
+
+        WritableByteChannel out = Channels.newChannel(os);
+        ByteArrayOutputStream cen = new ByteArrayOutputStream();
+        long offset = 0;
+        int count = 0;
+
+        // like JarOutputStream, write the manifest first
+        if (m != null) {
+            ByteArrayOutputStream mf = new ByteArrayOutputStream();
+            m.write(mf);
+            offset += writeManifest(mf.toByteArray(), out, cen);
+            count++;
+        }
+
+        for (Entry entry : entries) {
+            if (entry.name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                continue;
+            }
+            long pos = entry.offset;
+            long remaining = entry.length;
+            while (remaining > 0) {
+                long n = in.transferTo(pos, remaining, out);
+                pos += n;
+                remaining -= n;
+            }
+            ByteBuffer header = ByteBuffer.wrap(entry.header)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(42, (int) offset);
+            cen.write(entry.header);
+            offset += entry.length;
+            count++;
+        }
+        if (offset > MAX_INT || count >= MAX_SHORT) {
+            // can only happen when the manifest pushes the jar over the
+            // limits of the format
+            throw new IOException("Jar is too large to be rewritten");
+        }
+
+        byte[] cenBytes = cen.toByteArray();
+        writeFully(out, ByteBuffer.wrap(cenBytes));
+        ByteBuffer end = ByteBuffer.allocate(END_HDR)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIG);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) count);
+        end.putShort((short) count);
+        end.putInt(cenBytes.length);
+        end.putInt((int) offset);
+        end.putShort((short) 0);
+        end.flip();
+        writeFully(out, end);
+    }
+
+    /**
+     * Write the manifest entry.
+     * @param content the manifest content
+     * @param out the channel to write the entry to
+     * @param cen the stream to write the central directory header to
+     * @return the number of bytes written to the channel
+     * @throws IOException if an error occurs
+     */
+    private static long writeManifest(final byte[] content,
+            final WritableByteChannel out, final ByteArrayOutputStream cen)
+            throws IOException {
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buf = new byte[content.length + 64];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                deflated.write(buf, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] data = deflated.toByteArray();
+        byte[] name = JarFile.MANIFEST_NAME.getBytes(UTF8);
+        int dosTime = dosTime(System.currentTimeMillis());
+
+        ByteBuffer loc = ByteBuffer.allocate(LOC_HDR + name.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        loc.putInt(LOC_SIG);
+        loc.putShort((short) VERSION);
+        loc.putShort((short) FLAG_UTF8);
+        loc.putShort((short) DEFLATED);
+        loc.putInt(dosTime);
+        loc.putInt((int) crc.getValue());
+        loc.putInt(data.length);
+        loc.putInt(content.length);
+        loc.putShort((short) name.length);
+        loc.putShort((short) 0);
+        loc.put(name);
+        loc.flip();
+        writeFully(out, loc);
+        writeFully(out, ByteBuffer.wrap(data));
+
+        ByteBuffer hdr = ByteBuffer.allocate(CEN_HDR + name.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        hdr.putInt(CEN_SIG);
+        hdr.putShort((short) VERSION);
+        hdr.putShort((short) VERSION);
+        hdr.putShort((short) FLAG_UTF8);
+        hdr.putShort((short) DEFLATED);
+        hdr.putInt(dosTime);
+        hdr.putInt((int) crc.getValue());
+        hdr.putInt(data.length);
+        hdr.putInt(content.length);
+        hdr.putShort((short) name.length);
+        hdr.putShort((short) 0);
+        hdr.putShort((short) 0);
+        hdr.putShort((short) 0);
+        hdr.putShort((short) 0);
+        hdr.putInt(0);
+        hdr.putInt(0);
+        hdr.put(name);
+        cen.write(hdr.array());
+        return LOC_HDR + name.length + data.length;
+    }
+
+    /**
+     * Convert a time to the MS-DOS format used by zip files.
+     * @param time the time in milliseconds
+     * @return the date in the high 16 bits and the time in the low 16 bits
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static int dosTime(final long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (cal.get(Calendar.MONTH) + 1) << 21
+                | cal.get(Calendar.DAY_OF_MONTH) << 16
+                | cal.get(Calendar.HOUR_OF_DAY) << 11
+                | cal.get(Calendar.MINUTE) << 5
+                | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Read a region of a file.
+     * @param in the file
+     * @param pos the position of the region
+     * @param len the length of the region
+     * @return little endian buffer holding the region
+     * @throws IOException if the region can't be read fully
+     */
+    private static ByteBuffer read(final FileChannel in, final long pos,
+            final int len) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(len)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Write a buffer fully.
+     * @param out the channel to write to
+     * @param buf the buffer to write
+     * @throws IOException if an error occurs
+     */
+    private static void writeFully(final WritableByteChannel out,
+            final ByteBuffer buf) throws IOException {
+
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * An entry of the source jar.
+     */
+    private static final class Entry {
+
+        /**
+         * The entry name.
+         */
+        private final String name;
+
+        /**
+         * The central directory file header.
+         */
+        private final byte[] header;
+
+        /**
+         * The offset of the local file header.
+         */
+        private final long offset;
+
+        /**
+         * The length of the raw content, from the local file header to the
+         * end of the data descriptor.
+         */
+        private final long length;
+
+        /**
+         * Create a new instance.
+         * @param entryName the entry name
+         * @param cenHeader the central directory file header
+         * @param locOffset the offset of the local file header
+         * @param rawLength the length of the raw content
+         */
+        Entry(final String entryName, final byte[] cenHeader,
+                final long locOffset, final long rawLength) {
+
+            this.name = entryName;
+            this.header = cenHeader;
+            this.offset = locOffset;
+            this.length = rawLength;
+        }
+    }
+}
@@ -26,8 +26,6 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -36,13 +34,19 @@ import java.util.logging.Logger;
 
 /**
  * This extender is responsible for detecting and deploying any Java EE OSGi
- * bundle. Implementation Note: All methods are synchronized, because we don't
- * allow the extender to stop while it is deploying or undeploying something.
- * Similarly, while it is being stopped, we don't want it to deploy or undeploy
- * something. After receiving the event, it spawns a separate thread to carry
- * out the task so that we don't spend long time in the synchronous event
- * listener. More over, that can lead to deadlocks as observed in
+ * bundle. Implementation Note: Lifecycle methods and undeployment are
+ * synchronized, because we don't allow the extender to stop while it is
+ * undeploying something. Deployments run concurrently on the threads of a
+ * {@link DeploymentScheduler}, they don't hold the lock of the extender and
+ * rely on the container to not deploy anything once it is shutdown. After
+ * receiving the event, it schedules the task on a separate thread so that we
+ * don't spend long time in the synchronous event listener. More over, that
+ * can lead to deadlocks as observed in
  * https://glassfish.dev.java.net/issues/show_bug.cgi?id=14313.
+ * When a bundle stops, its pending deployment is cancelled. The synchronous
+ * event listener only waits for a running deployment to stop at its next
+ * phase boundary and for the undeployment, so that the application is gone
+ * once the bundle is stopped.
  */
 public final class JavaEEExtender implements Extender {
 
@@ -84,9 +88,9 @@ public final class JavaEEExtender implements Extender {
     private BundleTracker tracker;
 
     /**
-     * Executor service.
+     * Deployment scheduler.
      */
-    private ExecutorService executorService;
+    private DeploymentScheduler scheduler;
 
     /**
      * Create a new instance.
@@ -99,7 +103,7 @@ public final class JavaEEExtender implements Extender {
     @Override
     @SuppressWarnings("unchecked")
     public synchronized void start() {
-        executorService = Executors.newSingleThreadExecutor();
+        scheduler = new DeploymentScheduler(context);
         c = new OSGiContainer(context);
         c.init();
         reg = context.registerService(OSGiContainer.class.getName(), c, null);
@@ -122,7 +126,7 @@ public final class JavaEEExtender implements Extender {
         tracker = null;
         reg.unregister();
         reg = null;
-        executorService.shutdownNow();
+        scheduler.shutdown();
     }
 
     /**
@@ -132,12 +136,16 @@ public final class JavaEEExtender implements Extender {
      * @return OSGiApplicationInfo or {@code null} if the container is not
      * started or if an error occurs during deployment
      */
-    private synchronized OSGiApplicationInfo deploy(final Bundle bundle) {
-        if (!isStarted()) {
+    private OSGiApplicationInfo deploy(final Bundle bundle) {
+        OSGiContainer container = c;
+        if (container == null) {
+            return null;
+        }
+        if (DeploymentScheduler.isCancelled()) {
             return null;
         }
         try {
-            return c.deploy(bundle);
+            return container.deploy(bundle);
         } catch (Throwable e) {
             LOGGER.logp(Level.SEVERE, "JavaEEExtender", "deploy",
                     "Exception deploying bundle {0}",
@@ -154,12 +162,13 @@ public final class JavaEEExtender implements Extender {
      * @param bundle bundle to be deployed
      */
     private synchronized void undeploy(final Bundle bundle) {
-        if (!isStarted()) {
+        OSGiContainer container = c;
+        if (container == null) {
             return;
         }
         try {
-            if (c.isDeployed(bundle)) {
-                c.undeploy(bundle);
+            if (container.isDeployed(bundle)) {
+                container.undeploy(bundle);
             }
         } catch (Exception e) {
             LOGGER.logp(Level.SEVERE, "JavaEEExtender", "undeploy",
@@ -201,8 +210,8 @@ public final class JavaEEExtender implements Extender {
             }
             final int state = bundle.getState();
             if (isReady(event, state)) {
-                Future<OSGiApplicationInfo> future = executorService
-                        .submit(new Callable<OSGiApplicationInfo>() {
+                Future<OSGiApplicationInfo> future = scheduler.submit(bundle,
+                        new Callable<OSGiApplicationInfo>() {
                     @Override
                     public OSGiApplicationInfo call() throws Exception {
                         return deploy(bundle);
@@ -249,7 +258,22 @@ public final class JavaEEExtender implements Extender {
                 assert (false);
                 return;
             }
+            if (scheduler.cancel(deploymentTask)) {
+                LOGGER.logp(Level.FINE,
+                        "JavaEEExtender$HybridBundleTrackerCustomizer",
+                        "removedBundle",
+                        "Cancelled pending deployment of bundle {0}",
+                        new Object[]{bundle});
+                // it might have been deployed by the container on a deployer
+                // change, unless the container has been stopped meanwhile
+                OSGiContainer container = c;
+                if (container != null && container.isDeployed(bundle)) {
+                    undeploy(bundle);
+                }
+                return;
+            }
             try {
+                // a running deployment stops at its next phase boundary
                 OSGiApplicationInfo deployedApp = null;
                 try {
                     deployedApp = deploymentTask.get(getDeploymentTimeout(),
@@ -281,7 +305,12 @@ public final class JavaEEExtender implements Extender {
                 // almost deployed the bundle as seen issue GLASSFISH-18159.
                 // In such case, we have to check the
                 // deployment status by calling isDeployed().
-                if (deployedApp != null || c.isDeployed(bundle)) {
+                OSGiContainer container = c;
+                if (container == null) {
+                    // stopped meanwhile, which undeployed everything
+                    return;
+                }
+                if (deployedApp != null || container.isDeployed(bundle)) {
                     // undeploy synchronously to avoid any deadlock.
                     undeploy(bundle);
                 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the parsed manifests of bundles. A manifest is parsed once per
+ * bundle revision, identified by bundle id and
+ * {@link Bundle#getLastModified()} like {@link BundleEntrySizes}, so that an
+ * updated bundle is parsed again. The cache does not prevent uninstalled
+ * bundles from being garbage collected.
+ *
+ * The cached manifests are shared, hence they can't be modified. The archive
+ * getters return them as is, no caller modifies the manifest of an archive.
+ */
+final class ManifestCache {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private ManifestCache() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            ManifestCache.class.getPackage().getName());
+
+    /**
+     * Cache of manifests per bundle.
+     */
+    private static final Map<Bundle, CachedManifest> MANIFESTS =
+            Collections.synchronizedMap(
+                    new WeakHashMap<Bundle, CachedManifest>());
+
+    /**
+     * Get the manifest of the current revision of the given bundle, parsing
+     * it if necessary.
+     * @param bnd the bundle
+     * @return unmodifiable manifest, {@code null} if the bundle does not have
+     * a manifest
+     * @throws IOException if an error occurs while reading the manifest
+     */
+    static Manifest get(final Bundle bnd) throws IOException {
+        CachedManifest cached = MANIFESTS.get(bnd);
+        if (cached == null || cached.bundleId != bnd.getBundleId()
+                || cached.lastModified != bnd.getLastModified()) {
+            cached = new CachedManifest(bnd, parse(bnd));
+            MANIFESTS.put(bnd, cached);
+        }
+        return cached.manifest;
+    }
+
+    /**
+     * Parse the manifest of a bundle.
+     * @param bnd the bundle
+     * @return unmodifiable manifest, {@code null} if the bundle does not have
+     * a manifest
+     * @throws IOException if an error occurs while reading the manifest
+     */
+    private static Manifest parse(final Bundle bnd) throws IOException {
+        URL url = bnd.getEntry(JarFile.MANIFEST_NAME);
+        if (url == null) {
+            return null;
+        }
+        InputStream is = url.openStream();
+        try {
+            LOGGER.logp(Level.FINE, "ManifestCache", "parse",
+                    "Parsing manifest of {0}", new Object[]{bnd});
+            return new UnmodifiableManifest(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A manifest with the bundle revision it was parsed for.
+     */
+    private static final class CachedManifest {
+
+        /**
+         * Id of the bundle the manifest was parsed for.
+         */
+        private final long bundleId;
+
+        /**
+         * Last modified time of the bundle revision the manifest was parsed
+         * for.
+         */
+        private final long lastModified;
+
+        /**
+         * The manifest, {@code null} if the bundle does not have one.
+         */
+        private final Manifest manifest;
+
+        /**
+         * Create a new instance.
+         * @param bnd the bundle
+         * @param mf the manifest
+         */
+        CachedManifest(final Bundle bnd, final Manifest mf) {
+            this.bundleId = bnd.getBundleId();
+            this.lastModified = bnd.getLastModified();
+            this.manifest = mf;
+        }
+    }
+
+    /**
+     * A manifest that can't be modified once parsed.
+     */
+    private static final class UnmodifiableManifest extends Manifest {
+
+        /**
+         * The main attributes.
+         */
+        private final Attributes mainAttributes;
+
+        /**
+         * The per entry attributes.
+         */
+        private final Map<String, Attributes> entries;
+
+        /**
+         * {@code true} once the manifest has been parsed.
+         */
+        private final boolean parsed;
+
+        /**
+         * Create a new instance.
+         * @param is the stream to parse
+         * @throws IOException if an error occurs
+         */
+        UnmodifiableManifest(final InputStream is) throws IOException {
+            super(is);
+            mainAttributes = new UnmodifiableAttributes(
+                    super.getMainAttributes());
+            Map<String, Attributes> map = new HashMap<String, Attributes>();
+            for (Map.Entry<String, Attributes> entry
+                    : super.getEntries().entrySet()) {
+                map.put(entry.getKey(),
+                        new UnmodifiableAttributes(entry.getValue()));
+            }
+            entries = Collections.unmodifiableMap(map);
+            parsed = true;
+        }
+
+        @Override
+        public Attributes getMainAttributes() {
+            if (mainAttributes == null) {
+                // invoked by the super constructor
+                return super.getMainAttributes();
+            }
+            return mainAttributes;
+        }
+
+        @Override
+        public Map<String, Attributes> getEntries() {
+            if (entries == null) {
+                // invoked by the super constructor
+                return super.getEntries();
+            }
+            return entries;
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void read(final InputStream is) throws IOException {
+            // invoked by the super constructor
+            if (parsed) {
+                throw new UnsupportedOperationException();
+            }
+            super.read(is);
+        }
+    }
+
+    /**
+     * Attributes that can't be modified.
+     */
+    private static final class UnmodifiableAttributes extends Attributes {
+
+        /**
+         * Create a new instance.
+         * @param attrs the attributes to copy
+         */
+        UnmodifiableAttributes(final Attributes attrs) {
+            super(attrs);
+        }
+
+        @Override
+        public Object put(final Object name, final Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String putValue(final String name, final String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object remove(final Object name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putAll(final Map<?, ?> attr) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Immutable sorted table of entry names, stored front-coded in a single
+ * character array. Names are grouped in blocks of {@value #BLOCK_SIZE}: the
+ * first name of a block is stored in full, the others as the length of the
+ * prefix shared with the previous name followed by the remaining characters.
+ * Since the entries of an archive share long directory prefixes, this takes
+ * a fraction of the heap used by one {@link String} per entry.
+ *
+ * A name is identified by its index in the table, so that per entry data can
+ * be stored in arrays indexed by name id. Lookups are binary searches over the
+ * first names of the blocks followed by a scan of one block, and do not
+ * create any string. Names starting with a given prefix have contiguous ids.
+ */
+final class NameTable extends AbstractList<String> implements RandomAccess {
+
+    /**
+     * Number of names per block.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Maximum length of a name.
+     */
+    private static final int MAX_LENGTH = Character.MAX_VALUE;
+
+    /**
+     * The empty table.
+     */
+    static final NameTable EMPTY = new NameTable(new TreeSet<String>());
+
+    /**
+     * The encoded names.
+     */
+    private final char[] data;
+
+    /**
+     * Offset in {@link #data} of the first name of each block.
+     */
+    private final int[] blocks;
+
+    /**
+     * Number of names.
+     */
+    private final int size;
+
+    /**
+     * Create a new instance.
+     * @param names the sorted names
+     */
+    private NameTable(final SortedSet<String> names) {
+        this.size = names.size();
+        this.blocks = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        char[] buf = new char[1024];
+        int pos = 0;
+        int id = 0;
+        String previous = null;
+        for (String name : names) {
+            if (name.length() > MAX_LENGTH) {
+                throw new IllegalArgumentException("Name too long: " + name);
+            }
+            int shared = 0;
+            if (id % BLOCK_SIZE == 0) {
+                blocks[id / BLOCK_SIZE] = pos;
+            } else {
+                int max = Math.min(previous.length(), name.length());
+                while (shared < max
+                        && previous.charAt(shared) == name.charAt(shared)) {
+                    shared++;
+                }
+            }
+            int suffix = name.length() - shared;
+            if (pos + suffix + 2 > buf.length) {
+                buf = Arrays.copyOf(buf,
+                        Math.max(buf.length * 2, pos + suffix + 2));
+            }
+            if (id % BLOCK_SIZE != 0) {
+                buf[pos++] = (char) shared;
+            }
+            buf[pos++] = (char) suffix;
+            name.getChars(shared, name.length(), buf, pos);
+            pos += suffix;
+            previous = name;
+            id++;
+        }
+        this.data = Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Create a table holding the given names. Duplicates are ignored.
+     * @param names the names, in any order
+     * @return NameTable
+     */
+    static NameTable of(final Collection<String> names) {
+        if (names instanceof SortedSet
+                && ((SortedSet<String>) names).comparator() == null) {
+            return new NameTable((SortedSet<String>) names);
+        }
+        return new NameTable(new TreeSet<String>(names));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String get(final int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(id));
+        }
+        Cursor cursor = new Cursor(id);
+        cursor.next();
+        return cursor.toString();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new NameIterator(0, size);
+    }
+
+    @Override
+    public List<String> subList(final int from, final int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(from + ", " + to);
+        }
+        return new Range(from, to);
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        String name = (String) o;
+        int id = lowerBound(name);
+        if (id < size) {
+            Cursor cursor = new Cursor(id);
+            cursor.next();
+            if (cursor.compareTo(name) == 0) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Get the id of the first name that is greater than or equal to the
+     * given key.
+     * @param key the key
+     * @return id, {@link #size()} if all names are lower than the key
+     */
+    int lowerBound(final String key) {
+        // find the last block whose first name is lower than or equal to
+        // the key
+        int low = 0;
+        int high = blocks.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareHead(mid, key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return 0;
+        }
+        Cursor cursor = new Cursor(block * BLOCK_SIZE);
+        int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+        for (int id = block * BLOCK_SIZE; id < end; id++) {
+            cursor.next();
+            if (cursor.compareTo(key) >= 0) {
+                return id;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Get the names starting with the given prefix.
+     * @param prefix the prefix
+     * @return sorted view of the names
+     */
+    List<String> withPrefix(final String prefix) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        return new Range(from, to);
+    }
+
+    /**
+     * Compare the first name of a block with a key.
+     * @param block the block
+     * @param key the key
+     * @return negative, zero or positive as the name is lower than, equal to
+     * or greater than the key
+     */
+    private int compareHead(final int block, final String key) {
+        int pos = blocks[block];
+        int len = data[pos++];
+        int max = Math.min(len, key.length());
+        for (int i = 0; i < max; i++) {
+            int diff = data[pos + i] - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return len - key.length();
+    }
+
+    /**
+     * Sequential decoder of the names.
+     */
+    private final class Cursor {
+
+        /**
+         * Position of the next name in {@link #data}.
+         */
+        private int pos;
+
+        /**
+         * Id of the next name.
+         */
+        private int id;
+
+        /**
+         * The current name.
+         */
+        private char[] name = new char[64];
+
+        /**
+         * Length of the current name.
+         */
+        private int length;
+
+        /**
+         * Create a cursor positioned before the given name.
+         * @param start the id of the first name to decode
+         */
+        Cursor(final int start) {
+            int block = start / BLOCK_SIZE;
+            if (block < blocks.length) {
+                pos = blocks[block];
+            }
+            id = block * BLOCK_SIZE;
+            while (id < start) {
+                next();
+            }
+        }
+
+        /**
+         * Decode the next name.
+         */
+        void next() {
+            int shared = 0;
+            if (id % BLOCK_SIZE != 0) {
+                shared = data[pos++];
+            }
+            int suffix = data[pos++];
+            length = shared + suffix;
+            if (length > name.length) {
+                name = Arrays.copyOf(name, Math.max(length, name.length * 2));
+            }
+            System.arraycopy(data, pos, name, shared, suffix);
+            pos += suffix;
+            id++;
+        }
+
+        /**
+         * Compare the current name with a key.
+         * @param key the key
+         * @return negative, zero or positive as the name is lower than,
+         * equal to or greater than the key
+         */
+        int compareTo(final String key) {
+            int max = Math.min(length, key.length());
+            for (int i = 0; i < max; i++) {
+                int diff = name[i] - key.charAt(i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - key.length();
+        }
+
+        @Override
+        public String toString() {
+            return new String(name, 0, length);
+        }
+    }
+
+    /**
+     * Iterator decoding the names sequentially.
+     */
+    private final class NameIterator implements Iterator<String> {
+
+        /**
+         * The cursor, {@code null} until the first name is decoded.
+         */
+        private Cursor cursor;
+
+        /**
+         * Id of the next name.
+         */
+        private int next;
+
+        /**
+         * Id after the last name.
+         */
+        private final int end;
+
+        /**
+         * Create a new instance.
+         * @param from id of the first name
+         * @param to id after the last name
+         */
+        NameIterator(final int from, final int to) {
+            this.next = from;
+            this.end = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public String next() {
+            if (next >= end) {
+                throw new NoSuchElementException();
+            }
+            if (cursor == null) {
+                cursor = new Cursor(next);
+            }
+            cursor.next();
+            next++;
+            return cursor.toString();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * View of a range of names.
+     */
+    private final class Range extends AbstractList<String>
+            implements RandomAccess {
+
+        /**
+         * Id of the first name.
+         */
+        private final int from;
+
+        /**
+         * Id after the last name.
+         */
+        private final int to;
+
+        /**
+         * Create a new instance.
+         * @param start id of the first name
+         * @param end id after the last name
+         */
+        Range(final int start, final int end) {
+            this.from = start;
+            this.to = end;
+        }
+
+        @Override
+        public String get(final int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return NameTable.this.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new NameIterator(from, to);
+        }
+
+        @Override
+        public List<String> subList(final int start, final int end) {
+            if (start < 0 || end > to - from || start > end) {
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+            return new Range(from + start, from + end);
+        }
+    }
+}
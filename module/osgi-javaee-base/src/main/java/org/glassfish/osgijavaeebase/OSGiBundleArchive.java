@@ -21,17 +21,15 @@ import org.osgi.service.url.AbstractURLStreamHandlerService;
 import com.sun.enterprise.deploy.shared.AbstractReadableArchive;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -40,16 +38,14 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import static org.glassfish.osgijavaeebase.Constants.FILE_PROTOCOL;
 import static org.glassfish.osgijavaeebase.Constants.REFERENCE_PROTOCOL;
@@ -64,6 +60,12 @@ import static org.osgi.framework.Constants.BUNDLE_VERSION;
 public final class OSGiBundleArchive extends AbstractReadableArchive
         implements URIable, Iterable<BundleResource> {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            OSGiBundleArchive.class.getPackage().getName());
+
     /**
      * The bundle.
      */
@@ -79,6 +81,12 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
      */
     private URI uri;
 
+    /**
+     * The file the content of the bundle is read from, {@code null} if
+     * unknown.
+     */
+    private File file;
+
     /**
      * The nested archives.
      */
@@ -95,7 +103,7 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
     }
 
     /**
-     * This method initializes {@link #uri} and {@link #name}.
+     * This method initializes {@link #uri}, {@link #file} and {@link #name}.
      */
     private void init() {
         // The only time we can rely on a bundle's location is when the
@@ -111,6 +119,10 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         // So, we return a valid URI only for reference: scheme and in all
         // cases, we prefer to return null as opposed to throwing an exception
         // to keep the behavior same as MemoryMappedArchive.
+        // The content itself is also read from the copy the framework reads
+        // the current revision from, e.g. the jar in Felix's bundle cache,
+        // which BundleFileResolvers locates. It is not exposed as the URI,
+        // which GlassFish records as the source of the application.
         String location = bundle.getLocation();
         if (location != null && location.startsWith(REFERENCE_PROTOCOL)) {
             location = location.substring(REFERENCE_PROTOCOL.length());
@@ -127,13 +139,17 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
                 }
 
                 // Return iff referenced file exists.
-                File file = new File(location.substring(
+                File referenced = new File(location.substring(
                         FILE_PROTOCOL.length()));
-                if (file.exists()) {
-                    uri = file.toURI();
+                if (referenced.exists()) {
+                    uri = referenced.toURI();
+                    file = referenced;
                 }
             }
         }
+        if (file == null) {
+            file = BundleFileResolvers.resolve(bundle);
+        }
 
         // See if there is a symbolic name & version. Use them,
         // else use location. Either symbolic name or location must exist
@@ -153,21 +169,18 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            for (ReadableArchive subArchive : subArchives.values()) {
+                subArchive.close();
+            }
+            subArchives.clear();
+        }
     }
 
     @Override
     public Enumeration<String> entries() {
-        ArrayList<String> entries = new ArrayList<String>();
-        getEntryPaths(entries, "/");
-        ListIterator<String> entriesIter = entries.listIterator();
-        while (entriesIter.hasNext()) {
-            String next = entriesIter.next();
-            if (next.endsWith("/")) {
-                // return only file entries as per the conract of this method
-                entriesIter.remove();
-            }
-        }
-        return Collections.enumeration(entries);
+        // return only file entries as per the conract of this method
+        return Collections.enumeration(getEntryTree().getFiles());
     }
 
     /**
@@ -180,6 +193,14 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         return getSubDirectories("/");
     }
 
+    /**
+     * Get the tree of entries for the current revision of the bundle.
+     * @return BundleEntryTree
+     */
+    private BundleEntryTree getEntryTree() {
+        return BundleEntryTree.get(bundle);
+    }
+
     /**
      * Return subdirectories under a given path.
      * This returns only result from one level, i.e., non-recursive
@@ -187,41 +208,21 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
      * @return list of subdirectory name
      */
     private Collection<String> getSubDirectories(final String path) {
-        final Enumeration firstLevelEntries = bundle.getEntryPaths(path);
-        if (firstLevelEntries == null) {
-            return Collections.emptyList();
-        }
-        Collection<String> firstLevelDirs = new ArrayList<String>();
-        while (firstLevelEntries.hasMoreElements()) {
-            String firstLevelEntry = (String) firstLevelEntries.nextElement();
-            if (firstLevelEntry.endsWith("/")) {
-                firstLevelDirs.add(firstLevelEntry);
-            }
-        }
-        return firstLevelDirs;
+        return getEntryTree().getSubDirectories(path);
     }
 
     /**
      * Get the entry paths using
      * {@link org.osgi.framework.Bundle#getEntryPaths(java.lang.String)}.
+     * The paths are read from the {@link BundleEntryTree} of the bundle,
+     * which walks the bundle only once per revision.
      * @param entries the collection to add to
      * @param path the base path
      */
     private void getEntryPaths(final Collection<String> entries,
             final String path) {
 
-        Enumeration<String> subPaths = bundle.getEntryPaths(path);
-        if (subPaths != null) {
-            while (subPaths.hasMoreElements()) {
-                String next = subPaths.nextElement();
-                if ("META-INF/".equals(next) && entries.contains(next)) {
-                    // Work around for FELIX-2935 (GLASSFISH-16477)
-                    continue;
-                }
-                entries.add(next);
-                getEntryPaths(entries, next);
-            }
-        }
+        entries.addAll(getEntryTree().getEntries(path));
         // BECAUSE OF A BUG IN FELIX (FELIX-1210), THE CODE ABOVE DOES NOT
         // WORK WHEN THERE ARE NO DIRECTORY ENTRIES IN THE JAR FILE.
         // IF WE CONSISTENTLY FACE THE ISSUE, THEN WE CAN USE AN ALTERNATIVE
@@ -268,13 +269,20 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
     @Override
     public Enumeration<String> entries(final String prefix) {
-        Collection<String> entries = new ArrayList<String>();
-        getEntryPaths(entries, prefix);
-        return Collections.enumeration(entries);
+        return Collections.enumeration(getEntryTree().getEntries(prefix));
     }
 
     @Override
     public boolean isDirectory(final String entryName) {
+        BundleEntryTree tree = getEntryTree();
+        if (tree.isDirectory(entryName)) {
+            return true;
+        }
+        if (tree.isComplete()) {
+            return false;
+        }
+        // The tree misses the directories of a jar that has no directory
+        // entries (FELIX-1210), ask the framework.
         String zEntryName;
         if (entryName.endsWith("/")) {
             zEntryName = entryName;
@@ -286,17 +294,8 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
     @Override
     public Manifest getManifest() throws IOException {
-        URL url = bundle.getEntry(JarFile.MANIFEST_NAME);
-        if (url != null) {
-            InputStream is = url.openStream();
-            try {
-                return new Manifest(is);
-            } finally {
-                is.close();
-            }
-
-        }
-        return null;
+        // parsed once per bundle revision and shared, it can't be modified
+        return ManifestCache.get(bundle);
     }
 
     /**
@@ -309,10 +308,14 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         return uri;
     }
 
+    /**
+     * Returns the size of the file backing the bundle, or {@code -1} if the
+     * bundle is not backed by a file.
+     * @return the size
+     */
     @Override
     public long getArchiveSize() throws SecurityException {
-        // Don't know how to calculate the size.
-        return -1;
+        return getSizes().getArchiveSize();
     }
 
     @Override
@@ -331,12 +334,33 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
     @Override
     public boolean exists(final String entryName) {
-        return bundle.getEntry(entryName) != null;
+        // see isDirectory() for the fallback
+        BundleEntryTree tree = getEntryTree();
+        return tree.exists(entryName)
+                || (!tree.isComplete() && bundle.getEntry(entryName) != null);
     }
 
     @Override
     public long getEntrySize(final String entryName) {
-        return 0;
+        return getSizes().getSize(entryName);
+    }
+
+    /**
+     * Get the compressed size of an entry. This is the uncompressed size if
+     * the entry is not compressed.
+     * @param entryName the entry name
+     * @return the size, {@code 0} if unknown
+     */
+    public long getCompressedEntrySize(final String entryName) {
+        return getSizes().getCompressedSize(entryName);
+    }
+
+    /**
+     * Get the entry sizes for the current revision of the bundle.
+     * @return BundleEntrySizes
+     */
+    private BundleEntrySizes getSizes() {
+        return BundleEntrySizes.get(bundle, file);
     }
 
     @Override
@@ -400,6 +424,43 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         }
     }
 
+    /**
+     * Get the URI of an entry of a bundle class path entry without opening
+     * it.
+     * @param distanceFromTop the path of the bundle class path entry, i.e.
+     * "" for the bundle itself, a path ending with "/" for a directory or the
+     * path of a jar
+     * @param entryName the entry name in the bundle class path entry
+     * @return URI
+     */
+    private URI getEntryURI(final String distanceFromTop,
+            final String entryName) {
+
+        if (distanceFromTop.isEmpty() || distanceFromTop.endsWith("/")) {
+            return getEntryURI(distanceFromTop + entryName);
+        }
+        try {
+            return getEmbeddedJarEntryURI(
+                    bundle.getEntry(distanceFromTop).toURI(), entryName);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the URI of an entry of an embedded jar.
+     * @param jarUri the URI of the embedded jar
+     * @param entryName the entry name in the embedded jar
+     * @return URI
+     */
+    private static URI getEmbeddedJarEntryURI(final URI jarUri,
+            final String entryName) {
+
+        return URI.create(EmbeddedJarURLStreamHandlerService
+                .EMBEDDED_JAR_SCHEME + ":" + jarUri
+                + EmbeddedJarURLStreamHandlerService.SEPARATOR + entryName);
+    }
+
     @Override
     public String getDistanceFromTop() {
         // this is the top level archive
@@ -408,63 +469,102 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
     @Override
     public Iterator<BundleResource> iterator() {
-        return new BundleResourceIterator();
+        return new BundleResourceIterator(null);
+    }
+
+    /**
+     * Get the resources of the bundle class path whose path is accepted by
+     * the given filter. Resources are created lazily as the returned iterable
+     * is iterated, and only for accepted paths.
+     * @param filter the path filter
+     * @return Iterable
+     */
+    public Iterable<BundleResource> getResources(
+            final BundleResourceFilter filter) {
+
+        return new Iterable<BundleResource>() {
+            @Override
+            public Iterator<BundleResource> iterator() {
+                return new BundleResourceIterator(filter);
+            }
+        };
     }
 
     /**
-     * Get the archive input stream.
+     * Get the resources of the bundle class path whose path matches the given
+     * glob pattern. In the pattern, {@code *} matches any sequence of
+     * characters within a path segment, {@code **} matches any sequence of
+     * characters across path segments and {@code ?} matches one character
+     * within a path segment, e.g. {@code META-INF/*.taglib.xml}. Only the
+     * entries under the leading directories of the pattern are looked at.
+     * @param glob the glob pattern
+     * @return Iterable
+     */
+    public Iterable<BundleResource> getResources(final String glob) {
+        return getResources(new GlobFilter(glob));
+    }
+
+    /**
+     * Get the resources of the bundle class path whose path matches the given
+     * glob pattern, see {@link #getResources(String)}. The paths found in
+     * each bundle class path entry are stored in the given cache, so that the
+     * entry is not opened again for the same content.
+     * @param glob the glob pattern
+     * @param cache the cache of the paths found, {@code null} to not use a
+     * cache
+     * @return Iterable
+     */
+    public Iterable<BundleResource> getResources(final String glob,
+            final ScanResultCache cache) {
+
+        final GlobFilter filter = new GlobFilter(glob);
+        return new Iterable<BundleResource>() {
+            @Override
+            public Iterator<BundleResource> iterator() {
+                return new BundleResourceIterator(filter, cache, glob);
+            }
+        };
+    }
+
+    /**
+     * Get the archive input stream. If the bundle content is not available as
+     * a jar file, the content is materialized as a jar once per bundle
+     * revision and read from there.
      * @return a Jar format InputStream for this bundle's content
      * @throws java.io.IOException if an error occurs
      */
-    @SuppressWarnings("checkstyle:magicnumber")
     public InputStream getInputStream() throws IOException {
         //[TangYong]fixing GLASSFISH-19662
-        if (uri != null && !new File(uri).isDirectory()) {
-            return uri.toURL().openStream();
+        if (file != null && !file.isDirectory()) {
+            return new FileInputStream(file);
         } else {
-            // create a JarOutputStream on the fly from the bundle's content
-            // Can we optimize by reading off Felix's cache? Investigate in
-            // future.
-            PipedInputStream is = new PipedInputStream();
-            final PipedOutputStream os = new PipedOutputStream(is);
-            new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        JarOutputStream jos = new JarOutputStream(os,
-                                getManifest());
-                        ByteBuffer buf = ByteBuffer.allocate(1024);
-                        for (String s : Collections.list(entries())) {
-                            if (s.equals(JarFile.MANIFEST_NAME)) {
-                                continue; // we have already inserted manifest
-                            }
-                            jos.putNextEntry(new JarEntry(s));
-                            if (!isDirectory(s)) {
-                                InputStream in = getEntry(s);
-                                try {
-                                    JarHelper.copy(in, jos, buf);
-                                } finally {
-                                    try {
-                                        in.close();
-                                    } catch (IOException e) {
-                                        // ignore
-                                    }
-                                }
-                            }
-                            jos.closeEntry();
-                        }
-                        jos.close();
-                        os.close();
-                    } catch (IOException e) {
-                        // TODO(Sahoo): Proper Exception Handling
-                        throw new RuntimeException(e);
-                    }
-                }
-            }.start();
-            return is;
+            // The bundle content is not available as a jar, neither from the
+            // location nor from the framework's cache.
+            return new FileInputStream(BundleJarCache.getJar(this));
+        }
+    }
+
+    /**
+     * Get the size of the jar returned by {@link #getInputStream()}.
+     * @return the size in bytes
+     * @throws java.io.IOException if an error occurs
+     */
+    public long getJarSize() throws IOException {
+        if (file != null && !file.isDirectory()) {
+            return file.length();
+        } else {
+            return BundleJarCache.getJar(this).length();
         }
     }
 
+    /**
+     * Get the bundle.
+     * @return Bundle
+     */
+    Bundle getBundle() {
+        return bundle;
+    }
+
     /**
      * A directory (typically a bundle class-path) in the bundle represented as
      * an archive.
@@ -614,7 +714,11 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
         @Override
         public long getArchiveSize() throws SecurityException {
-            return 0;
+            long size = 0;
+            for (String entry : Collections.list(entries())) {
+                size += getEntrySize(entry);
+            }
+            return size;
         }
 
         @Override
@@ -648,9 +752,10 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         private String distanceFromTop;
 
         /**
-         * All the entries that this archive has.
+         * Index of the central directory of this archive, {@code null} until
+         * first use or after this archive is closed.
          */
-        private List<String> entries = new ArrayList<String>();
+        private EmbeddedJarIndex index;
 
         /**
          * Create a new instance.
@@ -659,30 +764,56 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
          */
         private EmbeddedJarArchive(final String dst) throws IOException {
             this.distanceFromTop = dst;
-            ZipInputStream zis = getZIS();
+            // Since user can supply random entry and ask for an embedded
+            // archive, propagate the exception to user.
+            getIndex();
+        }
+
+        /**
+         * Get the index of this archive, reading the central directory if
+         * this has not been done yet.
+         * @return EmbeddedJarIndex
+         * @throws IOException if an error occurs
+         */
+        private synchronized EmbeddedJarIndex getIndex() throws IOException {
+            if (index == null) {
+                index = EmbeddedJarIndex.create(getEmbeddedJarURL());
+            }
+            return index;
+        }
+
+        /**
+         * Get the index of this archive, wrapping any error in a runtime
+         * exception.
+         * @return EmbeddedJarIndex
+         */
+        private EmbeddedJarIndex getIndexUnchecked() {
             try {
-                while (true) {
-                    ZipEntry ze = zis.getNextEntry();
-                    if (ze == null) {
-                        break;
-                    }
-                    entries.add(ze.getName());
-                }
-            } finally {
-                closeZIS(zis);
+                return getIndex();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
 
         /**
-         * Get the zip input stream.
-         * @return ZipInputStream
-         * @throws IOException if an error occurs
+         * Get the URL to read the embedded jar from. If the bundle is
+         * installed from a directory, the embedded jar is read directly from
+         * the file system.
+         * @return URL
+         * @throws IOException if the entry does not exist
          */
-        private ZipInputStream getZIS() throws IOException {
-            // Since user can supply random entry and ask for an embedded
-            // archive, propagate the exception to user.
-            return new ZipInputStream(bundle.getEntry(distanceFromTop)
-                    .openStream());
+        private URL getEmbeddedJarURL() throws IOException {
+            if (file != null && file.isDirectory()) {
+                File jar = new File(file, distanceFromTop);
+                if (jar.isFile()) {
+                    return jar.toURI().toURL();
+                }
+            }
+            URL url = bundle.getEntry(distanceFromTop);
+            if (url == null) {
+                throw new IOException("No entry by name " + distanceFromTop);
+            }
+            return url;
         }
 
         /**
@@ -690,59 +821,24 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
          * @return collection of entry path
          */
         private Collection<String> getEntries() {
-            return entries;
+            return getIndexUnchecked().getNames();
         }
 
         @Override
         public InputStream getEntry(final String entryName)
                 throws IOException {
 
-            if (!exists(entryName)) {
-                return null;
-            }
-            final ZipInputStream zis = getZIS();
-            while (true) {
-                ZipEntry ze = zis.getNextEntry();
-                if (ze == null) {
-                    // end of stream, which is unlikely because the
-                    // entry exists.
-                    break;
-                }
-                if (ze.getName().equals(entryName)) {
-                    return zis;
-                }
-            }
-            // don't close the stream, as we are returning it to caller
-            assert (false);
-            return null;
+            return getIndex().getInputStream(entryName);
         }
 
         @Override
         public boolean exists(final String entryName) {
-            return getEntries().contains(entryName);
+            return getIndexUnchecked().contains(entryName);
         }
 
         @Override
         public long getEntrySize(final String entryName) {
-            if (exists(entryName)) {
-                ZipInputStream zis = null;
-                try {
-                    zis = getZIS();
-                    while (true) {
-                        ZipEntry ze = zis.getNextEntry();
-                        if (entryName.equals(ze.getName())) {
-                            return ze.getSize();
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    if (zis != null) {
-                        closeZIS(zis);
-                    }
-                }
-            }
-            return 0;
+            return getIndexUnchecked().getSize(entryName);
         }
 
         @Override
@@ -785,8 +881,11 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         }
 
         @Override
-        public void close() throws IOException {
-            // noop
+        public synchronized void close() throws IOException {
+            if (index != null) {
+                index.close();
+                index = null;
+            }
         }
 
         @Override
@@ -796,13 +895,8 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
         @Override
         public Enumeration<String> entries(final String prefix) {
-            List<String> result = new ArrayList<String>();
-            for (String entry : getEntries()) {
-                if (entry.startsWith(prefix)) {
-                    result.add(entry);
-                }
-            }
-            return Collections.enumeration(result);
+            return Collections.enumeration(getIndexUnchecked().getNames()
+                    .withPrefix(prefix));
         }
 
         @Override
@@ -851,8 +945,7 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
         @Override
         public long getArchiveSize() throws SecurityException {
-            // unknown
-            return 0;
+            return OSGiBundleArchive.this.getEntrySize(distanceFromTop);
         }
 
         @Override
@@ -862,31 +955,22 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
         @Override
         public URI getEntryURI(final String entryName) {
-            return URI.create(EmbeddedJarURLStreamHandlerService
-                    .EMBEDDED_JAR_SCHEME + ":" + getURI()
-                    + EmbeddedJarURLStreamHandlerService.SEPARATOR
-                    + entryName);
+            return getEmbeddedJarEntryURI(getURI(), entryName);
         }
 
         @Override
         public String getDistanceFromTop() {
             return distanceFromTop;
         }
-
-        /**
-         * Close the given zip input stream.
-         * @param zis stream to close
-         */
-        private void closeZIS(final ZipInputStream zis) {
-            try {
-                zis.close();
-            } catch (Exception e) {
-            }
-        }
     }
 
     /**
-     * Iterator of bundle resource.
+     * Lazy iterator of bundle resource. The bundle class path entries are
+     * opened one at a time as the iteration reaches them, and resources are
+     * created only for the paths accepted by the filter. If a cache is given,
+     * the accepted paths of a bundle class path entry are read from the cache
+     * without opening the entry, or stored in the cache once the entry has
+     * been iterated.
      */
     private final class BundleResourceIterator
             implements Iterator<BundleResource> {
@@ -897,76 +981,250 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         private static final String DOT = ".";
 
         /**
-         * The delegate iterator.
+         * The filter, {@code null} to accept all paths.
          */
-        private final Iterator<BundleResource> delegate;
+        private final BundleResourceFilter filter;
 
         /**
-         * All bundle resources.
+         * The cache of the accepted paths, {@code null} if not cached.
          */
-        private final Collection<BundleResource> bundleResources =
-                new ArrayList<BundleResource>();
+        private final ScanResultCache cache;
+
+        /**
+         * The name of the scan in the cache.
+         */
+        private final String scan;
+
+        /**
+         * The remaining bundle class path entries.
+         */
+        private final StringTokenizer bcpes;
+
+        /**
+         * The path of the current bundle class path entry.
+         */
+        private String distanceFromTop;
+
+        /**
+         * The archive of the current bundle class path entry, {@code null} if
+         * the accepted paths are read from the cache.
+         */
+        private ReadableArchive archive;
+
+        /**
+         * The remaining entries of the current archive.
+         */
+        private Iterator<String> entries;
+
+        /**
+         * The accepted paths of the current archive to store in the cache,
+         * {@code null} if not stored.
+         */
+        private List<String> found;
+
+        /**
+         * The next resource, {@code null} if not computed yet.
+         */
+        private BundleResource next;
+
+        /**
+         * Create a new instance.
+         * @param pathFilter the filter, {@code null} to accept all paths
+         */
+        private BundleResourceIterator(final BundleResourceFilter pathFilter) {
+            this(pathFilter, null, null);
+        }
 
         /**
          * Create a new instance.
+         * @param pathFilter the filter, {@code null} to accept all paths
+         * @param resultCache the cache of the accepted paths, {@code null} to
+         * not use a cache
+         * @param scanName the name of the scan in the cache
          */
-        private BundleResourceIterator() {
-            // for each bundle classpath entry, get the subarchive
+        private BundleResourceIterator(final BundleResourceFilter pathFilter,
+                final ScanResultCache resultCache, final String scanName) {
+
+            this.filter = pathFilter;
+            this.cache = resultCache;
+            this.scan = scanName;
             String bcp = (String) bundle.getHeaders().get(
                     org.osgi.framework.Constants.BUNDLE_CLASSPATH);
             if (bcp == null || bcp.isEmpty()) {
                 bcp = DOT;
             }
-            String seps = ";,";
-            StringTokenizer bcpes = new StringTokenizer(bcp, seps);
-            List<ReadableArchive> archives = new ArrayList<ReadableArchive>();
+            bcpes = new StringTokenizer(bcp, ";,");
+        }
+
+        /**
+         * Move to the next bundle class path entry.
+         * @return {@code false} if there are no more entries
+         */
+        private boolean nextArchive() {
             while (bcpes.hasMoreTokens()) {
-                String bcpe = bcpes.nextToken();
-                bcpe = bcpe.trim();
+                String bcpe = bcpes.nextToken().trim();
                 if (bcpe.startsWith("/")) {
                     // it is always relative to bundle root
                     bcpe = bcpe.substring(1);
                 }
                 if (bcpe.equals(DOT)) {
-                    archives.add(OSGiBundleArchive.this);
-                } else {
-                    if (isDirectory(bcpe) && !bcpe.endsWith("/")) {
-                        bcpe = bcpe.concat("/");
+                    bcpe = "";
+                } else if (isDirectory(bcpe) && !bcpe.endsWith("/")) {
+                    bcpe = bcpe.concat("/");
+                }
+                List<String> cached = getCached(bcpe);
+                if (cached != null) {
+                    distanceFromTop = bcpe;
+                    archive = null;
+                    entries = cached.iterator();
+                    return true;
+                }
+                ReadableArchive subArchive = open(bcpe);
+                if (subArchive != null) {
+                    distanceFromTop = bcpe;
+                    archive = subArchive;
+                    entries = entries(subArchive);
+                    if (cache != null) {
+                        found = new ArrayList<String>();
                     }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Open the archive of a bundle class path entry.
+         * @param bcpe the path of the bundle class path entry
+         * @return the archive, {@code null} if it does not exist
+         */
+        private ReadableArchive open(final String bcpe) {
+            if (bcpe.isEmpty()) {
+                return OSGiBundleArchive.this;
+            }
+            try {
+                return getSubArchive(bcpe);
+            } catch (IOException e1) {
+                // ignore and continue
+                LOGGER.logp(Level.WARNING, "OSGiBundleArchive",
+                        "nextArchive", "Unable to open " + bcpe
+                        + " of bundle " + bundle, e1);
+                return null;
+            }
+        }
+
+        /**
+         * Get the accepted paths of a bundle class path entry from the cache.
+         * @param bcpe the path of the bundle class path entry
+         * @return the paths, {@code null} if not cached
+         */
+        private List<String> getCached(final String bcpe) {
+            if (cache == null) {
+                return null;
+            }
+            try {
+                return cache.get(bundle, bcpe, scan);
+            } catch (IOException e1) {
+                LOGGER.logp(Level.FINE, "OSGiBundleArchive", "getCached",
+                        "Unable to read the cached " + scan + " scan of "
+                        + bcpe + " of bundle " + bundle, e1);
+                return null;
+            }
+        }
+
+        /**
+         * Store the accepted paths of the current archive in the cache, once
+         * it has been iterated.
+         */
+        private void store() {
+            if (found == null) {
+                return;
+            }
+            try {
+                cache.put(bundle, distanceFromTop, scan, found);
+            } catch (IOException e1) {
+                LOGGER.logp(Level.FINE, "OSGiBundleArchive", "store",
+                        "Unable to cache the " + scan + " scan of "
+                        + distanceFromTop + " of bundle " + bundle, e1);
+            }
+            found = null;
+        }
+
+        /**
+         * Get the entries of an archive that may be accepted by the filter.
+         * @param subArchive the archive
+         * @return iterator of entry names
+         */
+        private Iterator<String> entries(final ReadableArchive subArchive) {
+            if (filter instanceof GlobFilter) {
+                GlobFilter glob = (GlobFilter) filter;
+                if (glob.isLiteral()) {
                     try {
-                        ReadableArchive archive = getSubArchive(bcpe);
-                        if (archive != null) {
-                            archives.add(archive);
+                        if (subArchive.exists(glob.getPrefix())) {
+                            return Collections.singleton(glob.getPrefix())
+                                    .iterator();
                         }
                     } catch (IOException e1) {
-                        e1.printStackTrace(); // ignore and continue
+                        // ignore and continue
+                        LOGGER.logp(Level.WARNING, "OSGiBundleArchive",
+                                "entries", "Unable to read "
+                                + glob.getPrefix() + " in "
+                                + subArchive.getName(), e1);
                     }
+                    return Collections.<String>emptyList().iterator();
                 }
+                return Collections.list(subArchive.entries(
+                        glob.getPrefix())).iterator();
             }
+            return Collections.list(subArchive.entries()).iterator();
+        }
 
-            for (ReadableArchive archive : archives) {
-                Enumeration<String> entries = archive.entries();
-                final URIable urIable = URIable.class.cast(archive);
-                while (entries.hasMoreElements()) {
-                    String entry = entries.nextElement();
-                    URI entryUri = urIable.getEntryURI(entry);
-                    final String archivePath = urIable.getDistanceFromTop();
-                    BundleResource bundleResource = new BundleResource(
-                            entryUri, entry, archivePath);
-                    bundleResources.add(bundleResource);
-                }
+        /**
+         * Create the resource of an entry of the current archive.
+         * @param entry the entry name
+         * @return BundleResource
+         */
+        private BundleResource newResource(final String entry) {
+            URI entryUri;
+            if (archive != null) {
+                entryUri = URIable.class.cast(archive).getEntryURI(entry);
+            } else {
+                entryUri = getEntryURI(distanceFromTop, entry);
             }
-            delegate = bundleResources.iterator();
+            return new BundleResource(entryUri, entry, distanceFromTop);
         }
 
         @Override
         public boolean hasNext() {
-            return delegate.hasNext();
+            while (next == null) {
+                if (entries != null && entries.hasNext()) {
+                    String entry = entries.next();
+                    if (filter == null || filter.accept(entry)) {
+                        next = newResource(entry);
+                        if (found != null) {
+                            found.add(entry);
+                        }
+                    }
+                } else {
+                    store();
+                    if (!nextArchive()) {
+                        archive = null;
+                        entries = null;
+                        return false;
+                    }
+                }
+            }
+            return true;
         }
 
         @Override
         public BundleResource next() {
-            return delegate.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            BundleResource resource = next;
+            next = null;
+            return resource;
         }
 
         @Override
@@ -975,6 +1233,94 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
         }
     }
 
+    /**
+     * Filter matching the resource paths against a glob pattern.
+     */
+    private static final class GlobFilter implements BundleResourceFilter {
+
+        /**
+         * The compiled pattern.
+         */
+        private final Pattern pattern;
+
+        /**
+         * The leading directories of the pattern, or the whole pattern if it
+         * has no wildcard.
+         */
+        private final String prefix;
+
+        /**
+         * {@code true} if the pattern has no wildcard.
+         */
+        private final boolean literal;
+
+        /**
+         * Create a new instance.
+         * @param glob the glob pattern
+         */
+        GlobFilter(final String glob) {
+            StringBuilder regex = new StringBuilder();
+            int wildcard = -1;
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (wildcard == -1) {
+                        wildcard = i;
+                    }
+                    if (c == '?') {
+                        regex.append("[^/]");
+                    } else if (i + 1 < glob.length()
+                            && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    i++;
+                } else {
+                    int end = i;
+                    while (end < glob.length() && glob.charAt(end) != '*'
+                            && glob.charAt(end) != '?') {
+                        end++;
+                    }
+                    regex.append(Pattern.quote(glob.substring(i, end)));
+                    i = end;
+                }
+            }
+            this.pattern = Pattern.compile(regex.toString());
+            this.literal = wildcard == -1;
+            if (literal) {
+                this.prefix = glob;
+            } else {
+                this.prefix = glob.substring(0,
+                        glob.lastIndexOf('/', wildcard) + 1);
+            }
+        }
+
+        /**
+         * Test if the pattern has no wildcard.
+         * @return {@code true} if literal, {@code false} otherwise
+         */
+        boolean isLiteral() {
+            return literal;
+        }
+
+        /**
+         * Get the leading directories of the pattern, or the whole pattern if
+         * it has no wildcard.
+         * @return prefix
+         */
+        String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public boolean accept(final String path) {
+            return pattern.matcher(path).matches();
+        }
+    }
+
     /**
      * URL handler for embedded JAR URL support.
      */
@@ -991,6 +1337,21 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
          */
         static final String SEPARATOR = "!/";
 
+        /**
+         * The cache of embedded jar indexes.
+         */
+        private final EmbeddedJarIndexCache cache;
+
+        /**
+         * Create a new instance.
+         * @param indexCache the cache of embedded jar indexes
+         */
+        EmbeddedJarURLStreamHandlerService(
+                final EmbeddedJarIndexCache indexCache) {
+
+            this.cache = indexCache;
+        }
+
         @Override
         public URLConnection openConnection(final URL entryUri)
                 throws IOException {
@@ -1001,8 +1362,8 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
                         .getSchemeSpecificPart();
                 int idx = schemeSpecificPart.indexOf(SEPARATOR);
                 assert (idx > 0);
-                URL embeddedURL = URI.create(schemeSpecificPart.substring(0,
-                        idx)).toURL();
+                final URL embeddedURL = URI.create(schemeSpecificPart
+                        .substring(0, idx)).toURL();
                 final URLConnection con = embeddedURL.openConnection();
                 final String entryPath = schemeSpecificPart.substring(idx + 2);
                 assert (entryPath.length() > 0);
@@ -1015,16 +1376,9 @@ public final class OSGiBundleArchive extends AbstractReadableArchive
 
                     @Override
                     public InputStream getInputStream() throws IOException {
-                        JarInputStream jis = new JarInputStream(
-                                con.getInputStream());
-                        for (JarEntry je = jis.getNextJarEntry(); je != null;
-                                je = jis.getNextJarEntry()) {
-
-                            if (je.getName().equals(entryPath)) {
-                                return jis;
-                            }
-                        }
-                        throw new IOException("No entry by name " + entryPath);
+                        // The index of the embedded jar is used to seek
+                        // straight to the entry.
+                        return cache.getInputStream(embeddedURL, entryPath);
                     }
                 };
             } catch (URISyntaxException e) {
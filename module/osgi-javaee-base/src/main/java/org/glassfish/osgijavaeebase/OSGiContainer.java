@@ -18,11 +18,26 @@ package org.glassfish.osgijavaeebase;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,25 +53,48 @@ import static org.osgi.framework.Constants.BUNDLE_ACTIVATIONPOLICY;
 /**
  * This class is primarily responsible for deployment and undeployment of EE
  * artifacts of an OSGi bundle.
+ *
+ * Deployment, undeployment and redeployment of a bundle hold a lock specific
+ * to the bundle, so that operations on different bundles run concurrently
+ * while operations on the same bundle are serialized. Queries don't take any
+ * lock. Shutdown waits for the operations in progress and prevents new ones.
+ *
+ * When a deployer is added or removed, the affected bundles are computed
+ * first, then undeployed and deployed again in two parallel waves. A wave is
+ * abandoned if the deployers change again, the bundles it did not process
+ * are carried over to the next redeployment. A removed deployer is kept until
+ * the applications it deployed are undeployed.
  */
 public class OSGiContainer {
 
     /**
      * Context in which this object is operating.
      */
-    private BundleContext context;
+    private volatile BundleContext context;
 
     /**
      * Applications managed.
      */
     private final Map<Bundle, OSGiApplicationInfo> applications
-            = new HashMap<Bundle, OSGiApplicationInfo>();
+            = new ConcurrentHashMap<Bundle, OSGiApplicationInfo>();
 
     /**
      * Services registered by applications.
      */
     private final Map<OSGiApplicationInfo, ServiceRegistration> regs
-            = new HashMap<OSGiApplicationInfo, ServiceRegistration>();
+            = new ConcurrentHashMap<OSGiApplicationInfo,
+                    ServiceRegistration>();
+
+    /**
+     * Locks of the bundles being deployed or undeployed.
+     */
+    private final BundleLocks bundleLocks = new BundleLocks();
+
+    /**
+     * Lock held for reading by the operations on bundles and for writing by
+     * shutdown.
+     */
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
 
     /**
      * Service tracker for deployer service.
@@ -64,15 +102,69 @@ public class OSGiContainer {
     private ServiceTracker deployerTracker;
 
     /**
-     * Sorted in descending order of service ranking.
+     * Sorted in descending order of service ranking. Never modified, replaced
+     * by a new list while holding {@link #deployersLock}.
+     */
+    private volatile List<ServiceReference/*OSGiDeployer*/> sortedDeployerRefs
+            = Collections.emptyList();
+
+    /**
+     * Lock used to update {@link #sortedDeployerRefs}.
+     */
+    private final Object deployersLock = new Object();
+
+    /**
+     * The deployer service objects, held while the deployers are tracked and
+     * until the applications they deployed are undeployed.
+     */
+    private final ConcurrentMap<ServiceReference, OSGiDeployer> deployers
+            = new ConcurrentHashMap<ServiceReference, OSGiDeployer>();
+
+    /**
+     * The deployers no longer tracked, kept in {@link #deployers} until the
+     * applications they deployed are undeployed.
+     */
+    private final Set<ServiceReference> removedDeployers =
+            Collections.newSetFromMap(
+                    new ConcurrentHashMap<ServiceReference, Boolean>());
+
+    /**
+     * The deployer selected per bundle revision. Entries are invalidated
+     * when deployers are added or removed. Does not prevent uninstalled
+     * bundles from being garbage collected.
+     */
+    private final Map<Bundle, DeployerSelection> selections
+            = Collections.synchronizedMap(
+                    new WeakHashMap<Bundle, DeployerSelection>());
+
+    /**
+     * Incremented when the deployers change, updated while holding
+     * {@link #deployersLock}.
      */
-    private final List<ServiceReference/*OSGiDeployer*/> sortedDeployerRefs
-            = new ArrayList<ServiceReference>();
+    private volatile long deployersGeneration;
+
+    /**
+     * Executor computing the redeployments one after another.
+     */
+    private final ExecutorService planner = Executors.newSingleThreadExecutor(
+            new RedeploymentThreadFactory("osgi-javaee-redeployment-planner-"));
+
+    /**
+     * Executor running the waves of undeployments and deployments.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Bundles undeployed or to be undeployed by a redeployment, that are not
+     * yet deployed again.
+     */
+    private final Set<Bundle> pendingRedeploys = Collections.newSetFromMap(
+            new ConcurrentHashMap<Bundle, Boolean>());
 
     /**
      * Flag to track shutdown state.
      */
-    private boolean shutdown = false;
+    private volatile boolean shutdown = false;
 
     /**
      * Logger.
@@ -86,6 +178,9 @@ public class OSGiContainer {
      */
     protected OSGiContainer(final BundleContext ctx) {
         this.context = ctx;
+        int threads = DeploymentScheduler.getThreads(ctx);
+        executor = Executors.newFixedThreadPool(threads,
+                new RedeploymentThreadFactory("osgi-javaee-redeployer-"));
         deployerTracker = new OSGiDeployerTracker();
     }
 
@@ -115,17 +210,35 @@ public class OSGiContainer {
     }
 
     /**
-     * Shutdown the container.
+     * Shutdown the container. Waits for the operations in progress to
+     * complete.
      */
-    protected synchronized void shutdown() {
-        undeployAll();
-        assert (applications.isEmpty() && regs.isEmpty());
-        applications.clear();
-        regs.clear();
-        sortedDeployerRefs.clear();
-        shutdown = true;
+    protected void shutdown() {
+        lifecycleLock.writeLock().lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            undeployAll();
+            assert (applications.isEmpty() && regs.isEmpty());
+            applications.clear();
+            regs.clear();
+            synchronized (deployersLock) {
+                sortedDeployerRefs = Collections.emptyList();
+                deployersGeneration++;
+                selections.clear();
+            }
+            shutdown = true;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
         deployerTracker.close();
         deployerTracker = null;
+        planner.shutdownNow();
+        executor.shutdownNow();
+        pendingRedeploys.clear();
+        removedDeployers.clear();
+        deployers.clear();
         context = null;
     }
 
@@ -138,36 +251,37 @@ public class OSGiContainer {
     }
 
     /**
-     * Redeploy the given application.
-     * @param bundle the bundle of the application
-     * @return the new application info
-     * @throws Exception if an error occurs
+     * Deploys an application bundle in underlying application container in
+     * GlassFish. Deployments of the same bundle are serialized, deployments
+     * of different bundles may run concurrently.
+     *
+     * @param b Bundle to be deployed.
+     * @return {@link OSGiApplicationInfo} instance
      */
-    private synchronized OSGiApplicationInfo redeploy(final Bundle bundle)
-            throws Exception {
-
-        if (isShutdown()) {
-            return null;
-        }
-        if (isDeployed(bundle)) {
-            undeploy(bundle);
+    public OSGiApplicationInfo deploy(final Bundle b) {
+        lifecycleLock.readLock().lock();
+        try {
+            if (isShutdown()) {
+                return null;
+            }
+            ReentrantLock lock = bundleLocks.lock(b);
+            try {
+                return doDeploy(b);
+            } finally {
+                bundleLocks.unlock(b, lock);
+            }
+        } finally {
+            lifecycleLock.readLock().unlock();
         }
-        return deploy(bundle);
     }
 
     /**
-     * Deploys an application bundle in underlying application container in
-     * GlassFish.This method is synchronized because we don't know if GlassFish
-     * deployment framework can handle concurrent requests or not.
-     *
+     * Deploy an application bundle while holding its lock.
      * @param b Bundle to be deployed.
      * @return {@link OSGiApplicationInfo} instance
      */
     @SuppressWarnings("unchecked")
-    public synchronized OSGiApplicationInfo deploy(final Bundle b) {
-        if (isShutdown()) {
-            return null;
-        }
+    private OSGiApplicationInfo doDeploy(final Bundle b) {
         // By the time this extender is processing the bundle, if the bundle
         // has already changed
         // state to STOPPING, then cancel the deployment operation.
@@ -190,8 +304,7 @@ public class OSGiContainer {
             // No deployer recognises this bundle, so return
             return null;
         }
-        OSGiDeployer osgiDeployer = (OSGiDeployer) context
-                .getService(osgiDeployerRef);
+        OSGiDeployer osgiDeployer = getDeployer(osgiDeployerRef);
         if (osgiDeployer == null) {
             LOGGER.logp(Level.WARNING, "OSGiContainer", "deploy",
                     "Bundle {0} can't be deployed because corresponding"
@@ -205,8 +318,14 @@ public class OSGiContainer {
         try {
             osgiAppInfo = osgiDeployer.deploy(b);
         } catch (Exception e) {
-            LOGGER.logp(Level.WARNING, "OSGiContainer", "deploy",
-                    "Failed to deploy bundle " + b, e);
+            if (DeploymentScheduler.isCancelled()) {
+                LOGGER.logp(Level.INFO, "OSGiContainer", "deploy",
+                        "Deployment of bundle {0} cancelled",
+                        new Object[]{b});
+            } else {
+                LOGGER.logp(Level.WARNING, "OSGiContainer", "deploy",
+                        "Failed to deploy bundle " + b, e);
+            }
             return null;
         }
         osgiAppInfo.setDeployer(osgiDeployerRef);
@@ -225,17 +344,35 @@ public class OSGiContainer {
     }
 
     /**
-     * Undeploys a Java EE application bundle. This method is synchronized
-     * because we don't know if GlassFish deployment framework can handle
-     * concurrent requests or not.
+     * Undeploys a Java EE application bundle. Undeployments of the same
+     * bundle are serialized with its deployments, undeployments of different
+     * bundles may run concurrently.
      *
      * @param bundle Bundle to be undeployed
      */
-    @SuppressWarnings("unchecked")
-    public synchronized void undeploy(final Bundle bundle) {
-        if (isShutdown()) {
-            return;
+    public void undeploy(final Bundle bundle) {
+        lifecycleLock.readLock().lock();
+        try {
+            if (isShutdown()) {
+                return;
+            }
+            ReentrantLock lock = bundleLocks.lock(bundle);
+            try {
+                doUndeploy(bundle);
+            } finally {
+                bundleLocks.unlock(bundle, lock);
+            }
+        } finally {
+            lifecycleLock.readLock().unlock();
         }
+    }
+
+    /**
+     * Undeploy an application bundle while holding its lock.
+     * @param bundle Bundle to be undeployed
+     */
+    @SuppressWarnings("unchecked")
+    private void doUndeploy(final Bundle bundle) {
         OSGiApplicationInfo osgiAppInfo = applications.get(bundle);
         if (osgiAppInfo == null) {
             throw new RuntimeException("No applications for bundle " + bundle);
@@ -243,8 +380,7 @@ public class OSGiContainer {
         applications.remove(bundle);
         regs.remove(osgiAppInfo).unregister();
         ServiceReference osgiDeployerRef = osgiAppInfo.getDeployer();
-        OSGiDeployer osgiDeployer = (OSGiDeployer) context
-                .getService(osgiDeployerRef);
+        OSGiDeployer osgiDeployer = getDeployer(osgiDeployerRef);
         if (osgiDeployer == null) {
             LOGGER.logp(Level.WARNING, "OSGiContainer", "undeploy",
                     "Failed to undeploy {0}, because corresponding deployer"
@@ -265,7 +401,7 @@ public class OSGiContainer {
     /**
      * Undeploys all applications.
      */
-    public synchronized void undeployAll() {
+    public void undeployAll() {
         // Take a copy of the entries as undeploy changes the underlying map.
         for (Bundle b : new HashSet<Bundle>(applications.keySet())) {
             try {
@@ -283,7 +419,7 @@ public class OSGiContainer {
      * @param bundle the bundle of the application to test
      * @return {@code true} if deployed, {@code false} otherwise
      */
-    public synchronized boolean isDeployed(final Bundle bundle) {
+    public boolean isDeployed(final Bundle bundle) {
         return applications.containsKey(bundle);
     }
 
@@ -312,30 +448,54 @@ public class OSGiContainer {
     }
 
     /**
-     * Select the deployer for the given bundle.
+     * Select the deployer for the given bundle. The selection is cached per
+     * bundle revision until the deployers change.
      * @param bundle the application bundle
      * @return the deployer service reference if found, or {@code null}
      */
-    @SuppressWarnings("unchecked")
     private ServiceReference selectDeployer(final Bundle bundle) {
+        long lastModified = bundle.getLastModified();
+        DeployerSelection selection = selections.get(bundle);
+        if (selection != null && selection.lastModified == lastModified) {
+            return selection.deployerRef;
+        }
+        // read the generation before the deployers, so that a selection
+        // made with deployers that changed meanwhile is not cached
+        long generation = deployersGeneration;
+        ServiceReference selected = null;
         // deployerRefs is already sorted in descending order of ranking
-        for (ServiceReference deployerRef : sortedDeployerRefs) {
-            OSGiDeployer deployer = OSGiDeployer.class.cast(context
-                    .getService(deployerRef));
+        for (ServiceReference deployerRef : getDeployerRefs()) {
+            OSGiDeployer deployer = getDeployer(deployerRef);
             if (deployer != null) {
                 if (deployer.handles(bundle)) {
-                    return deployerRef;
+                    selected = deployerRef;
+                    break;
                 }
             }
         }
-        return null;
+        synchronized (deployersLock) {
+            if (generation == deployersGeneration) {
+                selections.put(bundle,
+                        new DeployerSelection(lastModified, selected));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Get the service object of a tracked deployer.
+     * @param deployerRef the deployer service reference
+     * @return the deployer, or {@code null} if no longer tracked
+     */
+    private OSGiDeployer getDeployer(final ServiceReference deployerRef) {
+        return deployers.get(deployerRef);
     }
 
     /**
      * Get the applications currently deployed.
      * @return array of application info
      */
-    public synchronized OSGiApplicationInfo[] getDeployedApps() {
+    public OSGiApplicationInfo[] getDeployedApps() {
         // must return a snapshot, because it is used from
         // DeployerRemovedThread.
         return applications.values().toArray(new OSGiApplicationInfo[0]);
@@ -358,8 +518,13 @@ public class OSGiContainer {
         @Override
         @SuppressWarnings("unchecked")
         public Object addingService(final ServiceReference reference) {
+            // held until the deployer is removed
+            Object service = super.addingService(reference);
+            if (service != null) {
+                deployers.put(reference, (OSGiDeployer) service);
+            }
             deployerAdded(reference);
-            return super.addingService(reference);
+            return service;
         }
 
         @Override
@@ -367,24 +532,61 @@ public class OSGiContainer {
         public void removedService(final ServiceReference reference,
                 final Object service) {
 
-            deployerRemoved(reference);
+            if (isShutdown()) {
+                deployers.remove(reference);
+            } else {
+                // the redeployment still needs it to undeploy the
+                // applications it deployed
+                removedDeployers.add(reference);
+                deployerRemoved(reference);
+            }
             super.removedService(reference, service);
         }
 
     }
 
+    /**
+     * Get the deployer service references.
+     * @return snapshot of the deployer service references, sorted in
+     * descending order of service ranking
+     */
+    private List<ServiceReference> getDeployerRefs() {
+        return sortedDeployerRefs;
+    }
+
     /**
      * Add the service reference of a deployer service instance that was added.
      * @param reference the deployer service reference
      */
-    private synchronized void deployerAdded(final ServiceReference reference) {
+    private void deployerAdded(final ServiceReference reference) {
         if (isShutdown()) {
             return;
         }
-        sortedDeployerRefs.add(reference);
-        // descending order
-        Collections.sort(sortedDeployerRefs, Collections.reverseOrder());
-        new DeployerAddedThread(reference).start();
+        long generation;
+        synchronized (deployersLock) {
+            List<ServiceReference> refs = new ArrayList<ServiceReference>(
+                    sortedDeployerRefs);
+            refs.add(reference);
+            // descending order
+            Collections.sort(refs, Collections.reverseOrder());
+            sortedDeployerRefs = Collections.unmodifiableList(refs);
+            // the new deployer takes precedence over the lower ranked
+            // deployers that were selected
+            generation = ++deployersGeneration;
+            synchronized (selections) {
+                Iterator<DeployerSelection> it = selections.values()
+                        .iterator();
+                while (it.hasNext()) {
+                    DeployerSelection selection = it.next();
+                    if (selection.deployerRef == null
+                            || reference.compareTo(
+                                    selection.deployerRef) > 0) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        schedule(new RedeploymentPlan(reference, true, generation));
     }
 
     /**
@@ -396,91 +598,323 @@ public class OSGiContainer {
         if (isShutdown()) {
             return;
         }
-        sortedDeployerRefs.remove(reference);
-        new DeployerRemovedThread(reference).start();
+        long generation;
+        synchronized (deployersLock) {
+            List<ServiceReference> refs = new ArrayList<ServiceReference>(
+                    sortedDeployerRefs);
+            refs.remove(reference);
+            sortedDeployerRefs = Collections.unmodifiableList(refs);
+            generation = ++deployersGeneration;
+            synchronized (selections) {
+                Iterator<DeployerSelection> it = selections.values()
+                        .iterator();
+                while (it.hasNext()) {
+                    if (reference.equals(it.next().deployerRef)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        schedule(new RedeploymentPlan(reference, false, generation));
+    }
+
+    /**
+     * Forget the removed deployers that no longer have any application
+     * deployed.
+     */
+    private void purgeRemovedDeployers() {
+        for (ServiceReference ref : removedDeployers) {
+            boolean used = false;
+            for (OSGiApplicationInfo app : getDeployedApps()) {
+                if (ref.equals(app.getDeployer())) {
+                    used = true;
+                    break;
+                }
+            }
+            if (!used) {
+                removedDeployers.remove(ref);
+                deployers.remove(ref);
+            }
+        }
+    }
+
+    /**
+     * Schedule a redeployment.
+     * @param plan the redeployment
+     */
+    private void schedule(final RedeploymentPlan plan) {
+        try {
+            planner.execute(plan);
+        } catch (RejectedExecutionException ex) {
+            // shutdown
+            LOGGER.logp(Level.FINE, "OSGiContainer", "schedule",
+                    "Ignoring redeployment for deployer {0}",
+                    new Object[]{plan.deployerRef});
+        }
     }
 
     /**
-     * A thread to re-deploy the bundles handled by a given deployer when it is
-     *  added.
+     * Redeploys the bundles affected by the addition or the removal of a
+     * deployer. All the affected bundles that are deployed are undeployed in
+     * a first wave, then all of them are deployed in a second wave.
      */
-    private final class DeployerAddedThread extends Thread {
+    private final class RedeploymentPlan implements Runnable {
 
         /**
          * The deployer service reference.
          */
-        private final ServiceReference newDeployerRef;
+        private final ServiceReference deployerRef;
+
+        /**
+         * {@code true} if the deployer was added, {@code false} if removed.
+         */
+        private final boolean added;
+
+        /**
+         * The generation of the deployers this redeployment was planned for.
+         */
+        private final long generation;
 
         /**
          * Create a new instance.
-         * @param ref the new deployer service reference
+         * @param ref the deployer service reference
+         * @param isAdded {@code true} if the deployer was added
+         * @param deployersGen the generation of the deployers
          */
-        private DeployerAddedThread(final ServiceReference ref) {
-            this.newDeployerRef = ref;
+        RedeploymentPlan(final ServiceReference ref, final boolean isAdded,
+                final long deployersGen) {
+
+            this.deployerRef = ref;
+            this.added = isAdded;
+            this.generation = deployersGen;
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         public void run() {
-            synchronized (OSGiContainer.this) {
-                OSGiDeployer newDeployer = (OSGiDeployer) context
-                        .getService(newDeployerRef);
-                if (newDeployer == null) {
-                    return;
+            try {
+                runWaves();
+            } finally {
+                purgeRemovedDeployers();
+            }
+        }
+
+        /**
+         * Undeploy and deploy again the affected bundles.
+         */
+        private void runWaves() {
+            if (isShutdown()) {
+                return;
+            }
+            // compute all the affected bundles first, without any lock
+            Set<Bundle> affected = new LinkedHashSet<Bundle>(
+                    pendingRedeploys);
+            if (added) {
+                addHandledBundles(affected);
+            } else {
+                for (OSGiApplicationInfo app : getDeployedApps()) {
+                    if (app.getDeployer() == deployerRef) {
+                        affected.add(app.getBundle());
+                    }
                 }
-                for (Bundle b : context.getBundles()) {
-                    if (isReady(b) && newDeployer.handles(b)) {
-                        try {
-                            redeploy(b);
-                        } catch (Exception e) {
-                            LOGGER.logp(Level.WARNING, "OSGiContainer",
-                                    "addingService",
-                                    "Exception redeploying bundle " + b, e);
-                        }
+            }
+            if (affected.isEmpty()) {
+                return;
+            }
+            pendingRedeploys.addAll(affected);
+            if (isCancelled()) {
+                // a more recent redeployment takes care of the pending
+                // bundles
+                return;
+            }
+            LOGGER.logp(Level.FINE, "OSGiContainer", "run",
+                    "Redeploying {0} bundles for deployer {1}",
+                    new Object[]{affected.size(), deployerRef});
+
+            List<Bundle> undeploys = new ArrayList<Bundle>();
+            for (Bundle b : affected) {
+                if (isDeployed(b)) {
+                    undeploys.add(b);
+                }
+            }
+            if (!runWave(undeploys, false)
+                    || !runWave(new ArrayList<Bundle>(affected), true)) {
+                LOGGER.logp(Level.INFO, "OSGiContainer", "run",
+                        "Redeployment for deployer {0} abandoned as the"
+                        + " deployers changed", new Object[]{deployerRef});
+            }
+        }
+
+        /**
+         * Add the ready bundles handled by the added deployer, unless they
+         * are deployed by a higher ranked deployer.
+         * @param affected the set to add the bundles to
+         */
+        private void addHandledBundles(final Set<Bundle> affected) {
+            BundleContext ctx = context;
+            OSGiDeployer newDeployer = getDeployer(deployerRef);
+            if (ctx == null || newDeployer == null) {
+                return;
+            }
+            for (Bundle b : ctx.getBundles()) {
+                if (isReady(b) && newDeployer.handles(b)) {
+                    OSGiApplicationInfo app = applications.get(b);
+                    if (app == null || app.getDeployer() == null
+                            || app.getDeployer().compareTo(deployerRef) < 0) {
+                        affected.add(b);
                     }
                 }
             }
         }
+
+        /**
+         * Test if this redeployment is no longer current.
+         * @return {@code true} if the deployers changed or if the container
+         * is shutdown
+         */
+        private boolean isCancelled() {
+            return isShutdown() || generation != deployersGeneration;
+        }
+
+        /**
+         * Undeploy or deploy bundles in parallel and wait for completion.
+         * The bundles that are not processed because the redeployment is
+         * cancelled are left pending.
+         * @param bundles the bundles
+         * @param deploy {@code true} to deploy, {@code false} to undeploy
+         * @return {@code false} if cancelled, {@code true} otherwise
+         */
+        private boolean runWave(final List<Bundle> bundles,
+                final boolean deploy) {
+
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Bundle b : bundles) {
+                try {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isCancelled()) {
+                                return;
+                            }
+                            if (deploy) {
+                                redeploy(b);
+                            } else {
+                                undeployForRedeploy(b);
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException ex) {
+                    // shutdown
+                    return false;
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException ex) {
+                    LOGGER.logp(Level.WARNING, "OSGiContainer", "runWave",
+                            "Exception redeploying bundles", ex.getCause());
+                }
+            }
+            return !isCancelled();
+        }
+
+        /**
+         * Undeploy a bundle as part of the first wave.
+         * @param b the bundle
+         */
+        private void undeployForRedeploy(final Bundle b) {
+            try {
+                if (isDeployed(b)) {
+                    undeploy(b);
+                }
+            } catch (Exception e) {
+                LOGGER.logp(Level.WARNING, "OSGiContainer",
+                        "undeployForRedeploy",
+                        "Exception undeploying bundle " + b, e);
+            }
+        }
+
+        /**
+         * Deploy a bundle as part of the second wave, if it is ready and not
+         * deployed already.
+         * @param b the bundle
+         */
+        private void redeploy(final Bundle b) {
+            try {
+                if (isReady(b) && !isDeployed(b)) {
+                    deploy(b);
+                }
+            } catch (Exception e) {
+                LOGGER.logp(Level.WARNING, "OSGiContainer", "redeploy",
+                        "Exception redeploying bundle " + b, e);
+            } finally {
+                pendingRedeploys.remove(b);
+            }
+        }
     }
 
     /**
-     * A thread to re-deploy the applications handled by a given deployer
-     * when it is removed.
+     * Creates daemon threads for the redeployments.
      */
-    private final class DeployerRemovedThread extends Thread {
+    private static final class RedeploymentThreadFactory
+            implements ThreadFactory {
 
         /**
-         * The deployer service reference.
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        /**
+         * Prefix of the thread names.
          */
-        private final ServiceReference oldDeployerRef;
+        private final String prefix;
 
         /**
          * Create a new instance.
-         * @param ref the old deployer service reference
+         * @param namePrefix prefix of the thread names
          */
-        private DeployerRemovedThread(final ServiceReference ref) {
-            this.oldDeployerRef = ref;
+        RedeploymentThreadFactory(final String namePrefix) {
+            this.prefix = namePrefix;
         }
 
         @Override
-        public void run() {
-            synchronized (OSGiContainer.this) {
-                // getDeployedApps returns a snapshot which is essential
-                // because redeploy() changes the collection.
-                for (OSGiApplicationInfo osgiApplicationInfo
-                        : getDeployedApps()) {
-                    if (osgiApplicationInfo.getDeployer() == oldDeployerRef) {
-                        try {
-                            redeploy(osgiApplicationInfo.getBundle());
-                        } catch (Exception e) {
-                            LOGGER.logp(Level.WARNING, "DeployerRemovedThread",
-                                    "run", "Exception redeploying bundle "
-                                            + osgiApplicationInfo.getBundle(),
-                                    e);
-                        }
-                    }
-                }
-            }
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, prefix + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The deployer selected for a bundle revision.
+     */
+    private static final class DeployerSelection {
+
+        /**
+         * Last modified time of the bundle revision.
+         */
+        private final long lastModified;
+
+        /**
+         * The selected deployer, {@code null} if no deployer handles the
+         * bundle.
+         */
+        private final ServiceReference deployerRef;
+
+        /**
+         * Create a new instance.
+         * @param bndLastModified the last modified time of the bundle
+         * revision
+         * @param ref the selected deployer, or {@code null}
+         */
+        DeployerSelection(final long bndLastModified,
+                final ServiceReference ref) {
+
+            this.lastModified = bndLastModified;
+            this.deployerRef = ref;
         }
     }
 }
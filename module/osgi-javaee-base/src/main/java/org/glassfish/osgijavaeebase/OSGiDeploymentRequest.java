@@ -16,13 +16,11 @@
 package org.glassfish.osgijavaeebase;
 
 import com.sun.enterprise.deploy.shared.ArchiveFactory;
-import com.sun.enterprise.util.io.FileUtils;
 import org.glassfish.api.ActionReport;
 import org.glassfish.api.admin.ServerEnvironment;
 import org.glassfish.api.deployment.DeployCommandParameters;
 import org.glassfish.api.deployment.OpsParams;
 import org.glassfish.api.deployment.archive.ReadableArchive;
-import org.glassfish.api.deployment.archive.WritableArchive;
 import org.glassfish.internal.api.Globals;
 import org.glassfish.internal.data.ApplicationInfo;
 import org.glassfish.internal.deployment.Deployment;
@@ -30,6 +28,7 @@ import org.glassfish.server.ServerEnvironmentImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleReference;
+import org.osgi.framework.ServiceReference;
 
 import java.io.File;
 import java.io.IOException;
@@ -129,11 +128,13 @@ public abstract class OSGiDeploymentRequest {
 
     /**
      * Deploys a web application bundle in GlassFish Web container. It properly
-     * rolls back if something goes wrong.
+     * rolls back if something goes wrong or if the deployment is cancelled
+     * between two phases.
      *
-     * @return OSGIApplicationInfo
+     * @return OSGIApplicationInfo, {@code null} if failed or cancelled
      */
     public OSGiApplicationInfo execute() {
+        long start = System.nanoTime();
         try {
             preDeploy();
         } catch (DeploymentException e) {
@@ -141,23 +142,63 @@ public abstract class OSGiDeploymentRequest {
                     "Failed while deploying bundle " + bundle, e);
             // return without calling postDeploy()
             return result;
+        } finally {
+            start = record(DeploymentStatistics.PRE_DEPLOY, start);
         }
         // This is where the fun is...
         try {
-            prepare();
-            // Now actual deployment begins
-            result = deploy();
+            if (prepare()) {
+                // Now actual deployment begins
+                start = System.nanoTime();
+                try {
+                    result = deploy();
+                } finally {
+                    record(DeploymentStatistics.DEPLOY, start);
+                }
+            }
         } catch (Exception e) {
             reporter.failure(LOGGER,
                     "Failed while deploying bundle " + bundle, e);
         } finally {
             // call even if something failed so that the actions in
             // predeploy() can be rolled back.
-            postDeploy();
+            start = System.nanoTime();
+            try {
+                postDeploy();
+            } finally {
+                record(DeploymentStatistics.POST_DEPLOY, start);
+            }
         }
         return result;
     }
 
+    /**
+     * Test if the deployment has been cancelled, e.g. because the bundle is
+     * stopping. A deployment is only cancelled between two phases.
+     * @param phase the next phase
+     * @return {@code true} if cancelled, {@code false} otherwise
+     */
+    private boolean isCancelled(final String phase) {
+        if (DeploymentScheduler.isCancelled()) {
+            LOGGER.logp(Level.INFO, "OSGiDeploymentRequest", "isCancelled",
+                    "Deployment of bundle {0} cancelled before phase {1}",
+                    new Object[]{bundle, phase});
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the time of a phase in the {@link DeploymentStatistics}.
+     * @param phase the phase
+     * @param start the start time of the phase, from
+     * {@link System#nanoTime()}
+     * @return the end time of the phase, from {@link System#nanoTime()}
+     */
+    private long record(final String phase, final long start) {
+        return DeploymentStatisticsImpl.record(this, phase, bundle, start);
+    }
+
     /**
      * The steps are described below: 1. Create an Archive from the bundle - If
      * the bundle has been installed with reference: scheme, get hold hold of
@@ -174,25 +215,67 @@ public abstract class OSGiDeploymentRequest {
      * and eventually hit by issue #10536. 3. Finally deploy and store the
      * result in our inmemory map.
      *
+     * The deployment stops before each step if it has been cancelled.
+     *
+     * @return {@code true} if prepared, {@code false} if cancelled
      * @throws Exception if an error occurs
      */
-    private void prepare() throws Exception {
+    private boolean prepare() throws Exception {
 
+        if (isCancelled(DeploymentStatistics.MAKE_ARCHIVE)) {
+            return false;
+        }
+        long start = System.nanoTime();
         archive = makeArchive();
+        start = record(DeploymentStatistics.MAKE_ARCHIVE, start);
 
-        // Set up a deployment context
-        OpsParams opsParams = getDeployParams();
+        // From now on, the archive is closed unless the deployment proceeds.
+        boolean prepared = false;
+        try {
+            // Set up a deployment context
+            OpsParams opsParams = getDeployParams();
 
-        // expand if necessary, else set directory deployment to true
-        expandIfNeeded();
-
-        dc = getDeploymentContextImpl(
-                reporter,
-                LOGGER,
-                archive,
-                opsParams,
-                env,
-                bundle);
+            if (isCancelled(DeploymentStatistics.EXPAND)) {
+                return false;
+            }
+            // expand if necessary, else set directory deployment to true
+            start = System.nanoTime();
+            long expandedSize = expandIfNeeded();
+            DeploymentStatisticsImpl.record(this, DeploymentStatistics.EXPAND,
+                    bundle, start, expandedSize);
+
+            // From now on, the expanded content is released unless the
+            // deployment proceeds.
+            try {
+                if (isCancelled(
+                        DeploymentStatistics.GET_DEPLOYMENT_CONTEXT)) {
+                    return false;
+                }
+                start = System.nanoTime();
+                dc = getDeploymentContextImpl(
+                        reporter,
+                        LOGGER,
+                        archive,
+                        opsParams,
+                        env,
+                        bundle);
+                record(DeploymentStatistics.GET_DEPLOYMENT_CONTEXT, start);
+
+                if (isCancelled(DeploymentStatistics.DEPLOY)) {
+                    return false;
+                }
+                prepared = true;
+                return true;
+            } finally {
+                if (!prepared) {
+                    cleanup(makeFile(archive));
+                }
+            }
+        } finally {
+            if (!prepared) {
+                close(archive);
+            }
+        }
     }
 
     /**
@@ -255,34 +338,49 @@ public abstract class OSGiDeploymentRequest {
                         reporter.getFailureCause());
             }
         } finally {
-            if (!dirDeployment && appInfo == null) {
-                try {
-                    File dir = dc.getSourceDir();
-                    assert (dir.isDirectory());
-                    if (FileUtils.whack(dir)) {
-                        LOGGER.logp(Level.INFO, "OSGiDeploymentRequest",
-                                "deploy", "Deleted {0}", new Object[]{dir});
-                    } else {
-                        LOGGER.logp(Level.WARNING, "OSGiDeploymentRequest",
-                                "deploy", "Unable to delete {0} ",
-                                new Object[]{dir});
-                    }
-                } catch (Exception e2) {
-                    LOGGER.logp(Level.WARNING, "OSGiDeploymentRequest",
-                            "deploy",
-                            "Exception while cleaning up target directory.",
-                            e2);
-                    // don't throw this anymore
-                }
+            if (appInfo == null) {
+                cleanup(dc.getSourceDir());
+            }
+        }
+    }
+
+    /**
+     * Release or delete the expanded content of an application that is not
+     * deployed.
+     * @param dir the expanded directory
+     */
+    private void cleanup(final File dir) {
+        if (dirDeployment) {
+            return;
+        }
+        try {
+            assert (dir.isDirectory());
+            if (ExpansionCache.release(dir)) {
+                LOGGER.logp(Level.FINE, "OSGiDeploymentRequest",
+                        "cleanup", "Released {0}", new Object[]{dir});
+            } else if (TombstoneReaper.delete(dir)) {
+                LOGGER.logp(Level.INFO, "OSGiDeploymentRequest",
+                        "cleanup", "Deleted {0}", new Object[]{dir});
+            } else {
+                LOGGER.logp(Level.WARNING, "OSGiDeploymentRequest",
+                        "cleanup", "Unable to delete {0} ",
+                        new Object[]{dir});
             }
+        } catch (Exception e2) {
+            LOGGER.logp(Level.WARNING, "OSGiDeploymentRequest",
+                    "cleanup",
+                    "Exception while cleaning up target directory.",
+                    e2);
+            // don't throw this anymore
         }
     }
 
     /**
      * Expand the application archive on disk if needed.
+     * @return the size of the expanded content, {@code 0} if not expanded
      * @throws IOException if an error occurs
      */
-    private void expandIfNeeded() throws IOException {
+    private long expandIfNeeded() throws IOException {
 
         // Try to obtain a handle to the underlying archive.
         // First see if it is backed by a file or a directory, else treat
@@ -295,72 +393,89 @@ public abstract class OSGiDeploymentRequest {
             LOGGER.logp(Level.FINE, "OSGiDeploymentRequest", "expandIfNeeded",
                     "Archive is already expanded at = {0}",
                     new Object[]{file});
+            ReadableArchive bundleArchive = archive;
             archive = archiveFactory.openArchive(file);
-            return;
+            close(bundleArchive);
+            return 0;
         }
 
-        // ok we need to explode the archive somwhere and
-        // remember to delete it on shutdown
-        File tmpFile = getExplodedDir();
-        tmpFile.deleteOnExit();
-
-        // We don't reuse old directory at this point of time as we are not
-        // completely sure if it is safe to reuse.
-        // It is possible that we had a semicomplete directory from previous
-        // execution.
-        // e.g., if glassfish can be killed while osgi-container is exploding
-        // the archive.
-        // or glassfish can be killed while it was in the middle of deleting
-        // the previously exploded directory.
-        // So, better to not reuse existing directory until we ensure that
-        // explosion or removal are atomic operations.
-        if (tmpFile.exists()) {
-            LOGGER.logp(Level.INFO, "OSGiDeploymentRequest", "expandIfNeeded",
-                    "Going to delete existing exploded content found at {0}",
-                    new Object[]{tmpFile});
-            if (!FileUtils.whack(tmpFile)) {
-                throw new IOException(
-                        "Unable to delete directory wth name " + tmpFile);
-            }
+        // Expand in the persistent cache, which reuses previously expanded
+        // content if the archive content did not change. The expanded
+        // directory is named after a digest of the content, so there is no
+        // risk of using stale contents.
+        // If the bundle is backed by a jar, expand straight from the jar
+        // instead of reading each entry through the bundle. When the bundle
+        // is updated, the content expanded for its previous revision is
+        // patched rather than expanded again.
+        File expandedDir = ExpansionCache.acquire(archive, file,
+                getContentDigest(),
+                archive.getClass().getName() + "#" + bundle.getBundleId(),
+                new ArchiveExpander());
+        ReadableArchive bundleArchive = archive;
+        try {
+            archive = archiveFactory.openArchive(expandedDir);
+        } catch (IOException ex) {
+            cleanup(expandedDir);
+            throw ex;
         }
-        if (!tmpFile.mkdirs()) {
-            throw new IOException("Not able to expand " + archive.getName()
-                    + " in " + tmpFile);
+        close(bundleArchive);
+        return ExpansionCache.getSize(expandedDir);
+    }
+
+    /**
+     * Close an archive that is no longer used, logging any error.
+     * @param ra the archive to close
+     */
+    private static void close(final ReadableArchive ra) {
+        try {
+            ra.close();
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "OSGiDeploymentRequest", "close",
+                    "Unable to close " + ra.getURI(), ex);
         }
-        WritableArchive targetArchive = archiveFactory.createArchive(tmpFile);
-        new OSGiArchiveHandler().expand(archive, targetArchive, dc);
-        LOGGER.logp(Level.INFO, "OSGiDeploymentRequest", "expandIfNeeded",
-                "Expanded at {0}", new Object[]{targetArchive.getURI()});
-        archive = archiveFactory.openArchive(tmpFile);
     }
 
     /**
-     * We don't keep the file in tmpdir, because in some deployment environment,
-     * the tmpdir is periodically cleaned up by external programs to reclaim
-     * memory. So, we keep them under application dir in bundle private storage
-     * area. More over, we need to make sure that the directory is named
-     * uniquely to avoid accidental reuse. So, we include Bundle-Id and
-     * Bundle-LastModifiedTimestamp in the dir name.
-     *
-     * @return the directory where the OSGi application will be exploded during
-     * deployment
+     * Get a digest of the content of the application archive from the
+     * {@link BundleDigestService}. The digest of a bundle is computed once
+     * per bundle revision and persisted, so that updating a bundle with the
+     * same content does not require to read it again.
+     * @return hex encoded digest, or {@code null} if the archive type is not
+     * known or if the service is not available
+     * @throws IOException if an error occurs
      */
-    private File getExplodedDir() {
-        BundleContext ctx = getBundleContext(this.getClass());
-        File bundleBaseStorage = ctx.getDataFile("");
-        // We keep everything under application directory.
-        // We include Bundle-Id and Bundle-Timestamp to ensure that we don't
-        // accidentally use stale contents.
-        // Assume the following where stale contents can be there in a file if
-        // we don't use timestamp in name:
-        // a wab deployed. Now system is stopped forcefully. During next restart
-        // osgi-webcontainer
-        // is not started, but wab is updated. Next time, osgi-web-container
-        // comes up, it should not end up using
-        // previously exploded directory.
-        final String name = "applications" + File.separator + "bundle"
-                + bundle.getBundleId() + "-" + bundle.getLastModified();
-        return new File(bundleBaseStorage, name);
+    private String getContentDigest() throws IOException {
+        if (!(archive instanceof OSGiBundleArchive)
+                && !(archive instanceof OSGiJavaEEArchive)) {
+            return null;
+        }
+        BundleContext ctx = getBundleContext(OSGiDeploymentRequest.class);
+        ServiceReference ref = ctx.getServiceReference(
+                BundleDigestService.class.getName());
+        if (ref == null) {
+            return null;
+        }
+        BundleDigestService digestService = (BundleDigestService) ctx
+                .getService(ref);
+        if (digestService == null) {
+            return null;
+        }
+        try {
+            String digest;
+            if (archive instanceof OSGiBundleArchive) {
+                digest = BundleDigestServiceImpl.getDigest(digestService,
+                        ((OSGiBundleArchive) archive).getBundle());
+            } else {
+                OSGiJavaEEArchive javaeeArchive = (OSGiJavaEEArchive) archive;
+                digest = BundleDigestServiceImpl.getDigest(digestService,
+                        javaeeArchive.getHost(), javaeeArchive.getFragments());
+            }
+            // the archive type determines the layout of the expanded content
+            return BundleDigestServiceImpl.combine(
+                    archive.getClass().getName(), digest);
+        } finally {
+            ctx.ungetService(ref);
+        }
     }
 
     /**
@@ -17,6 +17,8 @@ package org.glassfish.osgijavaeebase;
 
 import java.util.Dictionary;
 import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -31,6 +33,12 @@ import static org.glassfish.osgijavaeebase.OSGiBundleArchive.EmbeddedJarURLStrea
  */
 public final class OSGiJavaEEActivator implements BundleActivator {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            OSGiJavaEEActivator.class.getPackage().getName());
+
     /**
      * The extender manager.
      */
@@ -41,14 +49,53 @@ public final class OSGiJavaEEActivator implements BundleActivator {
      */
     private ServiceRegistration urlHandlerServiceRegistration;
 
+    /**
+     * The cache of embedded jar indexes used by the URL handler.
+     */
+    private EmbeddedJarIndexCache embeddedJarIndexCache;
+
     /**
      * The service registration for {@link JavaEEExtender}.
      */
     private ServiceRegistration javaeeExtenderServiceRegistration;
 
+    /**
+     * The bundle digest service.
+     */
+    private BundleDigestServiceImpl digestService;
+
+    /**
+     * The service registration for {@link BundleDigestService}.
+     */
+    private ServiceRegistration digestServiceRegistration;
+
+    /**
+     * The service registration for {@link ScanResultCache}.
+     */
+    private ServiceRegistration scanCacheRegistration;
+
+    /**
+     * The service registration for {@link DeploymentStatistics}.
+     */
+    private ServiceRegistration statisticsServiceRegistration;
+
+    /**
+     * Deletes the materialized jars of the uninstalled bundles.
+     */
+    private final BundleJarCache.UninstallListener jarCacheListener =
+            new BundleJarCache.UninstallListener();
+
     @Override
     public void start(final BundleContext context) throws Exception {
+        ExpansionCache.sweep();
+        ArchiveExpander.start(getExpansionThreads(context));
+        context.addBundleListener(jarCacheListener);
         addURLHandler(context);
+        addDigestService(context);
+        addScanResultCache(context);
+        statisticsServiceRegistration = context.registerService(
+                DeploymentStatistics.class.getName(),
+                DeploymentStatisticsImpl.getInstance(), null);
         extenderManager = new ExtenderManager(context);
         extenderManager.start();
         addExtender(context);
@@ -58,7 +105,44 @@ public final class OSGiJavaEEActivator implements BundleActivator {
     public void stop(final BundleContext context) throws Exception {
         removeExtender();
         extenderManager.stop();
-        removeURLHandler();
+        if (statisticsServiceRegistration != null) {
+            statisticsServiceRegistration.unregister();
+        }
+        removeScanResultCache();
+        removeDigestService(context);
+        removeURLHandler(context);
+        ArchiveExpander.shutdown();
+        context.removeBundleListener(jarCacheListener);
+        ExpansionCache.close();
+        TombstoneReaper.shutdown();
+        BundleFileResolvers.close();
+    }
+
+    /**
+     * Get the configured maximum number of threads used to expand archives.
+     * @param context the bundle context
+     * @return number of threads, {@code 0} to use the number of available
+     * processors
+     */
+    private static int getExpansionThreads(final BundleContext context) {
+        String threads = context.getProperty(
+                ArchiveExpander.EXPANSION_THREADS);
+        if (threads == null) {
+            return 0;
+        }
+        try {
+            int value = Integer.parseInt(threads.trim());
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException ex) {
+            // logged below
+        }
+        LOGGER.logp(Level.WARNING, "OSGiJavaEEActivator",
+                "getExpansionThreads",
+                "Invalid value {0} for {1}, using the number of processors",
+                new Object[]{threads, ArchiveExpander.EXPANSION_THREADS});
+        return 0;
     }
 
     /**
@@ -79,6 +163,54 @@ public final class OSGiJavaEEActivator implements BundleActivator {
         javaeeExtenderServiceRegistration.unregister();
     }
 
+    /**
+     * Create a new instance of {@link BundleDigestService} and register it as
+     * an OSGi service.
+     * @param context the bundle context
+     */
+    private void addDigestService(final BundleContext context) {
+        digestService = new BundleDigestServiceImpl(context);
+        context.addBundleListener(digestService);
+        digestServiceRegistration = context.registerService(
+                BundleDigestService.class.getName(), digestService, null);
+    }
+
+    /**
+     * Unregisters the bundle digest service.
+     * @param context the bundle context
+     */
+    private void removeDigestService(final BundleContext context) {
+        if (digestServiceRegistration != null) {
+            digestServiceRegistration.unregister();
+        }
+        if (digestService != null) {
+            context.removeBundleListener(digestService);
+            digestService.close();
+        }
+    }
+
+    /**
+     * Create a new instance of {@link ScanResultCache} and register it as an
+     * OSGi service.
+     * @param context the bundle context
+     */
+    private void addScanResultCache(final BundleContext context) {
+        ScanResultCacheImpl scanCache = new ScanResultCacheImpl(context,
+                digestService);
+        scanCache.sweep();
+        scanCacheRegistration = context.registerService(
+                ScanResultCache.class.getName(), scanCache, null);
+    }
+
+    /**
+     * Unregisters the scan result cache.
+     */
+    private void removeScanResultCache() {
+        if (scanCacheRegistration != null) {
+            scanCacheRegistration.unregister();
+        }
+    }
+
     /**
      * Create a new instance of {@link EmbeddedJarURLStreamHandlerService} and
      * register it as an OSGi service.
@@ -86,19 +218,27 @@ public final class OSGiJavaEEActivator implements BundleActivator {
      */
     @SuppressWarnings("unchecked")
     private void addURLHandler(final BundleContext context) {
+        embeddedJarIndexCache = new EmbeddedJarIndexCache(context);
+        context.addBundleListener(embeddedJarIndexCache);
         Dictionary p = new Properties();
         p.put(URLConstants.URL_HANDLER_PROTOCOL, EMBEDDED_JAR_SCHEME);
         urlHandlerServiceRegistration = context
                 .registerService(URLStreamHandlerService.class.getName(),
-                        new EmbeddedJarURLStreamHandlerService(), p);
+                        new EmbeddedJarURLStreamHandlerService(
+                                embeddedJarIndexCache), p);
     }
 
     /**
      * Unregisters the URL handler service.
+     * @param context the bundle context
      */
-    private void removeURLHandler() {
+    private void removeURLHandler(final BundleContext context) {
         if (urlHandlerServiceRegistration != null) {
             urlHandlerServiceRegistration.unregister();
         }
+        if (embeddedJarIndexCache != null) {
+            context.removeBundleListener(embeddedJarIndexCache);
+            embeddedJarIndexCache.clear();
+        }
     }
 }
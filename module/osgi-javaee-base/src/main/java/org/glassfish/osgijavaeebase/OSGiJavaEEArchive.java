@@ -16,6 +16,7 @@
 package org.glassfish.osgijavaeebase;
 
 import com.sun.enterprise.deploy.shared.AbstractReadableArchive;
+import org.glassfish.api.deployment.archive.Archive;
 import org.glassfish.api.deployment.archive.ReadableArchive;
 import org.osgi.framework.Bundle;
 
@@ -31,7 +32,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.TreeSet;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -43,8 +44,6 @@ import java.util.jar.Manifest;
 public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
         implements ReadableArchive {
 
-    // TODO(Sahoo): Lazy population of entries
-
     /**
      * Constant for JAR file extension.
      */
@@ -66,10 +65,25 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
     private Bundle[] fragments;
 
     /**
-     * The archive entries.
+     * The entry sources, in increasing order of precedence.
+     */
+    private final List<EntrySource> sources = new ArrayList<EntrySource>();
+
+    /**
+     * The manifest entry of the host, {@code null} if the host does not have
+     * a manifest.
+     */
+    private ArchiveEntry manifestEntry;
+
+    /**
+     * The sorted names of all the file entries, computed on first use.
+     */
+    private NameTable names;
+
+    /**
+     * The total size of the file entries, computed on first use.
      */
-    private Map<String, ArchiveEntry> entries =
-            new HashMap<String, ArchiveEntry>();
+    private long archiveSize = -1;
 
     /**
      * The bundle archives.
@@ -97,10 +111,8 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
         // manifest.
         final URI hostManifestURI = getArchive(hostBdn)
                 .getEntryURI(JarFile.MANIFEST_NAME);
-        if (hostManifestURI == null) {
-            getEntries().remove(JarFile.MANIFEST_NAME);
-        } else {
-            getEntries().put(JarFile.MANIFEST_NAME, new ArchiveEntry() {
+        if (hostManifestURI != null) {
+            manifestEntry = new ArchiveEntry() {
 
                 @Override
                 public String getName() {
@@ -116,7 +128,13 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
                 public InputStream getInputStream() throws IOException {
                     return getURI().toURL().openStream();
                 }
-            });
+
+                @Override
+                public long getSize() {
+                    return getArchive(host).getEntrySize(
+                            JarFile.MANIFEST_NAME);
+                }
+            };
         }
     }
 
@@ -153,18 +171,89 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
     }
 
     /**
-     * Get the archive entries.
-     * @return map of entries
+     * Add a source of entries. Entries of the given source take precedence
+     * over the entries with the same name of the sources added before.
+     * @param source the source to add
      */
-    protected final Map<String, ArchiveEntry> getEntries() {
-        return entries;
+    protected final synchronized void addEntrySource(
+            final EntrySource source) {
+
+        sources.add(source);
+        names = null;
+        archiveSize = -1;
     }
 
     /**
-     * Initialize the archive.
+     * Initialize the archive by adding its entry sources. Sources are only
+     * indexed when an entry is looked up.
      */
     protected abstract void init();
 
+    /**
+     * Find an entry by name.
+     * @param name the entry name
+     * @return ArchiveEntry or {@code null} if not found
+     * @throws IOException if an error occurs
+     */
+    private ArchiveEntry findEntry(final String name) throws IOException {
+        // the host's manifest replaces any other manifest. If host does not
+        // have a manifest, then this archive will also not have a manifest.
+        if (JarFile.MANIFEST_NAME.equals(name)) {
+            return manifestEntry;
+        }
+        List<EntrySource> srcs;
+        synchronized (this) {
+            srcs = new ArrayList<EntrySource>(sources);
+        }
+        for (int i = srcs.size() - 1; i >= 0; i--) {
+            ArchiveEntry entry = srcs.get(i).getEntry(name);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the sorted names of all the file entries.
+     * @return NameTable
+     */
+    private synchronized NameTable getNames() {
+        if (names == null) {
+            TreeSet<String> all = new TreeSet<String>();
+            try {
+                for (EntrySource source : sources) {
+                    for (String name : source.getEntryNames()) {
+                        // only file entries as per the contract of entries()
+                        if (!name.endsWith("/")) {
+                            all.add(name);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // TODO(Sahoo): Proper Exception Handling
+                throw new RuntimeException(e);
+            }
+            if (manifestEntry != null) {
+                all.add(JarFile.MANIFEST_NAME);
+            } else {
+                all.remove(JarFile.MANIFEST_NAME);
+            }
+            names = NameTable.of(all);
+        }
+        return names;
+    }
+
+    /**
+     * Get the sorted names of the file entries that start with the given
+     * prefix.
+     * @param prefix the prefix
+     * @return list of entry names
+     */
+    private List<String> getNames(final String prefix) {
+        return getNames().withPrefix(prefix);
+    }
+
     /**
      * Get the effective bundle class-path.
      * @return EffectiveBCP
@@ -180,7 +269,7 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
 
     @Override
     public final InputStream getEntry(final String name) throws IOException {
-        final ArchiveEntry archiveEntry = entries.get(name);
+        final ArchiveEntry archiveEntry = findEntry(name);
         if (archiveEntry != null) {
             return archiveEntry.getInputStream();
         }
@@ -189,12 +278,19 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
 
     @Override
     public final boolean exists(final String name) throws IOException {
-        return entries.containsKey(name);
+        return findEntry(name) != null;
     }
 
     @Override
     public final long getEntrySize(final String name) {
-        // can't determine
+        try {
+            ArchiveEntry archiveEntry = findEntry(name);
+            if (archiveEntry != null) {
+                return archiveEntry.getSize();
+            }
+        } catch (IOException e) {
+            // can't determine
+        }
         return 0;
     }
 
@@ -238,88 +334,50 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
 
     @Override
     public final void close() throws IOException {
-        // nothing to do
+        List<OSGiBundleArchive> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<OSGiBundleArchive>(archives.values());
+            archives.clear();
+        }
+        IOException failure = null;
+        for (OSGiBundleArchive archive : toClose) {
+            try {
+                archive.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     @Override
     public final Enumeration<String> entries() {
-        final Enumeration<String> all = Collections
-                .enumeration(entries.keySet());
-
-        // return only file entries as per the conract of this method
-        return new Enumeration<String>() {
-
-            private String next = getNext();
-
-            @Override
-            public boolean hasMoreElements() {
-                return next != null;
-            }
-
-            @Override
-            public String nextElement() {
-                if (hasMoreElements()) {
-                    String result = next;
-                    this.next = getNext();
-                    return result;
-                }
-                throw new NoSuchElementException();
-            }
-
-            private String getNext() {
-                while (all.hasMoreElements()) {
-                    String s = all.nextElement();
-                    if (!s.endsWith("/")) { // not a directory entry
-                        return s;
-                    }
-                }
-                return null;
-            }
-        };
+        return Collections.enumeration(getNames());
     }
 
     @Override
-    @SuppressWarnings("checkstyle:visibilitymodifier")
     public final Enumeration<String> entries(final String prefix) {
-        final Enumeration<String> all = entries();
-        return new Enumeration<String>() {
-            String next = getNext();
-
-            @Override
-            public boolean hasMoreElements() {
-                return next != null;
-            }
-
-            @Override
-            public String nextElement() {
-                if (hasMoreElements()) {
-                    String result = next;
-                    next = getNext();
-                    return result;
-                }
-                throw new NoSuchElementException();
-            }
-
-            private String getNext() {
-                while (all.hasMoreElements()) {
-                    String s = all.nextElement();
-                    if (s.startsWith(prefix)) {
-                        return s;
-                    }
-                }
-                return null;
-            }
-        };
+        return Collections.enumeration(getNames(prefix));
     }
 
     @Override
     public final Collection<String> getDirectories() throws IOException {
+        // The first level directories are found by jumping from one
+        // directory to the next in the sorted names.
+        NameTable all = getNames();
         Collection<String> dirEntries = new ArrayList<String>();
-        Enumeration<String> all = entries();
-        while (all.hasMoreElements()) {
-            final String s = all.nextElement();
-            if (s.endsWith("/")) {
-                dirEntries.add(s);
+        int id = 0;
+        while (id < all.size()) {
+            String s = all.get(id);
+            int idx = s.indexOf('/');
+            if (idx == -1) {
+                id++;
+            } else {
+                String dir = s.substring(0, idx + 1);
+                dirEntries.add(dir);
+                id = all.lowerBound(dir + Character.MAX_VALUE);
             }
         }
         return dirEntries;
@@ -327,25 +385,24 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
 
     @Override
     public final boolean isDirectory(final String name) {
-        // TODO(Sahoo): Check if this is correct.
-        return name.endsWith("/");
+        // a directory is any name that prefixes a file entry
+        String dir;
+        if (name.endsWith("/")) {
+            dir = name;
+        } else {
+            dir = name + "/";
+        }
+        return !getNames(dir).isEmpty();
     }
 
     @Override
     public final Manifest getManifest() throws IOException {
-        final InputStream is = getEntry(JarFile.MANIFEST_NAME);
-        if (is != null) {
-            try {
-                return new Manifest(is);
-            } finally {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                }
-            }
-        } else {
+        // this is the shared manifest of the host, which is parsed once per
+        // host revision.
+        if (manifestEntry == null) {
             return null;
         }
+        return getArchive(host).getManifest();
     }
 
     @Override
@@ -354,9 +411,20 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
         return null;
     }
 
+    /**
+     * Returns the total uncompressed size of the file entries.
+     * @return the size
+     */
     @Override
-    public final long getArchiveSize() throws SecurityException {
-        return 0;
+    public final synchronized long getArchiveSize() throws SecurityException {
+        if (archiveSize < 0) {
+            long size = 0;
+            for (String name : getNames()) {
+                size += getEntrySize(name);
+            }
+            archiveSize = size;
+        }
+        return archiveSize;
     }
 
     @Override
@@ -388,6 +456,154 @@ public abstract class OSGiJavaEEArchive extends AbstractReadableArchive
          * @throws IOException if an error occurs
          */
         InputStream getInputStream() throws IOException;
+
+        /**
+         * Get the uncompressed size of the entry.
+         * @return the size, {@code 0} if unknown
+         */
+        long getSize();
+    }
+
+    /**
+     * Source of archive entries.
+     */
+    protected interface EntrySource {
+
+        /**
+         * Get an entry by name.
+         * @param name the entry name
+         * @return ArchiveEntry or {@code null} if this source does not have
+         * such an entry
+         * @throws IOException if an error occurs
+         */
+        ArchiveEntry getEntry(String name) throws IOException;
+
+        /**
+         * Get the names of the file entries of this source.
+         * @return collection of entry names
+         * @throws IOException if an error occurs
+         */
+        Collection<String> getEntryNames() throws IOException;
+    }
+
+    /**
+     * Source of a single entry.
+     */
+    protected static final class SingleEntrySource implements EntrySource {
+
+        /**
+         * The entry.
+         */
+        private final ArchiveEntry entry;
+
+        /**
+         * Create a new instance.
+         * @param archiveEntry the entry
+         */
+        public SingleEntrySource(final ArchiveEntry archiveEntry) {
+            this.entry = archiveEntry;
+        }
+
+        @Override
+        public ArchiveEntry getEntry(final String name) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+            return null;
+        }
+
+        @Override
+        public Collection<String> getEntryNames() {
+            return Collections.singletonList(entry.getName());
+        }
+    }
+
+    /**
+     * Source of the entries of an archive, mapped under a prefix. The archive
+     * is opened and indexed on first use, and entries are created on demand.
+     */
+    protected abstract static class ArchiveEntrySource
+            implements EntrySource {
+
+        /**
+         * The prefix of the entry names.
+         */
+        private final String prefix;
+
+        /**
+         * The archive, opened on first use.
+         */
+        private Archive archive;
+
+        /**
+         * The names of the archive entries, computed on first use.
+         */
+        private NameTable index;
+
+        /**
+         * Create a new instance.
+         * @param namePrefix the prefix of the entry names, may be empty
+         */
+        public ArchiveEntrySource(final String namePrefix) {
+            this.prefix = namePrefix;
+        }
+
+        /**
+         * Open the archive.
+         * @return Archive
+         * @throws IOException if an error occurs
+         */
+        protected abstract Archive openArchive() throws IOException;
+
+        /**
+         * Create an entry.
+         * @param subArchive the archive
+         * @param name the entry name
+         * @param subEntry the name of the entry in the archive
+         * @return ArchiveEntry
+         */
+        protected abstract ArchiveEntry createEntry(Archive subArchive,
+                String name, String subEntry);
+
+        /**
+         * Get the names of the archive entries.
+         * @return NameTable
+         * @throws IOException if an error occurs
+         */
+        private synchronized NameTable getIndex() throws IOException {
+            if (index == null) {
+                archive = openArchive();
+                index = NameTable.of(Collections.list(archive.entries()));
+            }
+            return index;
+        }
+
+        @Override
+        public final ArchiveEntry getEntry(final String name)
+                throws IOException {
+
+            if (!name.startsWith(prefix)) {
+                return null;
+            }
+            String subEntry = name.substring(prefix.length());
+            if (!getIndex().contains(subEntry)) {
+                return null;
+            }
+            return createEntry(archive, name, subEntry);
+        }
+
+        @Override
+        public final Collection<String> getEntryNames() throws IOException {
+            NameTable subEntries = getIndex();
+            if (prefix.isEmpty()) {
+                return subEntries;
+            }
+            List<String> entryNames = new ArrayList<String>(subEntries.size());
+            for (String subEntry : subEntries) {
+                entryNames.add(prefix + subEntry);
+            }
+            return entryNames;
+        }
     }
 
     /**
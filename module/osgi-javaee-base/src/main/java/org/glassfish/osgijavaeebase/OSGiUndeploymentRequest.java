@@ -15,7 +15,6 @@
  */
 package org.glassfish.osgijavaeebase;
 
-import com.sun.enterprise.util.io.FileUtils;
 import org.glassfish.api.ActionReport;
 import org.glassfish.api.deployment.DeployCommandParameters;
 import org.glassfish.api.deployment.UndeployCommandParameters;
@@ -97,7 +96,9 @@ public abstract class OSGiUndeploymentRequest {
      * Undeploys a web application bundle in GlassFish Web container.
      */
     public void execute() {
+        long start = System.nanoTime();
         preUndeploy();
+        start = record(DeploymentStatistics.PRE_UNDEPLOY, start);
         // TODO(Sahoo): There may be side effect of creating a deployment
         // context as that leads to creation of class loaders again.
         OSGiDeploymentContext dc;
@@ -113,11 +114,14 @@ public abstract class OSGiUndeploymentRequest {
             // TODO(Sahoo): Proper Exception Handling
             throw new RuntimeException(e);
         }
+        start = record(DeploymentStatistics.GET_DEPLOYMENT_CONTEXT, start);
 
         final ApplicationInfo appInfo = osgiAppInfo.getAppInfo();
         appInfo.stop(dc, LOGGER);
         appInfo.unload(dc);
+        start = record(DeploymentStatistics.STOP, start);
         deployer.undeploy(appInfo.getName(), dc);
+        start = record(DeploymentStatistics.UNDEPLOY, start);
 
         // GLASSFISH-19727: Close all class loaders. This must be done before
         // we clean up exploded directory
@@ -135,13 +139,28 @@ public abstract class OSGiUndeploymentRequest {
         // used.
         closeClassLoaders(Arrays.asList(osgiAppInfo.getClassLoader(),
                 dc.getShareableTempClassLoader(), dc.getFinalClassLoader()));
+        start = record(DeploymentStatistics.CLOSE_CLASS_LOADERS, start);
 
         if (!osgiAppInfo.isDirectoryDeployment()) {
             // We can always assume dc.getSourceDir will return a valid file
             // because we would have expanded the app during deployment.
             cleanup(dc.getSourceDir());
+            start = record(DeploymentStatistics.CLEANUP, start);
         }
         postUndeploy();
+        record(DeploymentStatistics.POST_UNDEPLOY, start);
+    }
+
+    /**
+     * Record the time of a phase in the {@link DeploymentStatistics}.
+     * @param phase the phase
+     * @param start the start time of the phase, from
+     * {@link System#nanoTime()}
+     * @return the end time of the phase, from {@link System#nanoTime()}
+     */
+    private long record(final String phase, final long start) {
+        return DeploymentStatisticsImpl.record(this, phase,
+                osgiAppInfo.getBundle(), start);
     }
 
     /**
@@ -200,12 +219,17 @@ public abstract class OSGiUndeploymentRequest {
             throws Exception;
 
     /**
-     * Cleanup the given directory.
+     * Cleanup the given directory. Directories from the expansion cache are
+     * released and kept for reuse, other directories are deleted in the
+     * background.
      * @param dir directory to be cleaned-up
      */
     private void cleanup(final File dir) {
         assert (dir.isDirectory() && dir.exists());
-        FileUtils.whack(dir);
+        if (ExpansionCache.release(dir)) {
+            return;
+        }
+        TombstoneReaper.delete(dir);
         LOGGER.logp(Level.INFO, "OSGiUndeploymentRequest", "cleanup",
                 "Deleted {0}", new Object[]{dir});
     }
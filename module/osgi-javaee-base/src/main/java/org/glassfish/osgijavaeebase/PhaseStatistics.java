@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the statistics of a deployment phase for a deployer type.
+ * Times are in milliseconds.
+ */
+public final class PhaseStatistics {
+
+    /**
+     * Upper bounds of the buckets of the histograms, in milliseconds. The
+     * last bucket of a histogram holds the longer times.
+     */
+    private static final long[] BUCKET_BOUNDS = new long[]{
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000,
+        60000
+    };
+
+    /**
+     * The deployer type.
+     */
+    private final String deployerType;
+
+    /**
+     * The phase.
+     */
+    private final String phase;
+
+    /**
+     * Number of times the phase was recorded.
+     */
+    private final long count;
+
+    /**
+     * Total time.
+     */
+    private final long totalTime;
+
+    /**
+     * Maximum time.
+     */
+    private final long maxTime;
+
+    /**
+     * Total number of bytes processed.
+     */
+    private final long bytes;
+
+    /**
+     * Number of times per bucket.
+     */
+    private final long[] histogram;
+
+    /**
+     * Create a new instance.
+     * @param type the deployer type
+     * @param phaseName the phase
+     * @param phaseCount number of times the phase was recorded
+     * @param total total time
+     * @param max maximum time
+     * @param totalBytes total number of bytes processed
+     * @param buckets number of times per bucket
+     */
+    PhaseStatistics(final String type, final String phaseName,
+            final long phaseCount, final long total, final long max,
+            final long totalBytes, final long[] buckets) {
+
+        this.deployerType = type;
+        this.phase = phaseName;
+        this.count = phaseCount;
+        this.totalTime = total;
+        this.maxTime = max;
+        this.bytes = totalBytes;
+        this.histogram = buckets;
+    }
+
+    /**
+     * Get the deployer type.
+     * @return deployer type, e.g. {@code OSGiWeb}
+     */
+    public String getDeployerType() {
+        return deployerType;
+    }
+
+    /**
+     * Get the phase.
+     * @return phase, one of the phase constants of
+     * {@link DeploymentStatistics}
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Get the number of times the phase was recorded.
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the total time.
+     * @return time in milliseconds
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Get the maximum time.
+     * @return time in milliseconds
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Get the total number of bytes processed.
+     * @return number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the histogram of the times.
+     * @return number of times per bucket, see {@link #getBucketBounds()}
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Get the upper bounds of the buckets of the histograms. The histograms
+     * have one more bucket for the longer times.
+     * @return bounds in milliseconds
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * Get the bucket of the histograms for the given time.
+     * @param time time in milliseconds
+     * @return bucket index
+     */
+    static int getBucket(final long time) {
+        int idx = Arrays.binarySearch(BUCKET_BOUNDS, time);
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        return idx;
+    }
+
+    /**
+     * Get the number of buckets of the histograms.
+     * @return number of buckets
+     */
+    static int getBucketCount() {
+        return BUCKET_BOUNDS.length + 1;
+    }
+
+    @Override
+    public String toString() {
+        return deployerType + " " + phase + ": count=" + count
+                + ", total=" + totalTime + "ms, max=" + maxTime
+                + "ms, bytes=" + bytes + ", histogram="
+                + Arrays.toString(histogram);
+    }
+}
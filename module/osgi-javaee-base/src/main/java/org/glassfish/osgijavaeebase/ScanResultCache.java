@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.IOException;
+import java.util.List;
+import org.osgi.framework.Bundle;
+
+/**
+ * Persistent cache of the results of the scans of the bundle class path
+ * entries of application bundles, e.g. the paths of the descriptors found in
+ * each jar of a WAB. A result is identified by the digest of the content of
+ * the bundle revision and of its attached fragments, given by the
+ * {@link BundleDigestService}, the bundle class path entry and the scan. It
+ * is reused after a restart, or when a bundle is updated with the same
+ * content, and it is not reused when a fragment is attached, detached or
+ * updated.
+ *
+ * This service is registered by osgi-javaee-base.
+ */
+public interface ScanResultCache {
+
+    /**
+     * Get the result of a scan of a bundle class path entry of the current
+     * revision of a bundle.
+     * @param bundle the host bundle
+     * @param entry the path of the bundle class path entry in the bundle,
+     * e.g. {@code WEB-INF/lib/foo.jar}
+     * @param scan the name of the scan
+     * @return the names found, {@code null} if not cached
+     * @throws IOException if the digest of a bundle can't be computed
+     */
+    List<String> get(Bundle bundle, String entry, String scan)
+            throws IOException;
+
+    /**
+     * Store the result of a scan of a bundle class path entry of the current
+     * revision of a bundle.
+     * @param bundle the host bundle
+     * @param entry the path of the bundle class path entry in the bundle
+     * @param scan the name of the scan
+     * @param names the names found
+     * @throws IOException if the digest of a bundle can't be computed
+     */
+    void put(Bundle bundle, String entry, String scan, List<String> names)
+            throws IOException;
+}
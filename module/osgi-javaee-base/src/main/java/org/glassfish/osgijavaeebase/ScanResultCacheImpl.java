@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link ScanResultCache} persisting the results in the
+ * data area of this bundle. The results of a bundle revision are kept in a
+ * directory named after its digest, with one file per bundle class path
+ * entry and scan listing the names found, one per line. The least recently
+ * used directories are deleted when there are more than configured with
+ * {@link #CACHE_SIZE}. The directories are listed once, by {@link #sweep()},
+ * the order of use is then maintained in memory.
+ */
+final class ScanResultCacheImpl implements ScanResultCache {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            ScanResultCacheImpl.class.getPackage().getName());
+
+    /**
+     * Property name for the maximum number of cached bundle revisions.
+     */
+    static final String CACHE_SIZE =
+            "org.glassfish.osgijavaeebase.scan.cache.size";
+
+    /**
+     * Default maximum number of cached bundle revisions.
+     */
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * Directory under the bundle data area where results are persisted.
+     */
+    private static final String SCAN_DIR = "scans";
+
+    /**
+     * Suffix of the files being written.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Encoding of the persisted results.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The digest service.
+     */
+    private final BundleDigestService digestService;
+
+    /**
+     * Directory where results are persisted.
+     */
+    private final File dir;
+
+    /**
+     * Maximum number of cached bundle revisions.
+     */
+    private final int maxSize;
+
+    /**
+     * The cached bundle revisions by digest, least recently used first. The
+     * value tells if the directory has been touched by this process. Guarded
+     * by itself.
+     */
+    private final Map<String, Boolean> revisions =
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+    /**
+     * Create a new instance.
+     * @param ctx the bundle context of this bundle
+     * @param digests the digest service
+     */
+    ScanResultCacheImpl(final BundleContext ctx,
+            final BundleDigestService digests) {
+
+        this(getDir(ctx), getCacheSize(ctx), digests);
+    }
+
+    /**
+     * Create a new instance.
+     * @param cacheDir the directory where results are persisted
+     * @param cacheSize the maximum number of cached bundle revisions
+     * @param digests the digest service
+     */
+    ScanResultCacheImpl(final File cacheDir, final int cacheSize,
+            final BundleDigestService digests) {
+
+        this.dir = cacheDir;
+        this.maxSize = cacheSize;
+        this.digestService = digests;
+    }
+
+    /**
+     * Get the directory where results are persisted.
+     * @param ctx the bundle context of this bundle
+     * @return File
+     */
+    private static File getDir(final BundleContext ctx) {
+        File base = ctx.getDataFile("");
+        if (base == null) {
+            base = new File(System.getProperty("java.io.tmpdir"));
+        }
+        return new File(base, SCAN_DIR);
+    }
+
+    /**
+     * Get the configured maximum number of cached bundle revisions.
+     * @param ctx the bundle context of this bundle
+     * @return maximum number of cached bundle revisions
+     */
+    private static int getCacheSize(final BundleContext ctx) {
+        String size = ctx.getProperty(CACHE_SIZE);
+        if (size == null) {
+            return DEFAULT_CACHE_SIZE;
+        }
+        try {
+            int value = Integer.parseInt(size.trim());
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ex) {
+            // logged below
+        }
+        LOGGER.logp(Level.WARNING, "ScanResultCacheImpl", "getCacheSize",
+                "Invalid value {0} for {1}, using {2}",
+                new Object[]{size, CACHE_SIZE, DEFAULT_CACHE_SIZE});
+        return DEFAULT_CACHE_SIZE;
+    }
+
+    @Override
+    public List<String> get(final Bundle bundle, final String entry,
+            final String scan) throws IOException {
+
+        String key = getKey(bundle);
+        File f = getFile(key, entry, scan);
+        if (!f.isFile()) {
+            return null;
+        }
+        List<String> names = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(f), ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        names.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.FINE, "ScanResultCacheImpl", "get",
+                    "Unable to read " + f, ex);
+            return null;
+        }
+        touch(key);
+        LOGGER.logp(Level.FINE, "ScanResultCacheImpl", "get",
+                "Reusing {0} scan of {1} in {2}",
+                new Object[]{scan, entry, bundle});
+        return names;
+    }
+
+    @Override
+    public void put(final Bundle bundle, final String entry,
+            final String scan, final List<String> names) throws IOException {
+
+        String key = getKey(bundle);
+        File f = getFile(key, entry, scan);
+        File parent = f.getParentFile();
+        File tmp = null;
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()
+                    && !parent.isDirectory()) {
+                throw new IOException("Unable to create " + parent);
+            }
+            tmp = File.createTempFile(f.getName(), TMP_SUFFIX, parent);
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp),
+                    ENCODING);
+            try {
+                for (String name : names) {
+                    out.write(name);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+            if ((f.exists() && !f.delete()) || !tmp.renameTo(f)) {
+                throw new IOException("Unable to rename " + tmp + " to " + f);
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.WARNING, "ScanResultCacheImpl", "put",
+                    "Unable to persist " + scan + " scan of " + entry
+                    + " in " + bundle, ex);
+            if (tmp != null && tmp.exists() && !tmp.delete()) {
+                LOGGER.logp(Level.FINE, "ScanResultCacheImpl", "put",
+                        "Unable to delete {0}", new Object[]{tmp});
+            }
+            return;
+        }
+        touch(key);
+    }
+
+    /**
+     * Get the key of the results of the current revision of a bundle, i.e.
+     * the digest of its content and of the content of its attached
+     * fragments.
+     * @param bundle the host bundle
+     * @return hex encoded digest
+     * @throws IOException if the digest of a bundle can't be computed
+     */
+    private String getKey(final Bundle bundle) throws IOException {
+        return BundleDigestServiceImpl.getDigest(digestService, bundle,
+                getFragments(bundle));
+    }
+
+    /**
+     * Get the fragments attached to a host bundle.
+     * @param host the host bundle
+     * @return array of Bundle, empty if the host is not resolved
+     */
+    static Bundle[] getFragments(final Bundle host) {
+        BundleWiring wiring = host.adapt(BundleWiring.class);
+        if (wiring == null) {
+            return new Bundle[0];
+        }
+        List<Bundle> fragments = new ArrayList<Bundle>();
+        List<BundleWire> wires = wiring.getProvidedWires(
+                BundleRevision.HOST_NAMESPACE);
+        if (wires != null) {
+            for (BundleWire wire : wires) {
+                fragments.add(wire.getRequirerWiring().getBundle());
+            }
+        }
+        return fragments.toArray(new Bundle[fragments.size()]);
+    }
+
+    /**
+     * Get the file holding a result.
+     * @param key the key of the bundle revision
+     * @param entry the path of the bundle class path entry in the bundle
+     * @param scan the name of the scan
+     * @return File
+     */
+    private File getFile(final String key, final String entry,
+            final String scan) {
+
+        return new File(new File(dir, key),
+                BundleDigestServiceImpl.combine(scan, entry));
+    }
+
+    /**
+     * Mark a bundle revision as the most recently used, and delete the least
+     * recently used ones until the cache fits in its size.
+     * @param key the key of the bundle revision
+     */
+    private void touch(final String key) {
+        boolean touched;
+        List<String> evicted;
+        synchronized (revisions) {
+            touched = Boolean.TRUE.equals(revisions.put(key, Boolean.TRUE));
+            evicted = trim();
+        }
+        if (!touched) {
+            // keep track of the use across restarts
+            File revisionDir = new File(dir, key);
+            if (!revisionDir.setLastModified(System.currentTimeMillis())) {
+                LOGGER.logp(Level.FINE, "ScanResultCacheImpl", "touch",
+                        "Unable to touch {0}", new Object[]{revisionDir});
+            }
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Remove the least recently used bundle revisions until the cache fits
+     * in its size. Must be called with the lock of {@link #revisions} held.
+     * @return the keys of the removed bundle revisions
+     */
+    private List<String> trim() {
+        List<String> evicted = new ArrayList<String>();
+        Iterator<String> it = revisions.keySet().iterator();
+        while (revisions.size() > maxSize) {
+            evicted.add(it.next());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    /**
+     * Delete the results of bundle revisions in the background.
+     * @param keys the keys of the bundle revisions
+     */
+    private void delete(final List<String> keys) {
+        for (String key : keys) {
+            TombstoneReaper.delete(new File(dir, key));
+            LOGGER.logp(Level.FINE, "ScanResultCacheImpl", "delete",
+                    "Evicted {0}", new Object[]{key});
+        }
+    }
+
+    /**
+     * Schedule the deletion of the bundle revisions evicted by a previous
+     * run and not deleted yet, and load the cached bundle revisions ordered
+     * by last use.
+     */
+    void sweep() {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        TombstoneReaper.sweep(dir);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> dirs = new ArrayList<File>();
+        for (File f : files) {
+            if (f.isDirectory() && !f.getName()
+                    .endsWith(TombstoneReaper.TOMBSTONE_SUFFIX)) {
+                dirs.add(f);
+            }
+        }
+        final Map<File, Long> lastUsed = new LinkedHashMap<File, Long>();
+        for (File f : dirs) {
+            lastUsed.put(f, f.lastModified());
+        }
+        Collections.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(final File f1, final File f2) {
+                long t1 = lastUsed.get(f1);
+                long t2 = lastUsed.get(f2);
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        List<String> evicted;
+        synchronized (revisions) {
+            for (File f : dirs) {
+                revisions.put(f.getName(), Boolean.FALSE);
+            }
+            evicted = trim();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Get the keys of the cached bundle revisions, least recently used first.
+     * @return list of keys
+     */
+    List<String> getRevisions() {
+        synchronized (revisions) {
+            return new ArrayList<String>(revisions.keySet());
+        }
+    }
+}
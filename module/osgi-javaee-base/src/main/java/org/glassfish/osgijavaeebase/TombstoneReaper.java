@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import com.sun.enterprise.util.io.FileUtils;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes directories in the background. A directory to delete is first
+ * renamed to a tombstone next to it, which is fast and frees its name right
+ * away, then the tombstone is deleted by a low priority thread. Tombstones
+ * left over by a previous run, e.g. because the process was stopped before
+ * they were deleted, are deleted when swept.
+ */
+final class TombstoneReaper {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private TombstoneReaper() {
+    }
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            TombstoneReaper.class.getPackage().getName());
+
+    /**
+     * Suffix of the tombstones.
+     */
+    static final String TOMBSTONE_SUFFIX = ".tombstone";
+
+    /**
+     * Sequence used to name the tombstones.
+     */
+    private static final AtomicLong TOMBSTONE_SEQUENCE = new AtomicLong();
+
+    /**
+     * The executor deleting the tombstones, created on first use, guarded by
+     * the class.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * Delete a directory, in the background if it can be renamed to a
+     * tombstone, else right away.
+     * @param dir the directory
+     * @return {@code true} if the directory is renamed or deleted,
+     * {@code false} otherwise
+     */
+    static boolean delete(final File dir) {
+        File tombstone = new File(dir.getParentFile(), dir.getName() + "."
+                + System.currentTimeMillis() + "-"
+                + TOMBSTONE_SEQUENCE.incrementAndGet() + TOMBSTONE_SUFFIX);
+        if (dir.renameTo(tombstone)) {
+            LOGGER.logp(Level.FINE, "TombstoneReaper", "delete",
+                    "Renamed {0} to {1}", new Object[]{dir, tombstone});
+            schedule(tombstone);
+            return true;
+        }
+        LOGGER.logp(Level.FINE, "TombstoneReaper", "delete",
+                "Unable to rename {0}, deleting it", new Object[]{dir});
+        return FileUtils.whack(dir);
+    }
+
+    /**
+     * Schedule the deletion of the tombstones found in a directory.
+     * @param dir the directory
+     */
+    static void sweep(final File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int count = 0;
+        for (File f : files) {
+            if (f.getName().endsWith(TOMBSTONE_SUFFIX)) {
+                schedule(f);
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOGGER.logp(Level.INFO, "TombstoneReaper", "sweep",
+                    "Deleting {0} tombstones left in {1}",
+                    new Object[]{count, dir});
+        }
+    }
+
+    /**
+     * Stop deleting the tombstones. The tombstones not yet deleted are left
+     * for the next sweep.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Schedule the deletion of a tombstone.
+     * @param tombstone the tombstone
+     */
+    private static synchronized void schedule(final File tombstone) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(
+                    new ReaperThreadFactory());
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    reap(tombstone);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.logp(Level.FINE, "TombstoneReaper", "schedule",
+                    "Leaving {0} for the next sweep",
+                    new Object[]{tombstone});
+        }
+    }
+
+    /**
+     * Delete a tombstone.
+     * @param tombstone the tombstone
+     */
+    private static void reap(final File tombstone) {
+        boolean deleted;
+        if (tombstone.isDirectory()) {
+            deleted = FileUtils.whack(tombstone);
+        } else {
+            deleted = tombstone.delete() || !tombstone.exists();
+        }
+        if (deleted) {
+            LOGGER.logp(Level.FINE, "TombstoneReaper", "reap",
+                    "Deleted {0}", new Object[]{tombstone});
+        } else {
+            LOGGER.logp(Level.WARNING, "TombstoneReaper", "reap",
+                    "Unable to delete {0}", new Object[]{tombstone});
+        }
+    }
+
+    /**
+     * Creates low priority daemon threads to delete the tombstones.
+     */
+    private static final class ReaperThreadFactory implements ThreadFactory {
+
+        /**
+         * Sequence used to name the threads.
+         */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "osgi-javaee-reaper-"
+                    + SEQUENCE.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }
+}
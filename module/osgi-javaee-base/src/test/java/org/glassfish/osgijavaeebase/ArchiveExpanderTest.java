@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link ArchiveExpander}.
+ */
+public class ArchiveExpanderTest {
+
+    /**
+     * The directory holding the target directory.
+     */
+    private File root;
+
+    /**
+     * The target directory.
+     */
+    private File target;
+
+    /**
+     * The jar files to delete.
+     */
+    private final List<File> jars = new ArrayList<File>();
+
+    @Before
+    public void setUp() throws IOException {
+        root = TestJars.createTempDir();
+        target = new File(root, "app");
+    }
+
+    @After
+    public void tearDown() {
+        ArchiveExpander.shutdown();
+        TestJars.delete(root);
+        for (File jar : jars) {
+            jar.delete();
+        }
+    }
+
+    /**
+     * Create a jar.
+     * @param entries the content by entry name
+     * @return the jar file
+     * @throws IOException if an error occurs
+     */
+    private File jar(final Map<String, byte[]> entries) throws IOException {
+        File jar = TestJars.createJar(null, entries, false);
+        jars.add(jar);
+        return jar;
+    }
+
+    /**
+     * Read an expanded file.
+     * @param name the entry name
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    private String read(final String name) throws IOException {
+        return TestJars.read(new FileInputStream(new File(target, name)));
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        File jar = jar(TestJars.entries(
+                "WEB-INF/", "",
+                "WEB-INF/web.xml", "web",
+                "WEB-INF/classes/com/acme/Foo.class", "foo",
+                "index.html", "hello"));
+        new ArchiveExpander().expand(jar, target);
+        Assert.assertEquals("web", read("WEB-INF/web.xml"));
+        Assert.assertEquals("foo", read("WEB-INF/classes/com/acme/Foo.class"));
+        Assert.assertEquals("hello", read("index.html"));
+    }
+
+    @Test
+    public void testExpandInParallel() throws Exception {
+        ArchiveExpander.start(4);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put("WEB-INF/classes/p" + (i % 10) + "/C" + i + ".class",
+                    ("class " + i).getBytes("UTF-8"));
+        }
+        new ArchiveExpander().expand(jar(entries), target);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("class " + i, read("WEB-INF/classes/p"
+                    + (i % 10) + "/C" + i + ".class"));
+        }
+    }
+
+    @Test
+    public void testExpandSelectedEntries() throws Exception {
+        File jar = jar(TestJars.entries(
+                "WEB-INF/web.xml", "web",
+                "index.html", "hello"));
+        new ArchiveExpander().expand(jar, target,
+                Collections.singleton("index.html"));
+        Assert.assertEquals("hello", read("index.html"));
+        Assert.assertFalse(new File(target, "WEB-INF/web.xml").exists());
+    }
+
+    @Test
+    public void testEntriesOutsideOfTarget() throws Exception {
+        String[] names = new String[]{
+            "../evil.txt",
+            "WEB-INF/../../evil.txt",
+            "../app2/evil.txt"
+        };
+        for (String name : names) {
+            File jar = jar(TestJars.entries(
+                    "index.html", "hello",
+                    name, "evil"));
+            try {
+                new ArchiveExpander().expand(jar, target);
+                Assert.fail("Expanded " + name);
+            } catch (IOException ex) {
+                // expected
+            }
+            Assert.assertFalse(name, new File(root, "evil.txt").exists());
+            Assert.assertFalse(name, new File(root, "app2").exists());
+        }
+    }
+}
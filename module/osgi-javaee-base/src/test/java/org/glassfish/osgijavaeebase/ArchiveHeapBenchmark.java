@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.glassfish.api.deployment.archive.Archive;
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Measures the heap retained by the entries of the archive of a
+ * representative web application bundle: the eager entry map populated by
+ * the archive before it was made lazy, which is reproduced here, and the
+ * lazy {@link OSGiJavaEEArchive}. It also compares the sets of names used
+ * to index the entries before {@link NameTable} with the table.
+ *
+ * Each structure is created for several copies of the archive and the heap
+ * used after a garbage collection is divided by the number of copies. The
+ * per bundle caches shared by the copies are built before measuring.
+ *
+ * This is not a unit test, run its main method with the test class-path of
+ * this module. The argument is the number of classes of the bundle, 3000 by
+ * default.
+ */
+public final class ArchiveHeapBenchmark {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private ArchiveHeapBenchmark() {
+    }
+
+    /**
+     * Number of copies of each structure.
+     */
+    private static final int COPIES = 20;
+
+    /**
+     * Number of jars in {@code WEB-INF/lib}.
+     */
+    private static final int LIBS = 20;
+
+    /**
+     * Number of static resources.
+     */
+    private static final int RESOURCES = 300;
+
+    /**
+     * Run the benchmark.
+     * @param args number of classes
+     * @throws Exception if an error occurs
+     */
+    public static void main(final String[] args) throws Exception {
+        int classes = 3000;
+        if (args.length > 0) {
+            classes = Integer.parseInt(args[0]);
+        }
+        final Bundle bnd = createBundle(classes).getBundle();
+        // build the shared per bundle caches
+        Collections.list(new OSGiBundleArchive(bnd).entries());
+        ManifestCache.get(bnd);
+
+        System.out.println(classes + " classes, " + RESOURCES
+                + " resources, " + LIBS + " jars, " + COPIES + " copies");
+        report("eager entry map (before)", new Factory() {
+            @Override
+            public Object create() throws IOException {
+                return eagerEntries(bnd);
+            }
+        });
+        report("lazy archive", new Factory() {
+            @Override
+            public Object create() throws IOException {
+                return new HostArchive(bnd);
+            }
+        });
+        report("lazy archive after a lookup", new Factory() {
+            @Override
+            public Object create() throws IOException {
+                HostArchive archive = new HostArchive(bnd);
+                archive.exists("WEB-INF/web.xml");
+                return archive;
+            }
+        });
+        report("name index, LinkedHashSet (before)", new Factory() {
+            @Override
+            public Object create() {
+                return new LinkedHashSet<String>(Collections.list(
+                        new OSGiBundleArchive(bnd).entries()));
+            }
+        });
+        report("name index, TreeSet (before)", new Factory() {
+            @Override
+            public Object create() {
+                return new TreeSet<String>(Collections.list(
+                        new OSGiBundleArchive(bnd).entries()));
+            }
+        });
+        report("name index, NameTable", new Factory() {
+            @Override
+            public Object create() {
+                return NameTable.of(Collections.list(
+                        new OSGiBundleArchive(bnd).entries()));
+            }
+        });
+    }
+
+    /**
+     * Create a web application bundle.
+     * @param classes the number of classes
+     * @return TestBundle
+     */
+    private static TestBundle createBundle(final int classes) {
+        TestBundle tb = new TestBundle()
+                .addDirectory("META-INF/")
+                .add("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n"
+                        + "Bundle-SymbolicName: acme\r\n"
+                        + "Web-ContextPath: /acme\r\n\r\n")
+                .addDirectory("WEB-INF/")
+                .add("WEB-INF/web.xml", "<web-app/>")
+                .addDirectory("WEB-INF/classes/")
+                .addDirectory("WEB-INF/lib/");
+        for (int i = 0; i < classes; i++) {
+            String dir = "WEB-INF/classes/com/acme/module" + (i % 10)
+                    + "/package" + (i % 100) + "/";
+            addDirectories(tb, dir).add(dir + "SomeClass" + i + ".class",
+                    "");
+        }
+        for (int i = 0; i < RESOURCES; i++) {
+            String dir = "static/images" + (i % 10) + "/";
+            addDirectories(tb, dir).add(dir + "image" + i + ".png", "");
+        }
+        for (int i = 0; i < LIBS; i++) {
+            tb.add("WEB-INF/lib/library-" + i + "-1.0.jar", "");
+        }
+        return tb;
+    }
+
+    /**
+     * Add a directory and its parents.
+     * @param tb the bundle
+     * @param dir the directory path
+     * @return the bundle
+     */
+    private static TestBundle addDirectories(final TestBundle tb,
+            final String dir) {
+
+        int idx = dir.indexOf('/');
+        while (idx != -1) {
+            tb.addDirectory(dir.substring(0, idx + 1));
+            idx = dir.indexOf('/', idx + 1);
+        }
+        return tb;
+    }
+
+    /**
+     * Populate the entries of the archive of a bundle eagerly, with one
+     * entry object per name, like the archive did before it was made lazy.
+     * @param bnd the bundle
+     * @return map of entries by name
+     */
+    private static Map<String, OSGiJavaEEArchive.ArchiveEntry> eagerEntries(
+            final Bundle bnd) {
+
+        final OSGiBundleArchive archive = new OSGiBundleArchive(bnd);
+        Map<String, OSGiJavaEEArchive.ArchiveEntry> entries =
+                new HashMap<String, OSGiJavaEEArchive.ArchiveEntry>();
+        for (final String entry : Collections.list(archive.entries())) {
+            entries.put(entry, new OSGiJavaEEArchive.ArchiveEntry() {
+                @Override
+                public String getName() {
+                    return entry;
+                }
+
+                @Override
+                public URI getURI() throws URISyntaxException {
+                    return archive.getEntryURI(entry);
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return archive.getEntry(entry);
+                }
+
+                @Override
+                public long getSize() {
+                    return archive.getEntrySize(entry);
+                }
+            });
+        }
+        return entries;
+    }
+
+    /**
+     * Create copies of a structure and print the heap retained per copy.
+     * @param name the name of the structure
+     * @param factory the factory of the structure
+     * @throws Exception if an error occurs
+     */
+    private static void report(final String name, final Factory factory)
+            throws Exception {
+
+        // warm up
+        factory.create();
+        Object[] copies = new Object[COPIES];
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            copies[i] = factory.create();
+        }
+        long after = usedHeap();
+        System.out.println(String.format("%s: %.1f KB per archive", name,
+                (after - before) / (COPIES * 1024.0)));
+        if (copies[COPIES - 1] == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Get the heap used after a garbage collection.
+     * @return used heap in bytes
+     * @throws InterruptedException if interrupted
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Creates the structure to measure.
+     */
+    private interface Factory {
+
+        /**
+         * Create the structure.
+         * @return the structure
+         * @throws IOException if an error occurs
+         */
+        Object create() throws IOException;
+    }
+
+    /**
+     * The archive of a host bundle without fragment or class-path, as built
+     * by the web application archive.
+     */
+    private static final class HostArchive extends OSGiJavaEEArchive {
+
+        /**
+         * Create a new instance.
+         * @param host the host bundle
+         */
+        HostArchive(final Bundle host) {
+            super(null, host);
+        }
+
+        @Override
+        protected void init() {
+            final OSGiBundleArchive archive = getArchive(getHost());
+            addEntrySource(new ArchiveEntrySource("") {
+                @Override
+                protected Archive openArchive() {
+                    return archive;
+                }
+
+                @Override
+                protected ArchiveEntry createEntry(final Archive subArchive,
+                        final String name, final String subEntry) {
+
+                    return new ArchiveEntry() {
+                        @Override
+                        public String getName() {
+                            return name;
+                        }
+
+                        @Override
+                        public URI getURI() throws URISyntaxException {
+                            return archive.getEntryURI(subEntry);
+                        }
+
+                        @Override
+                        public InputStream getInputStream()
+                                throws IOException {
+
+                            return archive.getEntry(subEntry);
+                        }
+
+                        @Override
+                        public long getSize() {
+                            return archive.getEntrySize(subEntry);
+                        }
+                    };
+                }
+            });
+        }
+    }
+}
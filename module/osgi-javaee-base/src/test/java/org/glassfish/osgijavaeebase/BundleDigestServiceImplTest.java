@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests {@link BundleDigestServiceImpl}.
+ */
+public class BundleDigestServiceImplTest {
+
+    /**
+     * The data area.
+     */
+    private File dataDir;
+
+    /**
+     * The bundle context.
+     */
+    private BundleContext context;
+
+    /**
+     * The service.
+     */
+    private BundleDigestServiceImpl service;
+
+    /**
+     * The bundle.
+     */
+    private TestBundle tb;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = TestJars.createTempDir();
+        context = new TestBundleContext().dataDir(dataDir).getContext();
+        service = new BundleDigestServiceImpl(context);
+        tb = new TestBundle()
+                .add("WEB-INF/web.xml", "web")
+                .add("index.html", "hello");
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        TestJars.delete(dataDir);
+    }
+
+    @Test
+    public void testComputedOncePerRevision() throws Exception {
+        Assert.assertNull(service.getCachedDigest(tb.getBundle()));
+        String digest = service.getDigest(tb.getBundle());
+        Assert.assertEquals(digest, service.getDigest(tb.getBundle()));
+        Assert.assertEquals(digest, service.requestDigest(tb.getBundle())
+                .get());
+        Assert.assertEquals(digest, service.getCachedDigest(tb.getBundle()));
+        Assert.assertEquals(1, tb.getStreamCalls("index.html"));
+    }
+
+    @Test
+    public void testPersisted() throws Exception {
+        String digest = service.getDigest(tb.getBundle());
+        service.close();
+        service = new BundleDigestServiceImpl(context);
+        Assert.assertEquals(digest, service.getCachedDigest(tb.getBundle()));
+        Assert.assertEquals(digest, service.getDigest(tb.getBundle()));
+        Assert.assertEquals(1, tb.getStreamCalls("index.html"));
+    }
+
+    @Test
+    public void testUpdated() throws Exception {
+        String digest = service.getDigest(tb.getBundle());
+
+        // same content, new revision
+        tb.update();
+        Assert.assertNull(service.getCachedDigest(tb.getBundle()));
+        service.bundleChanged(new BundleEvent(BundleEvent.UPDATED,
+                tb.getBundle()));
+        Assert.assertEquals(digest, service.requestDigest(tb.getBundle())
+                .get());
+        Assert.assertEquals(digest, service.getCachedDigest(tb.getBundle()));
+
+        tb.add("index.html", "changed");
+        tb.update();
+        service.bundleChanged(new BundleEvent(BundleEvent.UPDATED,
+                tb.getBundle()));
+        String updated = service.requestDigest(tb.getBundle()).get();
+        Assert.assertFalse(digest.equals(updated));
+        Assert.assertEquals(updated, service.getCachedDigest(
+                tb.getBundle()));
+        Assert.assertEquals(3, tb.getStreamCalls("index.html"));
+    }
+
+    @Test
+    public void testUninstalled() throws Exception {
+        service.getDigest(tb.getBundle());
+        service.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED,
+                tb.getBundle()));
+        Assert.assertNull(service.getCachedDigest(tb.getBundle()));
+        service.close();
+        service = new BundleDigestServiceImpl(context);
+        Assert.assertNull(service.getCachedDigest(tb.getBundle()));
+    }
+}
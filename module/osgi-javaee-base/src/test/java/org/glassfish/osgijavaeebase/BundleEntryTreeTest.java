@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests {@link BundleEntryTree}.
+ */
+public class BundleEntryTreeTest {
+
+    /**
+     * The bundle.
+     */
+    private TestBundle tb;
+
+    @Before
+    public void setUp() {
+        tb = new TestBundle()
+                .addDirectory("META-INF/")
+                .add("META-INF/MANIFEST.MF", "")
+                .addDirectory("WEB-INF/")
+                .addDirectory("WEB-INF/classes/")
+                .addDirectory("WEB-INF/classes/com/")
+                .add("WEB-INF/classes/com/Foo.class", "")
+                .addDirectory("WEB-INF/lib/")
+                .add("WEB-INF/lib/foo.jar", "")
+                .add("WEB-INF/web.xml", "")
+                .add("index.html", "");
+    }
+
+    @Test
+    public void testGetFiles() {
+        Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF",
+                "WEB-INF/classes/com/Foo.class", "WEB-INF/lib/foo.jar",
+                "WEB-INF/web.xml", "index.html"),
+                BundleEntryTree.get(tb.getBundle()).getFiles());
+    }
+
+    @Test
+    public void testGetEntries() {
+        BundleEntryTree tree = BundleEntryTree.get(tb.getBundle());
+        Assert.assertEquals(Arrays.asList("WEB-INF/classes/",
+                "WEB-INF/classes/com/", "WEB-INF/classes/com/Foo.class",
+                "WEB-INF/lib/", "WEB-INF/lib/foo.jar", "WEB-INF/web.xml"),
+                tree.getEntries("WEB-INF"));
+        Assert.assertEquals(tree.getEntries("WEB-INF"),
+                tree.getEntries("/WEB-INF/"));
+        Assert.assertEquals(10, tree.getEntries("/").size());
+        Assert.assertEquals(Collections.emptyList(),
+                tree.getEntries("OSGI-INF/"));
+        Assert.assertEquals(Collections.emptyList(),
+                tree.getEntries("index.html"));
+    }
+
+    @Test
+    public void testGetSubDirectories() {
+        BundleEntryTree tree = BundleEntryTree.get(tb.getBundle());
+        Assert.assertEquals(Arrays.asList("META-INF/", "WEB-INF/"),
+                tree.getSubDirectories("/"));
+        Assert.assertEquals(Arrays.asList("WEB-INF/classes/",
+                "WEB-INF/lib/"), tree.getSubDirectories("WEB-INF/"));
+        Assert.assertEquals(Collections.emptyList(),
+                tree.getSubDirectories("WEB-INF/lib/"));
+    }
+
+    @Test
+    public void testExistsAndIsDirectory() {
+        BundleEntryTree tree = BundleEntryTree.get(tb.getBundle());
+        Assert.assertTrue(tree.exists("/"));
+        Assert.assertTrue(tree.exists("WEB-INF/web.xml"));
+        Assert.assertTrue(tree.exists("/WEB-INF/web.xml"));
+        Assert.assertTrue(tree.exists("WEB-INF/lib"));
+        Assert.assertTrue(tree.exists("WEB-INF/lib/"));
+        Assert.assertFalse(tree.exists("WEB-INF/web.xml/"));
+        Assert.assertFalse(tree.exists("WEB-INF/we"));
+        Assert.assertTrue(tree.isDirectory(""));
+        Assert.assertTrue(tree.isDirectory("WEB-INF/classes"));
+        Assert.assertFalse(tree.isDirectory("WEB-INF/web.xml"));
+        Assert.assertFalse(tree.isDirectory("OSGI-INF"));
+    }
+
+    @Test
+    public void testBuiltOncePerRevision() {
+        BundleEntryTree tree = BundleEntryTree.get(tb.getBundle());
+        Assert.assertSame(tree, BundleEntryTree.get(tb.getBundle()));
+
+        tb.add("WEB-INF/beans.xml", "");
+        tb.update();
+        BundleEntryTree updated = BundleEntryTree.get(tb.getBundle());
+        Assert.assertNotSame(tree, updated);
+        Assert.assertTrue(updated.exists("WEB-INF/beans.xml"));
+        Assert.assertFalse(tree.exists("WEB-INF/beans.xml"));
+    }
+
+    @Test
+    public void testIsComplete() {
+        Assert.assertTrue(BundleEntryTree.get(tb.getBundle()).isComplete());
+        Assert.assertTrue(BundleEntryTree.get(new TestBundle()
+                .add("index.html", "").getBundle()).isComplete());
+        // FELIX-1210: the manifest is not found by the walk
+        Assert.assertFalse(BundleEntryTree.get(new TestBundle()
+                .add("META-INF/MANIFEST.MF", "")
+                .add("index.html", "").getBundle()).isComplete());
+        Assert.assertFalse(BundleEntryTree.get(new TestBundle()
+                .add("WEB-INF/web.xml", "").getBundle()).isComplete());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests {@link BundleJarCache}.
+ */
+public class BundleJarCacheTest {
+
+    /**
+     * Create a bundle with a manifest, a class and an embedded jar.
+     * @return TestBundle
+     */
+    private static TestBundle newBundle() {
+        return new TestBundle()
+                .addDirectory("META-INF/")
+                .addDirectory("WEB-INF/")
+                .addDirectory("WEB-INF/classes/")
+                .addDirectory("WEB-INF/lib/")
+                .add(JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\n"
+                        + "Bundle-SymbolicName: test\n\n")
+                .add("WEB-INF/classes/A.class", "class A")
+                .add("WEB-INF/lib/lib.jar", "not really a jar");
+    }
+
+    /**
+     * Materialize the jar of a bundle.
+     * @param bundle the bundle
+     * @return the jar file
+     * @throws IOException if an error occurs
+     */
+    private static File getJar(final TestBundle bundle) throws IOException {
+        OSGiBundleArchive archive = new OSGiBundleArchive(bundle.getBundle());
+        try {
+            return BundleJarCache.getJar(archive);
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * The jar holds the entries and the manifest of the bundle, compressed
+     * entries are stored.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testContent() throws IOException {
+        TestBundle bundle = newBundle();
+        File jar = getJar(bundle);
+        JarFile jarFile = new JarFile(jar);
+        try {
+            Assert.assertEquals("test", jarFile.getManifest()
+                    .getMainAttributes().getValue("Bundle-SymbolicName"));
+            Assert.assertEquals("class A", TestJars.read(jarFile
+                    .getInputStream(jarFile.getEntry(
+                            "WEB-INF/classes/A.class"))));
+            Assert.assertEquals(ZipEntry.DEFLATED, jarFile.getEntry(
+                    "WEB-INF/classes/A.class").getMethod());
+            ZipEntry lib = jarFile.getEntry("WEB-INF/lib/lib.jar");
+            Assert.assertEquals(ZipEntry.STORED, lib.getMethod());
+            Assert.assertEquals("not really a jar", TestJars.read(
+                    jarFile.getInputStream(lib)));
+        } finally {
+            jarFile.close();
+        }
+        BundleJarCache.remove(bundle.getBundle().getBundleId());
+    }
+
+    /**
+     * The jar is written once per bundle revision, the jar of the previous
+     * revision is deleted.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testReusedPerRevision() throws IOException {
+        TestBundle bundle = newBundle();
+        File jar = getJar(bundle);
+        int reads = bundle.getStreamCalls("WEB-INF/classes/A.class");
+        Assert.assertEquals(jar, getJar(bundle));
+        Assert.assertEquals(reads,
+                bundle.getStreamCalls("WEB-INF/classes/A.class"));
+
+        bundle.update();
+        File updated = getJar(bundle);
+        Assert.assertFalse(jar.equals(updated));
+        Assert.assertTrue(updated.isFile());
+        Assert.assertFalse(jar.exists());
+        BundleJarCache.remove(bundle.getBundle().getBundleId());
+    }
+
+    /**
+     * Outside of OSGi, the jars are kept in a directory private to the
+     * process rather than in a shared directory of the tmpdir.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testPrivateDirectory() throws IOException {
+        TestBundle bundle = newBundle();
+        File dir = getJar(bundle).getParentFile();
+        Assert.assertFalse(new File(System.getProperty("java.io.tmpdir"),
+                "jars").equals(dir));
+        Assert.assertTrue(dir.getName().startsWith("jars"));
+        Assert.assertEquals(new File(System.getProperty("java.io.tmpdir"))
+                .getCanonicalFile(),
+                dir.getParentFile().getCanonicalFile());
+        BundleJarCache.remove(bundle.getBundle().getBundleId());
+    }
+
+    /**
+     * The jar is deleted when the bundle is uninstalled.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testUninstalled() throws IOException {
+        TestBundle bundle = newBundle();
+        File jar = getJar(bundle);
+        BundleJarCache.UninstallListener listener =
+                new BundleJarCache.UninstallListener();
+        listener.bundleChanged(new BundleEvent(BundleEvent.STOPPED,
+                bundle.getBundle()));
+        Assert.assertTrue(jar.isFile());
+        listener.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED,
+                bundle.getBundle()));
+        Assert.assertFalse(jar.exists());
+    }
+}
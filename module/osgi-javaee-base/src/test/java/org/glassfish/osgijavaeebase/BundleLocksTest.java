@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tests {@link BundleLocks}.
+ */
+public class BundleLocksTest {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            BundleLocksTest.class.getPackage().getName());
+
+    /**
+     * Number of threads deploying and undeploying concurrently.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of operations per thread.
+     */
+    private static final int OPERATIONS = 5000;
+
+    /**
+     * Number of bundles shared by the threads.
+     */
+    private static final int BUNDLES = 3;
+
+    /**
+     * Number of deployments per thread in the throughput comparison.
+     */
+    private static final int DEPLOYMENTS = 20;
+
+    /**
+     * Time in milliseconds spent in a deployment in the throughput
+     * comparison.
+     */
+    private static final long DEPLOYMENT_TIME = 5;
+
+    /**
+     * Minimum speedup of the bundle locks over one shared lock when each
+     * thread deploys its own bundle, {@link #THREADS} being the ideal.
+     */
+    private static final double MIN_SPEEDUP = 2;
+
+    /**
+     * Simulate concurrent redeployments of a few bundles: a bundle must never
+     * be processed by two threads at once, and no lock must be left behind.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testConcurrentRedeploy() throws Exception {
+        final BundleLocks locks = new BundleLocks();
+        final Bundle[] bundles = new Bundle[BUNDLES];
+        final AtomicInteger[] inside = new AtomicInteger[BUNDLES];
+        final int[] operations = new int[BUNDLES];
+        for (int i = 0; i < BUNDLES; i++) {
+            bundles[i] = new TestBundle().getBundle();
+            inside[i] = new AtomicInteger();
+        }
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int n = 0; n < OPERATIONS; n++) {
+                        int i = (offset + n) % BUNDLES;
+                        ReentrantLock lock = locks.lock(bundles[i]);
+                        try {
+                            if (inside[i].incrementAndGet() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            Thread.yield();
+                            // not atomic, only safe under the bundle lock
+                            operations[i]++;
+                            inside[i].decrementAndGet();
+                        } finally {
+                            locks.unlock(bundles[i], lock);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(2));
+            Assert.assertFalse("deadlock", thread.isAlive());
+        }
+        Assert.assertEquals(0, violations.get());
+        int total = 0;
+        for (int i = 0; i < BUNDLES; i++) {
+            total += operations[i];
+        }
+        Assert.assertEquals(THREADS * OPERATIONS, total);
+        Assert.assertEquals(0, locks.size());
+    }
+
+    /**
+     * A bundle being processed must not block the other bundles.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testOtherBundleNotBlocked() throws Exception {
+        final BundleLocks locks = new BundleLocks();
+        Bundle first = new TestBundle().getBundle();
+        final Bundle second = new TestBundle().getBundle();
+        ReentrantLock lock = locks.lock(first);
+        try {
+            final CountDownLatch done = new CountDownLatch(1);
+            new Thread() {
+                @Override
+                public void run() {
+                    ReentrantLock l = locks.lock(second);
+                    locks.unlock(second, l);
+                    done.countDown();
+                }
+            }.start();
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(1, locks.size());
+        } finally {
+            locks.unlock(first, lock);
+        }
+        Assert.assertEquals(0, locks.size());
+    }
+
+    /**
+     * A thread waiting for a bundle gets it when the owner releases it.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testWaiterAcquiresAfterRelease() throws Exception {
+        final BundleLocks locks = new BundleLocks();
+        final Bundle bundle = new TestBundle().getBundle();
+        ReentrantLock lock = locks.lock(bundle);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                ReentrantLock l = locks.lock(bundle);
+                locks.unlock(bundle, l);
+                done.countDown();
+            }
+        };
+        waiter.start();
+        Assert.assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        locks.unlock(bundle, lock);
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        waiter.join();
+        Assert.assertEquals(0, locks.size());
+    }
+
+    /**
+     * Compare the throughput of the bundle locks with one lock shared by all
+     * the bundles, as used before, when each thread deploys its own bundle.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testThroughputAgainstSharedLock() throws Exception {
+        final ReentrantLock shared = new ReentrantLock();
+        long sharedTime = deployConcurrently(new Deployer() {
+            @Override
+            public void deploy(final Bundle bundle)
+                    throws InterruptedException {
+                shared.lock();
+                try {
+                    Thread.sleep(DEPLOYMENT_TIME);
+                } finally {
+                    shared.unlock();
+                }
+            }
+        });
+        final BundleLocks locks = new BundleLocks();
+        long bundleTime = deployConcurrently(new Deployer() {
+            @Override
+            public void deploy(final Bundle bundle)
+                    throws InterruptedException {
+                ReentrantLock lock = locks.lock(bundle);
+                try {
+                    Thread.sleep(DEPLOYMENT_TIME);
+                } finally {
+                    locks.unlock(bundle, lock);
+                }
+            }
+        });
+        double speedup = (double) sharedTime / bundleTime;
+        LOGGER.logp(Level.INFO, "BundleLocksTest",
+                "testThroughputAgainstSharedLock",
+                "{0} threads x {1} deployments of {2} ms: shared lock {3} ms,"
+                + " bundle locks {4} ms, speedup {5}",
+                new Object[]{THREADS, DEPLOYMENTS, DEPLOYMENT_TIME,
+                    sharedTime, bundleTime, speedup});
+        Assert.assertTrue("speedup " + speedup, speedup >= MIN_SPEEDUP);
+        Assert.assertEquals(0, locks.size());
+    }
+
+    /**
+     * Run {@link #DEPLOYMENTS} deployments of its own bundle in each of
+     * {@link #THREADS} threads.
+     * @param deployer the deployer
+     * @return the elapsed time in milliseconds
+     * @throws Exception if an error occurs
+     */
+    private static long deployConcurrently(final Deployer deployer)
+            throws Exception {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Bundle bundle = new TestBundle().getBundle();
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int n = 0; n < DEPLOYMENTS; n++) {
+                            deployer.deploy(bundle);
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(2));
+            Assert.assertFalse("deadlock", thread.isAlive());
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+    }
+
+    /**
+     * A deployment of a bundle under a lock.
+     */
+    private interface Deployer {
+
+        /**
+         * Deploy a bundle.
+         * @param bundle the bundle
+         * @throws InterruptedException if interrupted
+         */
+        void deploy(Bundle bundle) throws InterruptedException;
+    }
+}
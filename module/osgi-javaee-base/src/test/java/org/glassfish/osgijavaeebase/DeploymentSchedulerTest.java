@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.wiring.BundleRevision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link DeploymentScheduler}.
+ */
+public class DeploymentSchedulerTest {
+
+    /**
+     * Maximum time to wait for a deployment, in seconds.
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * The scheduler.
+     */
+    private DeploymentScheduler scheduler;
+
+    /**
+     * The names of the deployments in start order.
+     */
+    private final List<String> started =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Stop the scheduler.
+     */
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Submit a deployment that records its start, then waits for a latch.
+     * @param bundle the bundle
+     * @param name the deployment name
+     * @param release the latch to wait for, or {@code null}
+     * @return the future of the deployment
+     */
+    private Future<OSGiApplicationInfo> submit(final TestBundle bundle,
+            final String name, final CountDownLatch release) {
+
+        return scheduler.submit(bundle.getBundle(),
+                new Callable<OSGiApplicationInfo>() {
+            @Override
+            public OSGiApplicationInfo call() throws Exception {
+                started.add(name);
+                if (release != null) {
+                    Assert.assertTrue(release.await(TIMEOUT,
+                            TimeUnit.SECONDS));
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait for a deployment to complete.
+     * @param future the future of the deployment
+     * @throws Exception if the deployment failed
+     */
+    private static void await(final Future<OSGiApplicationInfo> future)
+            throws Exception {
+
+        future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Bundles wired to a package or a bundle of a pending application wait
+     * for its deployment, independent bundles don't.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testDependencyOrder() throws Exception {
+        scheduler = new DeploymentScheduler(4);
+        TestBundle lib = new TestBundle();
+        TestBundle importer = new TestBundle()
+                .wire(BundleRevision.PACKAGE_NAMESPACE, lib);
+        TestBundle requirer = new TestBundle()
+                .wire(BundleRevision.BUNDLE_NAMESPACE, lib);
+        TestBundle other = new TestBundle();
+
+        CountDownLatch release = new CountDownLatch(1);
+        Future<OSGiApplicationInfo> libDeployment = submit(lib, "lib",
+                release);
+        Future<OSGiApplicationInfo> importerDeployment = submit(importer,
+                "importer", null);
+        Future<OSGiApplicationInfo> requirerDeployment = submit(requirer,
+                "requirer", null);
+        await(submit(other, "other", null));
+        Assert.assertFalse(importerDeployment.isDone());
+        Assert.assertFalse(requirerDeployment.isDone());
+
+        release.countDown();
+        await(libDeployment);
+        await(importerDeployment);
+        await(requirerDeployment);
+        Assert.assertEquals(4, started.size());
+        Assert.assertTrue(started.indexOf("lib")
+                < started.indexOf("importer"));
+        Assert.assertTrue(started.indexOf("lib")
+                < started.indexOf("requirer"));
+    }
+
+    /**
+     * A deployment submitted before the deployment of a bundle it depends on
+     * is not delayed once started, but a deployment not started yet is.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testProviderSubmittedLater() throws Exception {
+        scheduler = new DeploymentScheduler(2);
+        TestBundle lib = new TestBundle();
+        TestBundle blocker = new TestBundle();
+        TestBundle app = new TestBundle()
+                .wire(BundleRevision.PACKAGE_NAMESPACE, blocker)
+                .wire(BundleRevision.PACKAGE_NAMESPACE, lib);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Future<OSGiApplicationInfo> blockerDeployment = submit(blocker,
+                "blocker", release);
+        Future<OSGiApplicationInfo> appDeployment = submit(app, "app",
+                null);
+        CountDownLatch releaseLib = new CountDownLatch(1);
+        Future<OSGiApplicationInfo> libDeployment = submit(lib, "lib",
+                releaseLib);
+        release.countDown();
+        await(blockerDeployment);
+        Assert.assertFalse("waits for lib submitted later",
+                appDeployment.isDone());
+        releaseLib.countDown();
+        await(libDeployment);
+        await(appDeployment);
+        Assert.assertEquals("app", started.get(2));
+    }
+
+    /**
+     * With one thread, deployments run one after another in submission
+     * order, regardless of the wiring.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testSerial() throws Exception {
+        scheduler = new DeploymentScheduler(1);
+        TestBundle lib = new TestBundle();
+        TestBundle app = new TestBundle()
+                .wire(BundleRevision.PACKAGE_NAMESPACE, lib);
+        Future<OSGiApplicationInfo> appDeployment = submit(app, "app", null);
+        Future<OSGiApplicationInfo> libDeployment = submit(lib, "lib", null);
+        await(appDeployment);
+        await(libDeployment);
+        Assert.assertEquals(Arrays.asList("app", "lib"), started);
+    }
+
+    /**
+     * A deployment not started yet is cancelled right away and never runs,
+     * a running deployment sees the cancellation and is waited for.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testCancel() throws Exception {
+        scheduler = new DeploymentScheduler(2);
+        TestBundle lib = new TestBundle();
+        TestBundle app = new TestBundle()
+                .wire(BundleRevision.PACKAGE_NAMESPACE, lib);
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final boolean[] cancelled = new boolean[1];
+        Future<OSGiApplicationInfo> libDeployment = scheduler.submit(
+                lib.getBundle(), new Callable<OSGiApplicationInfo>() {
+            @Override
+            public OSGiApplicationInfo call() throws Exception {
+                running.countDown();
+                Assert.assertTrue(release.await(TIMEOUT, TimeUnit.SECONDS));
+                cancelled[0] = DeploymentScheduler.isCancelled();
+                return null;
+            }
+        });
+        Future<OSGiApplicationInfo> appDeployment = submit(app, "app", null);
+        Assert.assertTrue(running.await(TIMEOUT, TimeUnit.SECONDS));
+
+        Assert.assertTrue(scheduler.cancel(appDeployment));
+        Assert.assertTrue(appDeployment.isCancelled());
+        Assert.assertFalse(scheduler.cancel(libDeployment));
+        Assert.assertFalse(DeploymentScheduler.isCancelled());
+        release.countDown();
+        await(libDeployment);
+        Assert.assertTrue(cancelled[0]);
+        Assert.assertFalse(started.contains("app"));
+    }
+
+    /**
+     * An invalid number of threads is replaced by the number of processors.
+     */
+    @Test
+    public void testThreadsProperty() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        Assert.assertEquals(processors, DeploymentScheduler.getThreads(
+                new TestBundleContext().getContext()));
+        Assert.assertEquals(3, DeploymentScheduler.getThreads(
+                new TestBundleContext().property(
+                        DeploymentScheduler.DEPLOYMENT_THREADS, " 3")
+                        .getContext()));
+        Assert.assertEquals(processors, DeploymentScheduler.getThreads(
+                new TestBundleContext().property(
+                        DeploymentScheduler.DEPLOYMENT_THREADS, "0")
+                        .getContext()));
+        Assert.assertEquals(processors, DeploymentScheduler.getThreads(
+                new TestBundleContext().property(
+                        DeploymentScheduler.DEPLOYMENT_THREADS, "four")
+                        .getContext()));
+    }
+}
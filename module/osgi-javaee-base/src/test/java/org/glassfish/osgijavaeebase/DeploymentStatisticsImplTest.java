@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Tests {@link DeploymentStatisticsImpl}.
+ */
+public class DeploymentStatisticsImplTest {
+
+    /**
+     * The logger of the package.
+     */
+    private static final Logger LOGGER = Logger.getLogger(
+            DeploymentStatisticsImpl.class.getPackage().getName());
+
+    /**
+     * The logged messages.
+     */
+    private final List<String> messages = new ArrayList<String>();
+
+    /**
+     * Handler collecting the logged messages.
+     */
+    private final Handler handler = new Handler() {
+
+        @Override
+        public void publish(final LogRecord record) {
+            messages.add(MessageFormat.format(record.getMessage(),
+                    record.getParameters()));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * The level of the logger before the test.
+     */
+    private Level level;
+
+    @Before
+    public void setUp() {
+        DeploymentStatisticsImpl.getInstance().reset();
+        level = LOGGER.getLevel();
+        LOGGER.setLevel(Level.FINE);
+        LOGGER.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        LOGGER.removeHandler(handler);
+        LOGGER.setLevel(level);
+        DeploymentStatisticsImpl.getInstance().reset();
+    }
+
+    @Test
+    public void testBytesOnlyForContentPhases() {
+        TestBundle tb = new TestBundle();
+        WebDeploymentRequest request = new WebDeploymentRequest();
+        long start = System.nanoTime();
+        start = DeploymentStatisticsImpl.record(request,
+                DeploymentStatistics.MAKE_ARCHIVE, tb.getBundle(), start);
+        DeploymentStatisticsImpl.record(request, DeploymentStatistics.EXPAND,
+                tb.getBundle(), start, 512);
+
+        Assert.assertEquals(2, messages.size());
+        Assert.assertTrue(messages.get(0), messages.get(0).startsWith(
+                "Phase makeArchive of bundle "));
+        Assert.assertFalse(messages.get(0), messages.get(0)
+                .contains("bytes"));
+        Assert.assertTrue(messages.get(1), messages.get(1)
+                .endsWith(" for 512 bytes"));
+
+        List<PhaseStatistics> stats = DeploymentStatisticsImpl.getInstance()
+                .getPhaseStatistics();
+        Assert.assertEquals(2, stats.size());
+        for (PhaseStatistics stat : stats) {
+            Assert.assertEquals("Web", stat.getDeployerType());
+            Assert.assertEquals(1, stat.getCount());
+            if (DeploymentStatistics.EXPAND.equals(stat.getPhase())) {
+                Assert.assertEquals(512, stat.getBytes());
+            } else {
+                Assert.assertEquals(0, stat.getBytes());
+            }
+        }
+    }
+
+    /**
+     * A request of the "Web" deployer type.
+     */
+    private static final class WebDeploymentRequest {
+    }
+}
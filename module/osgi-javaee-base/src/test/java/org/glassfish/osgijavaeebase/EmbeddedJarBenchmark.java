@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.glassfish.api.deployment.archive.ReadableArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compares the lookups of the entries of a jar embedded in a bundle through
+ * its indexed central directory with the sequential scan used before
+ * {@link EmbeddedJarIndex}, which is reproduced here.
+ *
+ * This is not a unit test, run its main method with the test class-path of
+ * this module. The arguments are the number of classes of the embedded jar
+ * and the number of lookups per round, 2000 and 200 by default.
+ */
+public final class EmbeddedJarBenchmark {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private EmbeddedJarBenchmark() {
+    }
+
+    /**
+     * Path of the embedded jar in the bundle.
+     */
+    private static final String JAR = "WEB-INF/lib/lib.jar";
+
+    /**
+     * Number of rounds run before measuring.
+     */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * Number of measured rounds.
+     */
+    private static final int ROUNDS = 10;
+
+    /**
+     * Run the benchmark.
+     * @param args number of classes and number of lookups per round
+     * @throws Exception if an error occurs
+     */
+    public static void main(final String[] args) throws Exception {
+        int classes = 2000;
+        int lookups = 200;
+        if (args.length > 1) {
+            classes = Integer.parseInt(args[0]);
+            lookups = Integer.parseInt(args[1]);
+        }
+        Random random = new Random(0);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < classes; i++) {
+            entries.put("com/acme/p" + (i % 50) + "/C" + i + ".class",
+                    classContent(random, i));
+        }
+        File jar = TestJars.createJar(null, entries, false);
+        TestBundle tb = new TestBundle().add(JAR, TestJars.readBytes(jar));
+        jar.delete();
+
+        List<String> names = new ArrayList<String>(entries.keySet());
+        Collections.shuffle(names, random);
+        names = names.subList(0, lookups);
+
+        URL url = tb.getBundle().getEntry(JAR);
+        long scan = 0;
+        long indexed = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String name : names) {
+                read(scan(url, name));
+            }
+            long mid = System.nanoTime();
+            OSGiBundleArchive archive = new OSGiBundleArchive(
+                    tb.getBundle());
+            try {
+                ReadableArchive sub = archive.getSubArchive(JAR);
+                for (String name : names) {
+                    read(sub.getEntry(name));
+                }
+            } finally {
+                archive.close();
+            }
+            long end = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                scan += mid - start;
+                indexed += end - mid;
+            }
+        }
+        System.out.println(classes + " classes, " + lookups
+                + " lookups per round, " + ROUNDS + " rounds");
+        System.out.println("sequential scan: "
+                + scan / ((long) ROUNDS * lookups) / 1000 + " us/lookup");
+        System.out.println("indexed (including the index creation): "
+                + indexed / ((long) ROUNDS * lookups) / 1000 + " us/lookup");
+    }
+
+    /**
+     * Create the content of a class, compressible like a class file.
+     * @param random the random generator
+     * @param i the class number
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    private static byte[] classContent(final Random random, final int i)
+            throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        int fields = 20 + random.nextInt(40);
+        for (int f = 0; f < fields; f++) {
+            sb.append("Lcom/acme/p").append(random.nextInt(50))
+                    .append("/C").append(random.nextInt(2000))
+                    .append(";field").append(f).append(i);
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Open an entry by scanning the embedded jar, like the embedded jar
+     * archives did before {@link EmbeddedJarIndex}.
+     * @param url the URL of the embedded jar
+     * @param name the entry name
+     * @return InputStream positioned at the entry content
+     * @throws IOException if the entry is not found
+     */
+    private static InputStream scan(final URL url, final String name)
+            throws IOException {
+
+        ZipInputStream zis = new ZipInputStream(url.openStream());
+        ZipEntry ze;
+        while ((ze = zis.getNextEntry()) != null) {
+            if (ze.getName().equals(name)) {
+                return zis;
+            }
+        }
+        zis.close();
+        throw new IOException("No entry by name " + name);
+    }
+
+    /**
+     * Read a stream fully.
+     * @param in the stream, closed on return
+     * @throws IOException if an error occurs
+     */
+    private static void read(final InputStream in) throws IOException {
+        TestJars.readBytes(in);
+    }
+}
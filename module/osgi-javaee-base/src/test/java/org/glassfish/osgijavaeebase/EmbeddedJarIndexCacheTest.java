@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Tests {@link EmbeddedJarIndexCache}.
+ */
+public class EmbeddedJarIndexCacheTest {
+
+    /**
+     * The bundle embedding the jars.
+     */
+    private TestBundle tb;
+
+    /**
+     * The cache, holding two indexes.
+     */
+    private EmbeddedJarIndexCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        tb = new TestBundle()
+                .add("WEB-INF/lib/a.jar", jar("a"))
+                .add("WEB-INF/lib/b.jar", jar("b"))
+                .add("WEB-INF/lib/c.jar", jar("c"));
+        cache = new EmbeddedJarIndexCache(new TestBundleContext()
+                .property(EmbeddedJarIndexCache.CACHE_SIZE, "2")
+                .install(tb.getBundle())
+                .getContext());
+    }
+
+    /**
+     * Create a jar with one class.
+     * @param name the content of the class
+     * @return the jar content
+     * @throws IOException if an error occurs
+     */
+    private static byte[] jar(final String name) throws IOException {
+        File jar = TestJars.createJar(null, TestJars.entries(
+                "com/acme/Foo.class", name), false);
+        try {
+            return TestJars.readBytes(jar);
+        } finally {
+            jar.delete();
+        }
+    }
+
+    /**
+     * Read the class of an embedded jar through the cache.
+     * @param name the name of the embedded jar
+     * @return the content of the class
+     * @throws IOException if an error occurs
+     */
+    private String read(final String name) throws IOException {
+        return TestJars.read(open(name));
+    }
+
+    /**
+     * Open the class of an embedded jar through the cache.
+     * @param name the name of the embedded jar
+     * @return InputStream
+     * @throws IOException if an error occurs
+     */
+    private InputStream open(final String name) throws IOException {
+        URL url = tb.getBundle().getEntry("WEB-INF/lib/" + name + ".jar");
+        return cache.getInputStream(url, "com/acme/Foo.class");
+    }
+
+    /**
+     * Get the number of times an embedded jar was read to be indexed.
+     * @param name the name of the embedded jar
+     * @return number of reads
+     */
+    private int reads(final String name) {
+        return tb.getStreamCalls("WEB-INF/lib/" + name + ".jar");
+    }
+
+    @Test
+    public void testIndexedOnce() throws Exception {
+        Assert.assertEquals("a", read("a"));
+        Assert.assertEquals("a", read("a"));
+        Assert.assertEquals(1, reads("a"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingEntry() throws Exception {
+        URL url = tb.getBundle().getEntry("WEB-INF/lib/a.jar");
+        cache.getInputStream(url, "com/acme/Bar.class");
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        read("a");
+        read("b");
+        read("a");
+        read("c");
+        read("a");
+        Assert.assertEquals(1, reads("a"));
+        read("b");
+        Assert.assertEquals(2, reads("b"));
+    }
+
+    @Test
+    public void testEvictedOnBundleEvents() throws Exception {
+        read("a");
+        cache.bundleChanged(new BundleEvent(BundleEvent.STARTED,
+                tb.getBundle()));
+        read("a");
+        Assert.assertEquals(1, reads("a"));
+        cache.bundleChanged(new BundleEvent(BundleEvent.UNRESOLVED,
+                tb.getBundle()));
+        read("a");
+        Assert.assertEquals(2, reads("a"));
+        tb.update();
+        read("a");
+        Assert.assertEquals(3, reads("a"));
+    }
+
+    @Test
+    public void testEvictedIndexOpenUntilStreamsClosed() throws Exception {
+        InputStream in = open("a");
+        cache.clear();
+        Assert.assertEquals("a", TestJars.read(in));
+        Assert.assertEquals("a", read("a"));
+        Assert.assertEquals(2, reads("a"));
+    }
+}
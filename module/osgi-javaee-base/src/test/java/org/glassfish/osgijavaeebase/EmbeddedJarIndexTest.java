@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests {@link EmbeddedJarIndex}.
+ */
+public class EmbeddedJarIndexTest {
+
+    /**
+     * The embedded jar.
+     */
+    private File inner;
+
+    /**
+     * A jar embedding {@link #inner}.
+     */
+    private File outer;
+
+    @Before
+    public void setUp() throws Exception {
+        inner = TestJars.createJar(null, TestJars.entries(
+                "META-INF/", "",
+                "META-INF/persistence.xml", "<persistence/>",
+                "com/acme/Foo.class", "foo",
+                "com/acme/Bar.class", "bar bar",
+                "com/acme/empty.txt", ""), false);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("WEB-INF/lib/inner.jar", TestJars.readBytes(inner));
+        outer = TestJars.createJar(null, entries, false);
+    }
+
+    @After
+    public void tearDown() {
+        inner.delete();
+        outer.delete();
+    }
+
+    @Test
+    public void testReadInPlace() throws Exception {
+        EmbeddedJarIndex index = EmbeddedJarIndex.create(inner.toURI()
+                .toURL());
+        try {
+            check(index);
+        } finally {
+            index.close();
+        }
+        Assert.assertTrue(inner.isFile());
+    }
+
+    @Test
+    public void testSpooled() throws Exception {
+        int spooled = TestJars.countSpooledJars();
+        URL url = new URL("jar:" + outer.toURI() + "!/WEB-INF/lib/inner.jar");
+        EmbeddedJarIndex index = EmbeddedJarIndex.create(url);
+        try {
+            check(index);
+            // the spooled copy is deleted as soon as it is open
+            Assert.assertEquals(spooled, TestJars.countSpooledJars());
+        } finally {
+            index.close();
+        }
+        Assert.assertEquals(spooled, TestJars.countSpooledJars());
+    }
+
+    /**
+     * Check the content of an index of {@link #inner}.
+     * @param index the index
+     * @throws Exception if an error occurs
+     */
+    private static void check(final EmbeddedJarIndex index) throws Exception {
+        Assert.assertEquals(Arrays.asList("META-INF/",
+                "META-INF/persistence.xml", "com/acme/Bar.class",
+                "com/acme/Foo.class", "com/acme/empty.txt"),
+                index.getNames());
+        Assert.assertTrue(index.contains("com/acme/Foo.class"));
+        Assert.assertFalse(index.contains("com/acme/Baz.class"));
+        Assert.assertFalse(index.contains("com/acme/"));
+        Assert.assertEquals(7, index.getSize("com/acme/Bar.class"));
+        Assert.assertEquals(0, index.getSize("com/acme/empty.txt"));
+        Assert.assertEquals(0, index.getSize("com/acme/Baz.class"));
+        Assert.assertEquals("bar bar", TestJars.read(
+                index.getInputStream("com/acme/Bar.class")));
+        Assert.assertEquals("<persistence/>", TestJars.read(
+                index.getInputStream("META-INF/persistence.xml")));
+        Assert.assertNull(index.getInputStream("com/acme/Baz.class"));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link ExpansionCache}.
+ */
+public class ExpansionCacheTest {
+
+    /**
+     * Large enough budget.
+     */
+    private static final long BUDGET = 1024 * 1024;
+
+    /**
+     * The cache directory.
+     */
+    private File root;
+
+    /**
+     * The jar files to delete.
+     */
+    private final List<File> jars = new ArrayList<File>();
+
+    /**
+     * Open the cache in a new directory.
+     * @throws IOException if an error occurs
+     */
+    @Before
+    public void setUp() throws IOException {
+        root = TestJars.createTempDir();
+        ExpansionCache.open(root, BUDGET);
+    }
+
+    /**
+     * Close the cache and delete its directory.
+     */
+    @After
+    public void tearDown() {
+        ExpansionCache.close();
+        TestJars.delete(root);
+        for (File jar : jars) {
+            jar.delete();
+        }
+    }
+
+    /**
+     * Create a jar.
+     * @param namesAndContents entry names followed by their content
+     * @return the jar file
+     * @throws IOException if an error occurs
+     */
+    private File jar(final String... namesAndContents) throws IOException {
+        Map<String, byte[]> entries = TestJars.entries(namesAndContents);
+        File jar = TestJars.createJar(null, entries, false);
+        jars.add(jar);
+        return jar;
+    }
+
+    /**
+     * Acquire the expanded directory of a jar.
+     * @param jar the jar file
+     * @param lineage the lineage, or {@code null}
+     * @return the expanded directory
+     * @throws IOException if an error occurs
+     */
+    private static File acquire(final File jar, final String lineage)
+            throws IOException {
+
+        OSGiBundleArchive archive = new OSGiBundleArchive(
+                new TestBundle().getBundle());
+        try {
+            return ExpansionCache.acquire(archive, jar, null, lineage,
+                    new ArchiveExpander());
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Read a file as UTF-8.
+     * @param file the file
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    private static String read(final File file) throws IOException {
+        return new String(TestJars.readBytes(file), "UTF-8");
+    }
+
+    /**
+     * An expanded directory is kept after release and reused for the same
+     * content.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testAcquireRelease() throws IOException {
+        File jar = jar("a.txt", "a", "WEB-INF/b.txt", "bb");
+        File dir = acquire(jar, null);
+        Assert.assertEquals(root, dir.getParentFile());
+        Assert.assertEquals("a", read(new File(dir, "a.txt")));
+        Assert.assertEquals("bb", read(new File(dir, "WEB-INF/b.txt")));
+        Assert.assertEquals(3, ExpansionCache.getSize(dir));
+        Assert.assertEquals(3, ExpansionCache.getTotalSize());
+        // not listed in the index, survives only if the entry is reused
+        TestJars.write(new File(dir, "marker"), "");
+        Assert.assertTrue(ExpansionCache.release(dir));
+
+        Assert.assertEquals(dir, acquire(jar, null));
+        Assert.assertTrue(new File(dir, "marker").exists());
+        Assert.assertTrue(ExpansionCache.release(dir));
+        Assert.assertFalse(ExpansionCache.release(root));
+    }
+
+    /**
+     * An entry whose files don't match its index is expanded again.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testCorruptedEntry() throws IOException {
+        File jar = jar("a.txt", "a");
+        File dir = acquire(jar, null);
+        ExpansionCache.release(dir);
+        TestJars.write(new File(dir, "a.txt"), "corrupted");
+        TestJars.write(new File(dir, "marker"), "");
+
+        Assert.assertEquals(dir, acquire(jar, null));
+        Assert.assertEquals("a", read(new File(dir, "a.txt")));
+        Assert.assertFalse(new File(dir, "marker").exists());
+        Assert.assertEquals(1, ExpansionCache.getTotalSize());
+    }
+
+    /**
+     * Archives with the same content share the expanded directory, which is
+     * not evicted until released by all of them.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testSharedByDigest() throws IOException {
+        ExpansionCache.close();
+        ExpansionCache.open(root, 4);
+        File jar = jar("a.txt", "aaaa");
+        File dir1 = acquire(jar, null);
+        File dir2 = acquire(jar, null);
+        Assert.assertEquals(dir1, dir2);
+        Assert.assertEquals(4, ExpansionCache.getTotalSize());
+
+        File other = acquire(jar("b.txt", "b"), null);
+        ExpansionCache.release(other);
+        ExpansionCache.release(dir1);
+        acquire(jar("c.txt", "c"), null);
+        Assert.assertTrue("still in use by one archive", dir1.isDirectory());
+        Assert.assertFalse("evicted, as not in use", other.exists());
+
+        ExpansionCache.release(dir2);
+        acquire(jar("d.txt", "d"), null);
+        Assert.assertFalse("evicted, once released by both archives",
+                dir1.exists());
+        Assert.assertEquals(2, ExpansionCache.getTotalSize());
+    }
+
+    /**
+     * Entries not in use are evicted in least recently used order once the
+     * budget is exceeded.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testEvict() throws IOException {
+        ExpansionCache.close();
+        ExpansionCache.open(root, 5);
+        File jar1 = jar("a.txt", "aa");
+        File dir1 = acquire(jar1, null);
+        ExpansionCache.release(dir1);
+        File dir2 = acquire(jar("b.txt", "bb"), null);
+        ExpansionCache.release(dir2);
+        // dir1 becomes the most recently used
+        ExpansionCache.release(acquire(jar1, null));
+
+        File dir3 = acquire(jar("c.txt", "cc"), null);
+        Assert.assertTrue(dir1.isDirectory());
+        Assert.assertFalse(dir2.exists());
+        Assert.assertFalse(new File(root, dir2.getName() + ".index")
+                .exists());
+        Assert.assertTrue(dir3.isDirectory());
+        Assert.assertEquals(4, ExpansionCache.getTotalSize());
+    }
+
+    /**
+     * The entry expanded for the previous content of a lineage is patched:
+     * only the changed files are extracted and the removed files deleted.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testPatch() throws IOException {
+        DeploymentStatisticsImpl stats = DeploymentStatisticsImpl
+                .getInstance();
+        long incremental = stats.getIncrementalExpansionCount();
+        File dir1 = acquire(jar("same.txt", "same", "changed.txt", "v1",
+                "removed/r.txt", "r"), "bundle1");
+        TestJars.write(new File(dir1, "marker"), "");
+        ExpansionCache.release(dir1);
+
+        File dir2 = acquire(jar("same.txt", "same", "changed.txt", "v2",
+                "added.txt", "added"), "bundle1");
+        Assert.assertFalse(dir1.equals(dir2));
+        Assert.assertFalse(dir1.exists());
+        Assert.assertTrue("moved, not expanded again",
+                new File(dir2, "marker").exists());
+        Assert.assertEquals("same", read(new File(dir2, "same.txt")));
+        Assert.assertEquals("v2", read(new File(dir2, "changed.txt")));
+        Assert.assertEquals("added", read(new File(dir2, "added.txt")));
+        Assert.assertFalse(new File(dir2, "removed").exists());
+        Assert.assertEquals(incremental + 1,
+                stats.getIncrementalExpansionCount());
+        Assert.assertEquals(11, ExpansionCache.getTotalSize());
+    }
+
+    /**
+     * The entry of the previous content is not patched while in use.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testNoPatchInUse() throws IOException {
+        DeploymentStatisticsImpl stats = DeploymentStatisticsImpl
+                .getInstance();
+        long full = stats.getFullExpansionCount();
+        File dir1 = acquire(jar("a.txt", "v1"), "bundle2");
+        File dir2 = acquire(jar("a.txt", "v2"), "bundle2");
+        Assert.assertEquals("v1", read(new File(dir1, "a.txt")));
+        Assert.assertEquals("v2", read(new File(dir2, "a.txt")));
+        Assert.assertEquals(full + 1, stats.getFullExpansionCount());
+        Assert.assertEquals(4, ExpansionCache.getTotalSize());
+    }
+
+    /**
+     * Opening the cache loads the sizes of the complete entries and deletes
+     * the incomplete ones.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testOpen() throws IOException {
+        File dir = acquire(jar("a.txt", "abc"), null);
+        ExpansionCache.close();
+        File incomplete = new File(root, "0123");
+        TestJars.write(new File(incomplete, "x.txt"), "x");
+
+        ExpansionCache.open(root, BUDGET);
+        Assert.assertEquals(3, ExpansionCache.getTotalSize());
+        Assert.assertTrue(dir.isDirectory());
+        Assert.assertFalse(incomplete.exists());
+    }
+}
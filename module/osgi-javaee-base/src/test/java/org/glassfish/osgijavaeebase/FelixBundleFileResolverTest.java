@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.osgi.framework.Constants.FRAMEWORK_STORAGE;
+import static org.osgi.framework.Constants.FRAMEWORK_VENDOR;
+
+/**
+ * Tests {@link FelixBundleFileResolver}.
+ */
+public class FelixBundleFileResolverTest {
+
+    /**
+     * Value of the framework vendor property in Felix.
+     */
+    private static final String FELIX = "Apache Software Foundation";
+
+    /**
+     * The bundle cache directory.
+     */
+    private File cacheDir;
+
+    /**
+     * The bundle.
+     */
+    private Bundle bundle;
+
+    /**
+     * Create the bundle cache directory.
+     * @throws IOException if an error occurs
+     */
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = TestJars.createTempDir();
+        bundle = new TestBundle().getBundle();
+    }
+
+    /**
+     * Delete the bundle cache directory.
+     */
+    @After
+    public void tearDown() {
+        TestJars.delete(cacheDir);
+    }
+
+    /**
+     * Create a revision directory for the bundle.
+     * @param revision the name of the revision directory
+     * @param withJar {@code true} to create the bundle.jar file
+     * @return the bundle.jar file
+     * @throws IOException if an error occurs
+     */
+    private File revision(final String revision, final boolean withJar)
+            throws IOException {
+
+        File dir = new File(new File(cacheDir,
+                "bundle" + bundle.getBundleId()), revision);
+        Assert.assertTrue(dir.mkdirs());
+        File jar = new File(dir, "bundle.jar");
+        if (withJar) {
+            TestJars.write(jar, revision);
+        }
+        return jar;
+    }
+
+    /**
+     * Create a resolver for the bundle cache directory.
+     * @return FelixBundleFileResolver
+     */
+    private FelixBundleFileResolver create() {
+        return FelixBundleFileResolver.create(new TestBundleContext()
+                .property(FRAMEWORK_VENDOR, FELIX)
+                .property(FRAMEWORK_STORAGE, cacheDir.getAbsolutePath())
+                .getContext());
+    }
+
+    /**
+     * The resolver is only created on Felix.
+     */
+    @Test
+    public void testNotFelix() {
+        Assert.assertNull(FelixBundleFileResolver.create(
+                new TestBundleContext()
+                        .property(FRAMEWORK_VENDOR, "Eclipse")
+                        .property(FRAMEWORK_STORAGE,
+                                cacheDir.getAbsolutePath())
+                        .getContext()));
+    }
+
+    /**
+     * The highest refresh number wins, then the highest revision number,
+     * compared as numbers.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testCurrentRevision() throws IOException {
+        revision("version0.0", true);
+        revision("version0.2", true);
+        File current = revision("version0.10", true);
+        Assert.assertEquals(current, create().resolve(bundle));
+        current = revision("version1.0", true);
+        Assert.assertEquals(current, create().resolve(bundle));
+    }
+
+    /**
+     * Files that are not revision directories are ignored.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testIgnoredFiles() throws IOException {
+        File current = revision("version0.1", true);
+        revision("version2", true);
+        revision("versionx.3", true);
+        revision("other9.9", true);
+        TestJars.write(new File(current.getParentFile().getParentFile(),
+                "version5.5"), "not a directory");
+        Assert.assertEquals(current, create().resolve(bundle));
+    }
+
+    /**
+     * A current revision not installed from a jar is not resolved, even if
+     * an older revision was.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testNoJar() throws IOException {
+        revision("version0.0", true);
+        revision("version0.1", false);
+        Assert.assertNull(create().resolve(bundle));
+    }
+
+    /**
+     * A bundle without directory in the cache is not resolved.
+     */
+    @Test
+    public void testNoBundleDir() {
+        Assert.assertNull(create().resolve(bundle));
+    }
+
+    /**
+     * A relative cache directory is resolved against the Felix root
+     * directory.
+     * @throws IOException if an error occurs
+     */
+    @Test
+    public void testRelativeStorage() throws IOException {
+        File current = revision("version0.0", true);
+        FelixBundleFileResolver resolver = FelixBundleFileResolver.create(
+                new TestBundleContext()
+                        .property(FRAMEWORK_VENDOR, FELIX)
+                        .property(FRAMEWORK_STORAGE, cacheDir.getName())
+                        .property("felix.cache.rootdir",
+                                cacheDir.getParent())
+                        .getContext());
+        Assert.assertEquals(current, resolver.resolve(bundle));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Compares the replacement of the manifest of a jar by {@link JarRewriter}
+ * with the copy through {@link JarInputStream} and {@link JarOutputStream}
+ * of {@link JarHelper#write(JarInputStream, JarOutputStream)}, which inflates
+ * and deflates every entry and was the only way before.
+ *
+ * This is not a unit test, run its main method with the test class-path of
+ * this module. The argument is the number of classes of the jar, 5000 by
+ * default.
+ */
+public final class JarRewriterBenchmark {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private JarRewriterBenchmark() {
+    }
+
+    /**
+     * Number of rounds run before measuring.
+     */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Number of measured rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Run the benchmark.
+     * @param args number of classes
+     * @throws Exception if an error occurs
+     */
+    public static void main(final String[] args) throws Exception {
+        int classes = 5000;
+        if (args.length > 0) {
+            classes = Integer.parseInt(args[0]);
+        }
+        Random random = new Random(0);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < classes; i++) {
+            byte[] content = new byte[1024 + random.nextInt(8 * 1024)];
+            // compressible like a class file
+            for (int j = 0; j < content.length; j++) {
+                content[j] = (byte) ('a' + random.nextInt(8));
+            }
+            entries.put("com/acme/p" + (i % 50) + "/C" + i + ".class",
+                    content);
+        }
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        File jar = TestJars.createJar(mf, entries, false);
+        Manifest updated = new Manifest(mf);
+        updated.getMainAttributes().putValue("Web-ContextPath", "/acme");
+        File out = File.createTempFile("rewritten", ".jar");
+        try {
+            long stream = 0;
+            long rewrite = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                JarInputStream jis = new JarInputStream(
+                        new FileInputStream(jar));
+                JarOutputStream jos = new JarOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(out)), updated);
+                try {
+                    JarHelper.write(jis, jos);
+                } finally {
+                    jos.close();
+                    jis.close();
+                }
+                long mid = System.nanoTime();
+                OutputStream os = new FileOutputStream(out);
+                try {
+                    if (!JarRewriter.write(jar, os, updated)) {
+                        throw new IllegalStateException("Unsupported jar");
+                    }
+                } finally {
+                    os.close();
+                }
+                long end = System.nanoTime();
+                if (round >= WARMUP_ROUNDS) {
+                    stream += mid - start;
+                    rewrite += end - mid;
+                }
+            }
+            System.out.println(classes + " classes, " + jar.length()
+                    + " bytes, " + ROUNDS + " rounds");
+            System.out.println("stream copy: " + stream / ROUNDS / 1000000
+                    + " ms/jar");
+            System.out.println("rewrite: " + rewrite / ROUNDS / 1000000
+                    + " ms/jar");
+        } finally {
+            jar.delete();
+            out.delete();
+        }
+    }
+}
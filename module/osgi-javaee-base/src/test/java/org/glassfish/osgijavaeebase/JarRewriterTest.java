@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests {@link JarRewriter}.
+ */
+public class JarRewriterTest {
+
+    /**
+     * The files to delete after the test.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Make a manifest.
+     * @param name the value of the {@code Bundle-SymbolicName} header
+     * @return Manifest
+     */
+    private static Manifest manifest(final String name) {
+        Manifest m = new Manifest();
+        m.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        m.getMainAttributes().putValue("Bundle-SymbolicName", name);
+        return m;
+    }
+
+    /**
+     * Make the content of the test jars.
+     * @return the content by entry name
+     * @throws IOException if an error occurs
+     */
+    private static Map<String, byte[]> entries() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            large.append("line ").append(i).append('\n');
+        }
+        return TestJars.entries(
+                "WEB-INF/", "",
+                "WEB-INF/web.xml", "<web-app/>",
+                "WEB-INF/classes/Foo.class", large.toString(),
+                "empty.txt", "");
+    }
+
+    /**
+     * Create a jar and register it for deletion.
+     * @param mf the manifest, {@code null} for none
+     * @param stored {@code true} to store the entries
+     * @return the jar file
+     * @throws IOException if an error occurs
+     */
+    private File createJar(final Manifest mf, final boolean stored)
+            throws IOException {
+
+        File jar = TestJars.createJar(mf, entries(), stored);
+        files.add(jar);
+        return jar;
+    }
+
+    /**
+     * Rewrite a jar to a new file.
+     * @param jar the jar
+     * @param mf the manifest to write
+     * @return the new jar file
+     * @throws IOException if an error occurs
+     */
+    private File rewrite(final File jar, final Manifest mf)
+            throws IOException {
+
+        File out = File.createTempFile("rewritten", ".jar");
+        files.add(out);
+        FileOutputStream fos = new FileOutputStream(out);
+        try {
+            Assert.assertTrue(JarRewriter.write(jar, fos, mf));
+        } finally {
+            fos.close();
+        }
+        return out;
+    }
+
+    /**
+     * Check that a rewritten jar has a valid central directory and local
+     * headers, the given manifest and the content of {@link #entries()}.
+     * @param jar the rewritten jar
+     * @param mf the expected manifest, {@code null} for none
+     * @throws IOException if an error occurs
+     */
+    private static void check(final File jar, final Manifest mf)
+            throws IOException {
+
+        Map<String, byte[]> expected = entries();
+        List<String> names = new ArrayList<String>();
+        if (mf != null) {
+            names.add(JarFile.MANIFEST_NAME);
+        }
+        names.addAll(expected.keySet());
+
+        // through the central directory
+        ZipFile zf = new ZipFile(jar);
+        try {
+            List<String> found = new ArrayList<String>();
+            for (ZipEntry ze : Collections.list(zf.entries())) {
+                found.add(ze.getName());
+                byte[] content = TestJars.readBytes(zf.getInputStream(ze));
+                if (ze.getName().equals(JarFile.MANIFEST_NAME)) {
+                    Assert.assertEquals(mf, new Manifest(
+                            new ByteArrayInputStream(content)));
+                } else {
+                    Assert.assertArrayEquals(expected.get(ze.getName()),
+                            content);
+                }
+                Assert.assertEquals(content.length, ze.getSize());
+            }
+            Assert.assertEquals(names, found);
+        } finally {
+            zf.close();
+        }
+
+        // through the local headers
+        JarInputStream jis = new JarInputStream(
+                new ByteArrayInputStream(TestJars.readBytes(jar)));
+        try {
+            Assert.assertEquals(mf, jis.getManifest());
+            List<String> found = new ArrayList<String>();
+            ZipEntry ze;
+            while ((ze = jis.getNextEntry()) != null) {
+                found.add(ze.getName());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                int n;
+                while ((n = jis.read(buf)) != -1) {
+                    baos.write(buf, 0, n);
+                }
+                Assert.assertArrayEquals(expected.get(ze.getName()),
+                        baos.toByteArray());
+            }
+            Assert.assertEquals(new ArrayList<String>(expected.keySet()),
+                    found);
+        } finally {
+            jis.close();
+        }
+    }
+
+    @Test
+    public void testReplaceManifestDeflated() throws Exception {
+        // deflated entries are followed by data descriptors
+        Manifest mf = manifest("new");
+        check(rewrite(createJar(manifest("old"), false), mf), mf);
+    }
+
+    @Test
+    public void testReplaceManifestStored() throws Exception {
+        Manifest mf = manifest("new");
+        check(rewrite(createJar(manifest("old"), true), mf), mf);
+    }
+
+    @Test
+    public void testAddManifest() throws Exception {
+        Manifest mf = manifest("new");
+        check(rewrite(createJar(null, false), mf), mf);
+    }
+
+    @Test
+    public void testRemoveManifest() throws Exception {
+        check(rewrite(createJar(manifest("old"), false), null), null);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        File notAJar = File.createTempFile("notajar", ".jar");
+        files.add(notAJar);
+        FileOutputStream fos = new FileOutputStream(notAJar);
+        try {
+            fos.write(new byte[100]);
+        } finally {
+            fos.close();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Assert.assertFalse(JarRewriter.write(notAJar, baos,
+                manifest("new")));
+        Assert.assertEquals(0, baos.size());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Tests {@link ManifestCache} and the manifest getters of the archives.
+ */
+public class ManifestCacheTest {
+
+    /**
+     * Manifest of the test bundles.
+     */
+    private static final String MANIFEST = "Manifest-Version: 1.0\r\n"
+            + "Bundle-SymbolicName: test\r\n"
+            + "\r\n"
+            + "Name: foo/Bar.class\r\n"
+            + "Foo: bar\r\n"
+            + "\r\n";
+
+    @Test
+    public void testParsedOncePerRevision() throws Exception {
+        TestBundle tb = new TestBundle().add(JarFile.MANIFEST_NAME, MANIFEST);
+        Manifest m1 = ManifestCache.get(tb.getBundle());
+        Manifest m2 = ManifestCache.get(tb.getBundle());
+        Assert.assertSame(m1, m2);
+        Assert.assertEquals(1, tb.getEntryCalls(JarFile.MANIFEST_NAME));
+
+        tb.update();
+        Manifest m3 = ManifestCache.get(tb.getBundle());
+        Assert.assertNotSame(m1, m3);
+        Assert.assertEquals(2, tb.getEntryCalls(JarFile.MANIFEST_NAME));
+    }
+
+    @Test
+    public void testArchivesParseOnce() throws Exception {
+        TestBundle tb = new TestBundle().add(JarFile.MANIFEST_NAME, MANIFEST);
+        for (int i = 0; i < 3; i++) {
+            OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+            try {
+                Assert.assertEquals("test", archive.getManifest()
+                        .getMainAttributes().getValue("Bundle-SymbolicName"));
+            } finally {
+                archive.close();
+            }
+        }
+        Assert.assertEquals(1, tb.getEntryCalls(JarFile.MANIFEST_NAME));
+    }
+
+    @Test
+    public void testNoManifest() throws Exception {
+        TestBundle tb = new TestBundle().add("foo/Bar.class", "");
+        Assert.assertNull(ManifestCache.get(tb.getBundle()));
+        Assert.assertNull(new OSGiBundleArchive(tb.getBundle())
+                .getManifest());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedManifestIsUnmodifiable() throws Exception {
+        TestBundle tb = new TestBundle().add(JarFile.MANIFEST_NAME, MANIFEST);
+        ManifestCache.get(tb.getBundle()).getMainAttributes()
+                .putValue("Foo", "bar");
+    }
+
+    @Test
+    public void testGetManifestReturnsShared() throws Exception {
+        TestBundle tb = new TestBundle().add(JarFile.MANIFEST_NAME, MANIFEST);
+        Manifest m1 = new OSGiBundleArchive(tb.getBundle()).getManifest();
+        Manifest m2 = new OSGiBundleArchive(tb.getBundle()).getManifest();
+        Assert.assertSame(m1, m2);
+        Assert.assertSame(ManifestCache.get(tb.getBundle()), m1);
+        try {
+            m1.getAttributes("foo/Bar.class").putValue("Foo", "changed");
+            Assert.fail("Manifest is modifiable");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+        Assert.assertEquals("bar", m2.getAttributes("foo/Bar.class")
+                .getValue("Foo"));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests {@link NameTable}.
+ */
+public class NameTableTest {
+
+    /**
+     * Make names sharing long prefixes, like the entries of an archive.
+     * @return sorted names
+     */
+    private static List<String> names() {
+        TreeSet<String> names = new TreeSet<String>();
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder("WEB-INF/classes/");
+            int depth = random.nextInt(4);
+            for (int j = 0; j < depth; j++) {
+                sb.append("pkg").append(random.nextInt(5)).append('/');
+            }
+            names.add(sb.toString());
+            names.add(sb.append("Class").append(random.nextInt(100))
+                    .append(".class").toString());
+        }
+        // names that are prefixes of each other, and non ASCII names
+        names.add("a");
+        names.add("ab");
+        names.add("abc");
+        names.add("caf\u00e9/na\u00efve.txt");
+        names.add("\u4e2d\u6587/\u6587\u4ef6.txt");
+        return new ArrayList<String>(names);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        List<String> names = names();
+        NameTable table = NameTable.of(names);
+        Assert.assertEquals(names.size(), table.size());
+        Assert.assertEquals(names, new ArrayList<String>(table));
+        for (int i = 0; i < names.size(); i++) {
+            Assert.assertEquals(names.get(i), table.get(i));
+            Assert.assertEquals(i, table.indexOf(names.get(i)));
+            Assert.assertTrue(table.contains(names.get(i)));
+        }
+    }
+
+    @Test
+    public void testUnsortedInputAndDuplicates() {
+        NameTable table = NameTable.of(Arrays.asList("b", "a", "c", "a"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), table);
+    }
+
+    @Test
+    public void testLongName() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("dir").append(i).append('/');
+        }
+        String name = sb.toString();
+        NameTable table = NameTable.of(Arrays.asList(name, name + "file"));
+        Assert.assertEquals(name, table.get(0));
+        Assert.assertEquals(name + "file", table.get(1));
+    }
+
+    @Test
+    public void testMissingNames() {
+        NameTable table = NameTable.of(names());
+        Assert.assertEquals(-1, table.indexOf("WEB-INF/classes/Missing"));
+        Assert.assertFalse(table.contains("WEB-INF"));
+        Assert.assertFalse(table.contains("abcd"));
+        Assert.assertFalse(table.contains(""));
+        Assert.assertFalse(table.contains(null));
+        Assert.assertFalse(table.contains(Integer.valueOf(1)));
+    }
+
+    @Test
+    public void testLowerBound() {
+        List<String> names = names();
+        NameTable table = NameTable.of(names);
+        Assert.assertEquals(0, table.lowerBound(""));
+        Assert.assertEquals(table.size(),
+                table.lowerBound(String.valueOf(Character.MAX_VALUE)));
+        for (int i = 0; i < names.size(); i++) {
+            Assert.assertEquals(i, table.lowerBound(names.get(i)));
+            // just after the name and before the next one
+            Assert.assertEquals(i + 1,
+                    table.lowerBound(names.get(i) + '\u0000'));
+        }
+    }
+
+    @Test
+    public void testWithPrefix() {
+        List<String> names = names();
+        NameTable table = NameTable.of(names);
+        for (String prefix : new String[]{"WEB-INF/classes/pkg1/",
+            "WEB-INF/classes/pkg1/pkg2/", "a", "ab", "caf\u00e9/", "x", ""}) {
+            List<String> expected = new ArrayList<String>();
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    expected.add(name);
+                }
+            }
+            Assert.assertEquals(prefix, expected, table.withPrefix(prefix));
+        }
+    }
+
+    @Test
+    public void testSubList() {
+        List<String> names = names();
+        NameTable table = NameTable.of(names);
+        Assert.assertEquals(names.subList(17, 250), table.subList(17, 250));
+        Assert.assertEquals(Collections.emptyList(), table.subList(5, 5));
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(0, NameTable.EMPTY.size());
+        Assert.assertEquals(0, NameTable.of(new TreeSet<String>()).size());
+        Assert.assertFalse(NameTable.EMPTY.iterator().hasNext());
+        Assert.assertEquals(0, NameTable.EMPTY.lowerBound("a"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        NameTable.of(Arrays.asList("a", "b")).get(2);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.glassfish.api.deployment.archive.ReadableArchive;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the entry queries of {@link OSGiBundleArchive}.
+ */
+public class OSGiBundleArchiveTest {
+
+    @Test
+    public void testDirectoryEntries() throws Exception {
+        TestBundle tb = new TestBundle()
+                .addDirectory("WEB-INF/")
+                .addDirectory("WEB-INF/classes/")
+                .add("WEB-INF/classes/Foo.class", "foo")
+                .add("index.html", "hello");
+        OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+        Assert.assertEquals(
+                Arrays.asList("WEB-INF/classes/Foo.class",
+                        "index.html"),
+                Collections.list(archive.entries()));
+        Assert.assertTrue(archive.exists("WEB-INF/"));
+        Assert.assertTrue(archive.exists("WEB-INF"));
+        Assert.assertTrue(archive.exists("index.html"));
+        Assert.assertFalse(archive.exists("index.htm"));
+        Assert.assertTrue(archive.isDirectory("WEB-INF/classes"));
+        Assert.assertFalse(archive.isDirectory("index.html"));
+    }
+
+    @Test
+    public void testImpliedDirectories() throws Exception {
+        // FELIX-1210: no directory entries, getEntryPaths() finds nothing
+        // under the root.
+        TestBundle tb = new TestBundle()
+                .add("WEB-INF/classes/Foo.class", "foo");
+        OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+        Assert.assertTrue(archive.exists("WEB-INF/"));
+        Assert.assertTrue(archive.exists("WEB-INF/classes/Foo.class"));
+        Assert.assertTrue(archive.isDirectory("WEB-INF"));
+        Assert.assertTrue(archive.isDirectory("WEB-INF/classes/"));
+        Assert.assertFalse(archive.isDirectory("WEB-INF/classes/Foo.class"));
+        Assert.assertFalse(archive.exists("META-INF/"));
+    }
+
+    @Test
+    public void testMissesAnsweredByTree() throws Exception {
+        TestBundle tb = new TestBundle()
+                .addDirectory("META-INF/")
+                .add("META-INF/MANIFEST.MF", "")
+                .addDirectory("WEB-INF/")
+                .add("WEB-INF/web.xml", "");
+        OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+        Assert.assertFalse(archive.exists("WEB-INF/beans.xml"));
+        Assert.assertFalse(archive.isDirectory("WEB-INF/classes"));
+        Assert.assertTrue(archive.isDirectory("WEB-INF"));
+        Assert.assertEquals(0, tb.getEntryCalls("WEB-INF/beans.xml"));
+        Assert.assertEquals(0, tb.getEntryCalls("WEB-INF/classes/"));
+    }
+
+    @Test
+    public void testEmbeddedJar() throws Exception {
+        File jar = TestJars.createJar(null, TestJars.entries(
+                "com/acme/Foo.class", "foo"), false);
+        TestBundle tb = new TestBundle()
+                .add("WEB-INF/lib/foo.jar", TestJars.readBytes(jar));
+        jar.delete();
+        int spooled = TestJars.countSpooledJars();
+
+        OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+        try {
+            ReadableArchive sub = archive.getSubArchive("WEB-INF/lib/foo.jar");
+            Assert.assertEquals(Collections.singletonList(
+                    "com/acme/Foo.class"), Collections.list(sub.entries()));
+            Assert.assertTrue(sub.exists("com/acme/Foo.class"));
+            Assert.assertEquals(3, sub.getEntrySize("com/acme/Foo.class"));
+            Assert.assertEquals("foo", TestJars.read(
+                    sub.getEntry("com/acme/Foo.class")));
+            Assert.assertSame(sub,
+                    archive.getSubArchive("WEB-INF/lib/foo.jar"));
+        } finally {
+            archive.close();
+        }
+        // the embedded jar is spooled, the copy must not be left behind
+        Assert.assertEquals(spooled, TestJars.countSpooledJars());
+    }
+
+    @Test
+    public void testImpliedDirectoriesOfNestedPaths() throws Exception {
+        // the framework lists nested paths without directory entries
+        TestBundle tb = new TestBundle().flat()
+                .add("WEB-INF/classes/Foo.class", "foo");
+        BundleEntryTree tree = BundleEntryTree.get(tb.getBundle());
+        Assert.assertTrue(tree.isDirectory("WEB-INF"));
+        Assert.assertTrue(tree.isDirectory("WEB-INF/classes/"));
+        Assert.assertEquals(Collections.singletonList("WEB-INF/classes/"),
+                tree.getSubDirectories("WEB-INF/"));
+        Assert.assertEquals(Collections.singletonList(
+                "WEB-INF/classes/Foo.class"), tree.getFiles());
+    }
+
+    @Test
+    public void testCachedResources() throws Exception {
+        File jar = TestJars.createJar(null, TestJars.entries(
+                "META-INF/a.taglib.xml", "a",
+                "com/acme/Foo.class", "foo"), false);
+        TestBundle tb = new TestBundle()
+                .header(org.osgi.framework.Constants.BUNDLE_CLASSPATH,
+                        ".,WEB-INF/classes,WEB-INF/lib/a.jar")
+                .addDirectory("META-INF/")
+                .add("META-INF/b.faces-config.xml", "b")
+                .addDirectory("WEB-INF/")
+                .addDirectory("WEB-INF/classes/")
+                .addDirectory("WEB-INF/classes/META-INF/")
+                .add("WEB-INF/classes/META-INF/c.taglib.xml", "c")
+                .addDirectory("WEB-INF/lib/")
+                .add("WEB-INF/lib/a.jar", TestJars.readBytes(jar));
+        jar.delete();
+        File dir = TestJars.createTempDir();
+        try {
+            ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 10,
+                    new TestDigestService());
+            List<String> expected = Arrays.asList(
+                    "|META-INF/b.faces-config.xml",
+                    "WEB-INF/classes/|META-INF/c.taglib.xml",
+                    "WEB-INF/lib/a.jar|META-INF/a.taglib.xml");
+            List<URI> uris = new ArrayList<URI>();
+            Assert.assertEquals(expected, getResources(tb, cache, uris));
+            Assert.assertEquals(1, tb.getStreamCalls("WEB-INF/lib/a.jar"));
+
+            // the jar is not opened again
+            List<URI> cachedUris = new ArrayList<URI>();
+            Assert.assertEquals(expected,
+                    getResources(tb, cache, cachedUris));
+            Assert.assertEquals(uris, cachedUris);
+            Assert.assertEquals(1, tb.getStreamCalls("WEB-INF/lib/a.jar"));
+            Assert.assertTrue(cachedUris.get(2).toString().startsWith(
+                    "embeddedjar:"));
+
+            // a new revision is scanned again
+            tb.update();
+            Assert.assertEquals(expected, getResources(tb, null, uris));
+            Assert.assertEquals(expected, getResources(tb, cache, uris));
+            Assert.assertEquals(3, tb.getStreamCalls("WEB-INF/lib/a.jar"));
+        } finally {
+            TestJars.delete(dir);
+        }
+    }
+
+    /**
+     * Get the META-INF xml resources of a bundle.
+     * @param tb the bundle
+     * @param cache the cache, {@code null} to not use a cache
+     * @param uris the collection to add the resource URIs to
+     * @return the bundle class path entry and the path of the resources
+     * separated by "|"
+     * @throws Exception if an error occurs
+     */
+    private static List<String> getResources(final TestBundle tb,
+            final ScanResultCache cache, final List<URI> uris)
+            throws Exception {
+
+        List<String> resources = new ArrayList<String>();
+        OSGiBundleArchive archive = new OSGiBundleArchive(tb.getBundle());
+        try {
+            for (BundleResource r : archive.getResources("META-INF/**.xml",
+                    cache)) {
+                resources.add(r.getArchivePath() + "|" + r.getPath());
+                uris.add(r.getUri());
+            }
+        } finally {
+            archive.close();
+        }
+        return resources;
+    }
+}
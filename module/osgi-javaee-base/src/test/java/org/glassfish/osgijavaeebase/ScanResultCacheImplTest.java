@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link ScanResultCacheImpl}.
+ */
+public class ScanResultCacheImplTest {
+
+    /**
+     * Name of the scan.
+     */
+    private static final String SCAN = "META-INF/**.xml";
+
+    /**
+     * The cache directory.
+     */
+    private File dir;
+
+    /**
+     * The digest service.
+     */
+    private TestDigestService digests;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = TestJars.createTempDir();
+        digests = new TestDigestService();
+    }
+
+    @After
+    public void tearDown() {
+        TestJars.delete(dir);
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 10, digests);
+        TestBundle tb = new TestBundle();
+        List<String> names = Arrays.asList("META-INF/a.taglib.xml",
+                "META-INF/b.faces-config.xml");
+        Assert.assertNull(cache.get(tb.getBundle(), "WEB-INF/lib/a.jar",
+                SCAN));
+        cache.put(tb.getBundle(), "WEB-INF/lib/a.jar", SCAN, names);
+        cache.put(tb.getBundle(), "WEB-INF/lib/b.jar", SCAN,
+                Collections.<String>emptyList());
+        Assert.assertEquals(names, cache.get(tb.getBundle(),
+                "WEB-INF/lib/a.jar", SCAN));
+        Assert.assertEquals(Collections.emptyList(), cache.get(
+                tb.getBundle(), "WEB-INF/lib/b.jar", SCAN));
+        Assert.assertNull(cache.get(tb.getBundle(), "WEB-INF/lib/a.jar",
+                "other"));
+        Assert.assertNull(cache.get(tb.getBundle(), "WEB-INF/lib/c.jar",
+                SCAN));
+    }
+
+    @Test
+    public void testReusedAfterRestart() throws Exception {
+        TestBundle tb = new TestBundle();
+        List<String> names = Collections.singletonList("META-INF/a.xml");
+        new ScanResultCacheImpl(dir, 10, digests).put(tb.getBundle(), "",
+                SCAN, names);
+
+        ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 10, digests);
+        cache.sweep();
+        Assert.assertEquals(1, cache.getRevisions().size());
+        Assert.assertEquals(names, cache.get(tb.getBundle(), "", SCAN));
+    }
+
+    @Test
+    public void testKeyedOnContent() throws Exception {
+        ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 10, digests);
+        TestBundle tb = new TestBundle();
+        List<String> names = Collections.singletonList("META-INF/a.xml");
+        digests.setDigest(tb.getBundle(), "same");
+        cache.put(tb.getBundle(), "", SCAN, names);
+
+        // updated with the same content
+        tb.update();
+        Assert.assertEquals(names, cache.get(tb.getBundle(), "", SCAN));
+
+        // updated with a different content
+        digests.setDigest(tb.getBundle(), "other");
+        Assert.assertNull(cache.get(tb.getBundle(), "", SCAN));
+    }
+
+    @Test
+    public void testKeyedOnFragments() throws Exception {
+        ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 10, digests);
+        TestBundle tb = new TestBundle();
+        List<String> names = Collections.singletonList("META-INF/a.xml");
+        cache.put(tb.getBundle(), "", SCAN, names);
+
+        // a fragment is attached
+        TestBundle fragment = new TestBundle();
+        tb.attach(fragment);
+        Assert.assertNull(cache.get(tb.getBundle(), "", SCAN));
+        cache.put(tb.getBundle(), "", SCAN, Collections.<String>emptyList());
+        Assert.assertEquals(Collections.emptyList(),
+                cache.get(tb.getBundle(), "", SCAN));
+
+        // the fragment is updated
+        fragment.update();
+        Assert.assertNull(cache.get(tb.getBundle(), "", SCAN));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        ScanResultCacheImpl cache = new ScanResultCacheImpl(dir, 2, digests);
+        List<String> names = Collections.singletonList("META-INF/a.xml");
+        TestBundle tb1 = new TestBundle();
+        TestBundle tb2 = new TestBundle();
+        TestBundle tb3 = new TestBundle();
+        cache.put(tb1.getBundle(), "", SCAN, names);
+        cache.put(tb2.getBundle(), "", SCAN, names);
+        // tb1 becomes the most recently used
+        Assert.assertNotNull(cache.get(tb1.getBundle(), "", SCAN));
+        cache.put(tb3.getBundle(), "", SCAN, names);
+
+        Assert.assertEquals(2, cache.getRevisions().size());
+        Assert.assertNull(cache.get(tb2.getBundle(), "", SCAN));
+        Assert.assertNotNull(cache.get(tb1.getBundle(), "", SCAN));
+        Assert.assertNotNull(cache.get(tb3.getBundle(), "", SCAN));
+
+        // the size is enforced on restart
+        ScanResultCacheImpl smaller = new ScanResultCacheImpl(dir, 1,
+                digests);
+        smaller.sweep();
+        Assert.assertEquals(1, smaller.getRevisions().size());
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Bundle} whose JAR File space is held in memory, for unit tests.
+ * Only the methods used to read the JAR File space, the headers, the wires
+ * of the attached fragments and the required wires are implemented. Like
+ * Felix for a jar without directory entries (FELIX-1210),
+ * {@link Bundle#getEntryPaths(String)} only lists the entries that are
+ * added, while {@link Bundle#getEntry(String)} also finds the implied
+ * directories. In flat mode, all the entries are listed under the root
+ * instead.
+ */
+final class TestBundle implements InvocationHandler {
+
+    /**
+     * Sequence used to allocate bundle ids.
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * The entries by path, directory paths end with "/".
+     */
+    private final Map<String, byte[]> entries = new TreeMap<String, byte[]>();
+
+    /**
+     * Number of calls to {@link Bundle#getEntry(String)} by path.
+     */
+    private final Map<String, Integer> entryCalls =
+            new TreeMap<String, Integer>();
+
+    /**
+     * Number of streams opened by path.
+     */
+    private final Map<String, Integer> streamCalls =
+            new TreeMap<String, Integer>();
+
+    /**
+     * The manifest headers.
+     */
+    private final Hashtable<String, String> headers =
+            new Hashtable<String, String>();
+
+    /**
+     * The attached fragments.
+     */
+    private final List<Bundle> fragments = new ArrayList<Bundle>();
+
+    /**
+     * The providers of the required wires, by namespace.
+     */
+    private final Map<String, List<Bundle>> providers =
+            new TreeMap<String, List<Bundle>>();
+
+    /**
+     * The bundle id.
+     */
+    private final long bundleId = SEQUENCE.incrementAndGet();
+
+    /**
+     * The last modified time.
+     */
+    private long lastModified = 1;
+
+    /**
+     * {@code true} to list all the entries under the root.
+     */
+    private boolean flat;
+
+    /**
+     * The bundle proxy.
+     */
+    private final Bundle bundle = (Bundle) Proxy.newProxyInstance(
+            Bundle.class.getClassLoader(), new Class<?>[]{Bundle.class},
+            this);
+
+    /**
+     * Get the bundle.
+     * @return Bundle
+     */
+    Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Add an entry.
+     * @param path the entry path, ending with "/" for a directory
+     * @param content the content
+     * @return this
+     */
+    TestBundle add(final String path, final String content) {
+        try {
+            return add(path, content.getBytes("UTF-8"));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Add an entry.
+     * @param path the entry path
+     * @param content the content
+     * @return this
+     */
+    TestBundle add(final String path, final byte[] content) {
+        entries.put(path, content);
+        return this;
+    }
+
+    /**
+     * Add a directory entry.
+     * @param path the directory path, ending with "/"
+     * @return this
+     */
+    TestBundle addDirectory(final String path) {
+        entries.put(path, new byte[0]);
+        return this;
+    }
+
+    /**
+     * Set a manifest header.
+     * @param name the header name
+     * @param value the header value
+     * @return this
+     */
+    TestBundle header(final String name, final String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Attach a fragment.
+     * @param fragment the fragment
+     * @return this
+     */
+    TestBundle attach(final TestBundle fragment) {
+        fragments.add(fragment.getBundle());
+        return this;
+    }
+
+    /**
+     * Wire this bundle to a provider.
+     * @param namespace the namespace of the wire
+     * @param provider the provider
+     * @return this
+     */
+    TestBundle wire(final String namespace, final TestBundle provider) {
+        List<Bundle> bundles = providers.get(namespace);
+        if (bundles == null) {
+            bundles = new ArrayList<Bundle>();
+            providers.put(namespace, bundles);
+        }
+        bundles.add(provider.getBundle());
+        return this;
+    }
+
+    /**
+     * List all the entries under the root.
+     * @return this
+     */
+    TestBundle flat() {
+        flat = true;
+        return this;
+    }
+
+    /**
+     * Simulate an update of the bundle.
+     */
+    void update() {
+        lastModified++;
+    }
+
+    /**
+     * Get the number of calls to {@link Bundle#getEntry(String)}.
+     * @param path the entry path
+     * @return number of calls
+     */
+    int getEntryCalls(final String path) {
+        Integer calls = entryCalls.get(path);
+        return calls == null ? 0 : calls;
+    }
+
+    /**
+     * Get the number of streams opened from the URL of an entry.
+     * @param path the entry path
+     * @return number of calls
+     */
+    synchronized int getStreamCalls(final String path) {
+        Integer calls = streamCalls.get(path);
+        return calls == null ? 0 : calls;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method,
+            final Object[] args) throws Throwable {
+
+        String name = method.getName();
+        if ("getBundleId".equals(name)) {
+            return bundleId;
+        } else if ("getLastModified".equals(name)) {
+            return lastModified;
+        } else if ("getLocation".equals(name)) {
+            return "test:" + bundleId;
+        } else if ("getSymbolicName".equals(name)) {
+            return "test.bundle" + bundleId;
+        } else if ("getHeaders".equals(name)) {
+            return new Hashtable<String, String>(headers);
+        } else if ("adapt".equals(name)) {
+            if (BundleWiring.class.equals(args[0])) {
+                return getWiring();
+            }
+            return null;
+        } else if ("getEntry".equals(name)) {
+            return getEntry((String) args[0]);
+        } else if ("getEntryPaths".equals(name)) {
+            return getEntryPaths((String) args[0]);
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("toString".equals(name)) {
+            return "TestBundle[" + bundleId + "]";
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * Implements {@link Bundle#adapt(Class)} for {@link BundleWiring}, only
+     * the wires of the attached fragments and the required wires are
+     * implemented.
+     * @return BundleWiring
+     */
+    private BundleWiring getWiring() {
+        return proxy(BundleWiring.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                    final Object[] args) {
+
+                String name = method.getName();
+                if ("getBundle".equals(name)) {
+                    return bundle;
+                } else if ("getProvidedWires".equals(name)) {
+                    List<BundleWire> wires = new ArrayList<BundleWire>();
+                    if (BundleRevision.HOST_NAMESPACE.equals(args[0])) {
+                        for (Bundle fragment : fragments) {
+                            wires.add(getWire(fragment, bundle));
+                        }
+                    }
+                    return wires;
+                } else if ("getRequiredWires".equals(name)) {
+                    List<BundleWire> wires = new ArrayList<BundleWire>();
+                    List<Bundle> bundles = providers.get((String) args[0]);
+                    if (bundles != null) {
+                        for (Bundle provider : bundles) {
+                            wires.add(getWire(bundle, provider));
+                        }
+                    }
+                    return wires;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * Create a wire, only the bundles of its wirings are implemented.
+     * @param requirer the requirer bundle
+     * @param provider the provider bundle
+     * @return BundleWire
+     */
+    private static BundleWire getWire(final Bundle requirer,
+            final Bundle provider) {
+
+        final BundleWiring requirerWiring = getBundleWiring(requirer);
+        final BundleWiring providerWiring = getBundleWiring(provider);
+        return proxy(BundleWire.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                    final Object[] args) {
+
+                if ("getRequirerWiring".equals(method.getName())) {
+                    return requirerWiring;
+                } else if ("getProviderWiring".equals(method.getName())) {
+                    return providerWiring;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Create a wiring, only its bundle is implemented.
+     * @param bnd the bundle
+     * @return BundleWiring
+     */
+    private static BundleWiring getBundleWiring(final Bundle bnd) {
+        return proxy(BundleWiring.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                    final Object[] args) {
+
+                if ("getBundle".equals(method.getName())) {
+                    return bnd;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Create a proxy.
+     * @param <T> the proxy type
+     * @param type the interface implemented by the proxy
+     * @param handler the invocation handler
+     * @return the proxy
+     */
+    private static <T> T proxy(final Class<T> type,
+            final InvocationHandler handler) {
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Implements {@link Bundle#getEntry(String)}.
+     * @param path the entry path
+     * @return URL, {@code null} if not found
+     */
+    private URL getEntry(final String path) {
+        final String entry = strip(path);
+        entryCalls.put(entry, getEntryCalls(entry) + 1);
+        boolean found = entries.containsKey(entry);
+        if (!found && entry.endsWith("/")) {
+            for (String e : entries.keySet()) {
+                if (e.startsWith(entry)) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        try {
+            // the host is the bundle id, like Felix and Equinox
+            return new URL("test", bundleId + ".0", -1, "/" + entry,
+                    new URLStreamHandler() {
+                @Override
+                protected URLConnection openConnection(final URL u) {
+                    return new URLConnection(u) {
+                        @Override
+                        public void connect() {
+                        }
+
+                        @Override
+                        public InputStream getInputStream()
+                                throws IOException {
+                            byte[] content = entries.get(entry);
+                            if (content == null) {
+                                throw new IOException(entry);
+                            }
+                            synchronized (TestBundle.this) {
+                                streamCalls.put(entry,
+                                        getStreamCalls(entry) + 1);
+                            }
+                            return new ByteArrayInputStream(content);
+                        }
+                    };
+                }
+            });
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Implements {@link Bundle#getEntryPaths(String)}.
+     * @param path the directory path
+     * @return the paths of the entries directly under the directory, or all
+     * the entries under the directory in flat mode, {@code null} if none
+     */
+    private Object getEntryPaths(final String path) {
+        String dir = strip(path);
+        if (dir.length() > 0 && !dir.endsWith("/")) {
+            dir = dir + "/";
+        }
+        List<String> paths = new ArrayList<String>();
+        for (String e : entries.keySet()) {
+            if (e.length() > dir.length() && e.startsWith(dir)) {
+                int idx = e.indexOf('/', dir.length());
+                if (flat || idx == -1 || idx == e.length() - 1) {
+                    paths.add(e);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            return null;
+        }
+        return Collections.enumeration(paths);
+    }
+
+    /**
+     * Remove the leading "/" of a path.
+     * @param path the path
+     * @return the path without leading "/"
+     */
+    private static String strip(final String path) {
+        if (path.startsWith("/")) {
+            return path.substring(1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BundleContext} for unit tests. Only the framework properties, the
+ * data area and the lookup of the installed bundles by id are implemented,
+ * the bundle listeners are ignored.
+ */
+final class TestBundleContext implements InvocationHandler {
+
+    /**
+     * The framework properties.
+     */
+    private final Map<String, String> properties =
+            new HashMap<String, String>();
+
+    /**
+     * The installed bundles by id.
+     */
+    private final Map<Long, Bundle> bundles = new HashMap<Long, Bundle>();
+
+    /**
+     * The data area, {@code null} if not supported.
+     */
+    private File dataDir;
+
+    /**
+     * The bundle context proxy.
+     */
+    private final BundleContext context = (BundleContext) Proxy
+            .newProxyInstance(BundleContext.class.getClassLoader(),
+                    new Class<?>[]{BundleContext.class}, this);
+
+    /**
+     * Get the bundle context.
+     * @return BundleContext
+     */
+    BundleContext getContext() {
+        return context;
+    }
+
+    /**
+     * Set a framework property.
+     * @param name the property name
+     * @param value the property value
+     * @return this
+     */
+    TestBundleContext property(final String name, final String value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    /**
+     * Set the data area.
+     * @param dir the directory
+     * @return this
+     */
+    TestBundleContext dataDir(final File dir) {
+        dataDir = dir;
+        return this;
+    }
+
+    /**
+     * Install a bundle.
+     * @param bundle the bundle
+     * @return this
+     */
+    TestBundleContext install(final Bundle bundle) {
+        bundles.put(bundle.getBundleId(), bundle);
+        return this;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method,
+            final Object[] args) throws Throwable {
+
+        String name = method.getName();
+        if ("getProperty".equals(name)) {
+            return properties.get((String) args[0]);
+        } else if ("getBundle".equals(name) && args != null
+                && args.length == 1 && args[0] instanceof Long) {
+            return bundles.get((Long) args[0]);
+        } else if ("getDataFile".equals(name)) {
+            if (dataDir == null) {
+                return null;
+            }
+            return new File(dataDir, (String) args[0]);
+        } else if ("addBundleListener".equals(name)
+                || "removeBundleListener".equals(name)) {
+            return null;
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("toString".equals(name)) {
+            return "TestBundleContext";
+        }
+        throw new UnsupportedOperationException(name);
+    }
+}
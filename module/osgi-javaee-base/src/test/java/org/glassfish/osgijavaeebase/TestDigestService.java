@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.osgi.framework.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A {@link BundleDigestService} for unit tests. The digest of a bundle is
+ * derived from its id and last modified time, unless set explicitly to
+ * simulate an update with the same content.
+ */
+final class TestDigestService implements BundleDigestService {
+
+    /**
+     * The digests set explicitly, by bundle.
+     */
+    private final Map<Bundle, String> digests =
+            new ConcurrentHashMap<Bundle, String>();
+
+    /**
+     * Set the digest of a bundle.
+     * @param bundle the bundle
+     * @param digest the digest
+     */
+    void setDigest(final Bundle bundle, final String digest) {
+        digests.put(bundle, digest);
+    }
+
+    @Override
+    public String getDigest(final Bundle bundle) {
+        String digest = digests.get(bundle);
+        if (digest != null) {
+            return digest;
+        }
+        return bundle.getBundleId() + "-" + bundle.getLastModified();
+    }
+
+    @Override
+    public Future<String> requestDigest(final Bundle bundle) {
+        FutureTask<String> task = new FutureTask<String>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, getDigest(bundle));
+        task.run();
+        return task;
+    }
+
+    @Override
+    public String getCachedDigest(final Bundle bundle) {
+        return getDigest(bundle);
+    }
+}
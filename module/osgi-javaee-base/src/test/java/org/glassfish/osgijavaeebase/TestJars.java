@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Helpers to create and read jar files in unit tests.
+ */
+final class TestJars {
+
+    /**
+     * Cannot be instanciated.
+     */
+    private TestJars() {
+    }
+
+    /**
+     * Make the content of a jar.
+     * @param namesAndContents entry names followed by their content, in
+     * order, directory names end with "/"
+     * @return the content by entry name
+     * @throws IOException if an error occurs
+     */
+    static Map<String, byte[]> entries(final String... namesAndContents)
+            throws IOException {
+
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            entries.put(namesAndContents[i],
+                    namesAndContents[i + 1].getBytes("UTF-8"));
+        }
+        return entries;
+    }
+
+    /**
+     * Create a temporary jar file.
+     * @param mf the manifest, {@code null} for none
+     * @param entries the content by entry name, in order, directory names end
+     * with "/"
+     * @param stored {@code true} to store the entries, {@code false} to
+     * deflate them
+     * @return the jar file, to be deleted by the caller
+     * @throws IOException if an error occurs
+     */
+    static File createJar(final Manifest mf, final Map<String, byte[]> entries,
+            final boolean stored) throws IOException {
+
+        File jar = File.createTempFile("testjar", ".jar");
+        FileOutputStream fos = new FileOutputStream(jar);
+        try {
+            ZipOutputStream zos;
+            if (mf != null) {
+                zos = new JarOutputStream(fos, mf);
+            } else {
+                zos = new ZipOutputStream(fos);
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                byte[] content = entry.getValue();
+                ZipEntry ze = new ZipEntry(entry.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(content.length);
+                    ze.setCompressedSize(content.length);
+                    ze.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(ze);
+                zos.write(content);
+                zos.closeEntry();
+            }
+            zos.close();
+        } finally {
+            fos.close();
+        }
+        return jar;
+    }
+
+    /**
+     * Count the copies of embedded jars spooled by {@link EmbeddedJarIndex}
+     * in the temporary directory.
+     * @return number of files
+     */
+    static int countSpooledJars() {
+        int count = 0;
+        String[] names = new File(System.getProperty("java.io.tmpdir"))
+                .list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("embeddedjar")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create a temporary directory.
+     * @return the directory, to be deleted by the caller
+     * @throws IOException if an error occurs
+     */
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("testdir", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Delete a file or a directory recursively.
+     * @param file the file or directory
+     */
+    static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Write a file, creating its parent directories.
+     * @param file the file
+     * @param content the content encoded as UTF-8
+     * @throws IOException if an error occurs
+     */
+    static void write(final File file, final String content)
+            throws IOException {
+
+        file.getParentFile().mkdirs();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Read a stream fully.
+     * @param in the stream, closed on return
+     * @return the content decoded as UTF-8
+     * @throws IOException if an error occurs
+     */
+    static String read(final InputStream in) throws IOException {
+        return new String(readBytes(in), "UTF-8");
+    }
+
+    /**
+     * Read a file fully.
+     * @param file the file
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    static byte[] readBytes(final File file) throws IOException {
+        return readBytes(new FileInputStream(file));
+    }
+
+    /**
+     * Read a stream fully.
+     * @param in the stream, closed on return
+     * @return the content
+     * @throws IOException if an error occurs
+     */
+    static byte[] readBytes(final InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package org.glassfish.osgijavaeebase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests {@link TombstoneReaper}.
+ */
+public class TombstoneReaperTest {
+
+    /**
+     * Maximum time to wait for the tombstones to be deleted.
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * The directory holding the directories to delete.
+     */
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = TestJars.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        TombstoneReaper.shutdown();
+        TestJars.delete(root);
+    }
+
+    /**
+     * Create a directory with some content.
+     * @param name the directory name
+     * @return the directory
+     * @throws IOException if an error occurs
+     */
+    private File dir(final String name) throws IOException {
+        File dir = new File(root, name);
+        TestJars.write(new File(dir, "WEB-INF/web.xml"), "web");
+        TestJars.write(new File(dir, "index.html"), "hello");
+        return dir;
+    }
+
+    /**
+     * Wait until the directory does not have any file left.
+     * @throws InterruptedException if interrupted
+     */
+    private void awaitEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (root.list().length > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, root.list().length);
+    }
+
+    /**
+     * Wait until the only file left is the given one.
+     * @param name the name of the file to keep
+     * @throws InterruptedException if interrupted
+     */
+    private void awaitEmptyExcept(final String name)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (root.list().length > 1
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Arrays.asList(name), Arrays.asList(root.list()));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        File dir = dir("app");
+        Assert.assertTrue(TombstoneReaper.delete(dir));
+        // the name is free right away
+        Assert.assertFalse(dir.exists());
+        Assert.assertTrue(dir("app").isDirectory());
+        awaitEmptyExcept("app");
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        dir("app.1-1" + TombstoneReaper.TOMBSTONE_SUFFIX);
+        TestJars.write(new File(root, "file.2-2"
+                + TombstoneReaper.TOMBSTONE_SUFFIX), "left");
+        dir("app");
+        TombstoneReaper.sweep(root);
+        awaitEmptyExcept("app");
+    }
+
+    @Test
+    public void testDeleteAfterShutdown() throws Exception {
+        Assert.assertTrue(TombstoneReaper.delete(dir("app1")));
+        TombstoneReaper.shutdown();
+        // the next deletion starts a new thread
+        Assert.assertTrue(TombstoneReaper.delete(dir("app2")));
+        TombstoneReaper.sweep(root);
+        awaitEmpty();
+    }
+}
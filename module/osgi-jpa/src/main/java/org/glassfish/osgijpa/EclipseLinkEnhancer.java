@@ -23,6 +23,7 @@ import org.glassfish.osgijavaeebase.OSGiBundleArchive;
 import org.glassfish.osgijavaeebase.BundleClassLoader;
 import org.glassfish.osgijavaeebase.JarHelper;
 import org.glassfish.osgijavaeebase.OSGiArchiveHandler;
+import org.glassfish.api.deployment.archive.ReadableArchive;
 import org.glassfish.api.deployment.archive.WritableArchive;
 import org.glassfish.internal.api.Globals;
 import org.glassfish.osgijpa.dd.Persistence;
@@ -72,16 +73,19 @@ final class EclipseLinkEnhancer implements JPAEnhancer {
         // deployment.
         // This is because, eclipselink enhancer can only scan file system
         // artifacts.
-        File explodedDir = makeFile(bnd);
+        final File bundleFile = makeFile(bnd);
         boolean dirDeployment;
-        if (explodedDir != null) {
-            dirDeployment = explodedDir.isDirectory();
+        if (bundleFile != null) {
+            dirDeployment = bundleFile.isDirectory();
         } else {
             dirDeployment = false;
         }
+        File explodedDir = null;
         try {
-            if (!dirDeployment) {
-                explodedDir = explode(bnd);
+            if (dirDeployment) {
+                explodedDir = bundleFile;
+            } else {
+                explodedDir = explode(bnd, bundleFile);
             }
 
             // We need to make a copy of the exploded direactory where the
@@ -120,7 +124,7 @@ final class EclipseLinkEnhancer implements JPAEnhancer {
                 }
             });
         } finally {
-            if (!dirDeployment) {
+            if (!dirDeployment && explodedDir != null) {
                 if (FileUtils.whack(explodedDir)) {
                     LOGGER.logp(Level.INFO, "EclipseLinkEnhancer",
                             "enhance", "Deleted {0} ",
@@ -218,10 +222,17 @@ final class EclipseLinkEnhancer implements JPAEnhancer {
      * @return File
      */
     public static File makeFile(final Bundle bnd) {
+        OSGiBundleArchive archive = new OSGiBundleArchive(bnd);
         try {
-            return new File(new OSGiBundleArchive(bnd).getURI());
+            return new File(archive.getURI());
         } catch (Exception e) {
             // Ignore if we can't convert
+        } finally {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                // ignore
+            }
         }
         return null;
     }
@@ -229,15 +240,29 @@ final class EclipseLinkEnhancer implements JPAEnhancer {
     /**
      * Explode the given bundle to a directory.
      * @param bnd bundle
+     * @param bundleFile the jar file backing the bundle, or {@code null} if
+     * not known
      * @return File
      * @throws IOException if an error occurs
      */
-    private File explode(final Bundle bnd) throws IOException {
+    private File explode(final Bundle bnd, final File bundleFile)
+            throws IOException {
+
         File explodedDir = makeTmpDir("osgiapp");
         WritableArchive targetArchive = archiveFactory
                 .createArchive(explodedDir);
-        new OSGiArchiveHandler().expand(new OSGiBundleArchive(bnd),
-                targetArchive, null);
+        // Read straight from the jar when the bundle is backed by one.
+        ReadableArchive source;
+        if (bundleFile != null && bundleFile.isFile()) {
+            source = archiveFactory.openArchive(bundleFile);
+        } else {
+            source = new OSGiBundleArchive(bnd);
+        }
+        try {
+            new OSGiArchiveHandler().expand(source, targetArchive, null);
+        } finally {
+            source.close();
+        }
         LOGGER.logp(Level.INFO, "EclipseLinkEnhancer", "explode",
                 "Exploded bundle {0} at {1} ", new Object[]{bnd, explodedDir});
         return explodedDir;
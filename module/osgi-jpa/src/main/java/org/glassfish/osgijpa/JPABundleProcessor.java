@@ -22,7 +22,9 @@ import org.glassfish.osgijpa.dd.PersistenceXMLReaderWriter;
 import org.glassfish.osgijpa.dd.Persistence;
 import org.glassfish.osgijavaeebase.BundleResource;
 import org.glassfish.osgijavaeebase.OSGiBundleArchive;
+import org.glassfish.osgijavaeebase.ScanResultCache;
 import org.osgi.framework.BundleReference;
+import org.osgi.framework.ServiceReference;
 
 import java.io.Serializable;
 import java.net.URL;
@@ -99,7 +101,9 @@ final class JPABundleProcessor implements Serializable {
     }
 
     /**
-     * Discover persistence XML files.
+     * Discover persistence XML files. The bundle class path entries holding
+     * one are kept in the {@link ScanResultCache}, so that the jars of a
+     * bundle are not opened again for the same content.
      */
     void discoverPxmls() {
         assert (persistenceXMLs == null);
@@ -107,8 +111,16 @@ final class JPABundleProcessor implements Serializable {
         if (isFragment()) {
             return;
         }
-        for (BundleResource r : new OSGiBundleArchive(getBundle())) {
-            if (PXML_PATH.equals(r.getPath())) {
+        BundleContext ctx = getBundleContext();
+        ServiceReference ref = ctx.getServiceReference(
+                ScanResultCache.class.getName());
+        ScanResultCache cache = null;
+        if (ref != null) {
+            cache = (ScanResultCache) ctx.getService(ref);
+        }
+        OSGiBundleArchive archive = new OSGiBundleArchive(getBundle());
+        try {
+            for (BundleResource r : archive.getResources(PXML_PATH, cache)) {
                 URL pxmlURL;
                 try {
                     pxmlURL = r.getUri().toURL();
@@ -138,6 +150,16 @@ final class JPABundleProcessor implements Serializable {
                     }
                 }
             }
+        } finally {
+            try {
+                archive.close();
+            } catch (IOException ex) {
+                LOGGER.logp(Level.FINE, "JPABundleProcessor",
+                        "discoverPxmls", "Failed to close archive", ex);
+            }
+            if (cache != null) {
+                ctx.ungetService(ref);
+            }
         }
     }
 
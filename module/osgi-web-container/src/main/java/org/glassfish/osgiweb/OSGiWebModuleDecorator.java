@@ -21,11 +21,15 @@ import org.glassfish.hk2.classmodel.reflect.Types;
 import org.glassfish.web.loader.WebappClassLoader;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.ServiceReference;
 import org.glassfish.osgijavaeebase.OSGiBundleArchive;
 import org.glassfish.osgijavaeebase.BundleResource;
+import org.glassfish.osgijavaeebase.ScanResultCache;
 import com.sun.enterprise.web.WebModule;
 import com.sun.enterprise.web.WebModuleDecorator;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -82,6 +86,11 @@ public final class OSGiWebModuleDecorator implements WebModuleDecorator {
     private static final Logger LOGGER = Logger.getLogger(
             OSGiWebModuleDecorator.class.getPackage().getName());
 
+    /**
+     * Pattern of the JSF configuration resources.
+     */
+    private static final String JSF_CONFIGS = "META-INF/**.xml";
+
     /**
      * Flag to indicate if the module is active.
      */
@@ -217,6 +226,10 @@ public final class OSGiWebModuleDecorator implements WebModuleDecorator {
      * resource situation as reported in
      * https://glassfish.dev.java.net/issues/show_bug.cgi?id=12914, we only find
      * faces config resources that ends with .faces-config.xml.
+     *
+     * The resources found in each bundle class path entry are kept in the
+     * {@link ScanResultCache}, so that the jars of a bundle are not opened
+     * again when it is deployed again with the same content.
      * @param bnd application bundle
      * @param facesConfigs faces config
      * @param faceletConfigs facelet config
@@ -225,10 +238,18 @@ public final class OSGiWebModuleDecorator implements WebModuleDecorator {
             final Collection<URI> facesConfigs,
             final Collection<URI> faceletConfigs) {
 
+        BundleContext ctx = getBundle().getBundleContext();
+        ServiceReference ref = ctx.getServiceReference(
+                ScanResultCache.class.getName());
+        ScanResultCache cache = null;
+        if (ref != null) {
+            cache = (ScanResultCache) ctx.getService(ref);
+        }
         OSGiBundleArchive archive = new OSGiBundleArchive(bnd);
-        for (BundleResource r : archive) {
-            final String path = r.getPath();
-            if (path.startsWith("META-INF/")) {
+        try {
+            for (BundleResource r : archive.getResources(JSF_CONFIGS,
+                    cache)) {
+                final String path = r.getPath();
                 final URI uri = r.getUri();
                 if (path.endsWith(".taglib.xml")) {
                     faceletConfigs.add(uri);
@@ -238,9 +259,27 @@ public final class OSGiWebModuleDecorator implements WebModuleDecorator {
                     facesConfigs.add(uri);
                 }
             }
+        } finally {
+            try {
+                archive.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Failed to close archive", ex);
+            }
+            if (cache != null) {
+                ctx.ungetService(ref);
+            }
         }
     }
 
+    /**
+     * Get the bundle of this module.
+     * @return Bundle
+     */
+    private Bundle getBundle() {
+        return BundleReference.class.cast(getClass()
+                .getClassLoader()).getBundle();
+    }
+
     /**
      * Scan the JSF annotations for a given module.
      * @param wm the GlassFish web module
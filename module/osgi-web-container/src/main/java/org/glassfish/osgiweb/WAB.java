@@ -75,30 +75,45 @@ public final class WAB extends OSGiJavaEEArchive {
     protected synchronized void init() {
         List<Bundle> bundles = new ArrayList(Arrays.asList(getFragments()));
         bundles.add(0, getHost());
+        // The first bundle having an entry wins, so add them in reverse order
+        Collections.reverse(bundles);
         for (Bundle b : bundles) {
             final OSGiBundleArchive archive = getArchive(b);
-            for (final String entry : Collections.list(archive.entries())) {
-                if (getEntries().containsKey(entry)) {
-                    continue; // encountering second time - ignore
+            addEntrySource(new ArchiveEntrySource("") {
+                @Override
+                protected Archive openArchive() {
+                    return archive;
                 }
-                ArchiveEntry archiveEntry = new ArchiveEntry() {
-                    @Override
-                    public String getName() {
-                        return entry;
-                    }
 
-                    @Override
-                    public URI getURI() throws URISyntaxException {
-                        return archive.getEntryURI(entry);
-                    }
+                @Override
+                protected ArchiveEntry createEntry(final Archive subArchive,
+                        final String name, final String subEntry) {
 
-                    @Override
-                    public InputStream getInputStream() throws IOException {
-                        return archive.getEntry(entry);
-                    }
-                };
-                getEntries().put(entry, archiveEntry);
-            }
+                    return new ArchiveEntry() {
+                        @Override
+                        public String getName() {
+                            return name;
+                        }
+
+                        @Override
+                        public URI getURI() throws URISyntaxException {
+                            return archive.getEntryURI(subEntry);
+                        }
+
+                        @Override
+                        public InputStream getInputStream()
+                                throws IOException {
+
+                            return archive.getEntry(subEntry);
+                        }
+
+                        @Override
+                        public long getSize() {
+                            return archive.getEntrySize(subEntry);
+                        }
+                    };
+                }
+            });
         }
 
         final EffectiveBCP bcp = getEffectiveBCP();
@@ -107,22 +122,27 @@ public final class WAB extends OSGiJavaEEArchive {
 
             @Override
             public void visitDir(final DirBCPEntry bcpEntry) {
-                try {
-                    // do special processing if the dir name is not
-                    // WEB-INF/classes/
-                    if (bcpEntry.getName().equals(CLASSES_DIR)) {
-                        return;
+                // do special processing if the dir name is not
+                // WEB-INF/classes/
+                if (bcpEntry.getName().equals(CLASSES_DIR)) {
+                    return;
+                }
+                addEntrySource(new ArchiveEntrySource(CLASSES_DIR) {
+                    @Override
+                    protected Archive openArchive() throws IOException {
+                        return getArchive(bcpEntry.getBundle())
+                                .getSubArchive(bcpEntry.getName());
                     }
-                    final Archive subArchive =
-                            getArchive(bcpEntry.getBundle())
-                            .getSubArchive(bcpEntry.getName());
-                    for (final String subEntry
-                            : Collections.list(subArchive.entries())) {
 
-                        ArchiveEntry archiveEntry = new ArchiveEntry() {
+                    @Override
+                    protected ArchiveEntry createEntry(
+                            final Archive subArchive, final String name,
+                            final String subEntry) {
+
+                        return new ArchiveEntry() {
                             @Override
                             public String getName() {
-                                return CLASSES_DIR + subEntry;
+                                return name;
                             }
 
                             @Override
@@ -142,13 +162,16 @@ public final class WAB extends OSGiJavaEEArchive {
                                     throw new RuntimeException(e);
                                 }
                             }
+
+                            @Override
+                            public long getSize() {
+                                return getArchive(bcpEntry.getBundle())
+                                        .getEntrySize(bcpEntry.getName()
+                                                + subEntry);
+                            }
                         };
-                        getEntries().put(archiveEntry.getName(), archiveEntry);
                     }
-                } catch (IOException e) {
-                    // TODO(Sahoo): Proper Exception Handling
-                    throw new RuntimeException(e);
-                }
+                });
             }
 
             @Override
@@ -169,7 +192,7 @@ public final class WAB extends OSGiJavaEEArchive {
                 if (bcpEntry.getName().equals(DOT)) {
                     final String newJarName = LIB_DIR + "Bundle"
                             + bcpEntry.getBundle().getBundleId() + JAR_EXT;
-                    getEntries().put(newJarName, new ArchiveEntry() {
+                    addEntrySource(new SingleEntrySource(new ArchiveEntry() {
                         @Override
                         public String getName() {
                             return newJarName;
@@ -187,12 +210,24 @@ public final class WAB extends OSGiJavaEEArchive {
                             return getArchive(bcpEntry.getBundle())
                                     .getInputStream();
                         }
-                    });
+
+                        @Override
+                        public long getSize() {
+                            // the size of the jar that is served, which is
+                            // synthesized if the bundle is not a jar file
+                            try {
+                                return getArchive(bcpEntry.getBundle())
+                                        .getJarSize();
+                            } catch (IOException e) {
+                                return 0;
+                            }
+                        }
+                    }));
                 } else {
                     final String newJarName = LIB_DIR + "Bundle"
                             + bcpEntry.getBundle().getBundleId() + "-"
                             + bcpEntry.getName().replace('/', '-') + JAR_EXT;
-                    getEntries().put(newJarName, new ArchiveEntry() {
+                    addEntrySource(new SingleEntrySource(new ArchiveEntry() {
                         @Override
                         public String getName() {
                             return newJarName;
@@ -215,7 +250,13 @@ public final class WAB extends OSGiJavaEEArchive {
                                 throw new RuntimeException(e);
                             }
                         }
-                    });
+
+                        @Override
+                        public long getSize() {
+                            return getArchive(bcpEntry.getBundle())
+                                    .getEntrySize(bcpEntry.getName());
+                        }
+                    }));
                 }
             }
         });
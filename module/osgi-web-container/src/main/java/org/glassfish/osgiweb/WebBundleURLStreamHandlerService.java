@@ -24,7 +24,6 @@ import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
@@ -240,21 +239,14 @@ public final class WebBundleURLStreamHandlerService
          */
         private final JarOutputStream jos;
 
-        /**
-         * Buffer.
-         */
-        private ByteBuffer buffer;
-
         /**
          * Create a new instance.
          * @param is input stream
          * @param os output stream
          */
-        @SuppressWarnings("checkstyle:magicnumber")
         JarVisitorImpl(final JarInputStream is, final JarOutputStream os) {
             this.jis = is;
             this.jos = os;
-            buffer = ByteBuffer.allocate(1024);
         }
 
         @Override
@@ -278,7 +270,7 @@ public final class WebBundleURLStreamHandlerService
                         "visit", "Writing jar entry = {0}",
                         new Object[]{je});
                 jos.putNextEntry(je);
-                JarHelper.copy(jis, jos, buffer);
+                JarHelper.copy(jis, jos);
                 jos.closeEntry();
             } catch (IOException e) {
                 // TODO(Sahoo): Proper Exception Handling